@@ -530,7 +530,8 @@ public abstract class Corpus implements Cloneable {
 		
 		this.calculateDimensionsToKeep();
 		
-		this.space.calculate();
+		if(this.parameters.isCalculateSemanticSpace())
+			this.space.calculate();
 		
 		this.processingTime = System.currentTimeMillis() - this.processingTime;
 		
@@ -659,9 +660,7 @@ public abstract class Corpus implements Cloneable {
 		
 		Corpus projectedCorpus = null;
 		
-		if(this.space.getSk() == null ||
-				this.space.getUk() == null ||
-				this.space.getVk() == null) {
+		if(!this.space.isCalculated()) {
 			logger.debug("Corpus " + this.luceneQuery + " will be used to project, but hasn't been calculated, calculating...");
 			this.space.calculate();
 		}
@@ -715,16 +714,32 @@ public abstract class Corpus implements Cloneable {
 		projectedCorpus.termDocs = m;
 		projectedCorpus.space = (SemanticSpace) this.space.clone();
 		projectedCorpus.getSemanticSpace().setCorpus(projectedCorpus);
-		Matrix s = projectedCorpus.getSemanticSpace().getSk();
-		Matrix u = projectedCorpus.getSemanticSpace().getUk();
+		SemanticSpace projectedSpace = projectedCorpus.getSemanticSpace();
+		Matrix s = projectedSpace.getSk();
 
-		Matrix ss = new Matrix(s.getRowDimension(), s.getRowDimension());
+		double[] ss = new double[s.getRowDimension()];
 		for(int i=0;i<s.getRowDimension();i++) {
 			if(s.get(i, i) != 0)
-				ss.set(i, i, 1/s.get(i, i));
+				ss[i] = 1/s.get(i, i);
+		}
+		// Theoretically this produces V = M' * U * S^-1, the rows of U are
+		// read one by one from the space instead of copying U
+		double[][] md = m.getArray();
+		double[][] vd = new double[m.getColumnDimension()][ss.length];
+		double[] u = null;
+		for(int i=0;i<m.getRowDimension();i++) {
+			u = projectedSpace.getTermVector(i, u);
+			for(int j=0;j<m.getColumnDimension();j++) {
+				if(md[i][j] == 0)
+					continue;
+				for(int d=0;d<ss.length;d++)
+					vd[j][d] += md[i][j] * u[d];
+			}
 		}
-		// Theoretically this produces V
-		Matrix v = m.transpose().times(u).times(ss);
+		for(int j=0;j<vd.length;j++)
+			for(int d=0;d<ss.length;d++)
+				vd[j][d] *= ss[d];
+		Matrix v = new Matrix(vd, vd.length, ss.length);
 		
 		projectedCorpus.space.setVk(v);
 		
@@ -99,6 +99,9 @@ public class CorpusParameters implements Cloneable {
 		params.setDimensionalityReduction(DimensionalityReduction.valueOf(parts[4]));
 		params.setDimensionalityReductionThreshold(Double.parseDouble(parts[5]));
 		params.setLanczosSVD(parts[6].equals("L"));
+		params.setRandomIndexing(parts[6].startsWith("R"));
+		if(parts[6].startsWith("R") && parts[6].length() > 1)
+			params.setRandomIndexingDimensions(Integer.parseInt(parts[6].substring(1)));
 		if(parts.length > 7) {
 			params.setNormalizeDocuments(parts[7].equals("Y"));
 //			params.setCalculateSemanticSpace(parts[8].equals("Y"));
@@ -128,6 +131,18 @@ public class CorpusParameters implements Cloneable {
 	private double dimensionalityReductionThreshold = 20;
 	/** If the semantic space should use the Lanczos SVD */
 	private boolean lanczosSVD = false;
+	/** If the semantic space should use random indexing instead of an SVD */
+	private boolean randomIndexing = false;
+	/** The size of the vectors when using random indexing */
+	private int randomIndexingDimensions = 500;
+	/** Memory in MB the SVD can use, 0 for the memory left in the heap */
+	private int memoryBudget = 0;
+	/** If the factors of the semantic space are stored in single precision */
+	private boolean singlePrecision = false;
+	/** If the cached factors of the semantic space are mapped from files */
+	private boolean mappedStorage = false;
+	/** If the semantic space is calculated when the corpus is loaded */
+	private boolean calculateSemanticSpace = true;
 	@Override
 	protected Object clone() throws CloneNotSupportedException {
 		CorpusParameters clone = (CorpusParameters) super.clone();
@@ -175,6 +190,53 @@ public class CorpusParameters implements Cloneable {
 		return lanczosSVD;
 	}
 
+	/**
+	 * @return true if the semantic space uses random indexing instead of an
+	 *         SVD
+	 */
+	public boolean isRandomIndexing() {
+		return randomIndexing;
+	}
+
+	/**
+	 * @return the size of the vectors when using random indexing
+	 */
+	public int getRandomIndexingDimensions() {
+		return randomIndexingDimensions;
+	}
+
+	/**
+	 * @return the memory in MB the SVD can use, 0 for the memory left in
+	 *         the heap
+	 */
+	public int getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * @return true if the factors of the semantic space and its normalized
+	 *         vectors are stored in single precision
+	 */
+	public boolean isSinglePrecision() {
+		return singlePrecision;
+	}
+
+	/**
+	 * @return true if the factors of the semantic space are saved in the
+	 *         SVD cache in their own files and mapped in memory
+	 */
+	public boolean isMappedStorage() {
+		return mappedStorage;
+	}
+
+	/**
+	 * @return true if the semantic space is calculated when the corpus is
+	 *         loaded
+	 */
+	public boolean isCalculateSemanticSpace() {
+		return calculateSemanticSpace;
+	}
+
 	/**
 	 * @return the normalizeDocuments
 	 */
@@ -202,6 +264,11 @@ public class CorpusParameters implements Cloneable {
 		String globalTermWeight = props.getProperty("globaltw", "Idf");
 		String maxdocuments = props.getProperty("maxdocs", "9999");
 		String useLanczos = props.getProperty("lanczos");
+		String useRandomIndexing = props.getProperty("randomindexing");
+		String randomIndexingDimensions = props.getProperty("ridims", "500");
+		String memoryBudget = props.getProperty("memorybudget", "0");
+		String singlePrecision = props.getProperty("singleprecision");
+		String mappedStorage = props.getProperty("mapped");
 
 		if(termSelectionCriterion.equals("MIN_DF")) {
 			this.setTermSelectionCriterion(TermSelection.DF);
@@ -216,6 +283,12 @@ public class CorpusParameters implements Cloneable {
 		} else
 			this.setLanczosSVD(false);
 
+		this.setRandomIndexing(useRandomIndexing != null && useRandomIndexing.equals("true"));
+		this.setRandomIndexingDimensions(Integer.parseInt(randomIndexingDimensions));
+		this.setMemoryBudget(Integer.parseInt(memoryBudget));
+		this.setSinglePrecision(singlePrecision != null && singlePrecision.equals("true"));
+		this.setMappedStorage(mappedStorage != null && mappedStorage.equals("true"));
+
 		this.setTermSelectionThreshold(Double.parseDouble(termSelectionThreshold));
 
 		if(dimensionalityReductionCriterion.equals("DIMENSIONS_MAX_NUMBER")) {
@@ -282,6 +355,55 @@ public class CorpusParameters implements Cloneable {
 		this.lanczosSVD = lanczosSVD;
 	}
 
+	/**
+	 * @param randomIndexing true to calculate the semantic space with random
+	 * indexing instead of an SVD
+	 */
+	public void setRandomIndexing(boolean randomIndexing) {
+		this.randomIndexing = randomIndexing;
+	}
+
+	/**
+	 * @param randomIndexingDimensions the size of the vectors when using
+	 * random indexing
+	 */
+	public void setRandomIndexingDimensions(int randomIndexingDimensions) {
+		this.randomIndexingDimensions = randomIndexingDimensions;
+	}
+
+	/**
+	 * @param memoryBudget the memory in MB the SVD can use, 0 for the memory
+	 * left in the heap
+	 */
+	public void setMemoryBudget(int memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * @param singlePrecision if the factors of the semantic space and its
+	 * normalized vectors are stored in single precision
+	 */
+	public void setSinglePrecision(boolean singlePrecision) {
+		this.singlePrecision = singlePrecision;
+	}
+
+	/**
+	 * @param mappedStorage if the factors of the semantic space are saved in
+	 * the SVD cache in their own files and mapped in memory
+	 */
+	public void setMappedStorage(boolean mappedStorage) {
+		this.mappedStorage = mappedStorage;
+	}
+
+	/**
+	 * @param calculateSemanticSpace false to load the corpus without
+	 * calculating its semantic space, for example to calculate it later in a
+	 * {@link tml.vectorspace.SemanticSpaceBatch}
+	 */
+	public void setCalculateSemanticSpace(boolean calculateSemanticSpace) {
+		this.calculateSemanticSpace = calculateSemanticSpace;
+	}
+
 	/**
 	 * @param maxDocuments the maxDocuments to set
 	 */
@@ -336,7 +458,9 @@ public class CorpusParameters implements Cloneable {
 	@Override
 	public String toString() {
 		String lanczos = null;
-		if(this.isLanczosSVD())
+		if(this.isRandomIndexing())
+			lanczos = "R" + this.randomIndexingDimensions;
+		else if(this.isLanczosSVD())
 			lanczos = "L";
 		else
 			lanczos = "J";
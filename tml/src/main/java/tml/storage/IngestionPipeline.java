@@ -0,0 +1,189 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+import tml.storage.importers.AbstractImporter;
+import tml.storage.importers.Importer;
+
+/**
+ * <p>
+ * Adds files to a {@link Repository} using several threads. A pool of
+ * workers reads each file, cleans its content with an {@link Importer} and
+ * splits it in paragraphs and sentences, building all of its Lucene
+ * documents as a {@link SegmentedDocument}.
+ * </p>
+ * <p>
+ * The thread calling {@link #addDocuments(File[])} is the only one writing:
+ * it takes the results in the order of the files, inserts their metadata,
+ * adds them to the index and fires the repository events, so everything
+ * happens in the same order as when files were added one by one. At most a
+ * fixed number of files are being processed or waiting to be written, so
+ * the memory used doesn't grow with the number of files.
+ * </p>
+ * 
+ * @author Jorge Villalon
+ *
+ */
+class IngestionPipeline {
+
+	private static Logger logger = Logger.getLogger(IngestionPipeline.class);
+
+	private Repository repository;
+	private int threads;
+	/** Maximum number of files being processed or waiting to be written */
+	private int capacity;
+
+	/**
+	 * @param repository
+	 *            the repository, with an open session
+	 * @param threads
+	 *            the number of worker threads
+	 */
+	IngestionPipeline(Repository repository, int threads) {
+		this.repository = repository;
+		this.threads = Math.max(1, threads);
+		this.capacity = 4 * this.threads;
+	}
+
+	/**
+	 * Adds files to the repository, the files without an importer for their
+	 * extension are ignored
+	 * 
+	 * @param files
+	 * @return the number of files processed
+	 * @throws IOException
+	 *             if the metadata of a document can't be inserted
+	 */
+	int addDocuments(File[] files) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+			private int count = 0;
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "tml-ingestion-" + (count++));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		LinkedList<Future<SegmentedDocument>> queue = new LinkedList<Future<SegmentedDocument>>();
+		LinkedList<File> queuedFiles = new LinkedList<File>();
+		int next = 0;
+		int count = 0;
+		try {
+			while (true) {
+				while (queue.size() < this.capacity && next < files.length)
+					submit(pool, files[next++], queue, queuedFiles);
+				if (queue.isEmpty())
+					break;
+
+				File file = queuedFiles.removeFirst();
+				SegmentedDocument document = take(queue.removeFirst(), file);
+				try {
+					if (document != null) {
+						logger.debug("Adding document " + count + ":" + file.getName());
+						document.write(this.repository);
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+					logger.error("Failed to load content or adding document to index for file " + file);
+				} catch (SQLException e) {
+					e.printStackTrace();
+					logger.error("Fatal error insterting documents in the database");
+					throw new IOException(e);
+				} finally {
+					count++;
+					this.repository.doRepositoryAction(new RepositoryEvent(
+							this.repository, "addingDocument", count, files.length));
+				}
+			}
+		} finally {
+			for (Future<SegmentedDocument> future : queue)
+				future.cancel(true);
+			pool.shutdownNow();
+		}
+		return count;
+	}
+
+	/**
+	 * Queues a file to be processed by the workers, if there is an importer
+	 * for it
+	 */
+	private void submit(ExecutorService pool, final File file,
+			LinkedList<Future<SegmentedDocument>> queue, LinkedList<File> queuedFiles) {
+		if (file.isDirectory() || file.getName().startsWith(".")) {
+			logger.debug("Ignoring document " + file.getName());
+			return;
+		}
+		// Calculating the file extension (e.g. .txt or .html)
+		String[] pieces = file.getName().split("\\.");
+		final String extension = pieces[pieces.length - 1];
+
+		// We use the file extension to get an importer
+		final Importer importer = AbstractImporter.createImporter(extension);
+		if (importer == null) {
+			logger.info("Don't know how to parse ." + extension
+					+ " files, ignoring " + file.getName());
+			return;
+		}
+		logger.debug("Using importer " + importer.getClass().getName());
+
+		queue.add(pool.submit(new Callable<SegmentedDocument>() {
+			@Override
+			public SegmentedDocument call() throws Exception {
+				String content = Repository.getFileContent(file, repository.getEncoding());
+				String title = file.getName().replace("." + extension, "");
+				String url = file.getAbsolutePath();
+				String externalid = Repository.cleanIdForLucene(title);
+				return repository.importDocument(externalid, content, title, url, importer);
+			}
+		}));
+		queuedFiles.add(file);
+	}
+
+	/**
+	 * Waits for a document to be processed
+	 * 
+	 * @return the document, or null if the file couldn't be read
+	 */
+	private SegmentedDocument take(Future<SegmentedDocument> future, File file) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while adding documents");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			e.getCause().printStackTrace();
+			logger.error("Failed to load content or adding document to index for file " + file);
+			return null;
+		}
+	}
+}
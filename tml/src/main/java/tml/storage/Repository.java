@@ -35,6 +35,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.Timer;
+import java.util.regex.Pattern;
 
 import javax.swing.event.EventListenerList;
 
@@ -274,16 +275,38 @@ public class Repository {
 	}
 
 	private IndexWriter luceneIndexWriter = null;
+	/** Number of open ingestion sessions, the writer is open while there is one */
+	private int sessions = 0;
+	/** Sentence iterator for the locale of the repository, one per thread */
+	private ThreadLocal<BreakIterator> sentenceIterators = new ThreadLocal<BreakIterator>() {
+		@Override
+		protected BreakIterator initialValue() {
+			return BreakIterator.getSentenceInstance(locale);
+		}
+	};
+	/** Memory in MB the writer uses to buffer documents before flushing them */
+	private double ramBufferSizeMB = 32;
+	/** Threads used to import and segment documents when adding files */
+	private int ingestionThreads = Runtime.getRuntime().availableProcessors();
 	private IndexReader luceneIndexReader = null;
 	// General attributes
 	/** The logger for log4j */
 	private static Logger logger = Logger.getLogger(Repository.class);
+	/** Title of a references section */
+	private static final Pattern BIBLIOGRAPHY_TITLE = Pattern.compile(
+			"(\\d+)?\\s*((resources?)|(references?)|(bibliography)|(notes?))\\s*");
+	/** Letters in the longest title of a references section */
+	private static final int MAX_BIBLIOGRAPHY_LETTERS = "bibliography".length();
+	private static final Pattern WHITESPACE = Pattern.compile("\\s");
+	private static final Pattern NON_WORD = Pattern.compile("\\W");
 	/** Timer for indexing */
 	private Timer indexerTimer;
 	/** Timer for annotations */
 	private Timer annotatorTimer;
 	/** Timer for cleanup */
 	private Timer cleanupTimer;
+	/** Timer for index maintenance */
+	private Timer optimizeTimer;
 	/** The language for the documents in the repository */
 	private Locale locale;
 	/** The character encoding used to read files from the fileystem */
@@ -490,6 +513,13 @@ public class Repository {
 
 		this.listeners = new EventListenerList();
 
+		String ramBuffer = Configuration.getTmlProperties().getProperty("tml.indexer.rambuffer");
+		if(ramBuffer != null)
+			this.ramBufferSizeMB = Double.parseDouble(ramBuffer);
+		String threads = Configuration.getTmlProperties().getProperty("tml.indexer.threads");
+		if(threads != null && threads.trim().length() > 0)
+			this.ingestionThreads = Integer.parseInt(threads.trim());
+
 		try {
 			this.openIndexWriter();
 			this.closeIndexWriter();
@@ -510,6 +540,9 @@ public class Repository {
 		if(Configuration.getTmlProperties().getProperty("tml.cleanup.run").equals("true"))
 			initializeCleanupTimer();
 
+		if("true".equals(Configuration.getTmlProperties().getProperty("tml.optimize.run")))
+			initializeOptimizeTimer();
+
 		logger.info("TML initialized");
 	}
 
@@ -566,7 +599,7 @@ public class Repository {
 	 * Fires an event of the Repository
 	 * @param evt the event object
 	 */
-	private void doRepositoryAction(RepositoryEvent evt) {
+	void doRepositoryAction(RepositoryEvent evt) {
 		RepositoryListener[] list = this.listeners.getListeners(RepositoryListener.class);
 		for (RepositoryListener listener : list) {
 			listener.repositoryAction(evt);
@@ -599,11 +632,12 @@ public class Repository {
 			content = this.defaultImporter.getCleanContent(content);
 		}
 
-		this.openIndexWriter();
-
-		this.addDocumentToOpenIndex(externalId, content, title, url, importer);
-
-		closeIndexWriter();
+		this.beginSession();
+		try {
+			this.addDocumentToOpenIndex(externalId, content, title, url, importer);
+		} finally {
+			this.endSession();
+		}
 	}
 
 	/**
@@ -679,53 +713,18 @@ public class Repository {
 
 		long time = System.currentTimeMillis();
 
-		this.openIndexWriter();
-
-		logger.debug("Adding files using encoding " + this.encoding);
-
 		int count = 0;
-		doRepositoryAction(new RepositoryEvent(this, "addingDocument", 0, fileList.length));
-		for (File f : fileList) {
-			if (!f.isDirectory() && !f.getName().startsWith(".")) {
-				// Calculating the file extension (e.g. .txt or .html)
-				String[] pieces = f.getName().split("\\.");
-				String extension = pieces[pieces.length - 1];
-
-				// We use the file extension to get an importer
-				Importer importer = AbstractImporter.createImporter(extension);
-				if (importer == null) {
-					logger.info("Don't know how to parse ." + extension
-							+ " files, ignoring " + f.getName());
-					continue;
-				}
+		this.beginSession();
 
-				logger.debug("Using importer " + importer.getClass().getName());
-				String content = null;
-				try {
-					content = getFileContent(f, this.encoding);
-					String title = f.getName().replace("." + extension, "");
-					String url = f.getAbsolutePath();
-					String externalid = cleanIdForLucene(title);
-					logger.debug("Adding document " + count + ":" + f.getName());
-					this.addDocumentToOpenIndex(externalid, content, title, url,
-							importer);
-				} catch (IOException e) {
-					e.printStackTrace();
-					logger.error("Failed to load content or adding document to index for file " + f);
-				} catch (SQLException e) {
-					e.printStackTrace();
-					logger.error("Fatal error insterting documents in the database");
-					throw new IOException(e);
-				} finally {
-					count++;
-					doRepositoryAction(new RepositoryEvent(this, "addingDocument", count, fileList.length));
-				}
-			} else {
-				logger.debug("Ignoring document " + f.getName());
-			}
-		}
+		try {
+			logger.debug("Adding files using encoding " + this.encoding
+					+ " with " + this.ingestionThreads + " threads");
 
-		this.closeIndexWriter();
+			doRepositoryAction(new RepositoryEvent(this, "addingDocument", 0, fileList.length));
+			count = new IngestionPipeline(this, this.ingestionThreads).addDocuments(fileList);
+		} finally {
+			this.endSession();
+		}
 
 		time = System.currentTimeMillis() - time;
 
@@ -737,6 +736,19 @@ public class Repository {
 	private void addDocumentToOpenIndex(String externalId, String content,
 			String title, String url, Importer importer)
 					throws IOException, SQLException {
+		this.importDocument(externalId, content, title, url, importer).write(this);
+	}
+
+	/**
+	 * Cleans the content of a document and splits it in paragraphs and
+	 * sentences, creating the Lucene documents for all of them without
+	 * writing them, so it can run in parallel with other documents.
+	 *
+	 * @return the documents to write
+	 * @throws IOException
+	 */
+	SegmentedDocument importDocument(String externalId, String content,
+			String title, String url, Importer importer) throws IOException {
 
 		if (importer != null) {
 			content = importer.getCleanContent(content);
@@ -748,21 +760,25 @@ public class Repository {
 			content = "";
 		}
 
+		String indexDate = Calendar.getInstance().getTime().toString();
 		Document doc = this.createDocument(content,
 				"document",
 				"null",
 				"null",
 				externalId,
 				title,
-				url);
-		this.addSegmentsInDocument(content, doc, externalId);
-		this.addDocumentToOpenIndex(doc);
+				url,
+				indexDate);
+		SegmentedDocument segmented = new SegmentedDocument();
+		this.addSegmentsInDocument(content, doc, externalId, indexDate, segmented);
+		segmented.add(doc);
+		return segmented;
 	}
 
 	/**
-	 * Chops a content in pieces and adds a new document for each piece into the
-	 * Lucene Index. The documents will have the type "segment" and will refer
-	 * to its parent using the field "parent".
+	 * Chops a content in pieces and adds a new document for each piece to a
+	 * {@link SegmentedDocument}. The documents will have the type "segment"
+	 * and will refer to its parent using the field "parent".
 	 *
 	 * @param content
 	 *            the content of the document to chop
@@ -770,11 +786,14 @@ public class Repository {
 	 *            the Lucene Document
 	 * @param docId
 	 *            the id of the document
+	 * @param indexDate
+	 *            the date stored in all the pieces
+	 * @param segmented
+	 *            where the documents of the pieces are added
 	 * @throws IOException
-	 * @throws SQLException 
 	 */
 	private void addSegmentsInDocument(String content, Document document,
-			String docId) throws IOException, SQLException {
+			String docId, String indexDate, SegmentedDocument segmented) throws IOException {
 
 		String title = document.get(this.getLuceneTitleField());
 		logger.debug("Adding segments to document " + docId + "[" + title
@@ -782,76 +801,83 @@ public class Repository {
 
 		long time = System.currentTimeMillis();
 
-		BufferedReader strReader = new BufferedReader(new StringReader(content));
-
-		String line = null;
+		BreakIterator iterator = this.sentenceIterators.get();
 		int sentenceNumber = 0;
 		int paragraphNumber = 0;
 		int ignoredLines = 0;
 		int ignoredSentences = 0;
-		boolean isBibliography = false;
+		int length = content.length();
+		int lineStart = 0;
 		logger.debug("Parsing text with " + this.locale);
-		while ((line = strReader.readLine()) != null && !isBibliography) {
-			BreakIterator iterator = BreakIterator.getSentenceInstance(this.locale);
+		while (lineStart < length) {
+			// Lines end like in BufferedReader.readLine, with \n, \r or \r\n
+			int lineEnd = lineStart;
+			while (lineEnd < length && content.charAt(lineEnd) != '\n' && content.charAt(lineEnd) != '\r')
+				lineEnd++;
+			int nextLine = lineEnd + 1;
+			if (lineEnd + 1 < length && content.charAt(lineEnd) == '\r' && content.charAt(lineEnd + 1) == '\n')
+				nextLine++;
+
+			if (lineEnd - lineStart < 2) {
+				ignoredLines++;
+				lineStart = nextLine;
+				continue;
+			}
+			if (isBibliographyLine(content, lineStart, lineEnd))
+				break;
+
+			String line = content.substring(lineStart, lineEnd);
+			lineStart = nextLine;
+			paragraphNumber++;
+			String paragraphExtId = "p" + paragraphNumber + "d" + docId;
+			segmented.add(this.createDocument(
+					line,
+					"paragraph",
+					docId,
+					docId,
+					paragraphExtId,
+					"Paragraph " + paragraphNumber + " of " + title,
+					"N/A",
+					indexDate));
+
+			// Sentences are cut from the line as the iterator finds them, the
+			// last one is known by looking at the following boundary
 			iterator.setText(line);
 			int start = iterator.first();
-			int end = 0;
-			List<String> sentencesList = new ArrayList<String>();
-			while ((end = iterator.next()) != BreakIterator.DONE) {
-				sentencesList.add(line.substring(start, end));
-				start = end;
-			}
-			String documentId = docId;
-			if (line.length() >= 2) {
-				String lowLine = line.trim().toLowerCase().replaceAll("\\W", "");
-				if (isBibliographyTitle(lowLine)) {
-					isBibliography = true;
-					continue;
-				}
-				paragraphNumber++;
-				String paragraphExtId = "p" + paragraphNumber + "d" + documentId;
-				this.addTextPassageToOpenIndex(
-						line,
-						"paragraph",
-						documentId,
-						documentId,
-						paragraphExtId,
-						"Paragraph " + paragraphNumber + " of " + title,
-						"N/A");
-				int numSentence = 0;
-				doRepositoryAction(new RepositoryEvent(this, "addingSentence", 0, sentencesList.size()));
-				for (String sentence : sentencesList) {
-					String url = "N/A";
-					if (sentence.length() >= 2) {
-						numSentence++;
-						sentenceNumber++;
-						doRepositoryAction(new RepositoryEvent(this, "addingSentence", numSentence, sentencesList.size()));
-						if (numSentence == sentencesList.size()) {
-							url = "last";
-						}
-						String sentenceExtId = "s" + sentenceNumber + "d" + documentId;
-						this.addTextPassageToOpenIndex(
-								sentence,
-								"sentence",
-								paragraphExtId,
-								documentId,
-								sentenceExtId,
-								"Sentence " + sentenceNumber + " of " + title,
-								url);
-					} else {
-						ignoredSentences++;
-					}
+			int end = iterator.next();
+			int numSentence = 0;
+			boolean ignored = false;
+			while (end != BreakIterator.DONE) {
+				int following = iterator.next();
+				if (end - start >= 2) {
+					numSentence++;
+					sentenceNumber++;
+					String url = following == BreakIterator.DONE && !ignored ? "last" : "N/A";
+					segmented.add(this.createDocument(
+							line.substring(start, end),
+							"sentence",
+							paragraphExtId,
+							docId,
+							"s" + sentenceNumber + "d" + docId,
+							"Sentence " + sentenceNumber + " of " + title,
+							url,
+							indexDate));
+				} else {
+					ignored = true;
+					ignoredSentences++;
 				}
-			} else {
-				ignoredLines++;
+				start = end;
+				end = following;
 			}
+			// One event per paragraph instead of one per sentence
+			segmented.event(new RepositoryEvent(this, "addingSentence", numSentence, numSentence));
 		}
 
 		time = System.currentTimeMillis() - time;
-		doRepositoryAction(new RepositoryEvent(this, "addingSentence", 100, 100));
+		segmented.event(new RepositoryEvent(this, "addingSentence", 100, 100));
 
 		logger.debug("Added " + paragraphNumber + " paragraphs and "
-				+ sentenceNumber + " sentences.");
+				+ sentenceNumber + " sentences in " + time + " ms.");
 		logger.debug("Ignored " + ignoredLines + " paragraphs and "
 				+ ignoredSentences + " sentences.");
 	}
@@ -874,54 +900,7 @@ public class Repository {
 	 * @throws IOException
 	 * @throws SQLException 
 	 */
-	private Document addTextPassageToOpenIndex(String content, String type,
-			String parent, String parentDocument, String externalId, String title, String url) throws IOException, SQLException {
-
-		Document document = new Document();
-		document.add(new Field(this.getLuceneContentField(), content,
-				Store.YES, Index.ANALYZED, TermVector.WITH_POSITIONS));
-		document.add(new Field(this.getLuceneExternalIdField(), externalId,
-				Store.YES, Index.NOT_ANALYZED, TermVector.NO));
-		document.add(new Field(this.getLuceneTitleField(), title, Store.YES,
-				Index.NOT_ANALYZED, TermVector.NO));
-		document.add(new Field(this.getLuceneUrlField(), url, Store.YES,
-				Index.NOT_ANALYZED, TermVector.NO));
-		document.add(new Field("indexdate", Calendar.getInstance().getTime().toString(), Store.YES, Index.NOT_ANALYZED, TermVector.NO));
-		document.add(new Field(this.getLuceneParentField(), parent, Store.YES,
-				Index.NOT_ANALYZED, TermVector.NO));
-		document.add(new Field("type", type, Store.YES, Index.NOT_ANALYZED,
-				TermVector.NO));
-		document.add(new Field("parent", parentDocument, Store.YES, Index.NOT_ANALYZED,
-				TermVector.NO));
-
-		this.getDbConnection().insertDocument(this, document);
-
-		Term term = new Term("externalid", externalId);
-
-		luceneIndexWriter.updateDocument(term, document);
-
-		return document;
-	}
-
-	/**
-	 * Inserts a new text passage into the Repository.
-	 *
-	 * @param content
-	 *            the content of the document
-	 * @param title
-	 *            the title of the document
-	 * @param url
-	 *            the url of the document
-	 * @param type
-	 *            the type of the document ("document", "sentence" or
-	 *            "paragraph")
-	 * @param parent
-	 *            the id of the parent document (when type is segment)
-	 * @return the Lucene Document that was just added
-	 * @throws IOException
-	 * @throws SQLException 
-	 */
-	private Document addDocumentToOpenIndex(Document document) throws IOException, SQLException {
+	Document addDocumentToOpenIndex(Document document) throws IOException, SQLException {
 
 		this.getDbConnection().insertDocument(this, document);
 
@@ -950,7 +929,7 @@ public class Repository {
 	 * @throws IOException
 	 */
 	private Document createDocument(String content, String type,
-			String parent, String parentDocument, String externalId, String title, String url) throws IOException {
+			String parent, String parentDocument, String externalId, String title, String url, String indexDate) throws IOException {
 
 		Document document = new Document();
 		document.add(new Field(this.getLuceneContentField(), content,
@@ -961,7 +940,7 @@ public class Repository {
 				Index.NOT_ANALYZED, TermVector.NO));
 		document.add(new Field(this.getLuceneUrlField(), url, Store.YES,
 				Index.NOT_ANALYZED, TermVector.NO));
-		document.add(new Field("indexdate", Calendar.getInstance().getTime().toString(), Store.YES, Index.NOT_ANALYZED, TermVector.NO));
+		document.add(new Field("indexdate", indexDate, Store.YES, Index.NOT_ANALYZED, TermVector.NO));
 		document.add(new Field(this.getLuceneParentField(), parent, Store.YES,
 				Index.NOT_ANALYZED, TermVector.NO));
 		document.add(new Field("type", type, Store.YES, Index.NOT_ANALYZED,
@@ -979,13 +958,75 @@ public class Repository {
 		return t;
 	}
 
+	/**
+	 * Starts an ingestion session. Until {@link #endSession()} is called a
+	 * single IndexWriter stays open, documents are buffered in memory up to
+	 * {@link #getRamBufferSizeMB()} and the merge policy merges segments in
+	 * the background. The documents added become visible to readers when
+	 * the session ends or {@link #commit()} is called. Sessions can be
+	 * nested and shared by several threads, the writer is closed when the
+	 * last one ends. The methods that add documents open their own session
+	 * if there is none.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void beginSession() throws IOException {
+		if(this.sessions == 0)
+			this.openIndexWriter();
+		this.sessions++;
+	}
+
+	/**
+	 * Ends an ingestion session, the documents are committed and the writer
+	 * closed when it is the last open session.
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void endSession() throws IOException {
+		if(this.sessions == 0)
+			throw new IllegalStateException("There is no open session");
+		this.sessions--;
+		if(this.sessions == 0)
+			this.closeIndexWriter();
+	}
+
+	/**
+	 * Makes the documents added in the open sessions visible to new readers
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void commit() throws IOException {
+		if(this.sessions > 0)
+			luceneIndexWriter.commit();
+	}
+
+	/**
+	 * Merges the index in a single segment. Searches are faster afterwards,
+	 * but the whole index is rewritten, so adding documents doesn't do it.
+	 * It should run as maintenance, explicitly or every tml.optimize.interval
+	 * seconds if tml.optimize.run is true.
+	 * 
+	 * @throws IOException
+	 */
+	public void optimize() throws IOException {
+		long time = System.currentTimeMillis();
+		this.beginSession();
+		try {
+			luceneIndexWriter.optimize(true);
+		} finally {
+			this.endSession();
+		}
+		logger.info("Index optimized in " + (System.currentTimeMillis() - time) + " ms");
+	}
+
 	private void closeIndexWriter() throws CorruptIndexException, IOException {
 		if(luceneIndexWriter == null)
 			return;
 
 		luceneIndexWriter.commit();
-		luceneIndexWriter.optimize(true);
+		// Waits for the merges running in the background
 		luceneIndexWriter.close(true);
+		luceneIndexWriter = null;
 	}
 
 	/**
@@ -1000,11 +1041,14 @@ public class Repository {
 		Term term = new Term(
 				this.luceneExternalIdField,
 				document.getExternalId());
-		this.openIndexWriter();
-		luceneIndexWriter.deleteDocuments(term);
-		term = new Term(this.luceneParentDocumentField, document.getExternalId());
-		luceneIndexWriter.deleteDocuments(term);
-		this.closeIndexWriter();
+		this.beginSession();
+		try {
+			luceneIndexWriter.deleteDocuments(term);
+			term = new Term(this.luceneParentDocumentField, document.getExternalId());
+			luceneIndexWriter.deleteDocuments(term);
+		} finally {
+			this.endSession();
+		}
 	}
 
 	/**
@@ -1302,19 +1346,45 @@ public class Repository {
 	 *         section
 	 */
 	public boolean isBibliographyTitle(String sentence) {
-		String[] words = sentence.split("\\s");
+		String[] words = WHITESPACE.split(sentence);
 		if (words.length >= 4) {
 			return false;
 		}
 		for (String word : words) {
-			if (word.toLowerCase().matches(
-					"(\\d+)?\\s*((resources?)|(references?)|(bibliography)|(notes?))\\s*")) {
+			if (BIBLIOGRAPHY_TITLE.matcher(word.toLowerCase()).matches()) {
 				return true;
 			}
 		}
 		return false;
 	}
 
+	/**
+	 * Checks if a line of a content is the title of the references section,
+	 * once lower cased and without its non word characters. Only lines with
+	 * a few letters can be a title, so the rest are discarded without
+	 * creating any string.
+	 *
+	 * @param content
+	 * @param start
+	 *            the start of the line
+	 * @param end
+	 *            the end of the line
+	 * @return if the line corresponds to the title of the references section
+	 */
+	private boolean isBibliographyLine(String content, int start, int end) {
+		int letters = 0;
+		for (int i = start; i < end; i++) {
+			char c = content.charAt(i);
+			if (((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'))
+					&& ++letters > MAX_BIBLIOGRAPHY_LETTERS)
+				return false;
+		}
+		if (letters == 0)
+			return false;
+		String lowLine = NON_WORD.matcher(content.substring(start, end).trim().toLowerCase()).replaceAll("");
+		return isBibliographyTitle(lowLine);
+	}
+
 	private void openIndexWriter() throws LockObtainFailedException, CorruptIndexException, IOException {
 		Directory dir = null;
 		try {
@@ -1342,6 +1412,43 @@ public class Repository {
 			e.printStackTrace();
 			throw e;
 		}
+		luceneIndexWriter.setRAMBufferSizeMB(this.ramBufferSizeMB);
+	}
+
+	/**
+	 * @return the memory in MB the writer uses to buffer documents before
+	 *         flushing them to a new segment
+	 */
+	public double getRamBufferSizeMB() {
+		return ramBufferSizeMB;
+	}
+
+	/**
+	 * @param ramBufferSizeMB the memory in MB the writer uses to buffer
+	 * documents before flushing them to a new segment, it applies from the
+	 * next session
+	 */
+	public void setRamBufferSizeMB(double ramBufferSizeMB) {
+		this.ramBufferSizeMB = ramBufferSizeMB;
+	}
+
+	/**
+	 * @return the number of threads used to import and segment documents
+	 *         when adding files
+	 */
+	public int getIngestionThreads() {
+		return ingestionThreads;
+	}
+
+	/**
+	 * @param ingestionThreads the number of threads used to import and
+	 * segment documents when adding files, the documents are still written
+	 * by a single thread
+	 */
+	public void setIngestionThreads(int ingestionThreads) {
+		if(ingestionThreads < 1)
+			throw new IllegalArgumentException("At least one thread is required");
+		this.ingestionThreads = ingestionThreads;
 	}
 
 	/**
@@ -1427,6 +1534,24 @@ public class Repository {
 		annotatorTimer.schedule(task, new Date(), seconds * 1000);
 	}
 
+	private void initializeOptimizeTimer() throws IOException {
+
+		optimizeTimer = new Timer(true);
+
+		TmlOptimizeTask task = new TmlOptimizeTask(this);
+
+		int seconds = 86400;
+		try {
+			seconds = Integer.parseInt(Configuration.getTmlProperties()
+					.getProperty("tml.optimize.interval"));
+		} catch (Exception e) {
+			logger.error("Optimize interval not set or invalid "
+					+ Configuration.getTmlProperties().getProperty("tml.optimize.interval"));
+		}
+		logger.info("TML index optimization every " + seconds + " seconds");
+		optimizeTimer.schedule(task, seconds * 1000L, seconds * 1000L);
+	}
+
 	private void initializeIndexerTimer() throws IOException {
 		indexerTimer = new Timer();
 
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.storage;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.document.Document;
+
+/**
+ * The Lucene documents of a document and its segments, with the events of
+ * its segmentation, in the order they must be written. They are built
+ * without touching the index, so documents can be segmented in parallel
+ * and written later by the thread that owns the IndexWriter.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+class SegmentedDocument {
+
+	/** Lucene documents and repository events, in order */
+	private List<Object> steps = new ArrayList<Object>();
+	/** Number of Lucene documents */
+	private int documents = 0;
+
+	/**
+	 * Adds a Lucene document to write
+	 */
+	void add(Document document) {
+		this.steps.add(document);
+		this.documents++;
+	}
+
+	/**
+	 * Adds an event to fire when the previous documents are written
+	 */
+	void event(RepositoryEvent event) {
+		this.steps.add(event);
+	}
+
+	/**
+	 * @return the number of Lucene documents
+	 */
+	int getDocuments() {
+		return documents;
+	}
+
+	/**
+	 * Writes the documents in the open index of a repository and fires the
+	 * events, in order
+	 */
+	void write(Repository repository) throws IOException, SQLException {
+		for (Object step : this.steps) {
+			if (step instanceof Document)
+				repository.addDocumentToOpenIndex((Document) step);
+			else
+				repository.doRepositoryAction((RepositoryEvent) step);
+		}
+	}
+}
@@ -0,0 +1,48 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.storage;
+
+import java.io.IOException;
+import java.util.TimerTask;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Optimizes the index of a {@link Repository} periodically, as adding
+ * documents doesn't optimize it. See {@link Repository#optimize()}.
+ * 
+ * @author Jorge Villalon
+ *
+ */
+public class TmlOptimizeTask extends TimerTask {
+
+	private static Logger logger = Logger.getLogger(TmlOptimizeTask.class);
+	private Repository repository;
+
+	public TmlOptimizeTask(Repository repo) {
+		this.repository = repo;
+	}
+
+	@Override
+	public void run() {
+		try {
+			repository.optimize();
+		} catch (IOException e) {
+			logger.error("Couldn't optimize the index");
+			logger.error(e);
+		}
+	}
+}
@@ -0,0 +1,351 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.utils;
+
+import Jama.Matrix;
+
+/**
+ * <p>
+ * A dense matrix stored row by row in a single contiguous array. Unlike Jama's
+ * array of row arrays, a row of a {@link DenseMatrix} is always next to the
+ * following one in memory, which is what the blocked kernels in
+ * {@link MatrixKernels} need to stream through the data.
+ * </p>
+ * <p>
+ * Element (i,j) is stored at position <code>i * columns + j</code>.
+ * </p>
+ * <p>
+ * The values can also be stored in single precision (see
+ * {@link #toSinglePrecision()}), using half the memory. Cosine similarities
+ * don't need more than the 24 bits of a float, and dot products are always
+ * accumulated in double precision. Single precision matrices are read only
+ * through {@link #get(int, int)}, {@link #getRow(int, double[])} and the dot
+ * products, {@link #getData()} is only available in double precision.
+ * </p>
+ * <p>
+ * Subclasses can keep the values outside the heap (see {@link MappedMatrix}),
+ * overriding the read accessors, the rest of the methods use them.
+ * </p>
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class DenseMatrix {
+
+	/** Number of rows */
+	private final int rows;
+	/** Number of columns */
+	private final int columns;
+	/** The values, row-major, null in single precision */
+	private final double[] data;
+	/** The values in single precision, row-major, null in double precision */
+	private final float[] floats;
+
+	/**
+	 * Creates a new matrix filled with zeros
+	 *
+	 * @param rows
+	 * @param columns
+	 */
+	public DenseMatrix(int rows, int columns) {
+		this(rows, columns, new double[rows * columns]);
+	}
+
+	/**
+	 * Creates a new matrix using an existing row-major array, the array is
+	 * not copied.
+	 *
+	 * @param rows
+	 * @param columns
+	 * @param data
+	 */
+	public DenseMatrix(int rows, int columns, double[] data) {
+		if (data.length != rows * columns)
+			throw new IllegalArgumentException("Array length " + data.length
+					+ " doesn't match a " + rows + "x" + columns + " matrix");
+		this.rows = rows;
+		this.columns = columns;
+		this.data = data;
+		this.floats = null;
+	}
+
+	/**
+	 * Creates a matrix whose values are stored by a subclass, which must
+	 * override {@link #get(int, int)}, {@link #set(int, int, double)},
+	 * {@link #getRow(int, double[])}, {@link #dot(int, double[])} and
+	 * {@link #isSinglePrecision()}.
+	 *
+	 * @param rows
+	 * @param columns
+	 * @param external
+	 *            ignored, distinguishes the constructor
+	 */
+	protected DenseMatrix(int rows, int columns, boolean external) {
+		this.rows = rows;
+		this.columns = columns;
+		this.data = null;
+		this.floats = null;
+	}
+
+	/**
+	 * Creates a new single precision matrix using an existing row-major
+	 * array, the array is not copied.
+	 *
+	 * @param rows
+	 * @param columns
+	 * @param floats
+	 */
+	public DenseMatrix(int rows, int columns, float[] floats) {
+		if (floats.length != rows * columns)
+			throw new IllegalArgumentException("Array length " + floats.length
+					+ " doesn't match a " + rows + "x" + columns + " matrix");
+		this.rows = rows;
+		this.columns = columns;
+		this.data = null;
+		this.floats = floats;
+	}
+
+	/**
+	 * Creates a row-major copy of a Jama {@link Matrix}
+	 *
+	 * @param m
+	 */
+	public DenseMatrix(Matrix m) {
+		this(m.getRowDimension(), m.getColumnDimension());
+		double[][] a = m.getArray();
+		for (int i = 0; i < rows; i++)
+			System.arraycopy(a[i], 0, data, i * columns, columns);
+	}
+
+	/**
+	 * @return a Jama {@link Matrix} with a copy of the values
+	 */
+	public Matrix toMatrix() {
+		double[][] a = new double[rows][columns];
+		for (int i = 0; i < rows; i++)
+			getRow(i, a[i]);
+		return new Matrix(a, rows, columns);
+	}
+
+	/**
+	 * @return a copy of the matrix, in the same precision
+	 */
+	public DenseMatrix copy() {
+		if (floats != null)
+			return new DenseMatrix(rows, columns, floats.clone());
+		if (data != null)
+			return new DenseMatrix(rows, columns, data.clone());
+		return isSinglePrecision() ? toSinglePrecision() : toDoublePrecision();
+	}
+
+	/**
+	 * @return true if the values are stored by a subclass
+	 */
+	private boolean isExternal() {
+		return data == null && floats == null;
+	}
+
+	/**
+	 * @return true if the values are stored in single precision
+	 */
+	public boolean isSinglePrecision() {
+		return floats != null;
+	}
+
+	/**
+	 * @return a single precision copy of the matrix, or the same matrix if
+	 *         it already is
+	 */
+	public DenseMatrix toSinglePrecision() {
+		if (floats != null)
+			return this;
+		float[] f = new float[rows * columns];
+		if (data != null) {
+			for (int i = 0; i < f.length; i++)
+				f[i] = (float) data[i];
+		} else {
+			double[] row = new double[columns];
+			for (int i = 0; i < rows; i++) {
+				getRow(i, row);
+				for (int j = 0; j < columns; j++)
+					f[i * columns + j] = (float) row[j];
+			}
+		}
+		return new DenseMatrix(rows, columns, f);
+	}
+
+	/**
+	 * @return a double precision copy of the matrix, or the same matrix if
+	 *         it already is
+	 */
+	public DenseMatrix toDoublePrecision() {
+		if (data != null)
+			return this;
+		double[] d = new double[rows * columns];
+		if (floats != null) {
+			for (int i = 0; i < d.length; i++)
+				d[i] = floats[i];
+		} else {
+			double[] row = new double[columns];
+			for (int i = 0; i < rows; i++)
+				System.arraycopy(getRow(i, row), 0, d, i * columns, columns);
+		}
+		return new DenseMatrix(rows, columns, d);
+	}
+
+	public double get(int i, int j) {
+		if (floats != null)
+			return floats[i * columns + j];
+		return data[i * columns + j];
+	}
+
+	public void set(int i, int j, double value) {
+		if (floats != null)
+			floats[i * columns + j] = (float) value;
+		else
+			data[i * columns + j] = value;
+	}
+
+	/**
+	 * @return the number of rows
+	 */
+	public int getRowDimension() {
+		return rows;
+	}
+
+	/**
+	 * @return the number of columns
+	 */
+	public int getColumnDimension() {
+		return columns;
+	}
+
+	/**
+	 * @return the internal row-major array, not a copy
+	 * @throws IllegalStateException
+	 *             if the matrix is in single precision
+	 */
+	public double[] getData() {
+		if (data == null)
+			throw new IllegalStateException(floats != null ? "Single precision matrix, use getFloatData()"
+					: "The values are not in the heap, use toDoublePrecision()");
+		return data;
+	}
+
+	/**
+	 * @return the internal row-major array of a single precision matrix, not
+	 *         a copy
+	 * @throws IllegalStateException
+	 *             if the matrix is in double precision
+	 */
+	public float[] getFloatData() {
+		if (floats == null)
+			throw new IllegalStateException(data != null ? "Double precision matrix, use getData()"
+					: "The values are not in the heap, use toSinglePrecision()");
+		return floats;
+	}
+
+	/**
+	 * Copies a row into an array
+	 *
+	 * @param row
+	 *            the row to copy
+	 * @param out
+	 *            an array of at least columns length
+	 * @return the same array
+	 */
+	public double[] getRow(int row, double[] out) {
+		if (floats != null) {
+			for (int j = 0, idx = row * columns; j < columns; j++, idx++)
+				out[j] = floats[idx];
+		} else
+			System.arraycopy(data, row * columns, out, 0, columns);
+		return out;
+	}
+
+	/**
+	 * Dot product between a row of this matrix and a row of another matrix
+	 * with the same number of columns
+	 *
+	 * @param row
+	 * @param other
+	 * @param otherRow
+	 * @return the dot product
+	 */
+	public double dot(int row, DenseMatrix other, int otherRow) {
+		if (isExternal())
+			return other.dot(otherRow, getRow(row, new double[columns]));
+		if (other.isExternal())
+			return other.dot(otherRow, this, row);
+		int offset = row * columns;
+		int otherOffset = otherRow * other.columns;
+		if (floats == null && other.floats == null)
+			return MatrixKernels.dot(data, offset, other.data, otherOffset, columns);
+		if (floats != null && other.floats != null)
+			return MatrixKernels.dot(floats, offset, other.floats, otherOffset, columns);
+		if (floats != null)
+			return MatrixKernels.dot(other.data, otherOffset, floats, offset, columns);
+		return MatrixKernels.dot(data, offset, other.floats, otherOffset, columns);
+	}
+
+	/**
+	 * Dot product between a row of this matrix and a vector
+	 *
+	 * @param row
+	 * @param vector
+	 *            an array of columns length
+	 * @return the dot product
+	 */
+	public double dot(int row, double[] vector) {
+		if (floats != null)
+			return MatrixKernels.dot(vector, 0, floats, row * columns, columns);
+		return MatrixKernels.dot(data, row * columns, vector, 0, columns);
+	}
+
+	/**
+	 * @param row
+	 * @return the Euclidean norm of a row
+	 */
+	public double rowNorm(int row) {
+		return Math.sqrt(dot(row, this, row));
+	}
+
+	/**
+	 * @return the transpose of the matrix, copied tile by tile, in double
+	 *         precision and in the heap
+	 */
+	public DenseMatrix transpose() {
+		if (data == null)
+			return toDoublePrecision().transpose();
+		DenseMatrix t = new DenseMatrix(columns, rows);
+		int block = MatrixKernels.BLOCK_SIZE;
+		for (int i0 = 0; i0 < rows; i0 += block) {
+			int i1 = Math.min(rows, i0 + block);
+			for (int j0 = 0; j0 < columns; j0 += block) {
+				int j1 = Math.min(columns, j0 + block);
+				for (int i = i0; i < i1; i++)
+					for (int j = j0; j < j1; j++)
+						t.data[j * rows + i] = data[i * columns + j];
+			}
+		}
+		return t;
+	}
+
+	@Override
+	public String toString() {
+		return "DenseMatrix " + rows + "x" + columns + (floats != null ? " (single precision)" : "");
+	}
+}
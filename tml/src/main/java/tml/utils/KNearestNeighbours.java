@@ -0,0 +1,312 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.utils;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Exact k nearest neighbours by dot product between the rows of a
+ * {@link DenseMatrix}. When the rows are normalized to unit length the
+ * neighbours are the most similar rows by cosine similarity.
+ * </p>
+ * <p>
+ * The neighbours of each query row are kept in a bounded min-heap of size k,
+ * so a candidate is only inserted if it is better than the worst neighbour
+ * found so far. Queries are split in panels that run in parallel, and each
+ * panel compares tiles of query rows with tiles of candidate rows so both
+ * stay in cache.
+ * </p>
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class KNearestNeighbours {
+
+	/** Maximum number of neighbours per row */
+	private final int k;
+	/** The rows that were queried */
+	private final int[] rows;
+	/** Neighbours of query q in positions q*k to q*k+counts[q] */
+	private final int[] neighbours;
+	/** Similarity of each neighbour */
+	private final double[] similarities;
+	/** Number of neighbours found for each query */
+	private final int[] counts;
+
+	KNearestNeighbours(int[] rows, int k) {
+		this.k = k;
+		this.rows = rows;
+		this.neighbours = new int[rows.length * k];
+		this.similarities = new double[rows.length * k];
+		this.counts = new int[rows.length];
+	}
+
+	/**
+	 * Finds the k nearest neighbours of some rows of a matrix among all its
+	 * rows. A row is never its own neighbour.
+	 *
+	 * @param vectors
+	 *            the vectors, one per row
+	 * @param rows
+	 *            the rows to query, null for all of them
+	 * @param k
+	 *            the number of neighbours
+	 * @return the neighbours
+	 */
+	public static KNearestNeighbours build(final DenseMatrix vectors, int[] rows, int k) {
+		if (k < 1)
+			throw new IllegalArgumentException("At least one neighbour is required");
+		final int total = vectors.getRowDimension();
+		if (rows == null) {
+			rows = new int[total];
+			for (int i = 0; i < total; i++)
+				rows[i] = i;
+		}
+		final KNearestNeighbours knn = new KNearestNeighbours(rows, k);
+		final int[] queries = rows;
+		final int tile = MatrixKernels.BLOCK_SIZE;
+
+		MatrixKernels.parallelRows(queries.length, (long) queries.length * total
+				* vectors.getColumnDimension(), new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int q0 = start; q0 < end; q0 += tile) {
+					int q1 = Math.min(end, q0 + tile);
+					for (int j0 = 0; j0 < total; j0 += tile) {
+						int j1 = Math.min(total, j0 + tile);
+						for (int q = q0; q < q1; q++) {
+							int row = queries[q];
+							for (int j = j0; j < j1; j++) {
+								if (j != row)
+									knn.offer(q, j, vectors.dot(row, vectors, j));
+							}
+						}
+					}
+					for (int q = q0; q < q1; q++)
+						knn.sort(q);
+				}
+			}
+		});
+		return knn;
+	}
+
+	/**
+	 * <p>
+	 * Finds approximate k nearest neighbours for all the rows of a matrix,
+	 * comparing each row only with the rows that share its bucket in some
+	 * band of a {@link RandomProjectionHash}.
+	 * </p>
+	 * <p>
+	 * The rows of each band are sorted by signature and each row is compared
+	 * with at most <code>window</code> rows on each side within its bucket, so
+	 * the cost is linear in the number of rows even when buckets are large.
+	 * Inside a bucket rows are ordered by their signature in the next band, so
+	 * the rows in the window tend to share more bits.
+	 * </p>
+	 *
+	 * @param vectors
+	 *            the vectors, one per row
+	 * @param k
+	 *            the number of neighbours
+	 * @param hash
+	 *            the hash family used to find candidates
+	 * @param window
+	 *            the maximum number of candidates on each side of a row in
+	 *            each band
+	 * @return the neighbours
+	 */
+	public static KNearestNeighbours buildApproximate(final DenseMatrix vectors,
+			int k, RandomProjectionHash hash, final int window) {
+		if (k < 1)
+			throw new IllegalArgumentException("At least one neighbour is required");
+		final int total = vectors.getRowDimension();
+		final int bands = hash.getBands();
+		final int[] signatures = hash.signatures(vectors);
+		final int[][] sorted = new int[bands][];
+		final int[][] positions = new int[bands][total];
+		int indexBits = 32 - Integer.numberOfLeadingZeros(Math.max(1, total));
+		boolean secondary = bands > 1 && 2 * hash.getBits() + indexBits <= 63;
+		for (int b = 0; b < bands; b++) {
+			if (secondary) {
+				int next = (b + 1) % bands;
+				long[] keys = new long[total];
+				for (int i = 0; i < total; i++)
+					keys[i] = ((signatures[i * bands + b] & 0xFFFFFFFFL) << (hash.getBits() + indexBits))
+							| ((signatures[i * bands + next] & 0xFFFFFFFFL) << indexBits) | i;
+				Arrays.sort(keys);
+				sorted[b] = new int[total];
+				long mask = (1L << indexBits) - 1;
+				for (int p = 0; p < total; p++)
+					sorted[b][p] = (int) (keys[p] & mask);
+			} else {
+				sorted[b] = hash.sortByBand(signatures, b);
+			}
+			for (int p = 0; p < total; p++)
+				positions[b][sorted[b][p]] = p;
+		}
+
+		int[] rows = new int[total];
+		for (int i = 0; i < total; i++)
+			rows[i] = i;
+		final KNearestNeighbours knn = new KNearestNeighbours(rows, k);
+
+		MatrixKernels.parallelRows(total, (long) total * bands * window * 2
+				* vectors.getColumnDimension(), new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int i = start; i < end; i++) {
+					for (int b = 0; b < bands; b++) {
+						int signature = signatures[i * bands + b];
+						int p = positions[b][i];
+						for (int side = -1; side <= 1; side += 2) {
+							for (int offset = 1; offset <= window; offset++) {
+								int q = p + side * offset;
+								if (q < 0 || q >= total)
+									break;
+								int j = sorted[b][q];
+								if (signatures[j * bands + b] != signature)
+									break;
+								if (!knn.contains(i, j))
+									knn.offer(i, j, vectors.dot(i, vectors, j));
+							}
+						}
+					}
+					knn.sort(i);
+				}
+			}
+		});
+		return knn;
+	}
+
+	/**
+	 * @return true if a candidate is already a neighbour of a query
+	 */
+	boolean contains(int query, int candidate) {
+		int base = query * k;
+		for (int i = 0; i < counts[query]; i++)
+			if (neighbours[base + i] == candidate)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Inserts a candidate in the heap of a query if it is better than the
+	 * worst neighbour so far
+	 */
+	void offer(int query, int candidate, double similarity) {
+		int base = query * k;
+		int size = counts[query];
+		if (size < k) {
+			// sift up
+			int i = size;
+			while (i > 0) {
+				int parent = (i - 1) / 2;
+				if (similarities[base + parent] <= similarity)
+					break;
+				similarities[base + i] = similarities[base + parent];
+				neighbours[base + i] = neighbours[base + parent];
+				i = parent;
+			}
+			similarities[base + i] = similarity;
+			neighbours[base + i] = candidate;
+			counts[query] = size + 1;
+		} else if (similarity > similarities[base]) {
+			siftDown(base, size, candidate, similarity);
+		}
+	}
+
+	/**
+	 * Places a value in the root of a heap and moves it down
+	 */
+	private void siftDown(int base, int size, int candidate, double similarity) {
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size)
+				break;
+			if (child + 1 < size
+					&& similarities[base + child + 1] < similarities[base + child])
+				child++;
+			if (similarity <= similarities[base + child])
+				break;
+			similarities[base + i] = similarities[base + child];
+			neighbours[base + i] = neighbours[base + child];
+			i = child;
+		}
+		similarities[base + i] = similarity;
+		neighbours[base + i] = candidate;
+	}
+
+	/**
+	 * Sorts the heap of a query by decreasing similarity, removing the
+	 * minimum and placing it at the end
+	 */
+	void sort(int query) {
+		int base = query * k;
+		for (int size = counts[query]; size > 1; size--) {
+			int minimum = neighbours[base];
+			double minimumSimilarity = similarities[base];
+			siftDown(base, size - 1, neighbours[base + size - 1],
+					similarities[base + size - 1]);
+			neighbours[base + size - 1] = minimum;
+			similarities[base + size - 1] = minimumSimilarity;
+		}
+	}
+
+	/**
+	 * Removes the neighbours of a query, so it can be reused
+	 */
+	void clear(int query) {
+		counts[query] = 0;
+	}
+
+	/**
+	 * @return the maximum number of neighbours per row
+	 */
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * @return the rows that were queried
+	 */
+	public int[] getRows() {
+		return rows;
+	}
+
+	/**
+	 * @param query
+	 *            the position of the row in {@link #getRows()}
+	 * @return the neighbours sorted by decreasing similarity
+	 */
+	public int[] getNeighbours(int query) {
+		int[] out = new int[counts[query]];
+		System.arraycopy(neighbours, query * k, out, 0, out.length);
+		return out;
+	}
+
+	/**
+	 * @param query
+	 *            the position of the row in {@link #getRows()}
+	 * @return the similarities of the neighbours, in decreasing order
+	 */
+	public double[] getSimilarities(int query) {
+		double[] out = new double[counts[query]];
+		System.arraycopy(similarities, query * k, out, 0, out.length);
+		return out;
+	}
+}
@@ -15,12 +15,20 @@
  *******************************************************************************/
 package tml.utils;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.List;
@@ -39,6 +47,11 @@ public class LanczosSVDLIBCUtils {
 
 	private static Logger logger = Logger.getLogger(LanczosSVDLIBCUtils.class);
 
+	private static final Pattern SINGULAR_VALUES = Pattern.compile("^\\s*SINGULAR VALUES FOUND\\s+=\\s*(\\d+)\\s*$");
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+	/** Size of the buffer to read binary matrices */
+	private static final int BUFFER_SIZE = 1 << 20;
+
 	private File tmpFolder = null;
 
 	private int numterms = 0;
@@ -61,6 +74,8 @@ public class LanczosSVDLIBCUtils {
 	private String newLine = WIN32_NEWLINE; 
 	private static final String TMP_FOLDER = "tmp";
 	private String baseFolder = "lanczos";
+	/** If the matrices are exchanged with SVDLIBC in its binary formats */
+	private boolean binary = true;
 
 	/**
 	 * @return the kappa
@@ -121,13 +136,29 @@ public class LanczosSVDLIBCUtils {
 	public Matrix getV() {
 		return v;
 	}
+
+	/**
+	 * @return true if the matrices are exchanged with SVDLIBC in its binary
+	 *         formats, false for text
+	 */
+	public boolean isBinary() {
+		return binary;
+	}
+
+	/**
+	 * @param binary true to exchange the matrices with SVDLIBC in its binary
+	 * formats, false to use Harwell-Boeing and dense text files
+	 */
+	public void setBinary(boolean binary) {
+		this.binary = binary;
+	}
 	
 	private Matrix readDenseMatrix(File file, Corpus corpus) throws IOException {
 		Matrix m = null;
 		
 		BufferedReader reader = new BufferedReader(new FileReader(file));
 		String line = reader.readLine();
-		String[] parts = line.split("\\s+");
+		String[] parts = WHITESPACE.split(line.trim());
 		int rows;
 		int columns;
 		boolean matrixS = false;
@@ -150,7 +181,7 @@ public class LanczosSVDLIBCUtils {
 		m = new Matrix(rows, columns);
 		int lineNumber = 0;
 		while((line = reader.readLine()) != null) {
-			String[] lineparts = line.split("\\s+");
+			String[] lineparts = WHITESPACE.split(line.trim());
 			if((!matrixS && lineparts.length != columns)
 					|| (matrixS && lineparts.length != 1)){
 				logger.error("Invalid matrix file! " + line);
@@ -202,12 +233,13 @@ public class LanczosSVDLIBCUtils {
 			}
 		}
 		
-		writeCorpusInHBFormat(corpus, this.tmpFolder.getAbsolutePath() + "/" + svdFilename + ".matrix");
+		if(this.binary)
+			writeCorpusInSparseBinaryFormat(corpus, this.tmpFolder.getAbsolutePath() + "/" + svdFilename + ".matrix");
+		else
+			writeCorpusInHBFormat(corpus, this.tmpFolder.getAbsolutePath() + "/" + svdFilename + ".matrix");
 
 		File lanczosExec = new File(this.executable);
 		
-		String ls_str;
-
 		long time = System.nanoTime();
 		String matrixFile = this.tmpFolder.getAbsolutePath() + "/" + svdFilename + ".matrix";
 		if(this.osfolder.equals("windows"))
@@ -218,47 +250,36 @@ public class LanczosSVDLIBCUtils {
 		String linexec = lanczosExec.getAbsolutePath() 
 		+ " -d " + corpus.getSemanticSpace().getDimensionsKept() 
 		+ " -o " + outFolder 
-		+ " -r sth "
-		+ " -w dt " + matrixFile;
+		+ (this.binary ? " -r sb -w db " : " -r sth -w dt ") + matrixFile;
 		logger.debug("Executing: " + linexec);
 		Process ls_proc = Runtime.getRuntime().exec(linexec);
 
-		// get its output (your input) stream
-		BufferedReader readerInput = new BufferedReader(new InputStreamReader(ls_proc.getInputStream()));
-		BufferedReader readerErr = new BufferedReader(new InputStreamReader(ls_proc.getErrorStream()));
-		BufferedReader reader = null;
-
-		while(!readerInput.ready() && !readerErr.ready() && (System.nanoTime() - time) <= 10E13);
-		
-		if((System.nanoTime() - time) > 10E13) {
-			logger.error("Timeout trying to execute Lanczos");
-			throw new Exception("Timeout trying to execute Lanczos");
-		}
-		
-		if(readerInput.ready()) {
-			reader = readerInput;
-			readerErr.close();
-		} else {
-			reader = readerErr;
-			readerInput.close();
-		}
-		
-		while (reader.ready() && (ls_str = reader.readLine()) != null) {
-			logger.debug(ls_str);
-			Pattern pattern = Pattern.compile("^\\s*SINGULAR VALUES FOUND\\s+=\\s*(\\d+)\\s*$");
-			Matcher matcher = pattern.matcher(ls_str);
-			if(matcher.matches())
-				singularvalues = Integer.parseInt(matcher.group(1));
-		}
-
-		ls_proc.waitFor();
+		// Both outputs are read while the process runs, so it never blocks
+		// writing to them, and the end of the process is waited for
+		OutputReader output = new OutputReader(ls_proc.getInputStream());
+		OutputReader errors = new OutputReader(ls_proc.getErrorStream());
+		output.start();
+		errors.start();
+		int exitValue = ls_proc.waitFor();
+		output.join();
+		errors.join();
 		time = System.nanoTime() - time;
 
-		logger.debug("Lanczos took " + (time * 10E-9) + " millis");
+		logger.debug("Lanczos took " + (time / 1000000) + " millis");
+		if(exitValue != 0)
+			throw new Exception("Lanczos failed with exit value " + exitValue);
 
-		u = readDenseMatrix(new File(baseFolder + "/" + TMP_FOLDER + "/" + svdFilename + "-Ut"), corpus).transpose();
-		s = readDenseMatrix(new File(baseFolder + "/" + TMP_FOLDER + "/" + svdFilename + "-S"), corpus);
-		v = readDenseMatrix(new File(baseFolder + "/" + TMP_FOLDER + "/" + svdFilename + "-Vt"), corpus).transpose();
+		String prefix = baseFolder + "/" + TMP_FOLDER + "/" + svdFilename;
+		if(this.binary) {
+			int dimensions = corpus.getSemanticSpace().getDimensionsKept();
+			u = readDenseBinaryMatrix(new File(prefix + "-Ut"), dimensions);
+			v = readDenseBinaryMatrix(new File(prefix + "-Vt"), dimensions);
+		} else {
+			u = readDenseMatrix(new File(prefix + "-Ut"), corpus).transpose();
+			v = readDenseMatrix(new File(prefix + "-Vt"), corpus).transpose();
+		}
+		// The singular values are always written as text
+		s = readDenseMatrix(new File(prefix + "-S"), corpus);
 		
 		// Delete output and matrix files 
 		for(File f : (new File(baseFolder + "/" + TMP_FOLDER)).listFiles()) {
@@ -271,6 +292,128 @@ public class LanczosSVDLIBCUtils {
 		}
 	}
 
+	/**
+	 * Reads the output of the SVD process while it runs, logging it and
+	 * looking for the number of singular values found
+	 */
+	private class OutputReader extends Thread {
+		private InputStream stream;
+
+		public OutputReader(InputStream stream) {
+			this.stream = stream;
+		}
+
+		@Override
+		public void run() {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
+			try {
+				String line;
+				while((line = reader.readLine()) != null) {
+					logger.debug(line);
+					Matcher matcher = SINGULAR_VALUES.matcher(line);
+					if(matcher.matches())
+						singularvalues = Integer.parseInt(matcher.group(1));
+				}
+				reader.close();
+			} catch (IOException e) {
+				logger.error(e);
+			}
+		}
+	}
+
+	/**
+	 * Reads a dense binary matrix written by SVDLIBC, a header with the rows
+	 * and columns followed by the values row by row as big endian floats, and
+	 * returns its transpose. The transpose has at least a number of columns,
+	 * the columns of singular vectors that were not found are zero.
+	 * 
+	 * @param file
+	 *            the matrix written by SVDLIBC, like its Ut or Vt
+	 * @param columns
+	 *            the singular values requested
+	 * @return the transpose of the matrix
+	 * @throws IOException
+	 */
+	public Matrix readDenseBinaryMatrix(File file, int columns) throws IOException {
+		FileChannel channel = new FileInputStream(file).getChannel();
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			buffer.limit(8);
+			fill(channel, buffer);
+			buffer.flip();
+			int rows = buffer.getInt();
+			int cols = buffer.getInt();
+			if(rows < columns)
+				logger.debug("Found less singular values than solicited. " + rows + " out of " + columns);
+			Matrix m = new Matrix(cols, Math.max(rows, columns));
+			double[][] data = m.getArray();
+			long total = (long) rows * cols;
+			long read = 0;
+			while(read < total) {
+				buffer.clear();
+				buffer.limit((int) Math.min(BUFFER_SIZE, (total - read) * 4));
+				fill(channel, buffer);
+				buffer.flip();
+				FloatBuffer floats = buffer.asFloatBuffer();
+				while(floats.hasRemaining()) {
+					data[(int) (read % cols)][(int) (read / cols)] = floats.get();
+					read++;
+				}
+			}
+			logger.debug(file.getName() + " done! " + rows + "x" + cols + " values read");
+			return m;
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Reads from a channel until a buffer is full
+	 */
+	private static void fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining())
+			if(channel.read(buffer) < 0)
+				throw new IOException("Invalid file, it ended too soon");
+	}
+
+	/**
+	 * Writes the term-doc matrix in the sparse binary format of SVDLIBC. The
+	 * header has the rows, columns and non zero values, followed by each
+	 * column as its number of values and pairs of row and value, all big
+	 * endian, values as floats. Only the terms of each passage are visited,
+	 * taken from its frequencies.
+	 * 
+	 * @param corpus
+	 * @param filename
+	 *            the file to write
+	 * @throws IOException
+	 */
+	public void writeCorpusInSparseBinaryFormat(Corpus corpus, String filename) throws IOException {
+		double[][] m = corpus.getTermDocMatrix().getArray();
+		Corpus.PassageFreqs[] frequencies = corpus.getPassageFrequencies();
+		int nonzeros = 0;
+		for(Corpus.PassageFreqs passage : frequencies)
+			nonzeros += passage.getTermsIndices().length;
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(filename), BUFFER_SIZE));
+		try {
+			out.writeInt(corpus.getTerms().length);
+			out.writeInt(frequencies.length);
+			out.writeInt(nonzeros);
+			for(int doc=0;doc<frequencies.length;doc++) {
+				int[] terms = frequencies[doc].getTermsIndices();
+				out.writeInt(terms.length);
+				for(int term : terms) {
+					out.writeInt(term);
+					out.writeFloat((float) m[term][doc]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		logger.debug("Matrix file written. " + nonzeros + " values");
+	}
+
 	private void writeCorpusInHBFormat(Corpus corpus, String filename) throws Exception {
 		FileWriter writer = new FileWriter(new File(filename));
 		writer.append("Learning Systems Group University of Sydney                               matrix" + this.newLine);
@@ -0,0 +1,278 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * A read only {@link DenseMatrix} whose values stay in a file mapped in
+ * memory, outside the Java heap. Opening the file doesn't read it, the
+ * pages are loaded by the operating system when the rows are used and are
+ * shared by every process that maps the same file, so a big cached space
+ * is ready immediately and doesn't add to the garbage collector work.
+ * </p>
+ * <p>
+ * A single mapping can't be larger than 2GB, so the file is mapped in
+ * chunks of whole rows of up to 1GB by default. The values are little endian, in
+ * double or single precision, after a header with the dimensions. Files
+ * are written to a temporary file and renamed, so a process that has the
+ * old file mapped keeps reading it.
+ * </p>
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class MappedMatrix extends DenseMatrix {
+
+	/** Identifies the files */
+	private static final int MAGIC = 0x544D4C4D;
+	private static final int VERSION = 1;
+	/** Bytes before the values */
+	private static final int HEADER_SIZE = 32;
+	/** Default maximum size of each mapped chunk */
+	public static final long CHUNK_SIZE = 1L << 30;
+
+	private final File file;
+	private final boolean singlePrecision;
+	/** Rows in each chunk */
+	private final int rowsPerChunk;
+	/** The chunks in double precision, null in single precision */
+	private final DoubleBuffer[] doubles;
+	/** The chunks in single precision, null in double precision */
+	private final FloatBuffer[] floats;
+
+	private MappedMatrix(File file, int rows, int columns, boolean singlePrecision,
+			FileChannel channel, long chunkSize) throws IOException {
+		super(rows, columns, true);
+		this.file = file;
+		this.singlePrecision = singlePrecision;
+		int valueSize = singlePrecision ? 4 : 8;
+		long rowSize = Math.max(1, (long) columns * valueSize);
+		this.rowsPerChunk = (int) Math.max(1, Math.min(rows, chunkSize / rowSize));
+		int chunks = rows == 0 ? 0 : (rows + rowsPerChunk - 1) / rowsPerChunk;
+		this.doubles = singlePrecision ? null : new DoubleBuffer[chunks];
+		this.floats = singlePrecision ? new FloatBuffer[chunks] : null;
+		for (int c = 0; c < chunks; c++) {
+			int chunkRows = Math.min(rowsPerChunk, rows - c * rowsPerChunk);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+					HEADER_SIZE + (long) c * rowsPerChunk * rowSize, chunkRows * rowSize);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (singlePrecision)
+				this.floats[c] = buffer.asFloatBuffer();
+			else
+				this.doubles[c] = buffer.asDoubleBuffer();
+		}
+	}
+
+	/**
+	 * Maps a matrix file, the mapping stays valid after the file is closed
+	 *
+	 * @param file
+	 * @return the matrix
+	 * @throws IOException
+	 *             if the file can't be read or is not a matrix file
+	 */
+	public static MappedMatrix open(File file) throws IOException {
+		return open(file, CHUNK_SIZE);
+	}
+
+	/**
+	 * Maps a matrix file in chunks of a given size. Rows are never split
+	 * between chunks, so a chunk has at least one row even if the row is
+	 * larger than the size.
+	 *
+	 * @param file
+	 * @param chunkSize
+	 *            the maximum size in bytes of each mapping, up to 2GB
+	 * @return the matrix
+	 * @throws IOException
+	 *             if the file can't be read or is not a matrix file
+	 */
+	public static MappedMatrix open(File file, long chunkSize) throws IOException {
+		if (chunkSize <= 0 || chunkSize > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining())
+				if (channel.read(header) < 0)
+					throw new IOException("Matrix file " + file + " is truncated");
+			header.flip();
+			if (header.getInt() != MAGIC || header.getInt() != VERSION)
+				throw new IOException(file + " is not a matrix file");
+			int rows = header.getInt();
+			int columns = header.getInt();
+			boolean single = header.getInt() == 4;
+			long expected = HEADER_SIZE + (long) rows * columns * (single ? 4 : 8);
+			if (channel.size() < expected)
+				throw new IOException("Matrix file " + file + " is truncated");
+			return new MappedMatrix(file, rows, columns, single, channel, chunkSize);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes a matrix to a file and maps it
+	 *
+	 * @param file
+	 * @param m
+	 *            the matrix to write
+	 * @param singlePrecision
+	 *            if the values are written as floats
+	 * @return the mapped matrix
+	 * @throws IOException
+	 */
+	public static MappedMatrix write(File file, DenseMatrix m, boolean singlePrecision) throws IOException {
+		int rows = m.getRowDimension();
+		int columns = m.getColumnDimension();
+		File temporary = new File(file.getPath() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(temporary, "rw");
+		try {
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(columns)
+					.putInt(singlePrecision ? 4 : 8);
+			buffer.position(HEADER_SIZE);
+			int valueSize = singlePrecision ? 4 : 8;
+			double[] row = new double[columns];
+			for (int i = 0; i < rows; i++) {
+				m.getRow(i, row);
+				for (int j = 0; j < columns; j++) {
+					if (buffer.remaining() < valueSize)
+						drain(buffer, channel);
+					if (singlePrecision)
+						buffer.putFloat((float) row[j]);
+					else
+						buffer.putDouble(row[j]);
+				}
+			}
+			drain(buffer, channel);
+			channel.force(true);
+		} finally {
+			raf.close();
+		}
+		if (!temporary.renameTo(file)) {
+			// renaming over an existing file fails on some platforms
+			if (!file.delete() || !temporary.renameTo(file))
+				throw new IOException("Couldn't replace matrix file " + file);
+		}
+		return open(file);
+	}
+
+	private static void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	@Override
+	public double get(int i, int j) {
+		int chunk = i / rowsPerChunk;
+		int index = (i - chunk * rowsPerChunk) * getColumnDimension() + j;
+		return singlePrecision ? floats[chunk].get(index) : doubles[chunk].get(index);
+	}
+
+	/**
+	 * @throws UnsupportedOperationException
+	 *             mapped matrices are read only
+	 */
+	@Override
+	public void set(int i, int j, double value) {
+		throw new UnsupportedOperationException("Mapped matrices are read only");
+	}
+
+	@Override
+	public double[] getRow(int row, double[] out) {
+		int columns = getColumnDimension();
+		int chunk = row / rowsPerChunk;
+		int offset = (row - chunk * rowsPerChunk) * columns;
+		if (singlePrecision) {
+			FloatBuffer buffer = floats[chunk];
+			for (int j = 0; j < columns; j++)
+				out[j] = buffer.get(offset + j);
+		} else {
+			// a duplicate, the position of the shared buffer is not changed
+			DoubleBuffer buffer = doubles[chunk].duplicate();
+			buffer.position(offset);
+			buffer.get(out, 0, columns);
+		}
+		return out;
+	}
+
+	@Override
+	public double dot(int row, double[] vector) {
+		int columns = getColumnDimension();
+		int chunk = row / rowsPerChunk;
+		int offset = (row - chunk * rowsPerChunk) * columns;
+		double sum = 0;
+		if (singlePrecision) {
+			FloatBuffer buffer = floats[chunk];
+			for (int j = 0; j < columns; j++)
+				sum += buffer.get(offset + j) * vector[j];
+		} else {
+			DoubleBuffer buffer = doubles[chunk];
+			for (int j = 0; j < columns; j++)
+				sum += buffer.get(offset + j) * vector[j];
+		}
+		return sum;
+	}
+
+	@Override
+	public double dot(int row, DenseMatrix other, int otherRow) {
+		double sum = 0;
+		for (int j = 0; j < getColumnDimension(); j++)
+			sum += get(row, j) * other.get(otherRow, j);
+		return sum;
+	}
+
+	@Override
+	public boolean isSinglePrecision() {
+		return singlePrecision;
+	}
+
+	/**
+	 * @return the number of chunks the file is mapped in
+	 */
+	public int getChunks() {
+		return singlePrecision ? floats.length : doubles.length;
+	}
+
+	/**
+	 * @return the mapped file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public String toString() {
+		return "MappedMatrix " + getRowDimension() + "x" + getColumnDimension() 
+			+ (singlePrecision ? " (single precision)" : "") + " " + file;
+	}
+}
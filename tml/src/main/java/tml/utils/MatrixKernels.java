@@ -0,0 +1,504 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+import Jama.Matrix;
+
+/**
+ * <p>
+ * Dense linear algebra kernels used by the semantic space and the
+ * factorisations. Products are computed on {@link DenseMatrix} tiles of
+ * {@link #BLOCK_SIZE} so the operands stay in cache, and the rows of the
+ * result are split in panels that are computed in parallel by a shared pool
+ * of worker threads.
+ * </p>
+ * <p>
+ * The methods receiving Jama {@link Matrix} objects are a convenience to
+ * replace calls like <code>a.times(b)</code>, they convert the operands,
+ * multiply and convert the result back. When one of the operands is a
+ * diagonal matrix (like Sk) the product is just a scaling of the columns and
+ * no multiplication is performed.
+ * </p>
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class MatrixKernels {
+
+	/**
+	 * A task that processes a range of rows
+	 */
+	public interface RowTask {
+		/**
+		 * @param start
+		 *            first row (inclusive)
+		 * @param end
+		 *            last row (exclusive)
+		 */
+		public void run(int start, int end);
+	}
+
+	private static Logger logger = Logger.getLogger(MatrixKernels.class);
+
+	/** Size of the square tiles used by the blocked kernels */
+	public static final int BLOCK_SIZE = 64;
+
+	/** Products with fewer multiply-adds than this run on a single thread */
+	private static final long PARALLEL_THRESHOLD = 1L << 18;
+
+	/** Number of worker threads */
+	private static int threads = Runtime.getRuntime().availableProcessors();
+
+	/** The pool running the panels */
+	private static ExecutorService pool = null;
+
+	/** Marks the worker threads, so nested calls run inline */
+	private static final ThreadLocal<Boolean> insideWorker = new ThreadLocal<Boolean>();
+
+	private static synchronized ExecutorService getPool() {
+		if (pool == null) {
+			logger.debug("Starting matrix kernels with " + threads + " threads");
+			pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				private int count = 0;
+
+				@Override
+				public Thread newThread(final Runnable r) {
+					Thread t = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							insideWorker.set(Boolean.TRUE);
+							r.run();
+						}
+					}, "tml-kernels-" + (count++));
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return pool;
+	}
+
+	/**
+	 * @return the number of threads used by the kernels
+	 */
+	public static int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Changes the number of threads used by the kernels, the pool is
+	 * recreated on the next parallel call.
+	 *
+	 * @param threads
+	 */
+	public static synchronized void setThreads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("At least one thread is required");
+		MatrixKernels.threads = threads;
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	/**
+	 * Runs a task over a range of rows, splitting it in panels that are
+	 * processed in parallel. The calling thread processes the first panel
+	 * and waits for the rest.
+	 *
+	 * @param rows
+	 *            the total number of rows
+	 * @param work
+	 *            an estimation of the number of operations, small jobs run
+	 *            in the calling thread
+	 * @param task
+	 *            the task
+	 */
+	public static void parallelRows(int rows, long work, final RowTask task) {
+		int panels = Math.min(threads, rows);
+		if (panels <= 1 || work < PARALLEL_THRESHOLD
+				|| Boolean.TRUE.equals(insideWorker.get())) {
+			if (rows > 0)
+				task.run(0, rows);
+			return;
+		}
+
+		int panelSize = (rows + panels - 1) / panels;
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int start = panelSize; start < rows; start += panelSize) {
+			final int s = start;
+			final int e = Math.min(rows, start + panelSize);
+			futures.add(getPool().submit(new Runnable() {
+				@Override
+				public void run() {
+					task.run(s, e);
+				}
+			}));
+		}
+		task.run(0, Math.min(rows, panelSize));
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new RuntimeException(e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Dot product between two segments of arrays
+	 */
+	static double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int k = 0;
+		for (; k + 3 < length; k += 4) {
+			s0 += a[aOffset + k] * b[bOffset + k];
+			s1 += a[aOffset + k + 1] * b[bOffset + k + 1];
+			s2 += a[aOffset + k + 2] * b[bOffset + k + 2];
+			s3 += a[aOffset + k + 3] * b[bOffset + k + 3];
+		}
+		for (; k < length; k++)
+			s0 += a[aOffset + k] * b[bOffset + k];
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	/**
+	 * Dot product between a segment of a double array and a segment of a
+	 * single precision array, accumulated in double precision
+	 */
+	static double dot(double[] a, int aOffset, float[] b, int bOffset, int length) {
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int k = 0;
+		for (; k + 3 < length; k += 4) {
+			s0 += a[aOffset + k] * b[bOffset + k];
+			s1 += a[aOffset + k + 1] * b[bOffset + k + 1];
+			s2 += a[aOffset + k + 2] * b[bOffset + k + 2];
+			s3 += a[aOffset + k + 3] * b[bOffset + k + 3];
+		}
+		for (; k < length; k++)
+			s0 += a[aOffset + k] * b[bOffset + k];
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	/**
+	 * Dot product between two segments of single precision arrays,
+	 * accumulated in double precision
+	 */
+	static double dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int k = 0;
+		for (; k + 3 < length; k += 4) {
+			s0 += (double) a[aOffset + k] * b[bOffset + k];
+			s1 += (double) a[aOffset + k + 1] * b[bOffset + k + 1];
+			s2 += (double) a[aOffset + k + 2] * b[bOffset + k + 2];
+			s3 += (double) a[aOffset + k + 3] * b[bOffset + k + 3];
+		}
+		for (; k < length; k++)
+			s0 += (double) a[aOffset + k] * b[bOffset + k];
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	/**
+	 * C = A * B
+	 *
+	 * @param a
+	 * @param b
+	 * @return the product
+	 */
+	public static DenseMatrix times(DenseMatrix a, DenseMatrix b) {
+		if (a.getColumnDimension() != b.getRowDimension())
+			throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+
+		final int m = a.getRowDimension();
+		final int n = b.getColumnDimension();
+		final int p = a.getColumnDimension();
+		final double[] ad = a.getData();
+		final double[] bd = b.getData();
+		final DenseMatrix c = new DenseMatrix(m, n);
+		final double[] cd = c.getData();
+
+		parallelRows(m, (long) m * n * p, new RowTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int i0 = start; i0 < end; i0 += BLOCK_SIZE) {
+					int i1 = Math.min(end, i0 + BLOCK_SIZE);
+					for (int k0 = 0; k0 < p; k0 += BLOCK_SIZE) {
+						int k1 = Math.min(p, k0 + BLOCK_SIZE);
+						for (int j0 = 0; j0 < n; j0 += BLOCK_SIZE) {
+							int j1 = Math.min(n, j0 + BLOCK_SIZE);
+							for (int i = i0; i < i1; i++) {
+								int ci = i * n;
+								int ai = i * p;
+								for (int k = k0; k < k1; k++) {
+									double aik = ad[ai + k];
+									if (aik == 0)
+										continue;
+									int bk = k * n;
+									for (int j = j0; j < j1; j++)
+										cd[ci + j] += aik * bd[bk + j];
+								}
+							}
+						}
+					}
+				}
+			}
+		});
+		return c;
+	}
+
+	/**
+	 * C = A * B' where both matrices are traversed by rows
+	 *
+	 * @param a
+	 * @param b
+	 * @return the product
+	 */
+	public static DenseMatrix timesTranspose(final DenseMatrix a, final DenseMatrix b) {
+		if (a.getColumnDimension() != b.getColumnDimension())
+			throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+
+		final int m = a.getRowDimension();
+		final int n = b.getRowDimension();
+		final int p = a.getColumnDimension();
+		final double[] ad = a.getData();
+		final double[] bd = b.getData();
+		final DenseMatrix c = new DenseMatrix(m, n);
+		final double[] cd = c.getData();
+
+		parallelRows(m, (long) m * n * p, new RowTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int j0 = 0; j0 < n; j0 += BLOCK_SIZE) {
+					int j1 = Math.min(n, j0 + BLOCK_SIZE);
+					for (int i = start; i < end; i++) {
+						int ci = i * n;
+						for (int j = j0; j < j1; j++)
+							cd[ci + j] = dot(ad, i * p, bd, j * p, p);
+					}
+				}
+			}
+		});
+		return c;
+	}
+
+	/**
+	 * C = A' * B
+	 *
+	 * @param a
+	 * @param b
+	 * @return the product
+	 */
+	public static DenseMatrix transposeTimes(DenseMatrix a, DenseMatrix b) {
+		if (a.getRowDimension() != b.getRowDimension())
+			throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+		return times(a.transpose(), b);
+	}
+
+	/**
+	 * The Gram matrix A * A', only the upper triangle is calculated and then
+	 * mirrored.
+	 *
+	 * @param a
+	 * @return the symmetric product
+	 */
+	public static DenseMatrix gram(DenseMatrix a) {
+		final int n = a.getRowDimension();
+		final int p = a.getColumnDimension();
+		final double[] ad = a.getData();
+		final DenseMatrix c = new DenseMatrix(n, n);
+		final double[] cd = c.getData();
+
+		// Rows are handed out in tiles so the triangle is evenly split
+		final int tiles = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		parallelRows(tiles, (long) n * n * p / 2, new RowTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int t = start; t < end; t++) {
+					int i0 = t * BLOCK_SIZE;
+					int i1 = Math.min(n, i0 + BLOCK_SIZE);
+					for (int j0 = i0; j0 < n; j0 += BLOCK_SIZE) {
+						int j1 = Math.min(n, j0 + BLOCK_SIZE);
+						for (int i = i0; i < i1; i++) {
+							for (int j = Math.max(i, j0); j < j1; j++) {
+								double v = dot(ad, i * p, ad, j * p, p);
+								cd[i * n + j] = v;
+								cd[j * n + i] = v;
+							}
+						}
+					}
+				}
+			}
+		});
+		return c;
+	}
+
+	/**
+	 * A * diag(s), i.e. every column j of A multiplied by s[j]
+	 *
+	 * @param a
+	 * @param s
+	 * @return a new scaled matrix
+	 */
+	public static DenseMatrix scaleColumns(DenseMatrix a, double[] s) {
+		final int m = a.getRowDimension();
+		final int n = a.getColumnDimension();
+		if (s.length < n)
+			throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+		double[] ad = a.getData();
+		DenseMatrix c = new DenseMatrix(m, n);
+		double[] cd = c.getData();
+		for (int i = 0; i < m; i++)
+			for (int j = 0, idx = i * n; j < n; j++, idx++)
+				cd[idx] = ad[idx] * s[j];
+		return c;
+	}
+
+	/**
+	 * Scales every row of the matrix to unit length, in place. Rows with norm
+	 * zero are left untouched.
+	 *
+	 * @param a
+	 * @return the same matrix
+	 */
+	public static DenseMatrix normalizeRows(final DenseMatrix a) {
+		final int n = a.getColumnDimension();
+		final double[] ad = a.getData();
+		parallelRows(a.getRowDimension(), (long) a.getRowDimension() * n, new RowTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int i = start; i < end; i++) {
+					double norm = Math.sqrt(dot(ad, i * n, ad, i * n, n));
+					if (norm == 0)
+						continue;
+					for (int j = i * n; j < (i + 1) * n; j++)
+						ad[j] /= norm;
+				}
+			}
+		});
+		return a;
+	}
+
+	/**
+	 * @param m
+	 * @return true if all the values outside the diagonal are zero
+	 */
+	public static boolean isDiagonal(Matrix m) {
+		double[][] a = m.getArray();
+		for (int i = 0; i < m.getRowDimension(); i++)
+			for (int j = 0; j < m.getColumnDimension(); j++)
+				if (i != j && a[i][j] != 0)
+					return false;
+		return true;
+	}
+
+	/**
+	 * @param m
+	 * @return the diagonal of the matrix
+	 */
+	public static double[] diagonal(Matrix m) {
+		double[] d = new double[Math.min(m.getRowDimension(), m.getColumnDimension())];
+		for (int i = 0; i < d.length; i++)
+			d[i] = m.get(i, i);
+		return d;
+	}
+
+	/**
+	 * A * diag(s) for Jama matrices
+	 *
+	 * @param a
+	 * @param s
+	 *            a diagonal matrix
+	 * @return the scaled matrix
+	 */
+	public static Matrix scaleColumns(Matrix a, Matrix s) {
+		if (a.getColumnDimension() != s.getRowDimension())
+			throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+		int m = a.getRowDimension();
+		int n = s.getColumnDimension();
+		double[] d = diagonal(s);
+		double[][] ad = a.getArray();
+		double[][] c = new double[m][n];
+		for (int i = 0; i < m; i++)
+			for (int j = 0; j < d.length; j++)
+				c[i][j] = ad[i][j] * d[j];
+		return new Matrix(c, m, n);
+	}
+
+	/**
+	 * A * B for Jama matrices. If B is diagonal the columns of A are scaled
+	 * instead.
+	 *
+	 * @param a
+	 * @param b
+	 * @return the product
+	 */
+	public static Matrix times(Matrix a, Matrix b) {
+		if (a.getColumnDimension() != b.getRowDimension())
+			throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+		if (b.getRowDimension() == b.getColumnDimension() && isDiagonal(b))
+			return scaleColumns(a, b);
+		return times(new DenseMatrix(a), new DenseMatrix(b)).toMatrix();
+	}
+
+	/**
+	 * A * B' for Jama matrices
+	 *
+	 * @param a
+	 * @param b
+	 * @return the product
+	 */
+	public static Matrix timesTranspose(Matrix a, Matrix b) {
+		return timesTranspose(new DenseMatrix(a), new DenseMatrix(b)).toMatrix();
+	}
+
+	/**
+	 * A' * B for Jama matrices
+	 *
+	 * @param a
+	 * @param b
+	 * @return the product
+	 */
+	public static Matrix transposeTimes(Matrix a, Matrix b) {
+		if (a.getRowDimension() != b.getRowDimension())
+			throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+		return times(new DenseMatrix(a).transpose(), new DenseMatrix(b)).toMatrix();
+	}
+
+	/**
+	 * A * A' for Jama matrices
+	 *
+	 * @param a
+	 * @return the symmetric product
+	 */
+	public static Matrix gram(Matrix a) {
+		return gram(new DenseMatrix(a)).toMatrix();
+	}
+}
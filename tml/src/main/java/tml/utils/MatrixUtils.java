@@ -23,41 +23,39 @@ public class MatrixUtils {
 	private static Logger logger = Logger.getLogger(MatrixUtils.class);
 
 	public static Matrix normalizeRows(Matrix m) {
-		Matrix norm = m.copy();
-		for (int i = 0; i < m.getRowDimension(); i++) {
-			Matrix v = m.getMatrix(i, i, 0, m.getColumnDimension() - 1);
-			for (int j = 0; j < m.getColumnDimension(); j++) {
-				double normVector = v.normF();
-				if (normVector == 0) {
-					if (m.get(i, j) != 0)
-						logger.warn("Norm is 0 for vector where value was " + m.get(i, j));
-					norm.set(i, j, 0);
-				} else if (Double.isNaN(normVector))
-					logger.error("INVALID NORM FOR DOCUMENT VECTOR (" + i + "," + j);
-				else
-					norm.set(i, j, m.get(i, j) / v.normF());
+		DenseMatrix norm = new DenseMatrix(m);
+		double[] data = norm.getData();
+		int columns = norm.getColumnDimension();
+		for (int i = 0; i < norm.getRowDimension(); i++) {
+			double normVector = norm.rowNorm(i);
+			if (normVector == 0) {
+				continue;
+			} else if (Double.isNaN(normVector)) {
+				logger.error("INVALID NORM FOR DOCUMENT VECTOR (" + i + ")");
+				continue;
 			}
+			for (int j = i * columns; j < (i + 1) * columns; j++)
+				data[j] /= normVector;
 		}
-		return norm;
+		return norm.toMatrix();
 	}
 
 	public static Matrix normalizeColumns(Matrix m) {
-		Matrix norm = m.copy();
-		for (int i = 0; i < m.getColumnDimension(); i++) {
-			Matrix v = m.getMatrix(0, m.getRowDimension() - 1, i, i);
-			for (int j = 0; j < m.getRowDimension(); j++) {
-				double normVector = v.normF();
-				if (normVector == 0) {
-					if (m.get(j, i) != 0)
-						logger.warn("Norm is 0 for vector where value was " + m.get(j, i));
-					norm.set(j, i, 0);
-				} else if (Double.isNaN(normVector))
-					logger.error("INVALID NORM FOR DOCUMENT VECTOR (" + j + "," + i);
-				else
-					norm.set(j, i, m.get(j, i) / v.normF());
+		DenseMatrix norm = new DenseMatrix(m).transpose();
+		double[] data = norm.getData();
+		int rows = norm.getColumnDimension();
+		for (int i = 0; i < norm.getRowDimension(); i++) {
+			double normVector = norm.rowNorm(i);
+			if (normVector == 0) {
+				continue;
+			} else if (Double.isNaN(normVector)) {
+				logger.error("INVALID NORM FOR DOCUMENT VECTOR (" + i + ")");
+				continue;
 			}
+			for (int j = i * rows; j < (i + 1) * rows; j++)
+				data[j] /= normVector;
 		}
-		return norm;
+		return norm.transpose().toMatrix();
 	}
 
 	public static Matrix normalizeRowsL1(Matrix m) {
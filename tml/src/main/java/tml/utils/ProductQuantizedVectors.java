@@ -0,0 +1,250 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.utils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * <p>
+ * Product quantization of vectors (Jegou, Douze and Schmid 2011). The
+ * dimensions are split in subspaces and the part of each vector in a
+ * subspace is replaced by the closest of 256 centroids, found with k-means
+ * on a sample of the vectors, so each vector is coded with one byte per
+ * subspace. With the default of 4 dimensions per subspace the codes are 32
+ * times smaller than the vectors in double precision.
+ * </p>
+ * <p>
+ * The table of a query holds its dot product with every centroid of every
+ * subspace, so scoring a code takes one lookup per subspace.
+ * </p>
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class ProductQuantizedVectors extends QuantizedVectors {
+
+	/** Maximum number of centroids per subspace, so a code fits in a byte */
+	public static final int CENTROIDS = 256;
+	/** Vectors per centroid used to train the codebooks */
+	private static final int SAMPLES_PER_CENTROID = 64;
+
+	/** Number of subspaces */
+	private final int subspaces;
+	/** First dimension of each subspace, plus the total at the end */
+	private final int[] bounds;
+	/** Number of centroids per subspace, fewer if there are few vectors */
+	private final int centroids;
+	/**
+	 * Centroids of subspace m start at <code>centroids * bounds[m]</code>,
+	 * one after the other
+	 */
+	private final double[] codebooks;
+	/** The centroid of each subspace for each row */
+	private final byte[] codes;
+
+	/**
+	 * Quantizes the rows of a matrix with subspaces of 4 dimensions, the
+	 * matrix is kept to re-rank candidates
+	 *
+	 * @param vectors
+	 */
+	public ProductQuantizedVectors(DenseMatrix vectors) {
+		this(vectors, Math.max(1, vectors.getColumnDimension() / 4), 20, 42);
+	}
+
+	/**
+	 * Quantizes the rows of a matrix, which is kept to re-rank candidates
+	 *
+	 * @param vectors
+	 * @param subspaces
+	 *            the number of subspaces, the bytes per vector
+	 * @param iterations
+	 *            the k-means iterations to train each codebook
+	 * @param seed
+	 *            the seed to sample the vectors
+	 */
+	public ProductQuantizedVectors(final DenseMatrix vectors, int subspaces,
+			final int iterations, long seed) {
+		super(vectors);
+		if (subspaces < 1 || subspaces > dimensions)
+			throw new IllegalArgumentException("Invalid number of subspaces");
+		this.subspaces = subspaces;
+		this.bounds = new int[subspaces + 1];
+		for (int m = 0; m <= subspaces; m++)
+			bounds[m] = (int) ((long) m * dimensions / subspaces);
+
+		// Training sample
+		Random random = new Random(seed);
+		int sampleSize = Math.min(rows, CENTROIDS * SAMPLES_PER_CENTROID);
+		int[] sample = new int[rows];
+		for (int i = 0; i < rows; i++)
+			sample[i] = i;
+		for (int i = 0; i < sampleSize; i++) {
+			int j = i + random.nextInt(rows - i);
+			int t = sample[i];
+			sample[i] = sample[j];
+			sample[j] = t;
+		}
+		final int samples = sampleSize;
+		final double[] training = new double[samples * dimensions];
+		double[] row = new double[dimensions];
+		for (int i = 0; i < samples; i++) {
+			vectors.getRow(sample[i], row);
+			System.arraycopy(row, 0, training, i * dimensions, dimensions);
+		}
+
+		this.centroids = Math.max(1, Math.min(CENTROIDS, samples));
+		this.codebooks = new double[centroids * dimensions];
+		this.codes = new byte[rows * subspaces];
+
+		// The first samples are random, so they are the initial centroids
+		MatrixKernels.parallelRows(subspaces, (long) iterations * samples * centroids * dimensions,
+				new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int m = start; m < end; m++)
+					train(m, training, samples, iterations);
+			}
+		});
+
+		MatrixKernels.parallelRows(rows, (long) rows * centroids * dimensions, new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				double[] row = new double[dimensions];
+				for (int i = start; i < end; i++) {
+					vectors.getRow(i, row);
+					for (int m = 0; m < bounds.length - 1; m++)
+						codes[i * (bounds.length - 1) + m] = (byte) nearest(m, row, 0);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Lloyd's k-means on the part of the training vectors in a subspace
+	 */
+	private void train(int m, double[] training, int samples, int iterations) {
+		int width = bounds[m + 1] - bounds[m];
+		int offset = centroids * bounds[m];
+		for (int c = 0; c < centroids; c++)
+			System.arraycopy(training, c * dimensions + bounds[m], codebooks, offset + c * width, width);
+		if (samples <= centroids)
+			return;
+
+		int[] assignments = new int[samples];
+		double[] sums = new double[centroids * width];
+		int[] counts = new int[centroids];
+		for (int iteration = 0; iteration < iterations; iteration++) {
+			boolean changed = false;
+			for (int i = 0; i < samples; i++) {
+				int c = nearest(m, training, i * dimensions);
+				if (c != assignments[i] || iteration == 0) {
+					assignments[i] = c;
+					changed = true;
+				}
+			}
+			if (!changed)
+				break;
+			Arrays.fill(sums, 0);
+			Arrays.fill(counts, 0);
+			for (int i = 0; i < samples; i++) {
+				int c = assignments[i];
+				counts[c]++;
+				for (int j = 0; j < width; j++)
+					sums[c * width + j] += training[i * dimensions + bounds[m] + j];
+			}
+			// Empty clusters keep their centroid
+			for (int c = 0; c < centroids; c++)
+				if (counts[c] > 0)
+					for (int j = 0; j < width; j++)
+						codebooks[offset + c * width + j] = sums[c * width + j] / counts[c];
+		}
+	}
+
+	/**
+	 * @return the closest centroid of a subspace to the part of a vector in
+	 *         it, the vector starts at an offset of an array
+	 */
+	private int nearest(int m, double[] vector, int vectorOffset) {
+		int width = bounds[m + 1] - bounds[m];
+		int offset = centroids * bounds[m];
+		int from = vectorOffset + bounds[m];
+		int best = 0;
+		double bestDistance = Double.MAX_VALUE;
+		for (int c = 0; c < centroids; c++) {
+			double distance = 0;
+			int base = offset + c * width;
+			for (int j = 0; j < width; j++) {
+				double difference = vector[from + j] - codebooks[base + j];
+				distance += difference * difference;
+			}
+			if (distance < bestDistance) {
+				bestDistance = distance;
+				best = c;
+			}
+		}
+		return best;
+	}
+
+	@Override
+	protected double[] table(double[] query) {
+		double[] table = new double[subspaces * centroids];
+		for (int m = 0; m < subspaces; m++) {
+			int width = bounds[m + 1] - bounds[m];
+			int offset = centroids * bounds[m];
+			for (int c = 0; c < centroids; c++) {
+				double dot = 0;
+				int base = offset + c * width;
+				for (int j = 0; j < width; j++)
+					dot += query[bounds[m] + j] * codebooks[base + j];
+				table[m * centroids + c] = dot;
+			}
+		}
+		return table;
+	}
+
+	@Override
+	protected double score(double[] table, int row) {
+		int base = row * subspaces;
+		double score = 0;
+		for (int m = 0; m < subspaces; m++)
+			score += table[m * centroids + (codes[base + m] & 0xFF)];
+		return score;
+	}
+
+	@Override
+	public double[] decode(int row, double[] out) {
+		for (int m = 0; m < subspaces; m++) {
+			int width = bounds[m + 1] - bounds[m];
+			int c = codes[row * subspaces + m] & 0xFF;
+			System.arraycopy(codebooks, centroids * bounds[m] + c * width, out, bounds[m], width);
+		}
+		return out;
+	}
+
+	@Override
+	public long getMemoryBytes() {
+		return codes.length + 8L * codebooks.length;
+	}
+
+	/**
+	 * @return the number of subspaces, the bytes per vector
+	 */
+	public int getSubspaces() {
+		return subspaces;
+	}
+}
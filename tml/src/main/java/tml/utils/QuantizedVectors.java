@@ -0,0 +1,241 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.utils;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * Compact codes for the rows of a {@link DenseMatrix}, normally the
+ * normalized passage vectors of a semantic space, so similarity searches over
+ * many passages don't need all the vectors in memory. See
+ * {@link ScalarQuantizedVectors} and {@link ProductQuantizedVectors}.
+ * </p>
+ * <p>
+ * Searches are asymmetric: the query is not quantized, a table is calculated
+ * from it once and the approximate dot product with each code is read from
+ * the table. The best candidates by approximate similarity are then re-ranked
+ * with their exact similarity, reading only those rows of the original
+ * vectors, which can be a {@link MappedMatrix} so they stay off the heap.
+ * Without the original vectors the approximate similarities are returned.
+ * </p>
+ * <p>
+ * The recall of the approximate neighbours against the exact ones can be
+ * measured with {@link #recall(int[], int, int)}.
+ * </p>
+ *
+ * @author Jorge Villalon
+ *
+ */
+public abstract class QuantizedVectors {
+
+	private static Logger logger = Logger.getLogger(QuantizedVectors.class);
+
+	/** Number of vectors */
+	protected final int rows;
+	/** Size of the vectors */
+	protected final int dimensions;
+	/** The original vectors to re-rank the candidates, can be null */
+	protected DenseMatrix exact;
+
+	protected QuantizedVectors(DenseMatrix vectors) {
+		this.rows = vectors.getRowDimension();
+		this.dimensions = vectors.getColumnDimension();
+		this.exact = vectors;
+	}
+
+	/**
+	 * Calculates the table used to score the codes against a query
+	 *
+	 * @param query
+	 *            the query vector
+	 * @return the table
+	 */
+	protected abstract double[] table(double[] query);
+
+	/**
+	 * @return the approximate dot product of a row with the query of a table
+	 */
+	protected abstract double score(double[] table, int row);
+
+	/**
+	 * Reconstructs a row from its code
+	 *
+	 * @param row
+	 * @param out
+	 *            an array with one value per dimension
+	 * @return the out array
+	 */
+	public abstract double[] decode(int row, double[] out);
+
+	/**
+	 * @return the bytes used by the codes and the tables needed to decode
+	 *         them, not counting the original vectors
+	 */
+	public abstract long getMemoryBytes();
+
+	/**
+	 * @return how many times smaller the codes are than the vectors in
+	 *         double precision
+	 */
+	public double getCompression() {
+		return (double) rows * dimensions * 8 / getMemoryBytes();
+	}
+
+	/**
+	 * Finds the nearest rows to some query vectors
+	 *
+	 * @param queries
+	 *            the query vectors, one per row
+	 * @param k
+	 *            the number of neighbours
+	 * @param candidates
+	 *            the number of candidates by approximate similarity that
+	 *            are re-ranked with the exact similarity
+	 * @return the neighbours of each query
+	 */
+	public KNearestNeighbours search(final DenseMatrix queries, int k, int candidates) {
+		int[] positions = new int[queries.getRowDimension()];
+		for (int q = 0; q < positions.length; q++)
+			positions[q] = q;
+		return search(positions, queries, false, k, candidates);
+	}
+
+	/**
+	 * Finds the nearest neighbours of some of the rows, like
+	 * {@link KNearestNeighbours#build(DenseMatrix, int[], int)}. A row is
+	 * never its own neighbour.
+	 *
+	 * @param rows
+	 *            the rows to query, null for all of them
+	 * @param k
+	 *            the number of neighbours
+	 * @param candidates
+	 *            the number of candidates by approximate similarity that
+	 *            are re-ranked with the exact similarity
+	 * @return the neighbours
+	 */
+	public KNearestNeighbours neighbours(int[] rows, int k, int candidates) {
+		if (rows == null) {
+			rows = new int[this.rows];
+			for (int i = 0; i < rows.length; i++)
+				rows[i] = i;
+		}
+		return search(rows, this.exact, true, k, candidates);
+	}
+
+	private KNearestNeighbours search(final int[] queries, final DenseMatrix vectors,
+			final boolean own, int k, int candidates) {
+		if (k < 1)
+			throw new IllegalArgumentException("At least one neighbour is required");
+		final int shortlist = Math.max(k, candidates);
+		final KNearestNeighbours knn = new KNearestNeighbours(queries, k);
+		MatrixKernels.parallelRows(queries.length, (long) queries.length * rows * dimensions,
+				new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				KNearestNeighbours approximate = new KNearestNeighbours(new int[1], shortlist);
+				double[] query = new double[dimensions];
+				for (int q = start; q < end; q++) {
+					int self = own ? queries[q] : -1;
+					if (vectors != null)
+						vectors.getRow(queries[q], query);
+					else
+						decode(queries[q], query);
+					double[] table = table(query);
+					approximate.clear(0);
+					for (int j = 0; j < rows; j++)
+						if (j != self)
+							approximate.offer(0, j, score(table, j));
+					int[] found = approximate.getNeighbours(0);
+					double[] similarities = approximate.getSimilarities(0);
+					for (int c = 0; c < found.length; c++)
+						knn.offer(q, found[c], exact != null
+								? exact.dot(found[c], query) : similarities[c]);
+					knn.sort(q);
+				}
+			}
+		});
+		return knn;
+	}
+
+	/**
+	 * Measures the fraction of the exact k nearest neighbours of some rows
+	 * that the approximate search finds. The original vectors are required.
+	 *
+	 * @param rows
+	 *            the rows to query, null for all of them
+	 * @param k
+	 *            the number of neighbours
+	 * @param candidates
+	 *            the number of candidates re-ranked
+	 * @return the recall, between 0 and 1
+	 */
+	public double recall(int[] rows, int k, int candidates) {
+		if (this.exact == null)
+			throw new IllegalStateException("The original vectors are needed to measure the recall");
+		KNearestNeighbours truth = KNearestNeighbours.build(this.exact, rows, k);
+		KNearestNeighbours approximate = neighbours(truth.getRows(), k, candidates);
+		long found = 0;
+		long total = 0;
+		for (int q = 0; q < truth.getRows().length; q++) {
+			int[] expected = truth.getNeighbours(q);
+			total += expected.length;
+			for (int neighbour : expected)
+				if (approximate.contains(q, neighbour))
+					found++;
+		}
+		double recall = total == 0 ? 1 : (double) found / total;
+		logger.info(getClass().getSimpleName() + " recall@" + k + " with " + candidates
+				+ " candidates: " + recall + ", " + getMemoryBytes() + " bytes, "
+				+ getCompression() + " times smaller");
+		return recall;
+	}
+
+	/**
+	 * @return the original vectors used to re-rank candidates, null if the
+	 *         approximate similarities are used
+	 */
+	public DenseMatrix getExact() {
+		return exact;
+	}
+
+	/**
+	 * @param exact
+	 *            the original vectors used to re-rank candidates, null to
+	 *            release them and use the approximate similarities
+	 */
+	public void setExact(DenseMatrix exact) {
+		if (exact != null && (exact.getRowDimension() != rows
+				|| exact.getColumnDimension() != dimensions))
+			throw new IllegalArgumentException("The vectors don't match the codes");
+		this.exact = exact;
+	}
+
+	/**
+	 * @return the number of vectors
+	 */
+	public int getRowDimension() {
+		return rows;
+	}
+
+	/**
+	 * @return the size of the vectors
+	 */
+	public int getColumnDimension() {
+		return dimensions;
+	}
+}
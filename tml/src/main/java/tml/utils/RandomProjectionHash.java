@@ -0,0 +1,186 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.utils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * <p>
+ * Sign random projection hashing (Charikar 2002) for cosine similarity. Each
+ * bit of a signature is the sign of the dot product between a vector and a
+ * random Gaussian hyperplane, two vectors with an angle &theta; agree on a bit
+ * with probability 1 - &theta;/&pi;.
+ * </p>
+ * <p>
+ * The bits are grouped in bands, two vectors are candidates if all the bits
+ * in at least one band are equal. More bits per band make the buckets
+ * smaller, more bands increase the probability of finding a similar pair.
+ * {@link #bandsFor(double, int, double)} calculates how many bands are needed
+ * to find pairs over a similarity threshold with a given probability.
+ * </p>
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class RandomProjectionHash {
+
+	/** Number of bits in each band */
+	private final int bits;
+	/** Number of bands */
+	private final int bands;
+	/** The hyperplanes, one per row */
+	private final DenseMatrix hyperplanes;
+
+	/**
+	 * Creates a new hash family
+	 *
+	 * @param dimensions
+	 *            the dimensions of the vectors to hash
+	 * @param bits
+	 *            bits per band, between 1 and 32
+	 * @param bands
+	 *            number of bands
+	 * @param seed
+	 *            the seed for the random hyperplanes
+	 */
+	public RandomProjectionHash(int dimensions, int bits, int bands, long seed) {
+		if (bits < 1 || bits > 32)
+			throw new IllegalArgumentException("Bits per band must be between 1 and 32");
+		if (bands < 1)
+			throw new IllegalArgumentException("At least one band is required");
+		this.bits = bits;
+		this.bands = bands;
+		this.hyperplanes = new DenseMatrix(bits * bands, dimensions);
+		Random random = new Random(seed);
+		double[] data = this.hyperplanes.getData();
+		for (int i = 0; i < data.length; i++)
+			data[i] = random.nextGaussian();
+	}
+
+	/**
+	 * @return the number of bits in each band
+	 */
+	public int getBits() {
+		return bits;
+	}
+
+	/**
+	 * @return the number of bands
+	 */
+	public int getBands() {
+		return bands;
+	}
+
+	/**
+	 * Calculates the signatures of all the rows of a matrix.
+	 *
+	 * @param vectors
+	 *            the vectors, one per row
+	 * @return an array with the signature of row i band b in position
+	 *         <code>i * bands + b</code>
+	 */
+	public int[] signatures(final DenseMatrix vectors) {
+		if (vectors.getColumnDimension() != hyperplanes.getColumnDimension())
+			throw new IllegalArgumentException("Vectors have "
+					+ vectors.getColumnDimension() + " dimensions, expected "
+					+ hyperplanes.getColumnDimension());
+		final int rows = vectors.getRowDimension();
+		final int[] signatures = new int[rows * bands];
+		MatrixKernels.parallelRows(rows, (long) rows * bits * bands
+				* vectors.getColumnDimension(), new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int i = start; i < end; i++)
+					for (int b = 0; b < bands; b++)
+						signatures[i * bands + b] = signature(vectors, i, b);
+			}
+		});
+		return signatures;
+	}
+
+	/**
+	 * @param vectors
+	 * @param row
+	 * @param band
+	 * @return the signature of a row of a matrix in a band
+	 */
+	public int signature(DenseMatrix vectors, int row, int band) {
+		int signature = 0;
+		int first = band * bits;
+		for (int h = 0; h < bits; h++) {
+			signature <<= 1;
+			if (vectors.dot(row, hyperplanes, first + h) >= 0)
+				signature |= 1;
+		}
+		return signature;
+	}
+
+	/**
+	 * Groups the rows by their signature in a band.
+	 *
+	 * @param signatures
+	 *            the signatures as calculated by {@link #signatures(DenseMatrix)}
+	 * @param band
+	 *            the band
+	 * @return the row numbers sorted by signature, rows in the same bucket are
+	 *         consecutive
+	 */
+	public int[] sortByBand(int[] signatures, int band) {
+		int rows = signatures.length / bands;
+		long[] keys = new long[rows];
+		for (int i = 0; i < rows; i++)
+			keys[i] = ((signatures[i * bands + band] & 0xFFFFFFFFL) << 32) | i;
+		Arrays.sort(keys);
+		int[] sorted = new int[rows];
+		for (int i = 0; i < rows; i++)
+			sorted[i] = (int) keys[i];
+		return sorted;
+	}
+
+	/**
+	 * @param similarity
+	 *            a cosine similarity
+	 * @return the probability of two vectors with that similarity having the
+	 *         same bit
+	 */
+	public static double bitCollisionProbability(double similarity) {
+		similarity = Math.max(-1, Math.min(1, similarity));
+		return 1 - Math.acos(similarity) / Math.PI;
+	}
+
+	/**
+	 * Calculates the number of bands required so a pair with a similarity
+	 * over the threshold collides in at least one band with a given
+	 * probability.
+	 *
+	 * @param threshold
+	 *            the similarity threshold
+	 * @param bits
+	 *            bits per band
+	 * @param recall
+	 *            the expected probability, e.g. 0.95
+	 * @return the number of bands
+	 */
+	public static int bandsFor(double threshold, int bits, double recall) {
+		double band = Math.pow(bitCollisionProbability(threshold), bits);
+		if (band >= 1 || recall <= 0)
+			return 1;
+		if (recall >= 1 || band <= 0)
+			throw new IllegalArgumentException("Recall must be lower than 1 and the threshold greater than -1");
+		return Math.max(1, (int) Math.ceil(Math.log(1 - recall) / Math.log(1 - band)));
+	}
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.utils;
+
+/**
+ * <p>
+ * Scalar quantization of vectors to one byte per dimension. Each dimension
+ * is split in 255 equal steps between its minimum and maximum value, so the
+ * codes are 8 times smaller than the vectors in double precision.
+ * </p>
+ * <p>
+ * The dot product of a query q with a code c is
+ * <code>sum(q[d] * (minimum[d] + step[d] * (c[d] + 128)))</code>, the table
+ * of a query holds <code>q[d] * step[d]</code> and the constant part, so
+ * scoring a code takes one multiply-add per dimension.
+ * </p>
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class ScalarQuantizedVectors extends QuantizedVectors {
+
+	/** One signed byte per dimension of each row */
+	private final byte[] codes;
+	/** Minimum value of each dimension */
+	private final double[] minimums;
+	/** Size of the step of each dimension */
+	private final double[] steps;
+
+	/**
+	 * Quantizes the rows of a matrix, which are kept to re-rank candidates
+	 *
+	 * @param vectors
+	 */
+	public ScalarQuantizedVectors(final DenseMatrix vectors) {
+		super(vectors);
+		this.minimums = new double[dimensions];
+		this.steps = new double[dimensions];
+		double[] maximums = new double[dimensions];
+		double[] row = new double[dimensions];
+		for (int d = 0; d < dimensions; d++) {
+			minimums[d] = Double.MAX_VALUE;
+			maximums[d] = -Double.MAX_VALUE;
+		}
+		for (int i = 0; i < rows; i++) {
+			vectors.getRow(i, row);
+			for (int d = 0; d < dimensions; d++) {
+				minimums[d] = Math.min(minimums[d], row[d]);
+				maximums[d] = Math.max(maximums[d], row[d]);
+			}
+		}
+		for (int d = 0; d < dimensions; d++)
+			steps[d] = rows == 0 ? 0 : (maximums[d] - minimums[d]) / 255;
+
+		this.codes = new byte[rows * dimensions];
+		MatrixKernels.parallelRows(rows, (long) rows * dimensions, new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				double[] row = new double[dimensions];
+				for (int i = start; i < end; i++) {
+					vectors.getRow(i, row);
+					for (int d = 0; d < dimensions; d++) {
+						long step = steps[d] == 0 ? 0 : Math.round((row[d] - minimums[d]) / steps[d]);
+						codes[i * dimensions + d] = (byte) (Math.min(255, Math.max(0, step)) - 128);
+					}
+				}
+			}
+		});
+	}
+
+	@Override
+	protected double[] table(double[] query) {
+		double[] table = new double[dimensions + 1];
+		double constant = 0;
+		for (int d = 0; d < dimensions; d++) {
+			table[d] = query[d] * steps[d];
+			constant += query[d] * (minimums[d] + 128 * steps[d]);
+		}
+		table[dimensions] = constant;
+		return table;
+	}
+
+	@Override
+	protected double score(double[] table, int row) {
+		int base = row * dimensions;
+		double s0 = 0, s1 = 0;
+		int d = 0;
+		for (; d + 1 < dimensions; d += 2) {
+			s0 += table[d] * codes[base + d];
+			s1 += table[d + 1] * codes[base + d + 1];
+		}
+		if (d < dimensions)
+			s0 += table[d] * codes[base + d];
+		return table[dimensions] + s0 + s1;
+	}
+
+	@Override
+	public double[] decode(int row, double[] out) {
+		int base = row * dimensions;
+		for (int d = 0; d < dimensions; d++)
+			out[d] = minimums[d] + steps[d] * (codes[base + d] + 128);
+		return out;
+	}
+
+	@Override
+	public long getMemoryBytes() {
+		return codes.length + 16L * dimensions;
+	}
+}
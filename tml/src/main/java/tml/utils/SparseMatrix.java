@@ -0,0 +1,276 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.utils;
+
+import Jama.Matrix;
+
+/**
+ * <p>
+ * A sparse matrix in compressed sparse row format. The non zero values of
+ * row i are in positions <code>rowOffsets[i]</code> to
+ * <code>rowOffsets[i + 1] - 1</code> of the values array, with their columns
+ * in the same positions of the column indices array, sorted.
+ * </p>
+ * <p>
+ * Term-passage matrices have very few non zero values, so the factorisations
+ * that only need products with the matrix do their work over this format in
+ * time proportional to the number of non zero values. Products with a
+ * {@link DenseMatrix} are split by rows and calculated in parallel with
+ * {@link MatrixKernels#parallelRows(int, long, MatrixKernels.RowTask)}.
+ * </p>
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class SparseMatrix {
+
+	/** Number of rows */
+	private final int rows;
+	/** Number of columns */
+	private final int columns;
+	/** Start of each row in the values, plus the total at the end */
+	private final int[] rowOffsets;
+	/** Column of each value */
+	private final int[] columnIndices;
+	/** The non zero values, row by row */
+	private final double[] values;
+
+	/**
+	 * Creates a matrix using existing arrays, they are not copied.
+	 *
+	 * @param rows
+	 * @param columns
+	 * @param rowOffsets
+	 *            start of each row, with rows + 1 elements
+	 * @param columnIndices
+	 *            column of each value, sorted within each row
+	 * @param values
+	 */
+	public SparseMatrix(int rows, int columns, int[] rowOffsets, int[] columnIndices, double[] values) {
+		if (rowOffsets.length != rows + 1)
+			throw new IllegalArgumentException("There must be one offset per row plus one");
+		if (columnIndices.length < rowOffsets[rows] || values.length < rowOffsets[rows])
+			throw new IllegalArgumentException("Not enough values for the offsets");
+		this.rows = rows;
+		this.columns = columns;
+		this.rowOffsets = rowOffsets;
+		this.columnIndices = columnIndices;
+		this.values = values;
+	}
+
+	/**
+	 * Keeps the non zero values of a Jama matrix
+	 *
+	 * @param m
+	 * @return the sparse matrix
+	 */
+	public static SparseMatrix fromMatrix(Matrix m) {
+		int rows = m.getRowDimension();
+		int columns = m.getColumnDimension();
+		double[][] data = m.getArray();
+		int[] offsets = new int[rows + 1];
+		for (int i = 0; i < rows; i++) {
+			int count = 0;
+			for (int j = 0; j < columns; j++)
+				if (data[i][j] != 0)
+					count++;
+			offsets[i + 1] = offsets[i] + count;
+		}
+		int[] indices = new int[offsets[rows]];
+		double[] values = new double[offsets[rows]];
+		for (int i = 0; i < rows; i++) {
+			int position = offsets[i];
+			for (int j = 0; j < columns; j++)
+				if (data[i][j] != 0) {
+					indices[position] = j;
+					values[position++] = data[i][j];
+				}
+		}
+		return new SparseMatrix(rows, columns, offsets, indices, values);
+	}
+
+	/**
+	 * @return the number of rows
+	 */
+	public int getRowDimension() {
+		return rows;
+	}
+
+	/**
+	 * @return the number of columns
+	 */
+	public int getColumnDimension() {
+		return columns;
+	}
+
+	/**
+	 * @return the number of non zero values
+	 */
+	public int getNonZeros() {
+		return rowOffsets[rows];
+	}
+
+	/**
+	 * @return the start of each row in the values, plus the total at the end
+	 */
+	public int[] getRowOffsets() {
+		return rowOffsets;
+	}
+
+	/**
+	 * @return the column of each value
+	 */
+	public int[] getColumnIndices() {
+		return columnIndices;
+	}
+
+	/**
+	 * @return the non zero values, not a copy
+	 */
+	public double[] getValues() {
+		return values;
+	}
+
+	/**
+	 * @return the value in row i and column j, found with a binary search
+	 */
+	public double get(int i, int j) {
+		int low = rowOffsets[i];
+		int high = rowOffsets[i + 1] - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (columnIndices[middle] < j)
+				low = middle + 1;
+			else if (columnIndices[middle] > j)
+				high = middle - 1;
+			else
+				return values[middle];
+		}
+		return 0;
+	}
+
+	/**
+	 * The transpose is built with a counting sort by column, so the columns
+	 * of each row of the result are sorted as well.
+	 *
+	 * @return a new transposed matrix
+	 */
+	public SparseMatrix transpose() {
+		int nonZeros = getNonZeros();
+		int[] offsets = new int[columns + 1];
+		for (int e = 0; e < nonZeros; e++)
+			offsets[columnIndices[e] + 1]++;
+		for (int j = 0; j < columns; j++)
+			offsets[j + 1] += offsets[j];
+		int[] fill = new int[columns];
+		System.arraycopy(offsets, 0, fill, 0, columns);
+		int[] indices = new int[nonZeros];
+		double[] transposed = new double[nonZeros];
+		for (int i = 0; i < rows; i++)
+			for (int e = rowOffsets[i]; e < rowOffsets[i + 1]; e++) {
+				int position = fill[columnIndices[e]]++;
+				indices[position] = i;
+				transposed[position] = values[e];
+			}
+		return new SparseMatrix(columns, rows, offsets, indices, transposed);
+	}
+
+	/**
+	 * Multiplies this matrix by a dense one, rows are calculated in parallel.
+	 *
+	 * @param b
+	 * @return the dense product
+	 */
+	public DenseMatrix times(DenseMatrix b) {
+		if (b.getRowDimension() != columns)
+			throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+		final int p = b.getColumnDimension();
+		final double[] bd = b.getData();
+		final DenseMatrix c = new DenseMatrix(rows, p);
+		final double[] cd = c.getData();
+		MatrixKernels.parallelRows(rows, (long) getNonZeros() * p, new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int i = start; i < end; i++) {
+					int offset = i * p;
+					for (int e = rowOffsets[i]; e < rowOffsets[i + 1]; e++) {
+						double v = values[e];
+						int bOffset = columnIndices[e] * p;
+						for (int k = 0; k < p; k++)
+							cd[offset + k] += v * bd[bOffset + k];
+					}
+				}
+			}
+		});
+		return c;
+	}
+
+	/**
+	 * @return the sum of the squares of all the values
+	 */
+	public double normF2() {
+		double sum = 0;
+		for (int e = 0; e < getNonZeros(); e++)
+			sum += values[e] * values[e];
+		return sum;
+	}
+
+	/**
+	 * @return the sum of all the values
+	 */
+	public double sum() {
+		double sum = 0;
+		for (int e = 0; e < getNonZeros(); e++)
+			sum += values[e];
+		return sum;
+	}
+
+	/**
+	 * @return the maximum column sum of the absolute values, like
+	 *         {@link Matrix#norm1()}
+	 */
+	public double norm1() {
+		double[] sums = new double[columns];
+		for (int e = 0; e < getNonZeros(); e++)
+			sums[columnIndices[e]] += Math.abs(values[e]);
+		double max = 0;
+		for (int j = 0; j < columns; j++)
+			max = Math.max(max, sums[j]);
+		return max;
+	}
+
+	/**
+	 * @return a new matrix with every value multiplied by a scalar
+	 */
+	public SparseMatrix times(double s) {
+		double[] scaled = new double[getNonZeros()];
+		for (int e = 0; e < scaled.length; e++)
+			scaled[e] = values[e] * s;
+		return new SparseMatrix(rows, columns, rowOffsets, columnIndices, scaled);
+	}
+
+	/**
+	 * @return a dense Jama copy
+	 */
+	public Matrix toMatrix() {
+		Matrix m = new Matrix(rows, columns);
+		double[][] data = m.getArray();
+		for (int i = 0; i < rows; i++)
+			for (int e = rowOffsets[i]; e < rowOffsets[i + 1]; e++)
+				data[i][columnIndices[e]] = values[e];
+		return m;
+	}
+}
@@ -0,0 +1,327 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.utils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * Spherical k-means for vectors normalized to unit length, clusters are
+ * represented by unit centroids and points are assigned to the centroid with
+ * the highest cosine similarity.
+ * </p>
+ * <p>
+ * Centroids are seeded with k-means++ (Arthur and Vassilvitskii 2007) using
+ * 1 - cosine as distance, and refined with mini-batches (Sculley 2010): on
+ * each iteration a random sample of points is assigned in parallel and every
+ * centroid moves towards its points with a learning rate that decreases with
+ * the number of points it has seen. It stops when a moving average of the
+ * similarity between the mini-batches and their centroids stops improving,
+ * and the centroids are then moved to the mean of their points once.
+ * The memory used is proportional to the number of points plus the size of
+ * the centroids, no distances between points are calculated.
+ * </p>
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class SphericalKMeans {
+
+	private static Logger logger = Logger.getLogger(SphericalKMeans.class);
+
+	/** Mini-batches without improvement before stopping */
+	private static final int PATIENCE = 10;
+
+	private int clusters = 10;
+	private int batchSize = 1024;
+	private int maxIterations = 100;
+	private double tolerance = 1E-4;
+	private long seed = 42;
+
+	/** The centroids, one per row */
+	private DenseMatrix centroids = null;
+	/** The cluster of each point */
+	private int[] assignments = null;
+	/** The similarity between each point and its centroid */
+	private double[] similarities = null;
+	/** Number of iterations in the last run */
+	private int iterations = 0;
+
+	/**
+	 * Clusters the rows of a matrix
+	 *
+	 * @param vectors
+	 *            the points, one per row, normalized to unit length
+	 */
+	public void fit(final DenseMatrix vectors) {
+		int n = vectors.getRowDimension();
+		int d = vectors.getColumnDimension();
+		int k = Math.min(this.clusters, n);
+		if (k < 1)
+			throw new IllegalArgumentException("There are no points to cluster");
+		Random random = new Random(this.seed);
+
+		this.centroids = seed(vectors, k, random);
+
+		int batch = Math.min(this.batchSize, n);
+		int[] sample = new int[batch];
+		int[] sampleAssignments = new int[batch];
+		double[] sampleSimilarities = new double[batch];
+		long[] seen = new long[k];
+		double[] x = new double[d];
+		// The learning rates decay, so the centroids barely move long before
+		// they converge. Progress is measured with a moving average of the
+		// similarity of each mini-batch to its centroids instead.
+		double smoothing = Math.min(1, 2.0 * batch / (n + 1));
+		double average = 0;
+		double best = Double.NEGATIVE_INFINITY;
+		int stalled = 0;
+
+		this.iterations = 0;
+		while (this.iterations < this.maxIterations) {
+			this.iterations++;
+			for (int i = 0; i < batch; i++)
+				sample[i] = random.nextInt(n);
+			assign(vectors, sample, sampleAssignments, sampleSimilarities);
+
+			double mean = 0;
+			for (int i = 0; i < batch; i++)
+				mean += sampleSimilarities[i];
+			mean /= batch;
+			average = this.iterations == 1 ? mean : (1 - smoothing) * average + smoothing * mean;
+			if (average > best + this.tolerance) {
+				best = average;
+				stalled = 0;
+			} else if (++stalled >= PATIENCE) {
+				break;
+			}
+
+			double[] c = this.centroids.getData();
+			for (int i = 0; i < batch; i++) {
+				int cluster = sampleAssignments[i];
+				seen[cluster]++;
+				double eta = 1.0 / seen[cluster];
+				int cOffset = cluster * d;
+				vectors.getRow(sample[i], x);
+				for (int j = 0; j < d; j++)
+					c[cOffset + j] = (1 - eta) * c[cOffset + j] + eta * x[j];
+			}
+			MatrixKernels.normalizeRows(this.centroids);
+		}
+
+		this.assignments = new int[n];
+		this.similarities = new double[n];
+		assign(vectors, null, this.assignments, null);
+		// The centroids still carry the points seen in the first
+		// mini-batches, so they are moved to the mean of their points once
+		// before the final assignment
+		DenseMatrix sums = new DenseMatrix(k, d);
+		double[] s = sums.getData();
+		for (int i = 0; i < n; i++) {
+			int offset = this.assignments[i] * d;
+			vectors.getRow(i, x);
+			for (int j = 0; j < d; j++)
+				s[offset + j] += x[j];
+		}
+		MatrixKernels.normalizeRows(sums);
+		for (int cluster = 0; cluster < k; cluster++)
+			if (sums.dot(cluster, sums, cluster) > 0)
+				System.arraycopy(s, cluster * d, this.centroids.getData(), cluster * d, d);
+		assign(vectors, null, this.assignments, this.similarities);
+		logger.debug(n + " points in " + k + " clusters after " + this.iterations + " iterations");
+	}
+
+	/**
+	 * k-means++ seeding, each new centroid is a point chosen with probability
+	 * proportional to its distance to the closest centroid so far
+	 */
+	private DenseMatrix seed(final DenseMatrix vectors, int k, Random random) {
+		final int n = vectors.getRowDimension();
+		final int d = vectors.getColumnDimension();
+		final DenseMatrix seeds = new DenseMatrix(k, d);
+		final double[] distances = new double[n];
+		Arrays.fill(distances, Double.MAX_VALUE);
+		double[] row = new double[d];
+
+		int chosen = random.nextInt(n);
+		for (int c = 0; c < k; c++) {
+			System.arraycopy(vectors.getRow(chosen, row), 0, seeds.getData(), c * d, d);
+			final int current = c;
+			MatrixKernels.parallelRows(n, (long) n * d, new MatrixKernels.RowTask() {
+				@Override
+				public void run(int start, int end) {
+					for (int i = start; i < end; i++) {
+						double distance = Math.max(0, 1 - vectors.dot(i, seeds, current));
+						if (distance < distances[i])
+							distances[i] = distance;
+					}
+				}
+			});
+			double total = 0;
+			for (int i = 0; i < n; i++)
+				total += distances[i];
+			if (total <= 0) {
+				// All the points are on the centroids already
+				chosen = random.nextInt(n);
+				continue;
+			}
+			double target = random.nextDouble() * total;
+			chosen = n - 1;
+			for (int i = 0; i < n; i++) {
+				target -= distances[i];
+				if (target <= 0) {
+					chosen = i;
+					break;
+				}
+			}
+		}
+		return seeds;
+	}
+
+	/**
+	 * Assigns points to their closest centroid in parallel
+	 *
+	 * @param points
+	 *            the rows to assign, null for all of them
+	 */
+	private void assign(final DenseMatrix vectors, final int[] points,
+			final int[] out, final double[] outSimilarities) {
+		final int total = points == null ? vectors.getRowDimension() : points.length;
+		final int k = this.centroids.getRowDimension();
+		MatrixKernels.parallelRows(total, (long) total * k * vectors.getColumnDimension(),
+				new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int i = start; i < end; i++) {
+					int row = points == null ? i : points[i];
+					int best = 0;
+					double bestSimilarity = Double.NEGATIVE_INFINITY;
+					for (int c = 0; c < k; c++) {
+						double similarity = vectors.dot(row, centroids, c);
+						if (similarity > bestSimilarity) {
+							bestSimilarity = similarity;
+							best = c;
+						}
+					}
+					out[i] = best;
+					if (outSimilarities != null)
+						outSimilarities[i] = bestSimilarity;
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return the number of clusters
+	 */
+	public int getClusters() {
+		return clusters;
+	}
+
+	/**
+	 * @param clusters
+	 *            the number of clusters
+	 */
+	public void setClusters(int clusters) {
+		this.clusters = clusters;
+	}
+
+	/**
+	 * @return the number of points in each mini-batch
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @param batchSize
+	 *            the number of points in each mini-batch
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @return the maximum number of mini-batches
+	 */
+	public int getMaxIterations() {
+		return maxIterations;
+	}
+
+	/**
+	 * @param maxIterations
+	 *            the maximum number of mini-batches
+	 */
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * @return the minimum improvement of the average similarity between the
+	 *         mini-batches and their centroids to keep iterating
+	 */
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	/**
+	 * @param tolerance
+	 *            the minimum improvement of the average similarity between
+	 *            the mini-batches and their centroids to keep iterating
+	 */
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * @param seed
+	 *            the seed for the random seeding and sampling
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * @return the centroids, one per row
+	 */
+	public DenseMatrix getCentroids() {
+		return centroids;
+	}
+
+	/**
+	 * @return the cluster of each point
+	 */
+	public int[] getAssignments() {
+		return assignments;
+	}
+
+	/**
+	 * @return the cosine similarity between each point and its centroid
+	 */
+	public double[] getSimilarities() {
+		return similarities;
+	}
+
+	/**
+	 * @return the number of mini-batches processed in the last run
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+}
@@ -0,0 +1,276 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.vectorspace;
+
+import org.apache.log4j.Logger;
+
+import tml.vectorspace.factorisation.FrequentDirections;
+import tml.vectorspace.factorisation.GramSingularValueDecomposition;
+import tml.vectorspace.factorisation.RandomizedSingularValueDecomposition;
+
+/**
+ * <p>
+ * Chooses how the SVD of a term-passage matrix is calculated. The time
+ * (as a number of floating point operations) and the peak memory of each
+ * backend are estimated from the number of terms, passages, non zero values
+ * and dimensions to keep.
+ * </p>
+ * <p>
+ * Lanczos is used whenever it is requested, and Jama whenever it fits in the
+ * memory budget, so the results are the same TML always calculated. Only
+ * when Jama doesn't fit the fastest of the other backends that fits is
+ * used, the eigenvalues of the Gram matrix first, as they are exact but for
+ * the precision lost by squaring the condition number, then the
+ * approximations (randomized and streaming). If none fits, the one using
+ * the least memory is used.
+ * </p>
+ * <p>
+ * The term-doc matrix is dense and already in memory when the planner runs,
+ * so the budget is what is left of the heap after it and the memory
+ * estimates only count what each backend allocates on top of it.
+ * </p>
+ * 
+ * @author Jorge Villalon
+ * 
+ */
+public class DecompositionPlanner {
+
+	/**
+	 * The backends that can calculate the SVD
+	 */
+	public enum Backend {
+		/** Full SVD with Jama */
+		JAMA,
+		/** Eigenvalues of the Gram matrix, see {@link GramSingularValueDecomposition} */
+		GRAM_EIGEN,
+		/** The external SVDLIBC Lanczos executable */
+		LANCZOS,
+		/** Randomized range finder, see {@link RandomizedSingularValueDecomposition} */
+		RANDOMIZED,
+		/** Frequent Directions sketch, see {@link FrequentDirections} */
+		STREAMING;
+
+		/**
+		 * @return true if the backend calculates the exact singular vectors
+		 */
+		public boolean isExact() {
+			return this != RANDOMIZED && this != STREAMING;
+		}
+	}
+
+	/**
+	 * The estimated cost of a backend
+	 */
+	public static class Estimate {
+		private final Backend backend;
+		private final double operations;
+		private final long memory;
+
+		private Estimate(Backend backend, double operations, double memory) {
+			this.backend = backend;
+			this.operations = operations;
+			this.memory = (long) Math.min(Long.MAX_VALUE, memory);
+		}
+
+		/**
+		 * @return the backend
+		 */
+		public Backend getBackend() {
+			return backend;
+		}
+
+		/**
+		 * @return the estimated number of floating point operations
+		 */
+		public double getOperations() {
+			return operations;
+		}
+
+		/**
+		 * @return the estimated peak memory in bytes
+		 */
+		public long getMemory() {
+			return memory;
+		}
+
+		@Override
+		public String toString() {
+			return backend + " (" + String.format("%.2g", operations) + " ops, " 
+				+ (memory >> 20) + " MB)";
+		}
+	}
+
+	private static Logger logger = Logger.getLogger(DecompositionPlanner.class);
+
+	/** Extra random vectors of the randomized SVD */
+	static final int OVERSAMPLING = 10;
+	/** Power iterations of the randomized SVD */
+	static final int POWER_ITERATIONS = 2;
+
+	private final int terms;
+	private final int passages;
+	private final long nonZeros;
+	private final int dimensions;
+	private boolean lanczosRequested = false;
+	private long budget;
+
+	/**
+	 * Creates a planner, the budget is the memory available in the heap
+	 * 
+	 * @param terms
+	 * @param passages
+	 * @param nonZeros
+	 *            the non zero values in the term-doc matrix
+	 * @param dimensions
+	 *            the dimensions to keep
+	 */
+	public DecompositionPlanner(int terms, int passages, long nonZeros, int dimensions) {
+		this.terms = terms;
+		this.passages = passages;
+		this.nonZeros = nonZeros;
+		this.dimensions = Math.max(1, Math.min(dimensions, Math.min(terms, passages)));
+		this.budget = availableMemory();
+	}
+
+	/**
+	 * @return the memory the heap can still grow, in bytes
+	 */
+	public static long availableMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+	}
+
+	/**
+	 * @return the estimates of all the backends, Lanczos only if requested
+	 */
+	public Estimate[] estimates() {
+		double m = terms;
+		double n = passages;
+		double s = Math.min(m, n);
+		double b = Math.max(m, n);
+		double k = dimensions;
+		double nnz = nonZeros;
+		double factors = 8 * k * (m + n);
+
+		Estimate[] estimates = new Estimate[lanczosRequested ? 5 : 4];
+		// Householder bidiagonalisation and QR iterations, A is copied and
+		// the full U and V are kept
+		estimates[0] = new Estimate(Backend.JAMA, 4 * b * s * s + 22 * s * s * s,
+				8 * (m * n + m * s + n * n) + factors);
+		// Half the Gram matrix, symmetric eigenvalues and one product, A is
+		// copied once and Jama keeps the eigenvectors and a copy of the Gram
+		estimates[1] = new Estimate(Backend.GRAM_EIGEN, b * s * s + 9 * s * s * s + 2 * b * s * k,
+				8 * (m * n + 3 * s * s) + factors);
+		// Sparse products with K plus some extra vectors, QRs of the tall
+		// blocks and the SVD of the small projection
+		int l = (int) Math.min(s, k + OVERSAMPLING);
+		double randomizedOperations = (2 * POWER_ITERATIONS + 3) * 2 * nnz * l
+				+ (POWER_ITERATIONS + 1) * 4 * (m + n) * l * l + 4 * n * l * l;
+		estimates[2] = new Estimate(Backend.RANDOMIZED, randomizedOperations,
+				24 * nnz + 8 * l * (3 * m + 5 * n) + 16 * l * l + factors);
+		// Each shrink of a 2l sketch costs its Gram matrix and eigenvalues,
+		// there is a shrink every l passages
+		double sketch = getSketchSize();
+		estimates[3] = new Estimate(Backend.STREAMING, 
+				n / sketch * (4 * sketch * sketch * m + 72 * sketch * sketch * sketch) + 2 * m * n * k,
+				8 * (2 * sketch * m + 8 * sketch * sketch + m) + factors);
+		if (lanczosRequested) {
+			// Two sparse products per Lanczos step plus the reorthogonalisation,
+			// the matrix goes to disk and only the factors come back
+			double steps = Math.min(s, 3 * k);
+			estimates[4] = new Estimate(Backend.LANCZOS, 
+					steps * (4 * nnz + 2 * (m + n) * steps) + 50 * nnz + 50 * (m + n) * k,
+					12 * nnz + 2 * factors);
+		}
+		return estimates;
+	}
+
+	/**
+	 * Chooses the backend and logs the decision
+	 * 
+	 * @return the estimate of the chosen backend
+	 */
+	public Estimate plan() {
+		Estimate[] estimates = estimates();
+		Estimate best = null;
+		for (Estimate estimate : estimates)
+			if (estimate.getBackend() == Backend.LANCZOS)
+				best = estimate;
+		if (best == null && estimates[0].getMemory() <= budget)
+			best = estimates[0];
+		for (boolean exact : new boolean[] { true, false }) {
+			if (best != null)
+				break;
+			for (Estimate estimate : estimates)
+				if (estimate.getBackend().isExact() == exact && estimate.getMemory() <= budget
+						&& (best == null || estimate.getOperations() < best.getOperations()))
+					best = estimate;
+		}
+
+		StringBuffer buff = new StringBuffer();
+		for (Estimate estimate : estimates)
+			buff.append(" ").append(estimate);
+		logger.debug("SVD of " + terms + "x" + passages + " with " + nonZeros 
+				+ " non zero values and " + dimensions + " dimensions:" + buff);
+
+		if (best == null) {
+			for (Estimate estimate : estimates)
+				if (best == null || estimate.getMemory() < best.getMemory())
+					best = estimate;
+			logger.warn("No SVD backend fits in " + (budget >> 20) + " MB, using " + best);
+		} else {
+			logger.info("Using " + best + " for the SVD, budget " + (budget >> 20) + " MB");
+		}
+		return best;
+	}
+
+	/**
+	 * @param lanczosRequested
+	 *            if the external Lanczos executable must be used
+	 */
+	public void setLanczosRequested(boolean lanczosRequested) {
+		this.lanczosRequested = lanczosRequested;
+	}
+
+	/**
+	 * @return the memory budget in bytes
+	 */
+	public long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * @param budget
+	 *            the memory budget in bytes
+	 */
+	public void setBudget(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * @return the rows kept by the streaming sketch
+	 */
+	public int getSketchSize() {
+		return Math.max(1, Math.min(Math.max(2 * dimensions, dimensions + OVERSAMPLING), passages));
+	}
+
+	/**
+	 * @return the dimensions to keep
+	 */
+	public int getDimensions() {
+		return dimensions;
+	}
+}
@@ -0,0 +1,279 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.vectorspace;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import tml.utils.DenseMatrix;
+import tml.utils.MatrixKernels;
+
+/**
+ * <p>
+ * A semantic space built with Random Indexing (Kanerva, Kristofersson and
+ * Holst 2000) instead of an SVD. Every passage gets a sparse ternary index
+ * vector, a few random positions set to +1 or -1 derived from the passage
+ * id, and the context vector of a term is the sum of the index vectors of
+ * the passages where it appears, weighted by its weight in each one.
+ * </p>
+ * <p>
+ * Passage vectors are reflective (Cohen, Schvaneveldt and Widdows 2010):
+ * the weighted sum of the context vectors of their terms. Terms and
+ * passages are then in the same space, and projecting a new passage is the
+ * same operation. The term weights of each passage are kept, so passage
+ * vectors are calculated when they are requested.
+ * </p>
+ * <p>
+ * Adding a passage only touches the context vectors of its terms, so a
+ * space grows in time proportional to the number of tokens added, without
+ * recalculating anything. Adding a passage with an existing id replaces it.
+ * </p>
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class RandomIndexing {
+
+	private final int dimensions;
+	private final int nonZeros;
+	private final long seed;
+
+	/** Position of each term */
+	private final Map<String, Integer> termIndices = new HashMap<String, Integer>();
+	/** The context vector of each term */
+	private final List<double[]> termContexts = new ArrayList<double[]>();
+	/** Position of each passage */
+	private final Map<String, Integer> passageIndices = new HashMap<String, Integer>();
+	/** The terms of each passage */
+	private final List<int[]> passageTerms = new ArrayList<int[]>();
+	/** The weights of the terms of each passage */
+	private final List<double[]> passageWeights = new ArrayList<double[]>();
+
+	/**
+	 * @param dimensions
+	 *            the size of the vectors
+	 * @param nonZeros
+	 *            the number of non zero values in each index vector
+	 * @param seed
+	 *            the seed for the index vectors
+	 */
+	public RandomIndexing(int dimensions, int nonZeros, long seed) {
+		if (nonZeros < 1 || nonZeros > dimensions)
+			throw new IllegalArgumentException("Invalid number of non zero values " + nonZeros);
+		this.dimensions = dimensions;
+		this.nonZeros = nonZeros;
+		this.seed = seed;
+	}
+
+	/**
+	 * @return an independent copy with the same passages
+	 */
+	public synchronized RandomIndexing copy() {
+		RandomIndexing copy = new RandomIndexing(dimensions, nonZeros, seed);
+		copy.termIndices.putAll(termIndices);
+		for (double[] context : termContexts)
+			copy.termContexts.add(context.clone());
+		copy.passageIndices.putAll(passageIndices);
+		// Passages are replaced, never modified, so their arrays are shared
+		copy.passageTerms.addAll(passageTerms);
+		copy.passageWeights.addAll(passageWeights);
+		return copy;
+	}
+
+	/**
+	 * Adds a passage, or replaces it if it was already added
+	 *
+	 * @param passage
+	 *            the id of the passage
+	 * @param terms
+	 *            the terms in the passage
+	 * @param weights
+	 *            the weight of each term
+	 */
+	public synchronized void addPassage(String passage, String[] terms, double[] weights) {
+		if (terms.length != weights.length)
+			throw new IllegalArgumentException("There must be one weight per term");
+		int[] index = indexVector(passage);
+
+		Integer position = passageIndices.get(passage);
+		if (position != null) {
+			// The old contribution of the passage is removed first
+			accumulate(index, passageTerms.get(position), passageWeights.get(position), -1);
+		} else {
+			position = passageTerms.size();
+			passageIndices.put(passage, position);
+			passageTerms.add(null);
+			passageWeights.add(null);
+		}
+
+		int[] ids = new int[terms.length];
+		for (int t = 0; t < terms.length; t++) {
+			Integer id = termIndices.get(terms[t]);
+			if (id == null) {
+				id = termContexts.size();
+				termIndices.put(terms[t], id);
+				termContexts.add(new double[dimensions]);
+			}
+			ids[t] = id;
+		}
+		accumulate(index, ids, weights, 1);
+		passageTerms.set(position, ids);
+		passageWeights.set(position, weights.clone());
+	}
+
+	private void accumulate(int[] index, int[] terms, double[] weights, double sign) {
+		for (int t = 0; t < terms.length; t++) {
+			double[] context = termContexts.get(terms[t]);
+			double weight = sign * weights[t];
+			for (int position : index) {
+				if (position > 0)
+					context[position - 1] += weight;
+				else
+					context[-position - 1] -= weight;
+			}
+		}
+	}
+
+	/**
+	 * The index vector of an id, its non zero positions are stored as
+	 * position + 1 with the sign of the value
+	 */
+	private int[] indexVector(String id) {
+		long hash = seed;
+		for (int i = 0; i < id.length(); i++)
+			hash = (hash ^ id.charAt(i)) * 0x100000001B3L;
+		Random random = new Random(hash);
+		int[] index = new int[nonZeros];
+		int found = 0;
+		while (found < nonZeros) {
+			int position = random.nextInt(dimensions) + 1;
+			boolean repeated = false;
+			for (int i = 0; i < found; i++)
+				if (Math.abs(index[i]) == position)
+					repeated = true;
+			if (!repeated)
+				index[found++] = random.nextBoolean() ? position : -position;
+		}
+		return index;
+	}
+
+	/**
+	 * @param terms
+	 *            the terms
+	 * @return their context vectors, one per row, zero for unknown terms
+	 */
+	public synchronized DenseMatrix getTermVectors(String[] terms) {
+		DenseMatrix vectors = new DenseMatrix(terms.length, dimensions);
+		for (int t = 0; t < terms.length; t++) {
+			Integer id = termIndices.get(terms[t]);
+			if (id != null)
+				System.arraycopy(termContexts.get(id), 0, vectors.getData(), t * dimensions, dimensions);
+		}
+		return vectors;
+	}
+
+	/**
+	 * @param passages
+	 *            the ids of the passages
+	 * @return their vectors, one per row, zero for unknown passages
+	 */
+	public synchronized DenseMatrix getPassageVectors(final String[] passages) {
+		final DenseMatrix vectors = new DenseMatrix(passages.length, dimensions);
+		final double[] data = vectors.getData();
+		MatrixKernels.parallelRows(passages.length, (long) passages.length * dimensions * 50,
+				new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int p = start; p < end; p++) {
+					Integer position = passageIndices.get(passages[p]);
+					if (position != null)
+						sum(passageTerms.get(position), passageWeights.get(position), data, p * dimensions);
+				}
+			}
+		});
+		return vectors;
+	}
+
+	/**
+	 * Projects a passage that wasn't added, unknown terms are ignored
+	 *
+	 * @param terms
+	 *            the terms in the passage
+	 * @param weights
+	 *            the weight of each term
+	 * @return the vector of the passage
+	 */
+	public synchronized double[] getPassageVector(String[] terms, double[] weights) {
+		List<Integer> ids = new ArrayList<Integer>();
+		List<Double> known = new ArrayList<Double>();
+		for (int t = 0; t < terms.length; t++) {
+			Integer id = termIndices.get(terms[t]);
+			if (id != null) {
+				ids.add(id);
+				known.add(weights[t]);
+			}
+		}
+		int[] termIds = new int[ids.size()];
+		double[] termWeights = new double[ids.size()];
+		for (int t = 0; t < termIds.length; t++) {
+			termIds[t] = ids.get(t);
+			termWeights[t] = known.get(t);
+		}
+		double[] vector = new double[dimensions];
+		sum(termIds, termWeights, vector, 0);
+		return vector;
+	}
+
+	private void sum(int[] terms, double[] weights, double[] out, int offset) {
+		for (int t = 0; t < terms.length; t++) {
+			double[] context = termContexts.get(terms[t]);
+			double weight = weights[t];
+			for (int d = 0; d < dimensions; d++)
+				out[offset + d] += weight * context[d];
+		}
+	}
+
+	/**
+	 * @return the size of the vectors
+	 */
+	public int getDimensions() {
+		return dimensions;
+	}
+
+	/**
+	 * @return the number of non zero values in each index vector
+	 */
+	public int getNonZeros() {
+		return nonZeros;
+	}
+
+	/**
+	 * @return the number of terms seen
+	 */
+	public synchronized int getNumberOfTerms() {
+		return termContexts.size();
+	}
+
+	/**
+	 * @return the number of passages added
+	 */
+	public synchronized int getNumberOfPassages() {
+		return passageTerms.size();
+	}
+}
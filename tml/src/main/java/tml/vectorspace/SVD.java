@@ -23,6 +23,11 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
+import tml.utils.DenseMatrix;
+import tml.utils.MappedMatrix;
+
+import Jama.Matrix;
+
 public class SVD implements Serializable {
 
 	/** Serialization ID */
@@ -34,10 +39,34 @@ public class SVD implements Serializable {
 	private double[][] Skdata = null;
 	/** Documents matrix in the semantic space */
 	private double[][] Vkdata = null;
+	/** Uk in single precision, Ukdata is null when it is used */
+	private float[][] UkFloats = null;
+	/** Vk in single precision, Vkdata is null when it is used */
+	private float[][] VkFloats = null;
+	/** If Uk and Vk are in their own files, mapped when the SVD is read */
+	private boolean mapped = false;
+	/** Uk mapped from its file */
+	private transient MappedMatrix mappedUk = null;
+	/** Vk mapped from its file */
+	private transient MappedMatrix mappedVk = null;
+	/** Terms of the rows of Uk, null in files saved by older versions */
+	private String[] terms = null;
+	/** Passages of the rows of Vk, null in files saved by older versions */
+	private String[] passages = null;
+	/** Identifies the terms and passages the SVD was calculated for */
+	private String fingerprint = null;
+	/** Incremental updates since the SVD was calculated from scratch */
+	private int updates = 0;
+	/** If it was calculated by an approximate backend, false in files saved by older versions */
+	private boolean approximate = false;
 	/**
 	 * @return the ukdata
 	 */
 	public double[][] getUkdata() {
+		if(Ukdata == null && UkFloats != null)
+			return toDouble(UkFloats);
+		if(Ukdata == null && mappedUk != null)
+			return mappedUk.toMatrix().getArray();
 		return Ukdata;
 	}
 	/**
@@ -45,6 +74,8 @@ public class SVD implements Serializable {
 	 */
 	public void setUkdata(double[][] ukdata) {
 		Ukdata = ukdata;
+		UkFloats = null;
+		mappedUk = null;
 	}
 	/**
 	 * @return the skdata
@@ -62,6 +93,10 @@ public class SVD implements Serializable {
 	 * @return the vkdata
 	 */
 	public double[][] getVkdata() {
+		if(Vkdata == null && VkFloats != null)
+			return toDouble(VkFloats);
+		if(Vkdata == null && mappedVk != null)
+			return mappedVk.toMatrix().getArray();
 		return Vkdata;
 	}
 	/**
@@ -69,6 +104,121 @@ public class SVD implements Serializable {
 	 */
 	public void setVkdata(double[][] vkdata) {
 		Vkdata = vkdata;
+		VkFloats = null;
+		mappedVk = null;
+	}
+	
+	/**
+	 * Keeps Uk and Vk in single precision, so they use half the memory and
+	 * half the space in the file. The getters still return doubles.
+	 */
+	public void toSinglePrecision() {
+		if(Ukdata != null) {
+			UkFloats = toFloat(Ukdata);
+			Ukdata = null;
+		}
+		if(Vkdata != null) {
+			VkFloats = toFloat(Vkdata);
+			Vkdata = null;
+		}
+	}
+	
+	private static float[][] toFloat(double[][] data) {
+		float[][] floats = new float[data.length][];
+		for(int i=0;i<data.length;i++) {
+			floats[i] = new float[data[i].length];
+			for(int j=0;j<data[i].length;j++)
+				floats[i][j] = (float) data[i][j];
+		}
+		return floats;
+	}
+	
+	private static double[][] toDouble(float[][] floats) {
+		double[][] data = new double[floats.length][];
+		for(int i=0;i<floats.length;i++) {
+			data[i] = new double[floats[i].length];
+			for(int j=0;j<floats[i].length;j++)
+				data[i][j] = floats[i][j];
+		}
+		return data;
+	}
+	
+	/**
+	 * @return the terms of the rows of Uk
+	 */
+	public String[] getTerms() {
+		return terms;
+	}
+	/**
+	 * @return the passages of the rows of Vk
+	 */
+	public String[] getPassages() {
+		return passages;
+	}
+	/**
+	 * Sets the terms and passages of the SVD and its fingerprint
+	 * 
+	 * @param terms the terms of the rows of Uk
+	 * @param passages the passages of the rows of Vk
+	 */
+	public void setCorpus(String[] terms, String[] passages) {
+		this.terms = terms;
+		this.passages = passages;
+		this.fingerprint = fingerprint(terms, passages);
+	}
+	/**
+	 * @return the fingerprint of the terms and passages, null if the file
+	 * was saved by an older version
+	 */
+	public String getFingerprint() {
+		return fingerprint;
+	}
+	/**
+	 * @return the incremental updates since the SVD was calculated from scratch
+	 */
+	public int getUpdates() {
+		return updates;
+	}
+	/**
+	 * @param updates the incremental updates since the SVD was calculated from scratch
+	 */
+	public void setUpdates(int updates) {
+		this.updates = updates;
+	}
+	/**
+	 * @return true if the SVD was calculated by an approximate backend, like
+	 * a randomized SVD or a sketch
+	 */
+	public boolean isApproximate() {
+		return approximate;
+	}
+	/**
+	 * @param approximate true if the SVD was calculated by an approximate backend
+	 */
+	public void setApproximate(boolean approximate) {
+		this.approximate = approximate;
+	}
+	
+	/**
+	 * A 64 bits FNV-1a hash of the terms and passages, in order, with their counts
+	 * 
+	 * @param terms
+	 * @param passages
+	 * @return the fingerprint
+	 */
+	public static String fingerprint(String[] terms, String[] passages) {
+		long hash = 0xcbf29ce484222325L;
+		for(String[] list : new String[][] {terms, passages}) {
+			for(String s : list) {
+				for(int i=0;i<s.length();i++) {
+					hash ^= s.charAt(i);
+					hash *= 0x100000001b3L;
+				}
+				hash ^= 0xffff;
+				hash *= 0x100000001b3L;
+			}
+		}
+		return terms.length + "x" + passages.length + "_" + Long.toHexString(hash);
 	}
 	
 	public void saveSVD(File file) throws IOException {
@@ -78,11 +228,54 @@ public class SVD implements Serializable {
 		objSt.close();		
 	}
 	
+	/**
+	 * Saves the SVD with Uk and Vk in their own files, next to the SVD file
+	 * with the extensions .uk and .vk, which are mapped in memory instead of
+	 * read when the SVD is read (see {@link MappedMatrix}). Afterwards Uk and
+	 * Vk are read from the mapped files.
+	 * 
+	 * @param file
+	 * @throws IOException
+	 */
+	public void saveMapped(File file) throws IOException {
+		boolean single = UkFloats != null || (mappedUk != null && mappedUk.isSinglePrecision());
+		MappedMatrix uk = MappedMatrix.write(new File(file.getPath() + ".uk"), 
+				new DenseMatrix(new Matrix(getUkdata())), single);
+		MappedMatrix vk = MappedMatrix.write(new File(file.getPath() + ".vk"), 
+				new DenseMatrix(new Matrix(getVkdata())), single);
+		setUkdata(null);
+		setVkdata(null);
+		mappedUk = uk;
+		mappedVk = vk;
+		mapped = true;
+		saveSVD(file);
+	}
+	
+	/**
+	 * @return Uk mapped from its file, or null if the SVD was not saved with
+	 * {@link #saveMapped(File)}
+	 */
+	public MappedMatrix getMappedUk() {
+		return mappedUk;
+	}
+	
+	/**
+	 * @return Vk mapped from its file, or null if the SVD was not saved with
+	 * {@link #saveMapped(File)}
+	 */
+	public MappedMatrix getMappedVk() {
+		return mappedVk;
+	}
+	
 	public static SVD readSVD(File file) throws IOException, ClassNotFoundException {
 		FileInputStream stream = new FileInputStream(file);
 		ObjectInputStream objSt = new ObjectInputStream(stream);
 		SVD svd = (SVD) objSt.readObject();
 		objSt.close();
+		if(svd.mapped) {
+			svd.mappedUk = MappedMatrix.open(new File(file.getPath() + ".uk"));
+			svd.mappedVk = MappedMatrix.open(new File(file.getPath() + ".vk"));
+		}
 		return svd;
 	}
 }
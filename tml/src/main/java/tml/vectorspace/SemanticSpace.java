@@ -17,6 +17,9 @@
 package tml.vectorspace;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 import Jama.SingularValueDecomposition;
 import Jama.Matrix;
@@ -25,7 +28,15 @@ import org.apache.log4j.Logger;
 
 import tml.corpus.Corpus;
 import tml.corpus.CorpusParameters.DimensionalityReduction;
+import tml.utils.DenseMatrix;
 import tml.utils.LanczosSVDLIBCUtils;
+import tml.utils.MappedMatrix;
+import tml.utils.MatrixKernels;
+import tml.vectorspace.factorisation.FrequentDirections;
+import tml.vectorspace.factorisation.GramSingularValueDecomposition;
+import tml.vectorspace.factorisation.IncrementalSingularValueDecomposition;
+import tml.vectorspace.factorisation.MatrixFactorisation;
+import tml.vectorspace.factorisation.RandomizedSingularValueDecomposition;
 
 
 /**
@@ -72,8 +83,22 @@ public class SemanticSpace implements Cloneable {
 	private Matrix Vk = null;
 	/** The number of dimensions that were kept */
 	private int dimensionsKept = -1;
+	/** If Uk, Sk and Vk come from an approximate backend */
+	private boolean approximate = false;
 	/** The time in milliseconds the {@link SemanticSpace} took to calculate the space */
 	private long processingTime = 0;
+	/** Passage vectors scaled by Sk and normalized, calculated on demand */
+	private DenseMatrix normalizedPassages = null;
+	/** Term vectors scaled by Sk and normalized, calculated on demand */
+	private DenseMatrix normalizedTerms = null;
+	/** Uk in single precision or mapped from a file, Uk is null when it is used */
+	private DenseMatrix storedUk = null;
+	/** Vk in single precision or mapped from a file, Vk is null when it is used */
+	private DenseMatrix storedVk = null;
+	/** The random indexing engine, when used instead of an SVD */
+	private RandomIndexing randomIndexing = null;
+	/** If passages were added to the engine after Uk and Vk were read from it */
+	private volatile boolean stale = false;
 
 	/**
 	 * Creates a new {@link SemanticSpace} from a {@link Corpus}.
@@ -87,8 +112,8 @@ public class SemanticSpace implements Cloneable {
 	}
 	
 	public boolean isCalculated() {
-		return this.Uk != null
-		&& this.Vk != null
+		return (this.Uk != null || this.storedUk != null)
+		&& (this.Vk != null || this.storedVk != null)
 		&& this.Sk != null
 		&& this.dimensionsKept > 0;
 	}
@@ -96,30 +121,68 @@ public class SemanticSpace implements Cloneable {
 	/**
 	 * Applies the dimensionality reduction to the matrix
 	 */
-	private Matrix applyDimensionalityReduction(Matrix termDoc) {
+	private void applyDimensionalityReduction(Matrix termDoc) {
 
 		logger.debug("Applying dimensionality reduction");
 
-		dimensionsKept = this.corpus.getDimensions();
+		this.normalizedPassages = null;
+		this.normalizedTerms = null;
 
-		String svdFilename = "tml_" +
-			this.corpus.getFilename() + "_" +
-			this.corpus.getParameters() + "_DIM_" +
-			this.dimensionsKept + ".svd";
+		dimensionsKept = this.corpus.getDimensions();
 
+		String svdFilename = svdFilename();
 		File svdFile = new File(this.corpus.getRepository().getSvdStoragePath()
 				+ "/" + svdFilename);
 
+		String[] terms = this.corpus.getTerms();
+		String[] passages = this.passageIds();
+
+		long nonZeros = 0;
+		for(Corpus.PassageFreqs frequencies : this.corpus.getPassageFrequencies())
+			nonZeros += frequencies.getTermsIndices().length;
+		DecompositionPlanner planner = new DecompositionPlanner(
+				terms.length, passages.length, nonZeros, dimensionsKept);
+		planner.setLanczosRequested(this.corpus.getParameters().isLanczosSVD()
+				&& this.corpus.getParameters().getDimensionalityReduction() 
+				!= DimensionalityReduction.VARPCT);
+		if(this.corpus.getParameters().getMemoryBudget() > 0)
+			planner.setBudget(this.corpus.getParameters().getMemoryBudget() * 1024L * 1024L);
+		DecompositionPlanner.Backend planned = planner.plan().getBackend();
+
 		boolean readSVDFromFile = false;
 		if(this.corpus.getPassages().length * this.corpus.getTerms().length > MAX_MATRIX_SIZE) {
 			if(svdFile.exists()) {
 				try {
 					SVD svd = SVD.readSVD(svdFile);
-					readSVDFromFile = true;
-					this.Uk = new Matrix(svd.getUkdata());
-					this.Sk = new Matrix(svd.getSkdata());
-					this.Vk = new Matrix(svd.getVkdata());
-					logger.debug("Big corpus, SVD file exists, reading it.");
+					// An approximate SVD is not used if an exact one fits,
+					// files from older versions have no fingerprint
+					if(svd.isApproximate() && planned.isExact()) {
+						logger.debug("Big corpus, SVD file is approximate but an exact SVD fits, calculating it again.");
+					} else if(svd.getFingerprint() == null 
+							|| svd.getFingerprint().equals(SVD.fingerprint(terms, passages))) {
+						readSVDFromFile = true;
+						this.Sk = new Matrix(svd.getSkdata());
+						if(svd.getMappedUk() != null) {
+							this.storedUk = svd.getMappedUk();
+							this.storedVk = svd.getMappedVk();
+							this.Uk = null;
+							this.Vk = null;
+							logger.debug("Big corpus, SVD file exists, mapping it.");
+						} else {
+							this.Uk = new Matrix(svd.getUkdata());
+							this.Vk = new Matrix(svd.getVkdata());
+							logger.debug("Big corpus, SVD file exists, reading it.");
+						}
+						dimensionsKept = this.Sk.getRowDimension();
+						approximate = svd.isApproximate();
+					} else if(updateSVD(termDoc, svd, terms, passages)) {
+						readSVDFromFile = true;
+						approximate = svd.isApproximate();
+						saveSVD(svd, svdFile);
+						logger.debug("Big corpus, SVD file updated with the new passages.");
+					} else {
+						logger.debug("Big corpus, SVD file is from a different corpus, calculating it again.");
+					}
 				} catch (Exception e) {
 					logger.debug("Big corpus, SVD file exists, but there were problems reading it.");
 					logger.error(e);
@@ -129,10 +192,43 @@ public class SemanticSpace implements Cloneable {
 			}
 		}
 
-		if(this.corpus.getParameters().isLanczosSVD()
-				&& !readSVDFromFile 
-				&& this.corpus.getParameters().getDimensionalityReduction() 
-				!= DimensionalityReduction.VARPCT) {
+		DecompositionPlanner.Backend backend = null;
+		if(!readSVDFromFile) {
+			backend = planned;
+			approximate = !backend.isExact();
+
+			MatrixFactorisation factorisation = null;
+			switch(backend) {
+			case GRAM_EIGEN:
+				factorisation = new GramSingularValueDecomposition();
+				break;
+			case RANDOMIZED:
+				RandomizedSingularValueDecomposition randomized = new RandomizedSingularValueDecomposition();
+				randomized.setOversampling(DecompositionPlanner.OVERSAMPLING);
+				randomized.setPowerIterations(DecompositionPlanner.POWER_ITERATIONS);
+				factorisation = randomized;
+				break;
+			case STREAMING:
+				FrequentDirections streaming = new FrequentDirections();
+				streaming.setSketchSize(planner.getSketchSize());
+				factorisation = streaming;
+				break;
+			default:
+				break;
+			}
+			if(factorisation != null) {
+				factorisation.setK(dimensionsKept);
+				if(backend == DecompositionPlanner.Backend.STREAMING)
+					streamPassages((FrequentDirections) factorisation, termDoc);
+				else
+					factorisation.process(termDoc);
+				this.Uk = new Matrix(factorisation.getDecomposition().getUkdata());
+				this.Sk = new Matrix(factorisation.getDecomposition().getSkdata());
+				this.Vk = new Matrix(factorisation.getDecomposition().getVkdata());
+			}
+		}
+
+		if(backend == DecompositionPlanner.Backend.LANCZOS) {
 			logger.debug("Using Lanczos");
 			LanczosSVDLIBCUtils utils = null;
 			try {
@@ -144,32 +240,22 @@ public class SemanticSpace implements Cloneable {
 				this.Uk = null;
 				this.Sk = null;
 				this.Vk = null;
-				return null;
+				return;
 			}
 			this.Uk = utils.getU();
 			this.Sk = utils.getS();
 			this.Vk = utils.getV();
 		}
-		else if(!readSVDFromFile){
+		else if(backend == DecompositionPlanner.Backend.JAMA) {
 			logger.debug("Using Jama SVD");
 			SingularValueDecomposition svd = termDoc.svd();
 			this.Uk = new Matrix(svd.getU().getArray());
 			this.Sk = new Matrix(svd.getS().getArray());
 			this.Vk = new Matrix(svd.getV().getArray());
+		}
 
-			boolean invert = false;
-			for(int i=0;i<this.Uk.getRowDimension();i++) {
-				if(this.Uk.get(i, 0) < 0) {
-					invert = true;
-					break;
-				}
-			}
-			if(invert) {
-				logger.warn("Matrix inverted because first dimensions caused negative singular vectors in Jama");
-				this.Uk = this.Uk.times(-1);
-				this.Vk = this.Vk.times(-1);
-			}
-		}
+		if(backend != null && backend != DecompositionPlanner.Backend.LANCZOS)
+			invertNegativeVectors();
 
 		if(this.corpus.getParameters().getDimensionalityReduction() != DimensionalityReduction.NO
 				&& !readSVDFromFile) {
@@ -186,32 +272,320 @@ public class SemanticSpace implements Cloneable {
 			this.Sk = nSk;
 		}
 
-		if(this.corpus.getPassages().length * this.corpus.getTerms().length > 10000
-				&& !readSVDFromFile) {
-			SVD svd = new SVD();
-			svd.setUkdata(this.Uk.getArray());
-			svd.setSkdata(this.Sk.getArray());
-			svd.setVkdata(this.Vk.getArray());
+		if(!readSVDFromFile)
+			saveCache();
 
-			try {
-				svd.saveSVD(svdFile);
-			} catch (Exception e) {
-				logger.error(e);
+		// The reduced matrix Ak is not reconstructed here, operations work
+		// directly with Uk, Sk and Vk. Use getTermsDocuments() if Ak is needed.
+	}
+	/**
+	 * The name doesn't include the dimensions kept, they change with the
+	 * number of passages when the reduction is a percentage, and the SVD
+	 * cached before adding passages must still be found to update it.
+	 * 
+	 * @return the name of the file that caches the SVD of the corpus
+	 */
+	private String svdFilename() {
+		return "tml_" +
+			this.corpus.getFilename() + "_" +
+			this.corpus.getParameters() + ".svd";
+	}
+
+	/**
+	 * Inverts Uk and Vk if the first dimension has negative values
+	 */
+	private void invertNegativeVectors() {
+		boolean invert = false;
+		for(int i=0;i<this.Uk.getRowDimension();i++) {
+			if(this.Uk.get(i, 0) < 0) {
+				invert = true;
+				break;
 			}
 		}
+		if(invert) {
+			logger.warn("Matrix inverted because first dimensions caused negative singular vectors");
+			this.Uk = this.Uk.times(-1);
+			this.Vk = this.Vk.times(-1);
+		}
+	}
 
-		try {
-			termDoc = this.Uk.times(this.Sk).times(
-					this.Vk.transpose());
-		} catch (ArrayIndexOutOfBoundsException ex) {
-			logger
-			.error("Problem reconstructing with reconstructing the matrix after DR");
-			throw ex;
-		}
-
-		return termDoc;
+	/**
+	 * Saves the SVD of the space in the cache, if the corpus is big enough
+	 */
+	void saveCache() {
+		if(this.corpus.getPassages().length * this.corpus.getTerms().length <= 10000)
+			return;
+		SVD svd = new SVD();
+		svd.setUkdata(this.Uk.getArray());
+		svd.setSkdata(this.Sk.getArray());
+		svd.setVkdata(this.Vk.getArray());
+		svd.setCorpus(this.corpus.getTerms(), this.passageIds());
+		svd.setApproximate(approximate);
+		if(this.corpus.getParameters().isSinglePrecision())
+			svd.toSinglePrecision();
+
+		try {
+			saveSVD(svd, new File(this.corpus.getRepository().getSvdStoragePath()
+					+ "/" + svdFilename()));
+		} catch (Exception e) {
+			logger.error(e);
+		}
 	}
-	/**
+
+	/**
+	 * Sets a decomposition calculated outside of the space, by a
+	 * {@link SemanticSpaceBatch}. The signs are fixed like in
+	 * {@link #calculate()}, but the factors are kept in double precision
+	 * until {@link #finishDecomposition(long)} so the cache can be saved.
+	 */
+	void setDecomposition(Matrix uk, Matrix sk, Matrix vk) {
+		this.normalizedPassages = null;
+		this.normalizedTerms = null;
+		this.Uk = uk;
+		this.Sk = sk;
+		this.Vk = vk;
+		this.storedUk = null;
+		this.storedVk = null;
+		this.dimensionsKept = sk.getColumnDimension();
+		this.approximate = false;
+		invertNegativeVectors();
+	}
+
+	/**
+	 * Stores the factors with the precision the parameters ask for, once
+	 * the space is calculated
+	 */
+	void finishDecomposition(long processingTime) {
+		if(this.corpus.getParameters().isSinglePrecision() && this.Uk != null && this.Vk != null) {
+			this.storedUk = new DenseMatrix(this.Uk).toSinglePrecision();
+			this.storedVk = new DenseMatrix(this.Vk).toSinglePrecision();
+			this.Uk = null;
+			this.Vk = null;
+		}
+		this.processingTime = processingTime;
+	}
+
+	/**
+	 * Saves the SVD in the cache. If the corpus parameters ask for mapped
+	 * storage Uk and Vk are saved in their own files and the space uses the
+	 * mapped files from then on.
+	 */
+	private void saveSVD(SVD svd, File svdFile) throws IOException {
+		if(!this.corpus.getParameters().isMappedStorage()) {
+			svd.saveSVD(svdFile);
+			return;
+		}
+		svd.saveMapped(svdFile);
+		this.storedUk = svd.getMappedUk();
+		this.storedVk = svd.getMappedVk();
+		this.Uk = null;
+		this.Vk = null;
+	}
+
+	/**
+	 * Adds the passages that are not in a cached SVD with
+	 * {@link IncrementalSingularValueDecomposition}, instead of calculating
+	 * the whole SVD again. Rows of Uk are matched by term, new terms start
+	 * as zero rows. The update keeps the dimensions of the corpus now, which
+	 * change with the number of passages if the reduction is a percentage.
+	 * The space and the cached SVD are updated.
+	 * 
+	 * @return false if the cached SVD can't be updated, because it has no
+	 *         terms and passages, passages were removed or no passages were
+	 *         added
+	 */
+	private boolean updateSVD(Matrix termDoc, SVD svd, String[] terms, String[] passages) {
+		if(svd.getTerms() == null || svd.getPassages() == null)
+			return false;
+
+		Map<String, Integer> passageIndex = new HashMap<String, Integer>();
+		for(int doc=0;doc<passages.length;doc++)
+			passageIndex.put(passages[doc], doc);
+		int[] cachedColumns = new int[svd.getPassages().length];
+		boolean[] cached = new boolean[passages.length];
+		for(int doc=0;doc<cachedColumns.length;doc++) {
+			Integer column = passageIndex.get(svd.getPassages()[doc]);
+			if(column == null || cached[column])
+				return false;
+			cachedColumns[doc] = column;
+			cached[column] = true;
+		}
+		int[] newColumns = new int[passages.length - cachedColumns.length];
+		if(newColumns.length == 0)
+			return false;
+		for(int doc=0, i=0;doc<passages.length;doc++)
+			if(!cached[doc])
+				newColumns[i++] = doc;
+
+		IncrementalSingularValueDecomposition isvd = new IncrementalSingularValueDecomposition();
+		isvd.setK(dimensionsKept);
+		isvd.setDecomposition(new Matrix(svd.getUkdata()), new Matrix(svd.getSkdata()), 
+				new Matrix(svd.getVkdata()), svd.getUpdates(), svd.getTerms(), terms);
+		isvd.update(termDoc.getMatrix(0, terms.length-1, newColumns));
+
+		// Rows of Vk back in the order of the passages in the corpus
+		Matrix vk = isvd.getVk();
+		Matrix ordered = new Matrix(passages.length, vk.getColumnDimension());
+		for(int doc=0;doc<cachedColumns.length;doc++)
+			ordered.setMatrix(cachedColumns[doc], cachedColumns[doc], 
+					0, vk.getColumnDimension()-1, vk.getMatrix(doc, doc, 0, vk.getColumnDimension()-1));
+		for(int doc=0;doc<newColumns.length;doc++)
+			ordered.setMatrix(newColumns[doc], newColumns[doc], 0, vk.getColumnDimension()-1, 
+					vk.getMatrix(cachedColumns.length + doc, cachedColumns.length + doc, 0, vk.getColumnDimension()-1));
+
+		this.Uk = isvd.getUk();
+		this.Sk = isvd.getSk();
+		this.Vk = ordered;
+		// The rank can't grow by more than the passages added
+		dimensionsKept = this.Sk.getRowDimension();
+
+		svd.setUkdata(this.Uk.getArray());
+		svd.setSkdata(this.Sk.getArray());
+		svd.setVkdata(this.Vk.getArray());
+		svd.setCorpus(terms, passages);
+		svd.setUpdates(isvd.getUpdates());
+		if(this.corpus.getParameters().isSinglePrecision())
+			svd.toSinglePrecision();
+		logger.debug(newColumns.length + " passages added to the SVD, update " + isvd.getUpdates());
+		return true;
+	}
+
+	/**
+	 * Builds the space with {@link RandomIndexing} in a single pass over the
+	 * term frequencies of the passages, using their weights in the term-doc
+	 * matrix. Uk are the term vectors, Vk the passage vectors and Sk the
+	 * identity, so the operations use the space as if it came from an SVD.
+	 */
+	private void applyRandomIndexing(Matrix termDoc) {
+
+		logger.debug("Applying random indexing");
+
+		this.normalizedPassages = null;
+		this.normalizedTerms = null;
+
+		dimensionsKept = this.corpus.getParameters().getRandomIndexingDimensions();
+		this.randomIndexing = new RandomIndexing(dimensionsKept, 
+				Math.min(10, dimensionsKept), 42);
+
+		String[] terms = this.corpus.getTerms();
+		String[] passages = this.passageIds();
+		Corpus.PassageFreqs[] frequencies = this.corpus.getPassageFrequencies();
+		for(int doc=0;doc<passages.length;doc++) {
+			int[] indices = frequencies[doc].getTermsIndices();
+			String[] passageTerms = new String[indices.length];
+			double[] weights = new double[indices.length];
+			for(int i=0;i<indices.length;i++) {
+				passageTerms[i] = terms[indices[i]];
+				weights[i] = termDoc.get(indices[i], doc);
+			}
+			this.randomIndexing.addPassage(passages[doc], passageTerms, weights);
+		}
+
+		this.Uk = this.randomIndexing.getTermVectors(terms).toMatrix();
+		this.Vk = this.randomIndexing.getPassageVectors(passages).toMatrix();
+		this.Sk = Matrix.identity(dimensionsKept, dimensionsKept);
+	}
+
+	/**
+	 * Builds the {@link FrequentDirections} sketch from the term frequencies
+	 * of the passages, using their weights in the term-doc matrix, so only
+	 * the non zero values of each passage are read. The passages are
+	 * projected in a second pass.
+	 */
+	private void streamPassages(FrequentDirections streaming, Matrix termDoc) {
+
+		Corpus.PassageFreqs[] frequencies = this.corpus.getPassageFrequencies();
+		streaming.start(termDoc.getRowDimension());
+		for(int doc=0;doc<frequencies.length;doc++)
+			streaming.update(frequencies[doc].getTermsIndices(), 
+					weights(frequencies[doc], termDoc, doc));
+		streaming.finish();
+
+		double[][] vk = new double[frequencies.length][];
+		for(int doc=0;doc<frequencies.length;doc++)
+			vk[doc] = streaming.project(frequencies[doc].getTermsIndices(), 
+					weights(frequencies[doc], termDoc, doc));
+		streaming.getDecomposition().setVkdata(vk);
+	}
+
+	/**
+	 * @return the weights in the term-doc matrix of the terms in a passage
+	 */
+	private static double[] weights(Corpus.PassageFreqs frequencies, Matrix termDoc, int doc) {
+		int[] indices = frequencies.getTermsIndices();
+		double[] weights = new double[indices.length];
+		for(int i=0;i<indices.length;i++)
+			weights[i] = termDoc.get(indices[i], doc);
+		return weights;
+	}
+
+	/**
+	 * @return the ids of the passages for random indexing, the Lucene id is
+	 *         used if a passage has no external id
+	 */
+	private String[] passageIds() {
+		String[] passages = this.corpus.getPassages().clone();
+		for(int doc=0;doc<passages.length;doc++)
+			if(passages[doc] == null)
+				passages[doc] = "#" + this.corpus.getPassagesLuceneIds()[doc];
+		return passages;
+	}
+
+	/**
+	 * @return the {@link RandomIndexing} engine of the space, to project new
+	 *         passages, or null if the space was calculated with an SVD.
+	 *         Passages must be added with
+	 *         {@link #addPassage(String, String[], double[])} so the space is
+	 *         updated too.
+	 */
+	public RandomIndexing getRandomIndexing() {
+		return randomIndexing;
+	}
+
+	/**
+	 * Adds a passage to a space calculated with {@link RandomIndexing}, or
+	 * replaces it if it was already added. The context vectors of its terms
+	 * change, so Uk and Vk are read again from the engine, and the
+	 * normalized vectors calculated again, the next time the space is read.
+	 * Adding many passages in a row reads them only once. The vector of a
+	 * passage that is not in the corpus is available from the engine.
+	 * 
+	 * @param passage
+	 *            the id of the passage
+	 * @param terms
+	 *            the terms in the passage
+	 * @param weights
+	 *            the weight of each term
+	 */
+	public synchronized void addPassage(String passage, String[] terms, double[] weights) {
+		if(this.randomIndexing == null)
+			throw new IllegalStateException("Only a space calculated with random indexing can add passages");
+		this.randomIndexing.addPassage(passage, terms, weights);
+		this.normalizedPassages = null;
+		this.normalizedTerms = null;
+		this.stale = true;
+	}
+
+	/**
+	 * Reads Uk and Vk again from the {@link RandomIndexing} engine if
+	 * passages were added since the last time
+	 */
+	private void refresh() {
+		if(!this.stale)
+			return;
+		synchronized(this) {
+			if(!this.stale)
+				return;
+			this.Uk = this.randomIndexing.getTermVectors(this.corpus.getTerms()).toMatrix();
+			this.Vk = this.randomIndexing.getPassageVectors(this.passageIds()).toMatrix();
+			this.storedUk = null;
+			this.storedVk = null;
+			finishDecomposition(this.processingTime);
+			this.stale = false;
+		}
+	}
+
+	/**
 	 * Calculates the term by doc matrix for the {@link SemanticSpace} based on
 	 * the documents in the {@link Corpus}.
 	 * 
@@ -233,13 +607,15 @@ public class SemanticSpace implements Cloneable {
 
 		Matrix m = this.corpus.getTermDocMatrix();
 
-		if(!this.corpus.isProjection()) {
-			// Apply the dimensionality reduction
-			m = this.applyDimensionalityReduction(m);
+		if(!this.corpus.isProjection()) {
+			if(this.corpus.getParameters().isRandomIndexing())
+				this.applyRandomIndexing(m);
+			else
+				// Apply the dimensionality reduction
+				this.applyDimensionalityReduction(m);
 		}
 
-		this.processingTime = System.currentTimeMillis()
-		- this.processingTime;
+		finishDecomposition(System.currentTimeMillis() - this.processingTime);
 
 		logger.info("Semantic space calculated in "
 				+ this.processingTime + " ms. " +
@@ -255,6 +631,15 @@ public class SemanticSpace implements Cloneable {
 			clone.Sk = this.Sk.copy();
 		if(this.Vk != null)
 			clone.Vk = this.Vk.copy();
+		// Mapped factors are read only, so they are shared
+		if(this.storedUk != null && !(this.storedUk instanceof MappedMatrix))
+			clone.storedUk = this.storedUk.copy();
+		if(this.storedVk != null && !(this.storedVk instanceof MappedMatrix))
+			clone.storedVk = this.storedVk.copy();
+		if(this.randomIndexing != null)
+			clone.randomIndexing = this.randomIndexing.copy();
+		clone.normalizedPassages = null;
+		clone.normalizedTerms = null;
 		return clone;
 	}
 
@@ -298,11 +683,137 @@ public class SemanticSpace implements Cloneable {
 		return Sk;
 	}
 
+	/**
+	 * Gets the passage vectors in the reduced space, scaled by the singular
+	 * values and normalized to unit length, so the dot product between two
+	 * rows is the cosine similarity between the passages. The matrix is
+	 * calculated once and shared, it must not be modified. It is stored in
+	 * single precision if the corpus parameters ask for it.
+	 * 
+	 * @return a matrix with one row per passage
+	 */
+	public synchronized DenseMatrix getNormalizedPassageVectors() {
+		refresh();
+		if (this.normalizedPassages == null && (this.Vk != null || this.storedVk != null))
+			this.normalizedPassages = normalize(this.Vk, this.storedVk);
+		return this.normalizedPassages;
+	}
+
+	/**
+	 * Gets the term vectors in the reduced space (Uk*Sk) normalized to unit
+	 * length, so the dot product between two rows is the cosine similarity
+	 * between the terms. The matrix is calculated once and shared, it must not
+	 * be modified. It is stored in single precision if the corpus parameters
+	 * ask for it.
+	 * 
+	 * @return a matrix with one row per term
+	 */
+	public synchronized DenseMatrix getNormalizedTermVectors() {
+		refresh();
+		if (this.normalizedTerms == null && (this.Uk != null || this.storedUk != null))
+			this.normalizedTerms = normalize(this.Uk, this.storedUk);
+		return this.normalizedTerms;
+	}
+
+	/**
+	 * Copies the vector of a term, a row of Uk. When the space is stored in
+	 * single precision or mapped from a file the row is read directly from
+	 * the stored factor, so operations that go through the rows never copy
+	 * the whole of Uk.
+	 * 
+	 * @param term
+	 *            the index of the term
+	 * @param out
+	 *            an array for the vector, or null to create one. The same
+	 *            array can be passed again to read the next row
+	 * @return the vector
+	 */
+	public double[] getTermVector(int term, double[] out) {
+		refresh();
+		return row(this.Uk, this.storedUk, term, out);
+	}
+
+	/**
+	 * Copies the vector of a passage, a row of Vk, reading it directly from
+	 * the stored factor like {@link #getTermVector(int, double[])}.
+	 * 
+	 * @param passage
+	 *            the index of the passage
+	 * @param out
+	 *            an array for the vector, or null to create one
+	 * @return the vector
+	 */
+	public double[] getPassageVector(int passage, double[] out) {
+		refresh();
+		return row(this.Vk, this.storedVk, passage, out);
+	}
+
+	/**
+	 * Gets the passage vectors multiplied by a weight per dimension, usually
+	 * the singular values of this or another space. The rows are read one by
+	 * one, so the only matrix created is the result.
+	 * 
+	 * @param s
+	 *            the weights, at least one per dimension of Vk
+	 * @return a new double precision matrix with one row per passage
+	 */
+	public DenseMatrix getScaledPassageVectors(double[] s) {
+		refresh();
+		return scaled(this.Vk, this.storedVk, s);
+	}
+
+	private static double[] row(Matrix m, DenseMatrix stored, int row, double[] out) {
+		int columns = m != null ? m.getColumnDimension() : stored.getColumnDimension();
+		if (out == null)
+			out = new double[columns];
+		if (m == null)
+			return stored.getRow(row, out);
+		System.arraycopy(m.getArray()[row], 0, out, 0, columns);
+		return out;
+	}
+
+	/**
+	 * Scales the rows of a factor by Sk and normalizes them. The result has
+	 * the precision of the stored factor.
+	 */
+	private DenseMatrix normalize(Matrix m, DenseMatrix stored) {
+		DenseMatrix result = MatrixKernels.normalizeRows(scaled(m, stored, MatrixKernels.diagonal(this.Sk)));
+		return stored != null && stored.isSinglePrecision() ? result.toSinglePrecision() : result;
+	}
+
+	/**
+	 * Multiplies each column of a factor by a weight. The rows of a stored
+	 * factor are read directly.
+	 */
+	private static DenseMatrix scaled(Matrix m, final DenseMatrix stored, final double[] s) {
+		if (m != null)
+			return MatrixKernels.scaleColumns(new DenseMatrix(m), s);
+		final int rows = stored.getRowDimension();
+		final int columns = stored.getColumnDimension();
+		if (s.length < columns)
+			throw new IllegalArgumentException("Matrix inner dimensions must agree.");
+		DenseMatrix result = new DenseMatrix(rows, columns);
+		final double[] data = result.getData();
+		MatrixKernels.parallelRows(rows, (long) rows * columns, new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				double[] row = new double[columns];
+				for (int i = start; i < end; i++) {
+					stored.getRow(i, row);
+					for (int j = 0; j < columns; j++)
+						data[i * columns + j] = row[j] * s[j];
+				}
+			}
+		});
+		return result;
+	}
+
 	/**
 	 * @return The Ak reduced term-documents matrix.
 	 */
 	public Matrix getTermsDocuments() {
-		return this.Uk.times(this.Sk).times(this.Vk.transpose());
+		return MatrixKernels.timesTranspose(
+				MatrixKernels.scaleColumns(this.getUk(), this.Sk), this.getVk());
 	}
 
 	/**
@@ -313,18 +824,28 @@ public class SemanticSpace implements Cloneable {
 	}
 
 	/**
-	 * @return the uk
+	 * @return the uk, if the space is stored in single precision or mapped
+	 *         a new double precision copy is created on each call, use
+	 *         {@link #getTermVector(int, double[])} to read it by rows
 	 */
 	public Matrix getUk() {
+		refresh();
+		if (Uk == null && storedUk != null)
+			return storedUk.toMatrix();
 		return Uk;
 	}
 
 	/**
-	 * @return the vk
+	 * @return the vk, if the space is stored in single precision or mapped
+	 *         a new double precision copy is created on each call, use
+	 *         {@link #getPassageVector(int, double[])} to read it by rows
 	 */
 	public Matrix getVk() {
+		refresh();
+		if (Vk == null && storedVk != null)
+			return storedVk.toMatrix();
 		return Vk;
-	}
+	}
 
 	public void setCorpus(Corpus corpus) {
 		this.corpus = corpus;
@@ -334,7 +855,10 @@ public class SemanticSpace implements Cloneable {
 	 * @param vk the vk to set
 	 */
 	public void setVk(Matrix vk) {
+		refresh();
 		Vk = vk;
+		this.storedVk = null;
+		this.normalizedPassages = null;
 	}
 
 	/**
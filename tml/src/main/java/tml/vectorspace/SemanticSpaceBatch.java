@@ -0,0 +1,172 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.vectorspace;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import tml.corpus.Corpus;
+import tml.corpus.CorpusParameters.DimensionalityReduction;
+import tml.utils.MatrixKernels;
+import tml.vectorspace.factorisation.JacobiSingularValueDecomposition;
+import Jama.Matrix;
+
+/**
+ * <p>
+ * Calculates the {@link SemanticSpace}s of many small corpora at once, like
+ * the {@link tml.corpus.SentenceCorpus} of each essay in a collection. For
+ * spaces this small the overhead of each call dominates, so the corpora are
+ * loaded without calculating their spaces (see
+ * {@link tml.corpus.CorpusParameters#setCalculateSemanticSpace(boolean)}),
+ * added to the batch and decomposed together:
+ * </p>
+ * 
+ * <pre>
+ * SemanticSpaceBatch batch = new SemanticSpaceBatch();
+ * for (TextDocument document : documents) {
+ * 	SentenceCorpus corpus = new SentenceCorpus(document);
+ * 	corpus.getParameters().setCalculateSemanticSpace(false);
+ * 	corpus.load(repository);
+ * 	batch.add(corpus);
+ * }
+ * batch.calculate();
+ * </pre>
+ * <p>
+ * The corpora are split in blocks that are processed in parallel with
+ * {@link MatrixKernels#parallelRows(int, long, MatrixKernels.RowTask)}. Each
+ * block uses one {@link JacobiSingularValueDecomposition}, so its scratch
+ * buffers are reused by all the corpora of the block. Once every space is
+ * calculated the SVD caches of the corpora big enough to have one are saved
+ * in a single pass. Corpora using random indexing or projections are
+ * calculated as usual.
+ * </p>
+ * 
+ * @author Jorge Villalon
+ * 
+ */
+public class SemanticSpaceBatch {
+
+	private static Logger logger = Logger.getLogger(SemanticSpaceBatch.class);
+
+	/** The corpora in the batch */
+	private List<Corpus> corpora = new ArrayList<Corpus>();
+	/** Time taken by the last calculation in ms */
+	private long processingTime = 0;
+
+	/**
+	 * Adds a loaded corpus to the batch
+	 * 
+	 * @param corpus
+	 */
+	public void add(Corpus corpus) {
+		this.corpora.add(corpus);
+	}
+
+	/**
+	 * @return the corpora in the batch
+	 */
+	public List<Corpus> getCorpora() {
+		return corpora;
+	}
+
+	/**
+	 * Calculates the semantic spaces of all the corpora in the batch
+	 * 
+	 * @throws NotEnoughTermsInCorpusException
+	 *             if a corpus has fewer terms than passages, no space is
+	 *             calculated in that case
+	 */
+	public void calculate() throws NotEnoughTermsInCorpusException {
+		this.processingTime = System.currentTimeMillis();
+
+		final Corpus[] batch = this.corpora.toArray(new Corpus[this.corpora.size()]);
+		final long[] times = new long[batch.length];
+		long work = 0;
+		for (Corpus corpus : batch) {
+			int terms = corpus.getTerms().length;
+			int passages = corpus.getPassages().length;
+			if (terms <= 0 || terms < passages - 1)
+				throw new NotEnoughTermsInCorpusException();
+			int side = Math.min(terms, passages);
+			work += (long) terms * passages * side;
+		}
+
+		MatrixKernels.parallelRows(batch.length, work, new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				JacobiSingularValueDecomposition svd = new JacobiSingularValueDecomposition();
+				for (int c = start; c < end; c++) {
+					times[c] = System.currentTimeMillis();
+					decompose(batch[c], svd);
+					times[c] = System.currentTimeMillis() - times[c];
+				}
+			}
+		});
+
+		// The caches are written after all the decompositions
+		for (Corpus corpus : batch)
+			if (!usesOwnCalculation(corpus))
+				corpus.getSemanticSpace().saveCache();
+		for (int c = 0; c < batch.length; c++)
+			if (!usesOwnCalculation(batch[c]))
+				batch[c].getSemanticSpace().finishDecomposition(times[c]);
+
+		this.processingTime = System.currentTimeMillis() - this.processingTime;
+		logger.info(batch.length + " semantic spaces calculated in "
+				+ this.processingTime + " ms, " + getThroughput() + " per second");
+	}
+
+	private static boolean usesOwnCalculation(Corpus corpus) {
+		return corpus.isProjection() || corpus.getParameters().isRandomIndexing();
+	}
+
+	private static void decompose(Corpus corpus, JacobiSingularValueDecomposition svd) {
+		SemanticSpace space = corpus.getSemanticSpace();
+		if (usesOwnCalculation(corpus)) {
+			try {
+				space.calculate();
+			} catch (NotEnoughTermsInCorpusException e) {
+				throw new RuntimeException(e);
+			}
+			return;
+		}
+		if (corpus.getParameters().getDimensionalityReduction() == DimensionalityReduction.NO)
+			svd.setK(0);
+		else
+			svd.setK(corpus.getDimensions());
+		svd.process(corpus.getTermDocMatrix());
+		space.setDecomposition(
+				new Matrix(svd.getDecomposition().getUkdata()),
+				new Matrix(svd.getDecomposition().getSkdata()),
+				new Matrix(svd.getDecomposition().getVkdata()));
+	}
+
+	/**
+	 * @return the time taken by the last calculation in ms
+	 */
+	public long getProcessingTime() {
+		return processingTime;
+	}
+
+	/**
+	 * @return the number of corpora per second in the last calculation
+	 */
+	public double getThroughput() {
+		return this.corpora.size() * 1000.0 / Math.max(1, this.processingTime);
+	}
+}
@@ -0,0 +1,370 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.vectorspace.factorisation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>
+ * Periodic checkpoints of an iterative factorisation, so a run that is
+ * killed can continue from the last checkpoint instead of starting again.
+ * A checkpoint is the iteration number, a few scalars (like the last value
+ * of the objective) and the factor arrays.
+ * </p>
+ * <p>
+ * Saving only copies the arrays, the file is written by a background thread
+ * so the iterations don't wait for the disk. If a new checkpoint arrives
+ * while the previous one is still being written only the newest one is
+ * written next. The file is written to a temporary file and then renamed,
+ * so a run killed while writing keeps the previous checkpoint.
+ * </p>
+ * <p>
+ * The format is a compact little-endian binary: a magic number, the
+ * version, the iteration, the scalars and then each array preceded by its
+ * length. A good place for the file is the folder where the repository
+ * keeps its SVDs ({@link tml.storage.Repository#getSvdStoragePath()}).
+ * </p>
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class FactorisationCheckpoint {
+
+	/**
+	 * The content of a checkpoint
+	 */
+	public static class State {
+		private final int iteration;
+		private final double[] scalars;
+		private final double[][] arrays;
+
+		public State(int iteration, double[] scalars, double[][] arrays) {
+			this.iteration = iteration;
+			this.scalars = scalars;
+			this.arrays = arrays;
+		}
+
+		/**
+		 * @return the iteration when the checkpoint was saved
+		 */
+		public int getIteration() {
+			return iteration;
+		}
+
+		/**
+		 * @return the scalars saved
+		 */
+		public double[] getScalars() {
+			return scalars;
+		}
+
+		/**
+		 * @return the arrays saved, in the same order
+		 */
+		public double[][] getArrays() {
+			return arrays;
+		}
+	}
+
+	private static final int MAGIC = 0x544D4C43;
+	private static final int VERSION = 1;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final Log logger = LogFactory.getLog(getClass());
+	private final File file;
+	private final int interval;
+
+	/** Writes the checkpoints */
+	private ExecutorService writer = null;
+	/** The newest checkpoint not written yet */
+	private State pending = null;
+	/** True while a write is scheduled */
+	private boolean scheduled = false;
+
+	/**
+	 * @param file
+	 *            the checkpoint file
+	 * @param interval
+	 *            the number of iterations between checkpoints
+	 */
+	public FactorisationCheckpoint(File file, int interval) {
+		if (interval < 1)
+			throw new IllegalArgumentException("The interval must be at least 1");
+		this.file = file;
+		this.interval = interval;
+	}
+
+	/**
+	 * @return true if a checkpoint should be saved after an iteration
+	 */
+	public boolean isDue(int iteration) {
+		return iteration % interval == 0;
+	}
+
+	/**
+	 * Copies the arrays and writes them in the background
+	 *
+	 * @param iteration
+	 *            the iteration just finished
+	 * @param scalars
+	 *            the scalars to save
+	 * @param arrays
+	 *            the arrays to save
+	 */
+	public void save(int iteration, double[] scalars, double[]... arrays) {
+		double[][] copies = new double[arrays.length][];
+		for (int i = 0; i < arrays.length; i++)
+			copies[i] = arrays[i].clone();
+		State state = new State(iteration, scalars.clone(), copies);
+		synchronized (this) {
+			pending = state;
+			if (scheduled)
+				return;
+			scheduled = true;
+			getWriter().submit(new Runnable() {
+				@Override
+				public void run() {
+					writePending();
+				}
+			});
+		}
+	}
+
+	private void writePending() {
+		while (true) {
+			State state;
+			synchronized (this) {
+				state = pending;
+				pending = null;
+				if (state == null) {
+					scheduled = false;
+					return;
+				}
+			}
+			try {
+				write(state);
+			} catch (IOException e) {
+				logger.error("Couldn't write checkpoint " + file, e);
+			}
+		}
+	}
+
+	private File temporaryFile() {
+		return new File(file.getPath() + ".tmp");
+	}
+
+	private void write(State state) throws IOException {
+		File temporary = temporaryFile();
+		FileOutputStream stream = new FileOutputStream(temporary);
+		try {
+			FileChannel channel = stream.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(state.iteration);
+			buffer.putInt(state.scalars.length);
+			for (double scalar : state.scalars)
+				buffer.putDouble(scalar);
+			buffer.putInt(state.arrays.length);
+			for (double[] array : state.arrays) {
+				if (buffer.remaining() < 4)
+					drain(channel, buffer);
+				buffer.putInt(array.length);
+				for (double value : array) {
+					if (buffer.remaining() < 8)
+						drain(channel, buffer);
+					buffer.putDouble(value);
+				}
+			}
+			drain(channel, buffer);
+			channel.force(false);
+		} finally {
+			stream.close();
+		}
+		if (!temporary.renameTo(file)) {
+			// renaming over an existing file fails on some platforms, the
+			// complete temporary file is still read if the run dies here
+			if (!file.delete() || !temporary.renameTo(file))
+				throw new IOException("Couldn't rename " + temporary + " to " + file);
+		}
+		logger.debug("Checkpoint of iteration " + state.iteration + " written to " + file);
+	}
+
+	private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Reads the last checkpoint, if it matches the expected arrays. If the
+	 * checkpoint file is missing the temporary file is read instead, as the
+	 * run may have been killed while replacing the checkpoint.
+	 *
+	 * @param lengths
+	 *            the expected length of each array
+	 * @return the checkpoint, or null if there is no checkpoint or it
+	 *         belongs to a different problem
+	 */
+	public State load(int... lengths) {
+		File file = this.file;
+		if (!file.exists())
+			file = temporaryFile();
+		if (!file.exists())
+			return null;
+		try {
+			FileInputStream stream = new FileInputStream(file);
+			try {
+				FileChannel channel = stream.getChannel();
+				ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				buffer.flip();
+				fill(channel, buffer, 16);
+				if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+					logger.warn("Ignoring " + file + ", it is not a checkpoint");
+					return null;
+				}
+				int iteration = buffer.getInt();
+				double[] scalars = new double[buffer.getInt()];
+				fill(channel, buffer, scalars.length * 8 + 4);
+				for (int i = 0; i < scalars.length; i++)
+					scalars[i] = buffer.getDouble();
+				int count = buffer.getInt();
+				if (count != lengths.length) {
+					logger.warn("Ignoring checkpoint " + file + ", it has " + count + " arrays");
+					return null;
+				}
+				double[][] arrays = new double[count][];
+				for (int a = 0; a < count; a++) {
+					fill(channel, buffer, 4);
+					int length = buffer.getInt();
+					if (length != lengths[a]) {
+						logger.warn("Ignoring checkpoint " + file + ", array " + a + " has "
+								+ length + " values instead of " + lengths[a]);
+						return null;
+					}
+					arrays[a] = new double[length];
+					for (int i = 0; i < length; i++) {
+						if (buffer.remaining() < 8)
+							fill(channel, buffer, 8);
+						arrays[a][i] = buffer.getDouble();
+					}
+				}
+				logger.info("Resuming from the checkpoint of iteration " + iteration);
+				return new State(iteration, scalars, arrays);
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			logger.warn("Couldn't read checkpoint " + file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Makes sure there are at least some bytes available in a buffer that is
+	 * being read
+	 */
+	private static void fill(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+		if (buffer.remaining() >= bytes)
+			return;
+		buffer.compact();
+		while (buffer.position() < bytes)
+			if (channel.read(buffer) < 0)
+				throw new IOException("Unexpected end of checkpoint");
+		buffer.flip();
+	}
+
+	/**
+	 * Waits until all the checkpoints saved are written
+	 */
+	public void flush() {
+		ExecutorService service;
+		synchronized (this) {
+			service = writer;
+		}
+		if (service == null)
+			return;
+		try {
+			service.submit(new Runnable() {
+				@Override
+				public void run() {
+				}
+			}).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			logger.error(e);
+		}
+	}
+
+	/**
+	 * Called when the run finished, waits for pending writes, stops the
+	 * writer and deletes the checkpoint so the next run starts from scratch
+	 */
+	public void finish() {
+		flush();
+		synchronized (this) {
+			if (writer != null) {
+				writer.shutdown();
+				writer = null;
+			}
+		}
+		if (file.exists() && !file.delete())
+			logger.warn("Couldn't delete checkpoint " + file);
+		File temporary = temporaryFile();
+		if (temporary.exists() && !temporary.delete())
+			logger.warn("Couldn't delete checkpoint " + temporary);
+	}
+
+	private synchronized ExecutorService getWriter() {
+		if (writer == null)
+			writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "tml-checkpoint");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		return writer;
+	}
+
+	/**
+	 * @return the checkpoint file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the number of iterations between checkpoints
+	 */
+	public int getInterval() {
+		return interval;
+	}
+}
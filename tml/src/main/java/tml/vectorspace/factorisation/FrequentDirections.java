@@ -0,0 +1,404 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.vectorspace.factorisation;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.TermFreqVector;
+
+import tml.utils.DenseMatrix;
+import tml.utils.MatrixKernels;
+import Jama.EigenvalueDecomposition;
+import Jama.Matrix;
+
+/**
+ * <p>
+ * Streaming approximation of the SVD with Frequent Directions (Liberty
+ * 2013). Passages are read one at a time and added to a sketch of 2l rows by
+ * the number of terms. When the sketch is full it is shrunk with the SVD of
+ * the sketch: the squared singular values are reduced by the l-th one, so at
+ * least half the rows become zero and can be reused. The memory used
+ * depends on l and the number of terms, not on the number of passages.
+ * </p>
+ * <p>
+ * The SVD of the sketch is calculated from the eigenvalues of its small
+ * 2l by 2l Gram matrix. At the end Uk and Sk are the first K right singular
+ * vectors and singular values of the sketch, and the passages are projected
+ * on them: Vk = A' Uk inv(Sk). The covariance error ||A'A - B'B|| is at most
+ * the sum of the reductions, see {@link #getErrorBound()}.
+ * </p>
+ * <p>
+ * Passages can be given as columns of a matrix with
+ * {@link #process(Matrix)}, added one by one with
+ * {@link #update(int[], double[])}, or read from the term vectors of a
+ * Lucene index with {@link #process(IndexReader, String, String[])}.
+ * </p>
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class FrequentDirections extends MatrixFactorisation {
+
+	private final Log logger = LogFactory.getLog(getClass());
+
+	/** Rows kept after each shrink */
+	private int sketchSize = 100;
+
+	/** The sketch, with twice the sketch size rows */
+	private DenseMatrix sketch = null;
+	/** Rows in use in the sketch */
+	private int filled = 0;
+	/** Sum of the reductions of the squared singular values */
+	private double errorBound = 0;
+	/** Number of passages added */
+	private int passages = 0;
+	/** Number of shrinks */
+	private int shrinks = 0;
+
+	@Override
+	public void process(Matrix v) {
+		int m = v.getRowDimension();
+		int n = v.getColumnDimension();
+		start(m);
+		double[] column = new double[m];
+		for (int j = 0; j < n; j++) {
+			for (int i = 0; i < m; i++)
+				column[i] = v.get(i, j);
+			update(column);
+		}
+		finish();
+
+		Matrix vk = new Matrix(n, this.Sk.getRowDimension());
+		for (int j = 0; j < n; j++) {
+			for (int i = 0; i < m; i++)
+				column[i] = v.get(i, j);
+			double[] projection = project(column);
+			for (int c = 0; c < projection.length; c++)
+				vk.set(j, c, projection[c]);
+		}
+		this.decomposition.setVkdata(vk.getArray());
+	}
+
+	/**
+	 * Builds the sketch from the term vectors of all the documents in an
+	 * index, with the raw term frequencies, and projects the documents in a
+	 * second pass.
+	 *
+	 * @param reader
+	 *            the index
+	 * @param field
+	 *            the field with the term vectors
+	 * @param terms
+	 *            the terms to use, others are ignored
+	 * @return the Lucene id of the document in each row of Vk
+	 * @throws IOException
+	 */
+	public int[] process(IndexReader reader, String field, String[] terms) throws IOException {
+		Map<String, Integer> indices = new HashMap<String, Integer>();
+		for (int i = 0; i < terms.length; i++)
+			indices.put(terms[i], i);
+
+		start(terms.length);
+		int documents = 0;
+		for (int doc = 0; doc < reader.maxDoc(); doc++) {
+			if (reader.isDeleted(doc))
+				continue;
+			TermFreqVector vector = reader.getTermFreqVector(doc, field);
+			if (vector == null)
+				continue;
+			Column column = new Column(vector, indices);
+			update(column.terms, column.values);
+			documents++;
+		}
+		finish();
+
+		int[] ids = new int[documents];
+		double[][] vk = new double[documents][];
+		int row = 0;
+		for (int doc = 0; doc < reader.maxDoc(); doc++) {
+			if (reader.isDeleted(doc))
+				continue;
+			TermFreqVector vector = reader.getTermFreqVector(doc, field);
+			if (vector == null)
+				continue;
+			Column column = new Column(vector, indices);
+			ids[row] = doc;
+			vk[row++] = project(column.terms, column.values);
+		}
+		this.decomposition.setVkdata(vk);
+		return ids;
+	}
+
+	/**
+	 * The known terms of a Lucene term vector and their frequencies
+	 */
+	private static class Column {
+		private final int[] terms;
+		private final double[] values;
+
+		private Column(TermFreqVector vector, Map<String, Integer> indices) {
+			String[] vectorTerms = vector.getTerms();
+			int[] frequencies = vector.getTermFrequencies();
+			int known = 0;
+			for (String term : vectorTerms)
+				if (indices.containsKey(term))
+					known++;
+			this.terms = new int[known];
+			this.values = new double[known];
+			int position = 0;
+			for (int t = 0; t < vectorTerms.length; t++) {
+				Integer index = indices.get(vectorTerms[t]);
+				if (index != null) {
+					this.terms[position] = index;
+					this.values[position++] = frequencies[t];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Starts a new sketch
+	 *
+	 * @param terms
+	 *            the number of terms in each passage
+	 */
+	public void start(int terms) {
+		this.sketch = new DenseMatrix(2 * sketchSize, terms);
+		this.filled = 0;
+		this.errorBound = 0;
+		this.passages = 0;
+		this.shrinks = 0;
+		this.decomposition = null;
+	}
+
+	/**
+	 * Adds a passage to the sketch
+	 *
+	 * @param column
+	 *            the weight of each term in the passage
+	 */
+	public void update(double[] column) {
+		int m = sketch.getColumnDimension();
+		if (filled == sketch.getRowDimension())
+			shrink();
+		System.arraycopy(column, 0, sketch.getData(), filled * m, m);
+		filled++;
+		passages++;
+	}
+
+	/**
+	 * Adds a passage to the sketch
+	 *
+	 * @param terms
+	 *            the terms in the passage
+	 * @param values
+	 *            the weight of each term
+	 */
+	public void update(int[] terms, double[] values) {
+		int m = sketch.getColumnDimension();
+		if (filled == sketch.getRowDimension())
+			shrink();
+		int offset = filled * m;
+		for (int t = 0; t < terms.length; t++)
+			sketch.getData()[offset + terms[t]] = values[t];
+		filled++;
+		passages++;
+	}
+
+	/**
+	 * Reduces the squared singular values of the sketch by the l-th one
+	 */
+	private void shrink() {
+		shrinks++;
+		int m = sketch.getColumnDimension();
+		double[][] eigen = eigen();
+		double[] values = eigen[0];
+		double delta = sketchSize - 1 < values.length ? Math.max(0, values[sketchSize - 1]) : 0;
+		errorBound += delta;
+
+		// New rows are sqrt(lambda - delta) / sqrt(lambda) * u' B
+		int kept = 0;
+		while (kept < values.length && values[kept] - delta > 0)
+			kept++;
+		DenseMatrix scaled = new DenseMatrix(kept, sketch.getRowDimension());
+		for (int c = 0; c < kept; c++) {
+			double scale = Math.sqrt((values[c] - delta) / values[c]);
+			for (int r = 0; r < filled; r++)
+				scaled.set(c, r, eigen[c + 1][r] * scale);
+		}
+		DenseMatrix rows = MatrixKernels.times(scaled, sketch);
+		Arrays.fill(sketch.getData(), 0);
+		System.arraycopy(rows.getData(), 0, sketch.getData(), 0, kept * m);
+		filled = kept;
+	}
+
+	/**
+	 * @return the eigenvalues of BB' in decreasing order in the first array,
+	 *         followed by their eigenvectors. The rows not in use are zero,
+	 *         so they only add zero eigenvalues.
+	 */
+	private double[][] eigen() {
+		DenseMatrix gram = MatrixKernels.gram(sketch);
+		EigenvalueDecomposition eig = gram.toMatrix().eig();
+		double[] values = eig.getRealEigenvalues();
+		Integer[] order = new Integer[values.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		final double[] sortValues = values;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(sortValues[b], sortValues[a]);
+			}
+		});
+		double[][] result = new double[values.length + 1][];
+		result[0] = new double[values.length];
+		Matrix vectors = eig.getV();
+		for (int c = 0; c < values.length; c++) {
+			result[0][c] = values[order[c]];
+			result[c + 1] = new double[values.length];
+			for (int r = 0; r < values.length; r++)
+				result[c + 1][r] = vectors.get(r, order[c]);
+		}
+		return result;
+	}
+
+	private int getK(int terms) {
+		return Math.max(1, Math.min(K, Math.min(filled, terms)));
+	}
+
+	/**
+	 * Calculates Uk and Sk from the sketch
+	 */
+	public void finish() {
+		int m = sketch.getColumnDimension();
+		int k = getK(m);
+		double[][] eigen = eigen();
+		Matrix sk = new Matrix(k, k);
+		// right singular vectors v = B' u / sigma, one per row
+		DenseMatrix weights = new DenseMatrix(k, sketch.getRowDimension());
+		for (int c = 0; c < k; c++) {
+			double sigma = Math.sqrt(Math.max(0, eigen[0][c]));
+			sk.set(c, c, sigma);
+			if (sigma == 0)
+				continue;
+			for (int r = 0; r < filled; r++)
+				weights.set(c, r, eigen[c + 1][r] / sigma);
+		}
+		Matrix uk = MatrixKernels.times(weights, sketch).transpose().toMatrix();
+		this.Uk = uk;
+		this.Sk = sk;
+		this.dimensionsKept = k;
+		this.decomposition = new SpaceDecomposition();
+		this.decomposition.setUkdata(uk.getArray());
+		this.decomposition.setSkdata(sk.getArray());
+		logger.debug("Sketch of " + passages + " passages with " + shrinks
+				+ " shrinks, error bound " + errorBound);
+	}
+
+	/**
+	 * @param column
+	 *            the weight of each term in a passage
+	 * @return the passage in the reduced space, inv(Sk) Uk' a
+	 */
+	public double[] project(double[] column) {
+		int k = Sk.getRowDimension();
+		double[] projection = new double[k];
+		double[][] u = Uk.getArray();
+		for (int i = 0; i < column.length; i++) {
+			if (column[i] == 0)
+				continue;
+			for (int c = 0; c < k; c++)
+				projection[c] += u[i][c] * column[i];
+		}
+		return scale(projection);
+	}
+
+	/**
+	 * @param terms
+	 *            the terms in a passage
+	 * @param values
+	 *            the weight of each term
+	 * @return the passage in the reduced space, inv(Sk) Uk' a
+	 */
+	public double[] project(int[] terms, double[] values) {
+		int k = Sk.getRowDimension();
+		double[] projection = new double[k];
+		double[][] u = Uk.getArray();
+		for (int t = 0; t < terms.length; t++)
+			for (int c = 0; c < k; c++)
+				projection[c] += u[terms[t]][c] * values[t];
+		return scale(projection);
+	}
+
+	private double[] scale(double[] projection) {
+		for (int c = 0; c < projection.length; c++) {
+			double sigma = Sk.get(c, c);
+			projection[c] = sigma > 0 ? projection[c] / sigma : 0;
+		}
+		return projection;
+	}
+
+	/**
+	 * @return the rows kept after each shrink
+	 */
+	public int getSketchSize() {
+		return sketchSize;
+	}
+
+	/**
+	 * @param sketchSize
+	 *            the rows kept after each shrink, the sketch has twice as many
+	 */
+	public void setSketchSize(int sketchSize) {
+		if (sketchSize < 1)
+			throw new IllegalArgumentException("The sketch must have at least one row");
+		this.sketchSize = sketchSize;
+	}
+
+	/**
+	 * @return the bound of the covariance error ||A'A - B'B|| of the sketch
+	 */
+	public double getErrorBound() {
+		return errorBound;
+	}
+
+	/**
+	 * @return a copy of the rows in use of the sketch B, one per row
+	 */
+	public Matrix getSketch() {
+		int m = sketch.getColumnDimension();
+		Matrix b = new Matrix(filled, m);
+		for (int r = 0; r < filled; r++)
+			for (int i = 0; i < m; i++)
+				b.set(r, i, sketch.get(r, i));
+		return b;
+	}
+
+	/**
+	 * @return the number of passages added to the sketch
+	 */
+	public int getPassages() {
+		return passages;
+	}
+}
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.vectorspace.factorisation;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import tml.utils.DenseMatrix;
+import tml.utils.MatrixKernels;
+import Jama.EigenvalueDecomposition;
+import Jama.Matrix;
+
+/**
+ * <p>
+ * Truncated SVD from the eigenvalues of the Gram matrix of the smaller side
+ * of the matrix: A'A when there are fewer columns than rows, AA' otherwise.
+ * The eigenvectors are the singular vectors of that side and the square
+ * roots of the eigenvalues the singular values, the other side is
+ * calculated with one product, e.g. Uk = A Vk inv(Sk). The smaller side
+ * is copied once as the rows of a dense matrix, that copy is the only one
+ * of A.
+ * </p>
+ * <p>
+ * The Gram matrix is symmetric, so its eigenvalues are much cheaper than a
+ * full SVD, but squaring the matrix loses precision in the smallest
+ * singular values. That is not a problem for the first K dimensions of a
+ * semantic space, singular values that are lost in the rounding are
+ * returned as zero.
+ * </p>
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class GramSingularValueDecomposition extends MatrixFactorisation {
+
+	@Override
+	public void process(Matrix v) {
+		int m = v.getRowDimension();
+		int n = v.getColumnDimension();
+		int s = Math.min(m, n);
+		int k = K > 0 ? Math.min(K, s) : s;
+		boolean tall = n <= m;
+
+		// The rows of the smaller side, i.e. A' when tall
+		final int b = tall ? m : n;
+		double[][] array = v.getArray();
+		final DenseMatrix side = new DenseMatrix(s, b);
+		final double[] sideData = side.getData();
+		for (int i = 0; i < m; i++)
+			for (int j = 0; j < n; j++)
+				sideData[tall ? j * b + i : i * b + j] = array[i][j];
+		DenseMatrix gram = MatrixKernels.gram(side);
+		EigenvalueDecomposition eig = gram.toMatrix().eig();
+		double[] values = eig.getRealEigenvalues();
+		Matrix vectors = eig.getV();
+
+		// Jama doesn't always sort the eigenvalues
+		Integer[] order = new Integer[s];
+		for (int i = 0; i < s; i++)
+			order[i] = i;
+		final double[] sortValues = values;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer o1, Integer o2) {
+				return Double.compare(sortValues[o2], sortValues[o1]);
+			}
+		});
+
+		DenseMatrix small = new DenseMatrix(s, k);
+		double[] sigma = new double[k];
+		double[] inverse = new double[k];
+		double tolerance = Math.max(values[order[0]], 0) * s * 1E-15;
+		for (int c = 0; c < k; c++) {
+			int column = order[c];
+			double value = values[column];
+			sigma[c] = value > tolerance ? Math.sqrt(value) : 0;
+			inverse[c] = sigma[c] > 0 ? 1 / sigma[c] : 0;
+			for (int i = 0; i < s; i++)
+				small.set(i, c, vectors.get(i, column));
+		}
+		// The other side is side' * small * inv(Sk), accumulated by rows of
+		// side so it is never transposed
+		final int rows = s;
+		final int columns = k;
+		final double[] smallData = small.getData();
+		final double[] scale = inverse;
+		final DenseMatrix large = new DenseMatrix(b, k);
+		final double[] largeData = large.getData();
+		MatrixKernels.parallelRows(b, (long) s * b * k, new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int r = 0; r < rows; r++)
+					for (int i = start; i < end; i++) {
+						double value = sideData[r * b + i];
+						if (value == 0)
+							continue;
+						for (int c = 0; c < columns; c++)
+							largeData[i * columns + c] += value * smallData[r * columns + c];
+					}
+				for (int i = start; i < end; i++)
+					for (int c = 0; c < columns; c++)
+						largeData[i * columns + c] *= scale[c];
+			}
+		});
+
+		this.Uk = (tall ? large : small).toMatrix();
+		this.Vk = (tall ? small : large).toMatrix();
+		this.Sk = new Matrix(k, k);
+		for (int c = 0; c < k; c++)
+			this.Sk.set(c, c, sigma[c]);
+		this.decomposition = new SpaceDecomposition();
+		this.decomposition.setUkdata(this.Uk.getArray());
+		this.decomposition.setSkdata(this.Sk.getArray());
+		this.decomposition.setVkdata(this.Vk.getArray());
+	}
+}
@@ -0,0 +1,254 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.vectorspace.factorisation;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import tml.utils.MatrixKernels;
+import Jama.Matrix;
+import Jama.QRDecomposition;
+
+/**
+ * <p>
+ * A rank K SVD that can be updated when new columns (passages) are added,
+ * with Brand's algorithm (Brand 2006), instead of decomposing the whole
+ * matrix again. For new columns C the part of C outside the span of Uk is
+ * orthogonalised, H = C - Uk Uk' C = J R, and only the small matrix
+ * </p>
+ * 
+ * <pre>
+ * | Sk  Uk'C |
+ * | 0   R    |
+ * </pre>
+ * <p>
+ * of size K + c is decomposed. Its singular vectors rotate [Uk J] and
+ * [Vk 0; 0 I] to give the new decomposition, truncated to rank K again.
+ * </p>
+ * <p>
+ * Unlike folding-in, the singular values and vectors change with the new
+ * passages. Rounding errors slowly make Uk and Vk lose their orthogonality,
+ * so every few updates (see {@link #setReorthogonalisationInterval(int)})
+ * both are orthogonalised again, the product Uk Sk Vk' stays the same.
+ * </p>
+ * 
+ * @author Jorge Villalon
+ * 
+ */
+public class IncrementalSingularValueDecomposition extends MatrixFactorisation {
+
+	private final Log logger = LogFactory.getLog(getClass());
+
+	/** Updates between re-orthogonalisations, 0 for never */
+	private int reorthogonalisationInterval = 10;
+	/** Updates since the decomposition was calculated from scratch */
+	private int updates = 0;
+
+	@Override
+	public void process(Matrix v) {
+		int m = v.getRowDimension();
+		int n = v.getColumnDimension();
+		// Jama only decomposes matrices with at least as many rows as columns
+		boolean transposed = m < n;
+		Jama.SingularValueDecomposition svd = (transposed ? v.transpose() : v).svd();
+		Matrix u = transposed ? svd.getV() : svd.getU();
+		Matrix w = transposed ? svd.getU() : svd.getV();
+		int k = rank(Math.min(m, n));
+		this.Uk = u.getMatrix(0, m - 1, 0, k - 1);
+		this.Sk = svd.getS().getMatrix(0, k - 1, 0, k - 1);
+		this.Vk = w.getMatrix(0, n - 1, 0, k - 1);
+		this.updates = 0;
+		updateDecomposition();
+	}
+
+	/**
+	 * Starts from an existing decomposition
+	 * 
+	 * @param uk
+	 * @param sk
+	 * @param vk
+	 * @param updates
+	 *            the number of updates the decomposition already had
+	 */
+	public void setDecomposition(Matrix uk, Matrix sk, Matrix vk, int updates) {
+		if (uk.getColumnDimension() != sk.getRowDimension()
+				|| vk.getColumnDimension() != sk.getColumnDimension())
+			throw new IllegalArgumentException("The dimensions of Uk, Sk and Vk don't match");
+		this.Uk = uk;
+		this.Sk = sk;
+		this.Vk = vk;
+		this.updates = updates;
+		updateDecomposition();
+	}
+
+	/**
+	 * Starts from an existing decomposition of a matrix with other terms.
+	 * The rows of Uk are matched by term, terms that weren't in the
+	 * decomposition start as zero rows and the rows of terms that are gone
+	 * are dropped. Dropping rows leaves Uk without orthonormal columns, so
+	 * in that case the decomposition is re-orthogonalised.
+	 * 
+	 * @param uk
+	 * @param sk
+	 * @param vk
+	 * @param updates
+	 *            the number of updates the decomposition already had
+	 * @param previousTerms
+	 *            the terms of the rows of Uk
+	 * @param terms
+	 *            the terms of the rows of the next columns
+	 */
+	public void setDecomposition(Matrix uk, Matrix sk, Matrix vk, int updates,
+			String[] previousTerms, String[] terms) {
+		if (uk.getRowDimension() != previousTerms.length)
+			throw new IllegalArgumentException("There must be one term per row of Uk");
+		Map<String, Integer> rows = new HashMap<String, Integer>();
+		for (int i = 0; i < previousTerms.length; i++)
+			rows.put(previousTerms[i], i);
+		int k = uk.getColumnDimension();
+		Matrix aligned = new Matrix(terms.length, k);
+		int matched = 0;
+		for (int i = 0; i < terms.length; i++) {
+			Integer row = rows.get(terms[i]);
+			if (row == null)
+				continue;
+			matched++;
+			for (int d = 0; d < k; d++)
+				aligned.set(i, d, uk.get(row, d));
+		}
+		setDecomposition(aligned, sk, vk, updates);
+		if (matched < previousTerms.length)
+			reorthogonalise();
+	}
+
+	/**
+	 * Adds columns to the decomposed matrix, their rows in Vk are added at
+	 * the end.
+	 * 
+	 * @param columns
+	 *            the new columns, with one row per row of Uk
+	 */
+	public void update(Matrix columns) {
+		int m = Uk.getRowDimension();
+		int n = Vk.getRowDimension();
+		int k = Sk.getRowDimension();
+		int c = columns.getColumnDimension();
+		if (columns.getRowDimension() != m)
+			throw new IllegalArgumentException("The new columns must have " + m + " rows");
+		if (c == 0)
+			return;
+
+		// The part of the new columns outside the span of Uk
+		Matrix l = MatrixKernels.transposeTimes(Uk, columns);
+		Matrix h = columns.minus(MatrixKernels.times(Uk, l));
+		QRDecomposition qr = new QRDecomposition(h);
+		Matrix j = qr.getQ();
+		Matrix r = qr.getR();
+
+		Matrix q = new Matrix(k + c, k + c);
+		q.setMatrix(0, k - 1, 0, k - 1, Sk);
+		q.setMatrix(0, k - 1, k, k + c - 1, l);
+		q.setMatrix(k, k + c - 1, k, k + c - 1, r);
+		Jama.SingularValueDecomposition svd = q.svd();
+
+		int rank = rank(k + c);
+		Matrix rotationU = svd.getU().getMatrix(0, k + c - 1, 0, rank - 1);
+		Matrix rotationV = svd.getV().getMatrix(0, k + c - 1, 0, rank - 1);
+
+		Matrix uk = MatrixKernels.times(Uk, rotationU.getMatrix(0, k - 1, 0, rank - 1));
+		uk.plusEquals(MatrixKernels.times(j, rotationU.getMatrix(k, k + c - 1, 0, rank - 1)));
+		Matrix vk = new Matrix(n + c, rank);
+		vk.setMatrix(0, n - 1, 0, rank - 1,
+				MatrixKernels.times(Vk, rotationV.getMatrix(0, k - 1, 0, rank - 1)));
+		vk.setMatrix(n, n + c - 1, 0, rank - 1, rotationV.getMatrix(k, k + c - 1, 0, rank - 1));
+
+		this.Uk = uk;
+		this.Sk = svd.getS().getMatrix(0, rank - 1, 0, rank - 1);
+		this.Vk = vk;
+		this.updates++;
+		logger.debug("Added " + c + " columns, update " + updates);
+
+		if (reorthogonalisationInterval > 0 && updates % reorthogonalisationInterval == 0)
+			reorthogonalise();
+		else
+			updateDecomposition();
+	}
+
+	/**
+	 * Makes Uk and Vk orthonormal again without changing Uk Sk Vk': with
+	 * Uk = Qu Ru and Vk = Qv Rv, the SVD X S Y' of Ru Sk Rv' gives the new
+	 * Uk = Qu X, Sk = S and Vk = Qv Y.
+	 */
+	public void reorthogonalise() {
+		QRDecomposition qrU = new QRDecomposition(Uk);
+		QRDecomposition qrV = new QRDecomposition(Vk);
+		Matrix core = qrU.getR().times(Sk).times(qrV.getR().transpose());
+		Jama.SingularValueDecomposition svd = core.svd();
+		this.Uk = MatrixKernels.times(qrU.getQ(), svd.getU());
+		this.Sk = svd.getS();
+		this.Vk = MatrixKernels.times(qrV.getQ(), svd.getV());
+		logger.debug("Decomposition orthogonalised after " + updates + " updates");
+		updateDecomposition();
+	}
+
+	/**
+	 * @return the rank to keep, K if it was set, otherwise the current rank
+	 */
+	private int rank(int available) {
+		int target = K > 0 ? K : (Sk != null ? Sk.getRowDimension() : available);
+		return Math.max(1, Math.min(target, available));
+	}
+
+	private void updateDecomposition() {
+		this.dimensionsKept = Sk.getRowDimension();
+		this.decomposition = new SpaceDecomposition();
+		this.decomposition.setUkdata(Uk.getArray());
+		this.decomposition.setSkdata(Sk.getArray());
+		this.decomposition.setVkdata(Vk.getArray());
+	}
+
+	public Matrix getUk() {
+		return Uk;
+	}
+
+	public Matrix getSk() {
+		return Sk;
+	}
+
+	public Matrix getVk() {
+		return Vk;
+	}
+
+	/**
+	 * @return the number of updates since the decomposition was calculated
+	 *         from scratch
+	 */
+	public int getUpdates() {
+		return updates;
+	}
+
+	/**
+	 * @param reorthogonalisationInterval
+	 *            the number of updates between re-orthogonalisations, 0 for
+	 *            never
+	 */
+	public void setReorthogonalisationInterval(int reorthogonalisationInterval) {
+		this.reorthogonalisationInterval = reorthogonalisationInterval;
+	}
+}
@@ -0,0 +1,196 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.vectorspace.factorisation;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import Jama.Matrix;
+
+/**
+ * <p>
+ * One-sided Jacobi SVD (Hestenes 1958) for small dense matrices. Pairs of
+ * columns are rotated until all of them are orthogonal, then the singular
+ * values are the norms of the columns, U the normalized columns and V the
+ * accumulated rotations. When the matrix is wider than tall its transpose is
+ * decomposed, so the rotations always work on the shorter side.
+ * </p>
+ * <p>
+ * The columns are kept in flat scratch arrays that are reused by every call
+ * to {@link #process(Matrix)}, so one instance decomposing many small
+ * matrices, like the spaces of a {@link tml.vectorspace.SemanticSpaceBatch},
+ * allocates almost nothing but the results. An instance must not be shared
+ * between threads.
+ * </p>
+ * 
+ * @author Jorge Villalon
+ * 
+ */
+public class JacobiSingularValueDecomposition extends MatrixFactorisation {
+
+	private double tolerance = 1E-15;
+	private int maxSweeps = 60;
+
+	/** The columns being rotated, one after the other */
+	private double[] a = new double[0];
+	/** The accumulated rotations, by columns */
+	private double[] v = new double[0];
+	/** Squared norm of each column */
+	private double[] norms = new double[0];
+	/** Columns sorted by decreasing singular value */
+	private Integer[] order = new Integer[0];
+	/** Sweeps in the last run */
+	private int sweeps = 0;
+
+	/**
+	 * Calculates the first K singular values and vectors, or all of them if
+	 * K is not positive.
+	 */
+	@Override
+	public void process(Matrix matrix) {
+		boolean transposed = matrix.getRowDimension() < matrix.getColumnDimension();
+		double[][] data = matrix.getArray();
+		int m = transposed ? matrix.getColumnDimension() : matrix.getRowDimension();
+		int n = transposed ? matrix.getRowDimension() : matrix.getColumnDimension();
+		ensureCapacity(m, n);
+
+		for (int j = 0; j < n; j++)
+			for (int i = 0; i < m; i++)
+				a[j * m + i] = transposed ? data[j][i] : data[i][j];
+		for (int i = 0; i < n * n; i++)
+			v[i] = 0;
+		for (int j = 0; j < n; j++) {
+			v[j * n + j] = 1;
+			norms[j] = squaredNorm(j * m, m);
+		}
+
+		sweeps = 0;
+		boolean rotated = true;
+		while (rotated && sweeps < maxSweeps) {
+			sweeps++;
+			rotated = false;
+			for (int p = 0; p < n - 1; p++)
+				for (int q = p + 1; q < n; q++) {
+					double alpha = norms[p];
+					double beta = norms[q];
+					double gamma = 0;
+					int po = p * m, qo = q * m;
+					for (int i = 0; i < m; i++)
+						gamma += a[po + i] * a[qo + i];
+					if (gamma == 0 || Math.abs(gamma) <= tolerance * Math.sqrt(alpha * beta))
+						continue;
+					rotated = true;
+					double zeta = (beta - alpha) / (2 * gamma);
+					double t = Math.signum(zeta) / (Math.abs(zeta) + Math.sqrt(1 + zeta * zeta));
+					if (zeta == 0)
+						t = 1;
+					double c = 1 / Math.sqrt(1 + t * t);
+					double s = c * t;
+					rotate(a, po, qo, m, c, s);
+					rotate(v, p * n, q * n, n, c, s);
+					// The norms change exactly by t times the product
+					norms[p] = alpha - t * gamma;
+					norms[q] = beta + t * gamma;
+				}
+			// Rounding accumulates in the updated norms, they are recalculated
+			for (int j = 0; j < n; j++)
+				norms[j] = squaredNorm(j * m, m);
+		}
+
+		for (int j = 0; j < n; j++)
+			order[j] = j;
+		Arrays.sort(order, 0, n, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i, Integer j) {
+				return Double.compare(norms[j], norms[i]);
+			}
+		});
+
+		int k = K > 0 ? Math.min(K, n) : n;
+		double[][] u = new double[m][k];
+		double[][] sk = new double[k][k];
+		double[][] w = new double[n][k];
+		for (int c = 0; c < k; c++) {
+			int j = order[c];
+			double sigma = Math.sqrt(norms[j]);
+			sk[c][c] = sigma;
+			if (sigma > 0)
+				for (int i = 0; i < m; i++)
+					u[i][c] = a[j * m + i] / sigma;
+			for (int i = 0; i < n; i++)
+				w[i][c] = v[j * n + i];
+		}
+
+		this.decomposition = new SpaceDecomposition();
+		this.decomposition.setSkdata(sk);
+		this.decomposition.setUkdata(transposed ? w : u);
+		this.decomposition.setVkdata(transposed ? u : w);
+	}
+
+	private void ensureCapacity(int m, int n) {
+		if (a.length < m * n)
+			a = new double[m * n];
+		if (v.length < n * n)
+			v = new double[n * n];
+		if (norms.length < n) {
+			norms = new double[n];
+			order = new Integer[n];
+		}
+	}
+
+	private double squaredNorm(int offset, int length) {
+		double sum = 0;
+		for (int i = offset; i < offset + length; i++)
+			sum += a[i] * a[i];
+		return sum;
+	}
+
+	/**
+	 * Rotates two columns of a flat array
+	 */
+	private static void rotate(double[] x, int po, int qo, int length, double c, double s) {
+		for (int i = 0; i < length; i++) {
+			double xp = x[po + i];
+			double xq = x[qo + i];
+			x[po + i] = c * xp - s * xq;
+			x[qo + i] = s * xp + c * xq;
+		}
+	}
+
+	/**
+	 * @param tolerance
+	 *            the cosine between two columns below which they are
+	 *            considered orthogonal
+	 */
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * @param maxSweeps
+	 *            the maximum number of sweeps over all the pairs of columns
+	 */
+	public void setMaxSweeps(int maxSweeps) {
+		this.maxSweeps = maxSweeps;
+	}
+
+	/**
+	 * @return the number of sweeps in the last run
+	 */
+	public int getSweeps() {
+		return sweeps;
+	}
+}
@@ -0,0 +1,463 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.vectorspace.factorisation;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.TermFreqVector;
+
+import tml.utils.MatrixKernels;
+import tml.utils.SparseMatrix;
+import Jama.Matrix;
+
+/**
+ * <p>
+ * Latent Dirichlet allocation (Blei, Ng and Jordan 2003) trained with a
+ * collapsed Gibbs sampler (Griffiths and Steyvers 2004) over the occurrences
+ * of the terms in the passages, which are taken from the non zero counts of
+ * the sparse term-passage matrix or directly from the term vectors of a
+ * Lucene index with {@link #process(IndexReader, String, String[])}.
+ * </p>
+ * <p>
+ * Sampling is distributed as in AD-LDA (Newman et al. 2009): the passages
+ * are split in one partition per thread with about the same number of
+ * occurrences, each partition samples its own occurrences against its own
+ * copy of the term-topic counts, and the copies are merged every few
+ * iterations (see {@link #setSynchronisationInterval(int)}). The passage-topic
+ * counts belong to a single partition and are never copied.
+ * </p>
+ * <p>
+ * Uk are the topic-term probabilities P(w|z) with one row per term, Vk the
+ * passage-topic probabilities P(z|d) with one row per passage and Sk the
+ * identity. With a {@link FactorisationCheckpoint} the topic of every
+ * occurrence is saved periodically, and an interrupted run continues from
+ * the last checkpoint.
+ * </p>
+ * 
+ * @author Jorge Villalon
+ * 
+ */
+public class LatentDirichletAllocation extends MatrixFactorisation {
+
+	private final Log logger = LogFactory.getLog(getClass());
+
+	private double alpha = 0.1;
+	private double beta = 0.01;
+	private int maxIterations = 200;
+	private int synchronisationInterval = 1;
+	private int likelihoodInterval = 10;
+	private long seed = 42;
+
+	/** Iterations in the last run */
+	private int iterations = 0;
+	/** Log-likelihood per occurrence after the last run */
+	private double logLikelihood = Double.NaN;
+
+	@Override
+	public void process(Matrix v) {
+		process(SparseMatrix.fromMatrix(v));
+	}
+
+	/**
+	 * Trains the model with the values of a term-passage matrix as counts,
+	 * they are rounded and positive values lower than one count once.
+	 * 
+	 * @param v
+	 *            the term-passage matrix
+	 */
+	public void process(SparseMatrix v) {
+		SparseMatrix vt = v.transpose();
+		int passages = vt.getRowDimension();
+		int[] rowOffsets = vt.getRowOffsets();
+		int[] columns = vt.getColumnIndices();
+		double[] values = vt.getValues();
+
+		int[] offsets = new int[passages + 1];
+		for (int d = 0; d < passages; d++) {
+			offsets[d + 1] = offsets[d];
+			for (int e = rowOffsets[d]; e < rowOffsets[d + 1]; e++)
+				offsets[d + 1] += count(values[e]);
+		}
+		int[] words = new int[offsets[passages]];
+		int position = 0;
+		for (int d = 0; d < passages; d++)
+			for (int e = rowOffsets[d]; e < rowOffsets[d + 1]; e++)
+				for (int c = count(values[e]); c > 0; c--)
+					words[position++] = columns[e];
+		sample(offsets, words, v.getRowDimension());
+	}
+
+	private static int count(double value) {
+		if (value <= 0)
+			return 0;
+		return Math.max(1, (int) Math.round(value));
+	}
+
+	/**
+	 * Trains the model with the raw term frequencies of all the documents in
+	 * an index.
+	 * 
+	 * @param reader
+	 *            the index
+	 * @param field
+	 *            the field with the term vectors
+	 * @param terms
+	 *            the terms to use, others are ignored
+	 * @return the Lucene id of the document in each row of Vk
+	 * @throws IOException
+	 */
+	public int[] process(IndexReader reader, String field, String[] terms) throws IOException {
+		Map<String, Integer> indices = new HashMap<String, Integer>();
+		for (int i = 0; i < terms.length; i++)
+			indices.put(terms[i], i);
+
+		int documents = 0;
+		long occurrences = 0;
+		for (int doc = 0; doc < reader.maxDoc(); doc++) {
+			if (reader.isDeleted(doc))
+				continue;
+			TermFreqVector vector = reader.getTermFreqVector(doc, field);
+			if (vector == null)
+				continue;
+			documents++;
+			String[] vectorTerms = vector.getTerms();
+			int[] frequencies = vector.getTermFrequencies();
+			for (int t = 0; t < vectorTerms.length; t++)
+				if (indices.containsKey(vectorTerms[t]))
+					occurrences += frequencies[t];
+		}
+		if (occurrences > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many occurrences in the index: " + occurrences);
+
+		int[] ids = new int[documents];
+		int[] offsets = new int[documents + 1];
+		int[] words = new int[(int) occurrences];
+		int row = 0;
+		int position = 0;
+		for (int doc = 0; doc < reader.maxDoc() && row < documents; doc++) {
+			if (reader.isDeleted(doc))
+				continue;
+			TermFreqVector vector = reader.getTermFreqVector(doc, field);
+			if (vector == null)
+				continue;
+			String[] vectorTerms = vector.getTerms();
+			int[] frequencies = vector.getTermFrequencies();
+			for (int t = 0; t < vectorTerms.length; t++) {
+				Integer index = indices.get(vectorTerms[t]);
+				if (index == null)
+					continue;
+				for (int c = 0; c < frequencies[t]; c++)
+					words[position++] = index;
+			}
+			ids[row] = doc;
+			offsets[++row] = position;
+		}
+		sample(offsets, words, terms.length);
+		return ids;
+	}
+
+	/**
+	 * Runs the sampler
+	 * 
+	 * @param offsets
+	 *            the first occurrence of each passage, plus the total
+	 * @param words
+	 *            the term of each occurrence
+	 * @param terms
+	 *            the number of terms
+	 */
+	private void sample(final int[] offsets, final int[] words, int terms) {
+		final int passages = offsets.length - 1;
+		final int k = K;
+		final int tokens = words.length;
+		final int[] z = new int[tokens];
+		final int[] ndk = new int[passages * k];
+		final int[] nwk = new int[terms * k];
+		final int[] nk = new int[k];
+
+		iterations = 0;
+		FactorisationCheckpoint.State state = checkpoint == null ? null : checkpoint.load(tokens);
+		if (state != null) {
+			iterations = state.getIteration();
+			double[] topics = state.getArrays()[0];
+			for (int i = 0; i < tokens; i++)
+				z[i] = (int) topics[i];
+		} else {
+			Random random = new Random(seed);
+			for (int i = 0; i < tokens; i++)
+				z[i] = random.nextInt(k);
+		}
+		for (int d = 0; d < passages; d++)
+			for (int i = offsets[d]; i < offsets[d + 1]; i++) {
+				ndk[d * k + z[i]]++;
+				nwk[words[i] * k + z[i]]++;
+				nk[z[i]]++;
+			}
+
+		final int[] partitions = partitions(offsets, Math.max(1, Math.min(MatrixKernels.getThreads(), passages)));
+		final int parts = partitions.length - 1;
+		// Each partition samples against its own copy of the term-topic counts
+		final int[][] localNwk = new int[parts][];
+		final int[][] localNk = new int[parts][];
+		final Random[] randoms = new Random[parts];
+		for (int part = 0; part < parts; part++) {
+			localNwk[part] = parts == 1 ? nwk : nwk.clone();
+			localNk[part] = parts == 1 ? nk : nk.clone();
+			randoms[part] = new Random(seed + iterations * parts + part + 1);
+		}
+
+		final double vBeta = terms * beta;
+		while (iterations < maxIterations) {
+			iterations++;
+			MatrixKernels.parallelRows(parts, (long) tokens * k, new MatrixKernels.RowTask() {
+				@Override
+				public void run(int start, int end) {
+					double[] cumulative = new double[k];
+					for (int part = start; part < end; part++)
+						sweep(partitions[part], partitions[part + 1], offsets, words, z, ndk,
+								localNwk[part], localNk[part], randoms[part], cumulative, vBeta);
+				}
+			});
+
+			boolean last = iterations == maxIterations;
+			boolean due = checkpoint != null && checkpoint.isDue(iterations);
+			if (parts > 1 && (last || due || iterations % synchronisationInterval == 0))
+				synchronise(nwk, nk, localNwk, localNk, terms, k);
+
+			if (due) {
+				double[] topics = new double[tokens];
+				for (int i = 0; i < tokens; i++)
+					topics[i] = z[i];
+				checkpoint.save(iterations, new double[0], topics);
+			}
+			if (likelihoodInterval > 0 && iterations % likelihoodInterval == 0 && !last)
+				logger.debug(iterations + ".\t log-likelihood " 
+						+ logLikelihood(offsets, words, ndk, nwk, nk, partitions, vBeta));
+		}
+		if (checkpoint != null)
+			checkpoint.finish();
+		logLikelihood = logLikelihood(offsets, words, ndk, nwk, nk, partitions, vBeta);
+		logger.debug(iterations + " iterations, log-likelihood " + logLikelihood);
+
+		double[][] pwz = new double[terms][k];
+		for (int w = 0; w < terms; w++)
+			for (int c = 0; c < k; c++)
+				pwz[w][c] = (nwk[w * k + c] + beta) / (nk[c] + vBeta);
+		double[][] pzd = new double[passages][k];
+		for (int d = 0; d < passages; d++) {
+			double total = offsets[d + 1] - offsets[d] + k * alpha;
+			for (int c = 0; c < k; c++)
+				pzd[d][c] = (ndk[d * k + c] + alpha) / total;
+		}
+		decomposition = new SpaceDecomposition();
+		decomposition.setSkdata(Matrix.identity(k, k).getArray());
+		decomposition.setUkdata(pwz);
+		decomposition.setVkdata(pzd);
+	}
+
+	/**
+	 * Samples again the topic of every occurrence in a range of passages
+	 */
+	private void sweep(int first, int last, int[] offsets, int[] words, int[] z, int[] ndk,
+			int[] nwk, int[] nk, Random random, double[] cumulative, double vBeta) {
+		int k = K;
+		for (int d = first; d < last; d++) {
+			int base = d * k;
+			for (int i = offsets[d]; i < offsets[d + 1]; i++) {
+				int wordBase = words[i] * k;
+				int topic = z[i];
+				ndk[base + topic]--;
+				nwk[wordBase + topic]--;
+				nk[topic]--;
+
+				double sum = 0;
+				for (int c = 0; c < k; c++) {
+					sum += (ndk[base + c] + alpha) * (nwk[wordBase + c] + beta) / (nk[c] + vBeta);
+					cumulative[c] = sum;
+				}
+				double u = random.nextDouble() * sum;
+				int low = 0;
+				int high = k - 1;
+				while (low < high) {
+					int middle = (low + high) >>> 1;
+					if (cumulative[middle] > u)
+						high = middle;
+					else
+						low = middle + 1;
+				}
+				topic = low;
+
+				z[i] = topic;
+				ndk[base + topic]++;
+				nwk[wordBase + topic]++;
+				nk[topic]++;
+			}
+		}
+	}
+
+	/**
+	 * Adds the changes of every partition to the global counts and copies
+	 * the result back to the partitions. Each occurrence belongs to a single
+	 * partition, so the merged counts are exact.
+	 */
+	private static void synchronise(final int[] nwk, final int[] nk, final int[][] localNwk,
+			final int[][] localNk, int terms, final int k) {
+		MatrixKernels.parallelRows(terms, (long) terms * k * localNwk.length, new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int i = start * k; i < end * k; i++)
+					nwk[i] = merge(nwk[i], localNwk, i);
+			}
+		});
+		for (int c = 0; c < k; c++)
+			nk[c] = merge(nk[c], localNk, c);
+	}
+
+	private static int merge(int global, int[][] locals, int i) {
+		int merged = global;
+		for (int[] local : locals)
+			merged += local[i] - global;
+		for (int[] local : locals)
+			local[i] = merged;
+		return merged;
+	}
+
+	/**
+	 * @return the mean log P(w|d) of the occurrences with the current counts
+	 */
+	private double logLikelihood(final int[] offsets, final int[] words, final int[] ndk,
+			final int[] nwk, final int[] nk, final int[] partitions, final double vBeta) {
+		final int k = K;
+		final int parts = partitions.length - 1;
+		final double[] likelihoods = new double[parts];
+		MatrixKernels.parallelRows(parts, (long) words.length * k, new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				double[] pwz = new double[k];
+				for (int part = start; part < end; part++)
+					for (int d = partitions[part]; d < partitions[part + 1]; d++) {
+						double total = offsets[d + 1] - offsets[d] + k * alpha;
+						for (int i = offsets[d]; i < offsets[d + 1]; i++) {
+							double p = 0;
+							for (int c = 0; c < k; c++)
+								p += (ndk[d * k + c] + alpha) / total
+										* (nwk[words[i] * k + c] + beta) / (nk[c] + vBeta);
+							likelihoods[part] += Math.log(p);
+						}
+					}
+			}
+		});
+		double sum = 0;
+		for (double likelihood : likelihoods)
+			sum += likelihood;
+		return words.length == 0 ? 0 : sum / words.length;
+	}
+
+	/**
+	 * @return the first passage of each partition, with about the same
+	 *         number of occurrences in each one
+	 */
+	private static int[] partitions(int[] offsets, int parts) {
+		int passages = offsets.length - 1;
+		long tokens = offsets[passages];
+		int[] partitions = new int[parts + 1];
+		int d = 0;
+		for (int part = 1; part < parts; part++) {
+			long target = tokens * part / parts;
+			while (d < passages && offsets[d] < target)
+				d++;
+			partitions[part] = Math.max(d, partitions[part - 1]);
+		}
+		partitions[parts] = passages;
+		return partitions;
+	}
+
+	/**
+	 * @param alpha
+	 *            the Dirichlet prior of the topics of a passage
+	 */
+	public void setAlpha(double alpha) {
+		this.alpha = alpha;
+	}
+
+	/**
+	 * @param beta
+	 *            the Dirichlet prior of the terms of a topic
+	 */
+	public void setBeta(double beta) {
+		this.beta = beta;
+	}
+
+	public int getMaxIterations() {
+		return maxIterations;
+	}
+
+	/**
+	 * @param maxIterations
+	 *            the number of Gibbs sweeps over the occurrences
+	 */
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * @param synchronisationInterval
+	 *            the iterations between merges of the term-topic counts of
+	 *            the threads
+	 */
+	public void setSynchronisationInterval(int synchronisationInterval) {
+		if (synchronisationInterval < 1)
+			throw new IllegalArgumentException("The synchronisation interval must be at least 1");
+		this.synchronisationInterval = synchronisationInterval;
+	}
+
+	/**
+	 * @param likelihoodInterval
+	 *            the iterations between log-likelihoods in the log, 0 for
+	 *            none
+	 */
+	public void setLikelihoodInterval(int likelihoodInterval) {
+		this.likelihoodInterval = likelihoodInterval;
+	}
+
+	/**
+	 * @param seed
+	 *            the seed for the sampler
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * @return the number of iterations in the last run
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * @return the mean log-likelihood of the occurrences after the last run
+	 */
+	public double getLogLikelihood() {
+		return logLikelihood;
+	}
+}
@@ -15,6 +15,9 @@
  *******************************************************************************/
 package tml.vectorspace.factorisation;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import Jama.Matrix;
 
 public abstract class MatrixFactorisation {
@@ -30,6 +33,15 @@ public abstract class MatrixFactorisation {
 
 	protected SpaceDecomposition decomposition;
 	protected int K;
+
+	/** A previous decomposition to start from */
+	protected SpaceDecomposition warmStart = null;
+	/** Rows of the previous Uk for each row of the new matrix, -1 if new */
+	protected int[] warmStartTermRows = null;
+	/** Rows of the previous Vk for each column of the new matrix, -1 if new */
+	protected int[] warmStartPassageRows = null;
+	/** Periodic checkpoints of iterative factorisations, null for none */
+	protected FactorisationCheckpoint checkpoint = null;
 	
 	public int getK() {
 		return K;
@@ -44,4 +56,132 @@ public abstract class MatrixFactorisation {
 	public SpaceDecomposition getDecomposition() {
 		return this.decomposition;
 	}
+
+	public FactorisationCheckpoint getCheckpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * The sparse NMF ({@link SparseNonnegativeMatrixFactorisationED} and
+	 * {@link SparseNonnegativeMatrixFactorisationKL}), the
+	 * {@link SparseProbabilisticLatentSemanticAnalysis} and the
+	 * {@link LatentDirichletAllocation} save their state periodically and
+	 * resume from the last checkpoint of an interrupted run. Every other
+	 * implementation ignores it, including the dense NMF and PLSA.
+	 * 
+	 * @param checkpoint
+	 *            the checkpoint, null for none
+	 */
+	public void setCheckpoint(FactorisationCheckpoint checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * Starts the next factorisation from a previous one instead of a random
+	 * start, which is useful when a corpus changes a little. Terms and
+	 * passages are matched by their ids (see {@link tml.corpus.Corpus#getTerms()}
+	 * and {@link tml.corpus.Corpus#getPassages()}), the rows of terms and
+	 * passages that are new take the mean of their column. Implementations
+	 * that can't use it just ignore it.
+	 * 
+	 * @param previous
+	 *            the previous decomposition
+	 * @param previousTerms
+	 *            the terms of the rows of the previous Uk
+	 * @param previousPassages
+	 *            the passages of the rows of the previous Vk
+	 * @param terms
+	 *            the terms of the rows of the next matrix
+	 * @param passages
+	 *            the passages of the columns of the next matrix
+	 */
+	public void setWarmStart(SpaceDecomposition previous, String[] previousTerms,
+			String[] previousPassages, String[] terms, String[] passages) {
+		if (previous.getUkdata().length != previousTerms.length
+				|| previous.getVkdata().length != previousPassages.length)
+			throw new IllegalArgumentException("The ids don't match the previous decomposition");
+		this.warmStart = previous;
+		this.warmStartTermRows = align(previousTerms, terms);
+		this.warmStartPassageRows = align(previousPassages, passages);
+	}
+
+	/**
+	 * Forgets the previous decomposition, the next factorisation starts from
+	 * scratch
+	 */
+	public void clearWarmStart() {
+		this.warmStart = null;
+		this.warmStartTermRows = null;
+		this.warmStartPassageRows = null;
+	}
+
+	/**
+	 * @return true if there is a previous decomposition for a matrix of this
+	 *         size
+	 */
+	protected boolean isWarmStart(int terms, int passages) {
+		return warmStart != null && warmStartTermRows.length == terms
+				&& warmStartPassageRows.length == passages;
+	}
+
+	/**
+	 * @return the previous Uk for the new terms, with k columns
+	 */
+	protected double[][] warmStartTerms(int k) {
+		return aligned(warmStart.getUkdata(), warmStartTermRows, k);
+	}
+
+	/**
+	 * @return the previous Vk for the new passages, with k columns
+	 */
+	protected double[][] warmStartPassages(int k) {
+		return aligned(warmStart.getVkdata(), warmStartPassageRows, k);
+	}
+
+	/**
+	 * @return the diagonal of the previous Sk, with k values, new ones take
+	 *         the mean of the previous ones
+	 */
+	protected double[] warmStartValues(int k) {
+		double[][] s = warmStart.getSkdata();
+		double[] values = new double[k];
+		double mean = 0;
+		for (int c = 0; c < s.length; c++)
+			mean += s[c][c] / s.length;
+		for (int c = 0; c < k; c++)
+			values[c] = c < s.length ? s[c][c] : mean;
+		return values;
+	}
+
+	private static int[] align(String[] previous, String[] ids) {
+		Map<String, Integer> positions = new HashMap<String, Integer>();
+		for (int i = 0; i < previous.length; i++)
+			positions.put(previous[i], i);
+		int[] rows = new int[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			Integer position = positions.get(ids[i]);
+			rows[i] = position == null ? -1 : position;
+		}
+		return rows;
+	}
+
+	private static double[][] aligned(double[][] previous, int[] rows, int k) {
+		int columns = previous.length > 0 ? previous[0].length : 0;
+		double[] means = new double[k];
+		double total = 0;
+		for (double[] row : previous)
+			for (int c = 0; c < columns; c++) {
+				if (c < k)
+					means[c] += row[c] / previous.length;
+				total += row[c];
+			}
+		for (int c = columns; c < k; c++)
+			means[c] = columns > 0 ? total / previous.length / columns : 0;
+
+		double[][] data = new double[rows.length][k];
+		for (int i = 0; i < rows.length; i++)
+			for (int c = 0; c < k; c++)
+				data[i][c] = rows[i] >= 0 && c < columns ? previous[rows[i]][c] : means[c];
+		return data;
+	}
 }
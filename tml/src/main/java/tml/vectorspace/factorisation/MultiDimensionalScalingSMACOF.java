@@ -0,0 +1,449 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.vectorspace.factorisation;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import tml.utils.DenseMatrix;
+import tml.utils.DistanceLib;
+import tml.utils.MatrixKernels;
+import tml.utils.DistanceLib.DistanceMeasure;
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+import Jama.EigenvalueDecomposition;
+import Jama.Matrix;
+
+/**
+ * <p>
+ * Multidimensional Scaling using SMACOF (de Leeuw 1977), that minimises the
+ * raw stress by repeatedly applying the Guttman transform to the
+ * configuration. It projects instances into 2 dimensions like
+ * {@link MultiDimensionalScalingNR}, but the dissimilarities are calculated
+ * only once and stored as a packed upper triangular array, the rows of the
+ * configuration are updated in parallel, and it stops when the relative
+ * change of the stress is lower than the tolerance.
+ * </p>
+ * <p>
+ * For large sets of instances (see {@link #setLandmarks(int)}) Landmark MDS
+ * (de Silva and Tenenbaum 2004) is used instead: classical scaling is applied
+ * to a set of landmarks chosen by max-min distance, and every other instance
+ * is placed by triangulation from its distances to the landmarks, so only n
+ * times the number of landmarks dissimilarities are calculated.
+ * </p>
+ *
+ * @author Jorge Villalon
+ */
+public class MultiDimensionalScalingSMACOF {
+	public static final int X = 0; // attribute X
+	public static final int Y = 1; // attribute Y
+
+	private static final int p = 2; // number of dimensions
+	private double tolerance = 1E-5;
+	private int maxIterations = 300;
+	private int landmarks = 0;
+	private long seed = 42;
+
+	private double stress;
+	private int iterations;
+	private Instances initialX;
+	private FactorisationCheckpoint checkpoint = null;
+
+	private DistanceMeasure highDimensionalDistanceMeasure = DistanceMeasure.COSINE;
+
+	private final Log logger = LogFactory.getLog(getClass());
+
+	/**
+	 * Projects the instances into 2 dimensions
+	 *
+	 * @param instances
+	 * @return an instance with X and Y attributes for each input instance
+	 */
+	public Instances scale(Instances instances) {
+		int n = instances.numInstances();
+		DenseMatrix configuration;
+		if (this.landmarks > 0 && this.landmarks < n) {
+			configuration = landmarkScale(instances);
+		} else {
+			configuration = scale(dissimilarities(instances), n);
+		}
+
+		FastVector attributes = new FastVector(p);
+		attributes.addElement(new Attribute("X"));
+		attributes.addElement(new Attribute("Y"));
+		Instances x = new Instances("MDS", attributes, n);
+		for (int i = 0; i < n; i++) {
+			Instance instance = new Instance(p);
+			instance.setValue(X, configuration.get(i, X));
+			instance.setValue(Y, configuration.get(i, Y));
+			x.add(instance);
+		}
+		return x;
+	}
+
+	/**
+	 * Runs SMACOF over a packed array of dissimilarities
+	 *
+	 * @param dissimilarities
+	 *            the dissimilarities between i and j (i &lt; j), row by row,
+	 *            as indexed by {@link #index(int, int, int)}
+	 * @param n
+	 *            the number of points
+	 * @return the configuration, one point per row
+	 */
+	public DenseMatrix scale(final double[] dissimilarities, final int n) {
+		if (dissimilarities.length != (long) n * (n - 1) / 2)
+			throw new IllegalArgumentException("Expected " + ((long) n * (n - 1) / 2)
+					+ " dissimilarities for " + n + " points");
+
+		DenseMatrix current = initialConfiguration(n);
+		DenseMatrix next = new DenseMatrix(n, p);
+
+		double squaredSum = 0;
+		for (double delta : dissimilarities)
+			squaredSum += delta * delta;
+		if (squaredSum == 0)
+			return current;
+
+		double previousStress = Double.MAX_VALUE;
+		this.iterations = 0;
+		FactorisationCheckpoint.State state = checkpoint == null ? null
+				: checkpoint.load(current.getData().length);
+		if (state != null) {
+			this.iterations = state.getIteration();
+			previousStress = state.getScalars()[0];
+			current = new DenseMatrix(n, p, state.getArrays()[0]);
+		}
+		logger.info("Starting SMACOF MDS.");
+		while (this.iterations < this.maxIterations) {
+			this.iterations++;
+			// The stress is calculated for the current configuration while
+			// the next one is produced
+			double raw = guttmanTransform(dissimilarities, n, current, next);
+			this.stress = raw / squaredSum;
+			DenseMatrix swap = current;
+			current = next;
+			next = swap;
+
+			logger.debug(this.iterations + ".\t stress " + this.stress);
+			if (previousStress != Double.MAX_VALUE
+					&& (previousStress - this.stress) <= this.tolerance * previousStress)
+				break;
+			previousStress = this.stress;
+			if (checkpoint != null && checkpoint.isDue(this.iterations))
+				checkpoint.save(this.iterations, new double[] { previousStress }, current.getData());
+		}
+		if (checkpoint != null)
+			checkpoint.finish();
+		logger.info("Finished SMACOF MDS after " + this.iterations
+				+ " iterations, normalised stress " + this.stress);
+		return current;
+	}
+
+	/**
+	 * Applies the Guttman transform X' = B(X) X / n in parallel by rows
+	 *
+	 * @return the raw stress of the configuration before the update
+	 */
+	private double guttmanTransform(final double[] dissimilarities, final int n,
+			final DenseMatrix current, final DenseMatrix next) {
+		final double[] x = current.getData();
+		final double[] out = next.getData();
+		final double[] stressSum = new double[1];
+		MatrixKernels.parallelRows(n, (long) n * n * p, new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				double partial = 0;
+				for (int i = start; i < end; i++) {
+					double xi = x[i * p];
+					double yi = x[i * p + 1];
+					double sumX = 0, sumY = 0;
+					for (int j = 0; j < n; j++) {
+						if (j == i)
+							continue;
+						double delta = i < j ? dissimilarities[index(i, j, n)]
+								: dissimilarities[index(j, i, n)];
+						double dx = xi - x[j * p];
+						double dy = yi - x[j * p + 1];
+						double distance = Math.sqrt(dx * dx + dy * dy);
+						if (distance > 0) {
+							double ratio = delta / distance;
+							sumX += ratio * dx;
+							sumY += ratio * dy;
+						}
+						double error = delta - distance;
+						partial += error * error;
+					}
+					out[i * p] = sumX / n;
+					out[i * p + 1] = sumY / n;
+				}
+				synchronized (stressSum) {
+					stressSum[0] += partial;
+				}
+			}
+		});
+		// every pair was counted from both of its points
+		return stressSum[0] / 2;
+	}
+
+	private DenseMatrix initialConfiguration(int n) {
+		DenseMatrix x = new DenseMatrix(n, p);
+		if (this.initialX != null && this.initialX.numInstances() == n) {
+			for (int i = 0; i < n; i++) {
+				x.set(i, X, this.initialX.instance(i).value(X));
+				x.set(i, Y, this.initialX.instance(i).value(Y));
+			}
+		} else {
+			Random random = new Random(this.seed);
+			for (int i = 0; i < n; i++) {
+				x.set(i, X, random.nextDouble() - 0.5);
+				x.set(i, Y, random.nextDouble() - 0.5);
+			}
+		}
+		return x;
+	}
+
+	/**
+	 * Calculates the dissimilarities between all the instances in parallel
+	 *
+	 * @param instances
+	 * @return the packed upper triangular dissimilarities
+	 */
+	public double[] dissimilarities(final Instances instances) {
+		final int n = instances.numInstances();
+		long size = (long) n * (n - 1) / 2;
+		if (size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many instances (" + n
+					+ ") for full MDS, use landmarks");
+		final double[] packed = new double[(int) size];
+		MatrixKernels.parallelRows(n, (long) n * n * instances.numAttributes() / 2,
+				new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int i = start; i < end; i++)
+					for (int j = i + 1; j < n; j++)
+						packed[index(i, j, n)] = dissimilarity(instances.instance(i), instances.instance(j));
+			}
+		});
+		return packed;
+	}
+
+	/**
+	 * @param i
+	 * @param j
+	 *            greater than i
+	 * @param n
+	 *            number of points
+	 * @return the position of the pair in a packed upper triangular array
+	 *         without the diagonal
+	 */
+	public static int index(int i, int j, int n) {
+		return (int) ((long) i * n - (long) i * (i + 1) / 2 + (j - i - 1));
+	}
+
+	/**
+	 * Landmark MDS, classical scaling of the landmarks and triangulation of
+	 * the rest of the instances
+	 */
+	private DenseMatrix landmarkScale(final Instances instances) {
+		final int n = instances.numInstances();
+		final int l = this.landmarks;
+		logger.info("Starting Landmark MDS with " + l + " landmarks.");
+
+		// Max-min selection of landmarks, the squared distances from every
+		// instance to the landmarks are kept
+		final int[] chosen = new int[l];
+		final DenseMatrix squared = new DenseMatrix(n, l);
+		final double[] closest = new double[n];
+		Arrays.fill(closest, Double.MAX_VALUE);
+		chosen[0] = new Random(this.seed).nextInt(n);
+		for (int c = 0; c < l; c++) {
+			final int landmark = c;
+			MatrixKernels.parallelRows(n, (long) n * instances.numAttributes(),
+					new MatrixKernels.RowTask() {
+				@Override
+				public void run(int start, int end) {
+					for (int i = start; i < end; i++) {
+						double delta = dissimilarity(instances.instance(i),
+								instances.instance(chosen[landmark]));
+						squared.set(i, landmark, delta * delta);
+						closest[i] = Math.min(closest[i], delta);
+					}
+				}
+			});
+			if (c + 1 < l) {
+				int farthest = 0;
+				for (int i = 1; i < n; i++)
+					if (closest[i] > closest[farthest])
+						farthest = i;
+				chosen[c + 1] = farthest;
+			}
+		}
+
+		// Classical scaling of the landmarks
+		Matrix b = new Matrix(l, l);
+		double[] rowMeans = new double[l];
+		double mean = 0;
+		for (int i = 0; i < l; i++) {
+			for (int j = 0; j < l; j++)
+				rowMeans[i] += squared.get(chosen[i], j);
+			mean += rowMeans[i];
+			rowMeans[i] /= l;
+		}
+		mean /= (double) l * l;
+		for (int i = 0; i < l; i++)
+			for (int j = 0; j < l; j++)
+				b.set(i, j, -0.5 * (squared.get(chosen[i], j) - rowMeans[i] - rowMeans[j] + mean));
+		EigenvalueDecomposition eig = b.eig();
+		double[] values = eig.getRealEigenvalues();
+		Matrix vectors = eig.getV();
+
+		// Pseudo-inverse transposed of the landmark coordinates, for the
+		// largest eigenvalues
+		final double[][] pseudo = new double[p][l];
+		boolean[] used = new boolean[l];
+		for (int a = 0; a < p; a++) {
+			int column = -1;
+			for (int j = 0; j < l; j++)
+				if (!used[j] && (column < 0 || values[j] > values[column]))
+					column = j;
+			used[column] = true;
+			double lambda = values[column];
+			if (lambda <= 0) {
+				logger.warn("Landmark MDS found a non positive eigenvalue, dimension " + a + " is collapsed");
+				continue;
+			}
+			for (int j = 0; j < l; j++)
+				pseudo[a][j] = vectors.get(j, column) / Math.sqrt(lambda);
+		}
+
+		// Triangulation, x = -1/2 L# (delta^2 - mean of landmark columns)
+		final double[] columnMeans = rowMeans;
+		final DenseMatrix configuration = new DenseMatrix(n, p);
+		MatrixKernels.parallelRows(n, (long) n * l * p, new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int i = start; i < end; i++)
+					for (int a = 0; a < p; a++) {
+						double sum = 0;
+						for (int j = 0; j < l; j++)
+							sum += pseudo[a][j] * (squared.get(i, j) - columnMeans[j]);
+						configuration.set(i, a, -0.5 * sum);
+					}
+			}
+		});
+		logger.info("Finished Landmark MDS.");
+		return configuration;
+	}
+
+	protected double dissimilarity(Instance inst1, Instance inst2) {
+		double similarity = DistanceLib.distance(highDimensionalDistanceMeasure, inst1, inst2);
+		// A passage without terms has no cosine with the others, it is taken
+		// as 0 like in the normalized vectors of the semantic space
+		if (Double.isNaN(similarity))
+			similarity = 0;
+		double distance = Math.sqrt(Math.max(0, 1 - similarity));
+		return distance;
+	}
+
+	/**
+	 * @return the relative decrease in stress to stop iterating
+	 */
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	/**
+	 * @param tolerance the relative decrease in stress to stop iterating
+	 */
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	public int getMaxIterations() {
+		return maxIterations;
+	}
+
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * @return the number of landmarks, 0 if SMACOF is always used
+	 */
+	public int getLandmarks() {
+		return landmarks;
+	}
+
+	/**
+	 * @param landmarks the number of landmarks used when there are more
+	 * instances than landmarks, 0 to always use SMACOF
+	 */
+	public void setLandmarks(int landmarks) {
+		this.landmarks = landmarks;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public DistanceMeasure getHighDimensionalDistanceMeasure() {
+		return highDimensionalDistanceMeasure;
+	}
+
+	public void setHighDimensionalDistanceMeasure(DistanceMeasure highDimensionalDistanceMeasure) {
+		this.highDimensionalDistanceMeasure = highDimensionalDistanceMeasure;
+	}
+
+	public Instances getInitialX() {
+		return initialX;
+	}
+
+	public void setInitialX(Instances initialX) {
+		this.initialX = initialX;
+	}
+
+	public FactorisationCheckpoint getCheckpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * @param checkpoint periodic checkpoints of the configuration, an
+	 * interrupted run continues from the last one. Null for none.
+	 */
+	public void setCheckpoint(FactorisationCheckpoint checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * @return the normalised stress of the last SMACOF run
+	 */
+	public double stress() {
+		return stress;
+	}
+
+	/**
+	 * @return the number of iterations of the last SMACOF run
+	 */
+	public int iterations() {
+		return iterations;
+	}
+}
@@ -15,6 +15,7 @@
  *******************************************************************************/
 package tml.vectorspace.factorisation;
 
+import tml.utils.MatrixKernels;
 import Jama.Matrix;
 
 /**
@@ -35,29 +36,31 @@ public class NonnegativeMatrixFactorisationED extends NonnegativeMatrixFactorisa
 		int K2 = Math.min(K, Math.min(n, m) - 1);
 
 		// initialise h
-		if (initialH != null) {
+		if (isWarmStart(m, n)) {
+			h = new Matrix(warmStartPassages(K2)).transpose();
+		} else if (initialH != null) {
 			h = initialH.copy();
 		} else {
 			h = Matrix.random(K2, n);
 		}
 
 		// initialise w
-		if (initialW != null) {
+		if (isWarmStart(m, n)) {
+			w = new Matrix(warmStartTerms(K2));
+		} else if (initialW != null) {
 			w = initialW.copy();
 		} else {
 			w = Matrix.random(m, K2);
 		}
 
 		// perform update iterations
-		double fnorm_previous = v.minus(w.times(h)).norm2();
+		double fnorm_previous = v.minus(MatrixKernels.times(w, h)).norm2();
 		for (int l = 0; l < maxIterations; l++) {
 			// simultaneous update of w and h
-			Matrix ht = h.transpose();
-			Matrix vht = v.times(ht);
-			Matrix whht = w.times(h).times(ht);
-			Matrix wt = w.transpose();
-			Matrix wtv = wt.times(v);
-			Matrix wtwh = wt.times(w).times(h);
+			Matrix vht = MatrixKernels.timesTranspose(v, h);
+			Matrix whht = MatrixKernels.times(w, MatrixKernels.gram(h));
+			Matrix wtv = MatrixKernels.transposeTimes(w, v);
+			Matrix wtwh = MatrixKernels.times(MatrixKernels.transposeTimes(w, w), h);
 
 			for (int c = 0; c < K2; c++) {
 				// update h
@@ -86,7 +89,7 @@ public class NonnegativeMatrixFactorisationED extends NonnegativeMatrixFactorisa
 			}
 
 			// check if converged
-			double fnorm = v.minus(w.times(h)).norm2();
+			double fnorm = v.minus(MatrixKernels.times(w, h)).norm2();
 			double change = Math.abs(fnorm_previous - fnorm);
 			logger.debug(l + ".\t change " + fnorm);
 			if (change <= SMALL_VALUE) {
@@ -18,6 +18,8 @@ package tml.vectorspace.factorisation;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import tml.utils.MatrixKernels;
+
 import Jama.Matrix;
 
 /**
@@ -47,50 +49,60 @@ public class NonnegativeMatrixFactorisationKL extends MatrixFactorisation {
 		v = v.times(1 / v.norm1());
 
 		// initialise h
-		if (initialH != null) {
+		if (isWarmStart(m, n)) {
+			h = new Matrix(warmStartPassages(K2)).transpose();
+		} else if (initialH != null) {
 			h = initialH.copy();
 		} else {
 			h = Matrix.random(K2, n);
 		}
 
 		// initialise w
-		if (initialW != null) {
+		if (isWarmStart(m, n)) {
+			w = new Matrix(warmStartTerms(K2));
+		} else if (initialW != null) {
 			w = initialW.copy();
 		} else {
 			w = Matrix.random(m, K2);
 		}
 
 		// perform update iterations
-		double fnorm_previous = v.minus(w.times(h)).norm2();
+		double fnorm_previous = v.minus(MatrixKernels.times(w, h)).norm2();
 		for (int l = 0; l < maxIterations; l++) {
-			// simultaneous update of w and h
-			Matrix wh = w.times(h);
-			Matrix h_copy = h.copy();
+			// simultaneous update of w and h, both use the ratio v / wh
+			Matrix q = MatrixKernels.times(w, h);
+			double[][] qdata = q.getArray();
+			double[][] vdata = v.getArray();
+			for (int i = 0; i < m; i++) {
+				for (int j = 0; j < n; j++) {
+					qdata[i][j] = vdata[i][j] / (qdata[i][j] + SMALL_VALUE);
+				}
+			}
+			Matrix wtq = MatrixKernels.transposeTimes(w, q);
+			Matrix qht = MatrixKernels.timesTranspose(q, h);
 
 			for (int c = 0; c < K2; c++) {
+				double wsum = 0, hsum = 0;
+				for (int i = 0; i < m; i++) {
+					wsum += w.get(i, c);
+				}
+				for (int j = 0; j < n; j++) {
+					hsum += h.get(c, j);
+				}
+
 				// update h
 				for (int j = 0; j < n; j++) {
-					double sum1 = 0, sum2 = 0;
-					for (int i = 0; i < m; i++) {
-						sum1 += w.get(i, c) * v.get(i, j) / (wh.get(i, j) + SMALL_VALUE);
-						sum2 += w.get(i, c);
-					}
-					h.set(c, j, h.get(c, j) * sum1 / sum2);
+					h.set(c, j, h.get(c, j) * wtq.get(c, j) / wsum);
 				}
 
 				// update w
 				for (int i = 0; i < m; i++) {
-					double sum1 = 0, sum2 = 0;
-					for (int j = 0; j < n; j++) {
-						sum1 += h_copy.get(c, j) * v.get(i, j) / (wh.get(i, j) + SMALL_VALUE);
-						sum2 += h_copy.get(c, j);
-					}
-					w.set(i, c, w.get(i, c) * sum1 / sum2);
+					w.set(i, c, w.get(i, c) * qht.get(i, c) / hsum);
 				}
 			}
 
 			// check if converged
-			double fnorm = v.minus(w.times(h)).norm2();
+			double fnorm = v.minus(MatrixKernels.times(w, h)).norm2();
 			double change = Math.abs(fnorm_previous - fnorm);
 			logger.debug(l + "\t change " + change);
 			if (change <= SMALL_VALUE) {
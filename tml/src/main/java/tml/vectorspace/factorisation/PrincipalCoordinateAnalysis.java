@@ -15,8 +15,13 @@
  *******************************************************************************/
 package tml.vectorspace.factorisation;
 
+import java.util.Arrays;
+import java.util.Random;
+
+import tml.utils.DenseMatrix;
 import tml.utils.DistanceLib;
 import tml.utils.DistanceLib.DistanceMeasure;
+import tml.utils.MatrixKernels;
 import weka.core.Attribute;
 import weka.core.FastVector;
 import weka.core.Instance;
@@ -26,6 +31,20 @@ import Jama.Matrix;
 
 /**
  * Principal Coordinate Analysis
+ * <p>
+ * The coordinates come from the eigenpairs with the largest eigenvalues of
+ * the centred matrix. By default the centred matrix is built and fully
+ * decomposed. With {@link Solver#BLOCK_POWER_ITERATION} only the leading
+ * eigenpairs are calculated by subspace iteration, the squared distances are
+ * stored packed and the double centring is applied inside each product, so
+ * no n by n matrix is created.
+ * </p>
+ * <p>
+ * Distances that are not Euclidean give negative eigenvalues, which can be
+ * larger in magnitude than the leading ones. The subspace iteration would
+ * converge to those, so it iterates with the matrix shifted by a bound of
+ * its spectral radius, which makes all its eigenvalues non negative.
+ * </p>
  * 
  * @author Stephen O'Rourke
  */
@@ -33,9 +52,31 @@ public class PrincipalCoordinateAnalysis {
 	public static final int X = 0; // attribute Y
 	public static final int Y = 1; // attribute X
 	private static final int p = 2; // number of dimensions
+
+	/**
+	 * How the eigenpairs are calculated
+	 */
+	public enum Solver {
+		/** Full eigenvalue decomposition of the centred matrix */
+		EIGENDECOMPOSITION,
+		/** Block power iteration for the leading eigenpairs only */
+		BLOCK_POWER_ITERATION
+	}
+
+	/** Extra vectors in the block, they speed up convergence */
+	private static final int OVERSAMPLING = 4;
+
 	private DistanceMeasure distanceMeasure = DistanceMeasure.EUCLIDEAN;
+	private Solver solver = Solver.EIGENDECOMPOSITION;
+	private double tolerance = 1E-8;
+	private int maxIterations = 500;
+	private long seed = 42;
+	private int iterations = 0;
 
 	public Instances scale(Instances instances) {
+		if (solver == Solver.BLOCK_POWER_ITERATION)
+			return scaleLeadingEigenpairs(instances);
+
 		// number of points
 		int n = instances.numInstances();
 
@@ -61,25 +102,240 @@ public class PrincipalCoordinateAnalysis {
 		// create centered matrix G by centering the elements of A
 		Matrix A = d.arrayTimes(d).times((double) -1 / 2);
 		Matrix B = Matrix.identity(n, n).minus(new Matrix(n, n, 1).times((double) 1 / n));
-		G = B.times(A).times(B);
+		G = MatrixKernels.times(MatrixKernels.times(B, A), B);
 
-		// eigenvalue decomposition
+		// eigenvalue decomposition, Jama sorts the eigenvalues of a symmetric
+		// matrix in ascending order so the leading ones are the last
 		EigenvalueDecomposition eig = G.eig();
-		Matrix eigenvalues = eig.getD();
+		double[] eigenvalues = eig.getRealEigenvalues();
 		Matrix eigenvectors = eig.getV();
+		int[] order = decreasing(eigenvalues);
 
 		// output eigenvectors as the principal coordinate axes, and normalise 
 		// them by dividing by the square root of their corresponding eigenvalue.
 		for (int i = 0; i < n; i++) {
 			Instance instance = new Instance(p);
-			instance.setValue(X, eigenvectors.get(i, X) / Math.copySign(Math.sqrt(Math.abs(eigenvalues.get(X, X))), eigenvalues.get(X, X)));
-			instance.setValue(Y, eigenvectors.get(i, Y) / Math.copySign(Math.sqrt(Math.abs(eigenvalues.get(Y, Y))), eigenvalues.get(Y, Y)));
+			for (int a = 0; a < p; a++) {
+				double value = a < n ? eigenvectors.get(i, order[a])
+						/ Math.copySign(Math.sqrt(Math.abs(eigenvalues[order[a]])), eigenvalues[order[a]]) : 0;
+				instance.setValue(a, value);
+			}
 			x.add(instance);
 		}
 		
 		return x;
 	}
 
+	/**
+	 * Calculates the leading eigenpairs of the double centred squared
+	 * distances with block power iteration and Rayleigh-Ritz
+	 */
+	private Instances scaleLeadingEigenpairs(final Instances instances) {
+		final int n = instances.numInstances();
+		final int b = Math.min(n, p + OVERSAMPLING);
+
+		// packed squared distances, without the diagonal
+		long size = (long) n * (n - 1) / 2;
+		if (size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many instances (" + n + ")");
+		final double[] squared = new double[(int) size];
+		MatrixKernels.parallelRows(n, (long) n * n * instances.numAttributes() / 2,
+				new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int i = start; i < end; i++)
+					for (int j = i + 1; j < n; j++) {
+						double distance = distance(instances.instance(i), instances.instance(j));
+						squared[MultiDimensionalScalingSMACOF.index(i, j, n)] = distance * distance;
+					}
+			}
+		});
+
+		// The eigenvalues of G are at most ||A|| / 2 in magnitude, and the
+		// norm of A is at most its largest row sum as it is non negative
+		double[] rowSums = new double[n];
+		for (int i = 0; i < n; i++)
+			for (int j = i + 1; j < n; j++) {
+				double a = squared[MultiDimensionalScalingSMACOF.index(i, j, n)];
+				rowSums[i] += a;
+				rowSums[j] += a;
+			}
+		double shift = 0;
+		for (double sum : rowSums)
+			shift = Math.max(shift, sum / 2);
+
+		// The block is stored with one vector per row
+		DenseMatrix v = new DenseMatrix(b, n);
+		Random random = new Random(seed);
+		for (int i = 0; i < v.getData().length; i++)
+			v.getData()[i] = random.nextGaussian();
+		orthonormalizeRows(v);
+
+		double[] ritz = new double[b];
+		double[] previous = new double[b];
+		Matrix rotation = null;
+		DenseMatrix gv = null;
+		iterations = 0;
+		while (iterations < maxIterations) {
+			iterations++;
+			gv = centredProduct(squared, n, v);
+
+			// Rayleigh-Ritz on the block
+			Matrix t = new Matrix(b, b);
+			for (int k = 0; k < b; k++)
+				for (int l = k; l < b; l++) {
+					double value = (v.dot(k, gv, l) + v.dot(l, gv, k)) / 2;
+					t.set(k, l, value);
+					t.set(l, k, value);
+				}
+			EigenvalueDecomposition eig = t.eig();
+			int[] order = decreasing(eig.getRealEigenvalues());
+			rotation = new Matrix(b, b);
+			for (int a = 0; a < b; a++) {
+				ritz[a] = eig.getRealEigenvalues()[order[a]];
+				for (int k = 0; k < b; k++)
+					rotation.set(k, a, eig.getV().get(k, order[a]));
+			}
+
+			boolean converged = iterations > 1;
+			for (int a = 0; a < p && a < b; a++)
+				if (Math.abs(ritz[a] - previous[a]) > tolerance * Math.abs(ritz[a]))
+					converged = false;
+			System.arraycopy(ritz, 0, previous, 0, b);
+			if (converged)
+				break;
+
+			// The next block is (G + shift I) v
+			double[] gd = gv.getData();
+			double[] vd = v.getData();
+			for (int i = 0; i < gd.length; i++)
+				gd[i] += shift * vd[i];
+			v = rotate(gv, rotation);
+			orthonormalizeRows(v);
+		}
+		DenseMatrix vectors = rotate(v, rotation);
+
+		FastVector attributes = new FastVector(p);
+		attributes.addElement(new Attribute("X"));
+		attributes.addElement(new Attribute("Y"));
+		Instances x = new Instances("PCO", attributes, n);
+		for (int i = 0; i < n; i++) {
+			Instance instance = new Instance(p);
+			for (int a = 0; a < p; a++) {
+				double value = a < b ? vectors.get(a, i)
+						/ Math.copySign(Math.sqrt(Math.abs(ritz[a])), ritz[a]) : 0;
+				instance.setValue(a, value);
+			}
+			x.add(instance);
+		}
+		return x;
+	}
+
+	/**
+	 * Calculates G v = -1/2 J A J v for each vector in the block, where A are
+	 * the squared distances and J = I - 11'/n is the centring matrix
+	 */
+	private static DenseMatrix centredProduct(final double[] squared, final int n, DenseMatrix v) {
+		final int b = v.getRowDimension();
+		final DenseMatrix w = v.copy();
+		final double[] wd = w.getData();
+		for (int k = 0; k < b; k++)
+			centre(wd, k * n, n);
+
+		final DenseMatrix out = new DenseMatrix(b, n);
+		final double[] od = out.getData();
+		MatrixKernels.parallelRows(n, (long) n * n * b, new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				double[] sums = new double[b];
+				for (int i = start; i < end; i++) {
+					Arrays.fill(sums, 0);
+					for (int j = 0; j < n; j++) {
+						if (j == i)
+							continue;
+						double a = i < j ? squared[MultiDimensionalScalingSMACOF.index(i, j, n)]
+								: squared[MultiDimensionalScalingSMACOF.index(j, i, n)];
+						for (int k = 0; k < b; k++)
+							sums[k] += a * wd[k * n + j];
+					}
+					for (int k = 0; k < b; k++)
+						od[k * n + i] = sums[k];
+				}
+			}
+		});
+		for (int k = 0; k < b; k++) {
+			centre(od, k * n, n);
+			for (int i = 0; i < n; i++)
+				od[k * n + i] *= -0.5;
+		}
+		return out;
+	}
+
+	/**
+	 * Subtracts the mean of a vector stored in an array segment
+	 */
+	private static void centre(double[] data, int offset, int length) {
+		double mean = 0;
+		for (int i = 0; i < length; i++)
+			mean += data[offset + i];
+		mean /= length;
+		for (int i = 0; i < length; i++)
+			data[offset + i] -= mean;
+	}
+
+	/**
+	 * Modified Gram-Schmidt over the rows of a matrix
+	 */
+	private static void orthonormalizeRows(DenseMatrix v) {
+		int b = v.getRowDimension();
+		int n = v.getColumnDimension();
+		double[] d = v.getData();
+		for (int k = 0; k < b; k++) {
+			for (int l = 0; l < k; l++) {
+				double projection = v.dot(k, v, l);
+				for (int i = 0; i < n; i++)
+					d[k * n + i] -= projection * d[l * n + i];
+			}
+			double norm = v.rowNorm(k);
+			if (norm == 0)
+				continue;
+			for (int i = 0; i < n; i++)
+				d[k * n + i] /= norm;
+		}
+	}
+
+	/**
+	 * @return the rows of a combined using the columns of a rotation
+	 */
+	private static DenseMatrix rotate(DenseMatrix v, Matrix rotation) {
+		int b = v.getRowDimension();
+		int n = v.getColumnDimension();
+		DenseMatrix out = new DenseMatrix(b, n);
+		for (int a = 0; a < b; a++)
+			for (int k = 0; k < b; k++) {
+				double r = rotation.get(k, a);
+				for (int i = 0; i < n; i++)
+					out.getData()[a * n + i] += r * v.getData()[k * n + i];
+			}
+		return out;
+	}
+
+	/**
+	 * @return the positions of the values sorted in decreasing order
+	 */
+	private static int[] decreasing(double[] values) {
+		int[] order = new int[values.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		for (int i = 1; i < order.length; i++)
+			for (int j = i; j > 0 && values[order[j]] > values[order[j - 1]]; j--) {
+				int swap = order[j];
+				order[j] = order[j - 1];
+				order[j - 1] = swap;
+			}
+		return order;
+	}
+
 	protected double distance(Instance inst1, Instance inst2) {
 		double distance = Math.sqrt(1 - DistanceLib.distance(distanceMeasure, inst1, inst2));
 		return distance;
@@ -93,4 +349,31 @@ public class PrincipalCoordinateAnalysis {
 		this.distanceMeasure = distanceMeasure;
 	}
 
+	public Solver getSolver() {
+		return solver;
+	}
+
+	public void setSolver(Solver solver) {
+		this.solver = solver;
+	}
+
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * @return the iterations of the last block power iteration
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
 }
@@ -18,6 +18,7 @@ package tml.vectorspace.factorisation;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import tml.utils.MatrixKernels;
 import tml.utils.MatrixUtils;
 
 import Jama.Matrix;
@@ -56,6 +57,11 @@ public class ProbabilisticLatentSemanticAnalysis extends MatrixFactorisation {
 		Pz = new Matrix(K2, 1, 1);
 		Pd_z = Matrix.random(n, K2);
 		Pw_z = Matrix.random(m, K2);
+		if (isWarmStart(m, n)) {
+			Pz = new Matrix(warmStartValues(K2), K2);
+			Pd_z = new Matrix(warmStartPassages(K2));
+			Pw_z = new Matrix(warmStartTerms(K2));
+		}
 
 		// normalise columns to sum to 1
 		Pz = MatrixUtils.normalizeColumnsL1(Pz);
@@ -91,15 +97,25 @@ public class ProbabilisticLatentSemanticAnalysis extends MatrixFactorisation {
 			}
 
 			//M step, maximise log-likelihood
+			// row and column sums of x .* Pz_dw[k] in a single pass
+			double[][] xdata = x.getArray();
 			for (int k = 0; k < K2; k++) {
-				Matrix Pw_k = x.arrayTimes(Pz_dw[k]).times(new Matrix(n, 1, 1));
-				Pw_z.setMatrix(0, m - 1, k, k, Pw_k);
-			}
-			for (int k = 0; k < K2; k++) {
-				Matrix Pd_k = x.arrayTimes(Pz_dw[k]).transpose().times(new Matrix(m, 1, 1));
-				Pd_z.setMatrix(0, n - 1, k, k, Pd_k);
+				double[][] post = Pz_dw[k].getArray();
+				double[] Pd_k = new double[n];
+				for (int i = 0; i < m; i++) {
+					double Pw_k = 0;
+					for (int j = 0; j < n; j++) {
+						double value = xdata[i][j] * post[i][j];
+						Pw_k += value;
+						Pd_k[j] += value;
+					}
+					Pw_z.set(i, k, Pw_k);
+				}
+				for (int j = 0; j < n; j++) {
+					Pd_z.set(j, k, Pd_k[j]);
+				}
 			}
-			Pz = Pd_z.transpose().times(new Matrix(n, 1, 1));
+			Pz = MatrixKernels.transposeTimes(Pd_z, new Matrix(n, 1, 1));
 
 			// normalise columns to sum to 1
 			Pw_z = MatrixUtils.normalizeColumnsL1(Pw_z);
@@ -111,7 +127,7 @@ public class ProbabilisticLatentSemanticAnalysis extends MatrixFactorisation {
 			for (int k = 0; k < K2; k++) {
 				Pz_diag.set(k, k, Pz.get(k, 0));
 			}
-			Matrix logMatrix = Pw_z.times(Pz_diag).times(Pd_z.transpose());
+			Matrix logMatrix = MatrixKernels.timesTranspose(MatrixKernels.scaleColumns(Pw_z, Pz_diag), Pd_z);
 			for (int i = 0; i < m; i++) {
 				for (int j = 0; j < n; j++) {
 					logMatrix.set(i, j, Math.log(logMatrix.get(i, j) + SMALL_VALUE));
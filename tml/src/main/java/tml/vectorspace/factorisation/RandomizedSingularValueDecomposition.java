@@ -0,0 +1,119 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.vectorspace.factorisation;
+
+import java.util.Random;
+
+import tml.utils.DenseMatrix;
+import tml.utils.SparseMatrix;
+import Jama.Matrix;
+import Jama.QRDecomposition;
+
+/**
+ * <p>
+ * Truncated SVD with a randomized range finder (Halko, Martinsson and Tropp
+ * 2011). The range of the matrix is sampled with K plus some extra random
+ * vectors, refined with a few power iterations, and the SVD is calculated on
+ * the small projection of the matrix on that range.
+ * </p>
+ * <p>
+ * Only products with the matrix and its transpose are needed, which are done
+ * over a {@link SparseMatrix} in parallel, so the cost is proportional to the
+ * number of non zero values times K.
+ * </p>
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class RandomizedSingularValueDecomposition extends MatrixFactorisation {
+
+	private int oversampling = 10;
+	private int powerIterations = 2;
+	private long seed = 42;
+
+	@Override
+	public void process(Matrix v) {
+		process(SparseMatrix.fromMatrix(v));
+	}
+
+	/**
+	 * Calculates the first K singular values and vectors
+	 *
+	 * @param v
+	 *            the matrix to decompose
+	 */
+	public void process(SparseMatrix v) {
+		int m = v.getRowDimension();
+		int n = v.getColumnDimension();
+		int k = Math.min(K, Math.min(m, n));
+		int l = Math.min(k + oversampling, Math.min(m, n));
+		SparseMatrix vt = v.transpose();
+
+		Random random = new Random(seed);
+		DenseMatrix omega = new DenseMatrix(n, l);
+		for (int i = 0; i < omega.getData().length; i++)
+			omega.getData()[i] = random.nextGaussian();
+
+		DenseMatrix q = orthonormalize(v.times(omega));
+		for (int i = 0; i < powerIterations; i++) {
+			DenseMatrix z = orthonormalize(vt.times(q));
+			q = orthonormalize(v.times(z));
+		}
+
+		// B = Q'V is l x n, its transpose V'Q is tall so Jama can decompose it
+		Matrix bt = vt.times(q).toMatrix();
+		Jama.SingularValueDecomposition svd = bt.svd();
+		Matrix uk = q.toMatrix().times(svd.getV().getMatrix(0, l - 1, 0, k - 1));
+		Matrix vk = svd.getU().getMatrix(0, n - 1, 0, k - 1);
+		Matrix sk = svd.getS().getMatrix(0, k - 1, 0, k - 1);
+
+		this.decomposition = new SpaceDecomposition();
+		this.decomposition.setUkdata(uk.getArray());
+		this.decomposition.setSkdata(sk.getArray());
+		this.decomposition.setVkdata(vk.getArray());
+	}
+
+	/**
+	 * @return an orthonormal basis for the columns of a matrix
+	 */
+	private static DenseMatrix orthonormalize(DenseMatrix y) {
+		return new DenseMatrix(new QRDecomposition(y.toMatrix()).getQ());
+	}
+
+	/**
+	 * @param oversampling
+	 *            the extra random vectors used to sample the range
+	 */
+	public void setOversampling(int oversampling) {
+		this.oversampling = oversampling;
+	}
+
+	/**
+	 * @param powerIterations
+	 *            the number of power iterations to refine the range
+	 */
+	public void setPowerIterations(int powerIterations) {
+		this.powerIterations = powerIterations;
+	}
+
+	/**
+	 * @param seed
+	 *            the seed for the random vectors
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+}
@@ -0,0 +1,297 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.vectorspace.factorisation;
+
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import tml.utils.DenseMatrix;
+import tml.utils.MatrixKernels;
+import tml.utils.SparseMatrix;
+import Jama.Matrix;
+
+/**
+ * <p>
+ * Base for the NMF implementations that work over the sparse term-passage
+ * matrix V ~ WH. W is kept with one row per term and H transposed, with one
+ * row per passage, so both updates are independent for each row and are
+ * calculated in parallel by blocks of rows.
+ * </p>
+ * <p>
+ * Each iteration returns the objective, calculated from the products the
+ * update needed anyway, and the iterations stop when its relative change is
+ * lower than a tolerance. The factors are initialised with uniform random
+ * values or with NNDSVD (Boutsidis and Gallopoulos 2008), in both cases from
+ * a fixed seed so the results can be reproduced, or from a previous
+ * decomposition (see {@link #setWarmStart(SpaceDecomposition, String[], String[], String[], String[])}).
+ * With a {@link FactorisationCheckpoint} W, H and the objective are saved
+ * periodically, and an interrupted run continues from the last checkpoint.
+ * </p>
+ *
+ * @author Jorge Villalon
+ *
+ */
+public abstract class SparseNonnegativeMatrixFactorisation extends MatrixFactorisation {
+
+	/**
+	 * How the factors are initialised
+	 */
+	public enum Initialisation {
+		/** Uniform random values scaled to the mean of the matrix */
+		RANDOM,
+		/** Non negative parts of the leading singular vectors */
+		NNDSVD
+	}
+
+	protected final Log logger = LogFactory.getLog(getClass());
+	protected static final double SMALL_VALUE = 10e-9;
+
+	protected Initialisation initialisation = Initialisation.NNDSVD;
+	protected int maxIterations = 200;
+	protected double tolerance = 1E-5;
+	protected long seed = 42;
+
+	/** Terms by factors */
+	protected DenseMatrix w;
+	/** Passages by factors, the transpose of H */
+	protected DenseMatrix ht;
+	/** Objective after the last iteration */
+	protected double objective = Double.NaN;
+	/** Iterations in the last run */
+	protected int iterations = 0;
+
+	@Override
+	public void process(Matrix v) {
+		process(SparseMatrix.fromMatrix(v));
+	}
+
+	/**
+	 * Factorises a sparse matrix
+	 *
+	 * @param v
+	 *            the term-passage matrix
+	 */
+	public void process(SparseMatrix v) {
+		v = prepare(v);
+		int m = v.getRowDimension();
+		int n = v.getColumnDimension();
+		int k = Math.min(K, Math.min(n, m) - 1);
+		SparseMatrix vt = v.transpose();
+
+		initialise(v, k);
+
+		double previous = Double.NaN;
+		iterations = 0;
+		FactorisationCheckpoint.State state = checkpoint == null ? null
+				: checkpoint.load(w.getData().length, ht.getData().length);
+		if (state != null) {
+			iterations = state.getIteration();
+			previous = state.getScalars()[0];
+			System.arraycopy(state.getArrays()[0], 0, w.getData(), 0, w.getData().length);
+			System.arraycopy(state.getArrays()[1], 0, ht.getData(), 0, ht.getData().length);
+		}
+		while (iterations < maxIterations) {
+			iterations++;
+			objective = iterate(v, vt);
+			logger.debug(iterations + ".\t objective " + objective);
+			if (!Double.isNaN(previous)
+					&& Math.abs(previous - objective) <= tolerance * Math.abs(previous))
+				break;
+			previous = objective;
+			if (checkpoint != null && checkpoint.isDue(iterations))
+				checkpoint.save(iterations, new double[] { objective }, w.getData(), ht.getData());
+		}
+		if (checkpoint != null)
+			checkpoint.finish();
+
+		decomposition = new SpaceDecomposition();
+		decomposition.setSkdata(Matrix.identity(k, k).getArray());
+		decomposition.setUkdata(w.toMatrix().getArray());
+		decomposition.setVkdata(ht.toMatrix().getArray());
+	}
+
+	/**
+	 * Gives subclasses the chance of scaling the matrix before factorising it
+	 */
+	protected SparseMatrix prepare(SparseMatrix v) {
+		return v;
+	}
+
+	/**
+	 * Updates W and H once
+	 *
+	 * @param v
+	 *            the matrix
+	 * @param vt
+	 *            its transpose
+	 * @return the objective
+	 */
+	protected abstract double iterate(SparseMatrix v, SparseMatrix vt);
+
+	private void initialise(SparseMatrix v, int k) {
+		int m = v.getRowDimension();
+		int n = v.getColumnDimension();
+		double mean = v.sum() / ((double) m * n);
+		w = new DenseMatrix(m, k);
+		ht = new DenseMatrix(n, k);
+
+		if (isWarmStart(m, n)) {
+			w = new DenseMatrix(new Matrix(warmStartTerms(k)));
+			ht = new DenseMatrix(new Matrix(warmStartPassages(k)));
+			return;
+		}
+
+		if (initialisation == Initialisation.RANDOM) {
+			Random random = new Random(seed);
+			double scale = Math.sqrt(mean / k);
+			for (int i = 0; i < w.getData().length; i++)
+				w.getData()[i] = random.nextDouble() * scale;
+			for (int i = 0; i < ht.getData().length; i++)
+				ht.getData()[i] = random.nextDouble() * scale;
+			return;
+		}
+
+		RandomizedSingularValueDecomposition svd = new RandomizedSingularValueDecomposition();
+		svd.setK(k);
+		svd.setSeed(seed);
+		svd.process(v);
+		double[][] u = svd.getDecomposition().getUkdata();
+		double[][] s = svd.getDecomposition().getSkdata();
+		double[][] vk = svd.getDecomposition().getVkdata();
+		int rank = Math.min(k, s.length);
+		for (int c = 0; c < rank; c++) {
+			// The dominant pair of positive or negative parts is kept
+			double up = 0, un = 0, vp = 0, vn = 0;
+			for (int i = 0; i < m; i++) {
+				double x = u[i][c];
+				if (x > 0)
+					up += x * x;
+				else
+					un += x * x;
+			}
+			for (int j = 0; j < n; j++) {
+				double y = vk[j][c];
+				if (y > 0)
+					vp += y * y;
+				else
+					vn += y * y;
+			}
+			up = Math.sqrt(up);
+			un = Math.sqrt(un);
+			vp = Math.sqrt(vp);
+			vn = Math.sqrt(vn);
+			double sign = up * vp >= un * vn ? 1 : -1;
+			double normU = sign > 0 ? up : un;
+			double normV = sign > 0 ? vp : vn;
+			if (normU == 0 || normV == 0)
+				continue;
+			double scale = Math.sqrt(s[c][c] * normU * normV);
+			for (int i = 0; i < m; i++)
+				w.set(i, c, Math.max(0, sign * u[i][c]) * scale / normU);
+			for (int j = 0; j < n; j++)
+				ht.set(j, c, Math.max(0, sign * vk[j][c]) * scale / normV);
+		}
+
+		// Multiplicative updates can't move zeros, so they start at the mean
+		for (int i = 0; i < w.getData().length; i++)
+			if (w.getData()[i] == 0)
+				w.getData()[i] = mean;
+		for (int i = 0; i < ht.getData().length; i++)
+			if (ht.getData()[i] == 0)
+				ht.getData()[i] = mean;
+	}
+
+	/**
+	 * @return the column sums of a matrix
+	 */
+	protected static double[] columnSums(DenseMatrix a) {
+		int k = a.getColumnDimension();
+		double[] sums = new double[k];
+		double[] data = a.getData();
+		for (int i = 0; i < data.length; i++)
+			sums[i % k] += data[i];
+		return sums;
+	}
+
+	/**
+	 * @return the product A'A of a tall matrix, which is small
+	 */
+	protected static DenseMatrix columnGram(DenseMatrix a) {
+		return MatrixKernels.transposeTimes(a, a);
+	}
+
+	public Initialisation getInitialisation() {
+		return initialisation;
+	}
+
+	public void setInitialisation(Initialisation initialisation) {
+		this.initialisation = initialisation;
+	}
+
+	public int getMaxIterations() {
+		return maxIterations;
+	}
+
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * @param tolerance
+	 *            the relative change in the objective to stop iterating
+	 */
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * @param seed
+	 *            the seed for the initialisation
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * @return the objective after the last iteration
+	 */
+	public double getObjective() {
+		return objective;
+	}
+
+	/**
+	 * @return the number of iterations in the last run
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * @return W, terms by factors
+	 */
+	public DenseMatrix getW() {
+		return w;
+	}
+
+	/**
+	 * @return H transposed, passages by factors
+	 */
+	public DenseMatrix getHt() {
+		return ht;
+	}
+}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.vectorspace.factorisation;
+
+import tml.utils.DenseMatrix;
+import tml.utils.MatrixKernels;
+import tml.utils.SparseMatrix;
+
+/**
+ * <p>
+ * Sparse NMF with Euclidean distance minimisation (Lee and Seung 2001), the
+ * sparse and parallel counterpart of {@link NonnegativeMatrixFactorisationED}.
+ * </p>
+ * <p>
+ * The objective is the Frobenius norm of V - WH, expanded as
+ * ||V||^2 - 2 tr(W'VH') + tr(W'W HH'), so it only needs VH', HH' and W'W,
+ * which are the products the update of W uses. The columns of W are
+ * normalised and the rows of H scaled back, so WH doesn't change.
+ * </p>
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class SparseNonnegativeMatrixFactorisationED extends SparseNonnegativeMatrixFactorisation {
+
+	/** Squared Frobenius norm of V */
+	private double normV2;
+	/** W'W of the current W */
+	private DenseMatrix gramW;
+
+	@Override
+	protected SparseMatrix prepare(SparseMatrix v) {
+		normV2 = v.normF2();
+		gramW = null;
+		return v;
+	}
+
+	@Override
+	protected double iterate(SparseMatrix v, SparseMatrix vt) {
+		if (gramW == null)
+			gramW = columnGram(w);
+
+		// update H with V'W and W'W
+		update(ht, vt.times(w), gramW);
+
+		// update W with VH' and HH'
+		DenseMatrix gramH = columnGram(ht);
+		DenseMatrix vh = v.times(ht);
+		update(w, vh, gramH);
+
+		// objective from the products already calculated
+		int k = w.getColumnDimension();
+		DenseMatrix gram = columnGram(w);
+		double cross = 0;
+		double[] wd = w.getData();
+		double[] vhd = vh.getData();
+		for (int i = 0; i < wd.length; i++)
+			cross += wd[i] * vhd[i];
+		double quadratic = 0;
+		for (int i = 0; i < k * k; i++)
+			quadratic += gram.getData()[i] * gramH.getData()[i];
+		double residual = Math.sqrt(Math.max(0, normV2 - 2 * cross + quadratic));
+
+		// normalise w column vectors, H takes the norms
+		double[] norms = new double[k];
+		double[] inverse = new double[k];
+		for (int c = 0; c < k; c++) {
+			norms[c] = Math.sqrt(gram.get(c, c));
+			inverse[c] = norms[c] > 0 ? 1 / norms[c] : 0;
+		}
+		w = MatrixKernels.scaleColumns(w, inverse);
+		ht = MatrixKernels.scaleColumns(ht, norms);
+		for (int c = 0; c < k; c++)
+			for (int d = 0; d < k; d++)
+				gram.set(c, d, gram.get(c, d) * inverse[c] * inverse[d]);
+		gramW = gram;
+
+		return residual;
+	}
+
+	/**
+	 * x = x .* numerator ./ (x * gram), row by row in parallel
+	 */
+	private static void update(final DenseMatrix x, final DenseMatrix numerator, final DenseMatrix gram) {
+		final int k = x.getColumnDimension();
+		final double[] xd = x.getData();
+		final double[] nd = numerator.getData();
+		final double[] gd = gram.getData();
+		MatrixKernels.parallelRows(x.getRowDimension(), (long) x.getRowDimension() * k * k,
+				new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				double[] denominator = new double[k];
+				for (int i = start; i < end; i++) {
+					int offset = i * k;
+					for (int c = 0; c < k; c++) {
+						double sum = 0;
+						for (int d = 0; d < k; d++)
+							sum += xd[offset + d] * gd[d * k + c];
+						denominator[c] = sum;
+					}
+					for (int c = 0; c < k; c++)
+						xd[offset + c] *= nd[offset + c] / (denominator[c] + SMALL_VALUE);
+				}
+			}
+		});
+	}
+}
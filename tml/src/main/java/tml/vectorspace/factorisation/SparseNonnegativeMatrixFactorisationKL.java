@@ -0,0 +1,105 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.vectorspace.factorisation;
+
+import tml.utils.DenseMatrix;
+import tml.utils.MatrixKernels;
+import tml.utils.SparseMatrix;
+
+/**
+ * <p>
+ * Sparse NMF with Kullback-Leibler divergence minimisation (Lee and Seung
+ * 2001), the sparse and parallel counterpart of
+ * {@link NonnegativeMatrixFactorisationKL}.
+ * </p>
+ * <p>
+ * The ratio V / WH is only needed where V is not zero, so each update visits
+ * the non zero values of a row of V (or of V' for H) and calculates the
+ * corresponding element of WH on the fly. The generalised divergence
+ * sum(V log(V / WH) - V) + sum(WH) is accumulated during the update of W,
+ * with the last sum calculated from the column sums of W and H, so it is the
+ * divergence of the updated H with the W of the start of the iteration.
+ * </p>
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class SparseNonnegativeMatrixFactorisationKL extends SparseNonnegativeMatrixFactorisation {
+
+	@Override
+	protected SparseMatrix prepare(SparseMatrix v) {
+		return v.times(1 / v.norm1());
+	}
+
+	@Override
+	protected double iterate(SparseMatrix v, SparseMatrix vt) {
+		double[] wsum = columnSums(w);
+		update(ht, w, vt, wsum, null);
+		double[] hsum = columnSums(ht);
+		double[] divergence = new double[v.getRowDimension()];
+		update(w, ht, v, hsum, divergence);
+
+		double objective = 0;
+		for (int i = 0; i < divergence.length; i++)
+			objective += divergence[i];
+		for (int c = 0; c < wsum.length; c++)
+			objective += wsum[c] * hsum[c];
+		return objective;
+	}
+
+	/**
+	 * x = x .* ((V ./ xy') y) ./ sums, row by row in parallel, where V has one
+	 * row per row of x and one column per row of y.
+	 */
+	private static void update(final DenseMatrix x, final DenseMatrix y, final SparseMatrix v,
+			final double[] sums, final double[] divergence) {
+		final int k = x.getColumnDimension();
+		final double[] xd = x.getData();
+		final double[] yd = y.getData();
+		final int[] offsets = v.getRowOffsets();
+		final int[] indices = v.getColumnIndices();
+		final double[] values = v.getValues();
+		MatrixKernels.parallelRows(x.getRowDimension(), (long) v.getNonZeros() * k,
+				new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				double[] accumulator = new double[k];
+				for (int i = start; i < end; i++) {
+					int offset = i * k;
+					double partial = 0;
+					for (int c = 0; c < k; c++)
+						accumulator[c] = 0;
+					for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+						int yOffset = indices[e] * k;
+						double product = 0;
+						for (int c = 0; c < k; c++)
+							product += xd[offset + c] * yd[yOffset + c];
+						product += SMALL_VALUE;
+						double ratio = values[e] / product;
+						for (int c = 0; c < k; c++)
+							accumulator[c] += ratio * yd[yOffset + c];
+						if (divergence != null && values[e] > 0)
+							partial += values[e] * Math.log(ratio) - values[e];
+					}
+					for (int c = 0; c < k; c++)
+						xd[offset + c] *= accumulator[c] / (sums[c] + SMALL_VALUE);
+					if (divergence != null)
+						divergence[i] = partial;
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,496 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.vectorspace.factorisation;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import tml.utils.DenseMatrix;
+import tml.utils.MatrixKernels;
+import tml.utils.SparseMatrix;
+import Jama.Matrix;
+
+/**
+ * <p>
+ * Probabilistic latent semantic analysis (PLSA) over the sparse
+ * term-passage matrix, with tempered EM (Hofmann 2001).
+ * </p>
+ * <p>
+ * The posterior P(z|d,w) is only needed where the count of w in d is not
+ * zero, and it is used as soon as it is calculated, so the E and M steps are
+ * done in a single pass over the non zero counts and the posteriors are
+ * never stored. The counts are split by terms in one partition per thread
+ * with about the same number of non zero values, each partition writes the
+ * new P(w|z) of its own terms and accumulates P(d|z) in its own array, which
+ * are added at the end of the pass. The arrays are allocated once per run
+ * and reused in every iteration, so besides the parameters the memory used
+ * is threads x passages x topics.
+ * </p>
+ * <p>
+ * By default all the counts are used for training and the model is the
+ * same as the one of {@link ProbabilisticLatentSemanticAnalysis}. A
+ * fraction of the counts can be held out (see {@link #setHeldOut(double)}),
+ * those counts are not used for training. The log-likelihood of the held
+ * out counts is calculated after each iteration and, when it stops
+ * improving, the parameters go back to the best ones so far and the
+ * posteriors are tempered (raised to a power beta lower than 1). Training
+ * stops when tempering doesn't improve the held out likelihood any more, or
+ * when the training log-likelihood, which the E step calculates anyway,
+ * converges.
+ * </p>
+ * <p>
+ * The parameters can start from a previous model (see
+ * {@link #setWarmStart(SpaceDecomposition, String[], String[], String[], String[])}),
+ * new terms and passages start with the mean probability of each topic.
+ * With a {@link FactorisationCheckpoint} the parameters and beta are saved
+ * periodically and an interrupted run continues from the last checkpoint,
+ * the best held out likelihood is tracked again from there.
+ * </p>
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class SparseProbabilisticLatentSemanticAnalysis extends MatrixFactorisation {
+
+	private final Log logger = LogFactory.getLog(getClass());
+	private static final double SMALL_VALUE = 10e-9;
+
+	private int maxIterations = 200;
+	private double tolerance = 1E-5;
+	private double heldOut = 0;
+	private double temperingFactor = 0.9;
+	private double minimumBeta = 0.5;
+	private long seed = 42;
+
+	/** P(z) */
+	private double[] pz;
+	/** P(w|z), terms by topics */
+	private DenseMatrix pwz;
+	/** P(d|z), passages by topics */
+	private DenseMatrix pdz;
+	/** The tempering exponent in the last iteration */
+	private double beta = 1;
+	/** Log-likelihood of the training counts */
+	private double logLikelihood = Double.NaN;
+	/** Log-likelihood of the held out counts, of the parameters kept */
+	private double heldOutLogLikelihood = Double.NaN;
+	/** Iterations in the last run */
+	private int iterations = 0;
+
+	@Override
+	public void process(Matrix x) {
+		process(SparseMatrix.fromMatrix(x));
+	}
+
+	/**
+	 * Fits the model to a sparse term-passage matrix
+	 *
+	 * @param x
+	 *            the counts, terms by passages
+	 */
+	public void process(SparseMatrix x) {
+		int m = x.getRowDimension();
+		int n = x.getColumnDimension();
+		int k = Math.min(K, Math.min(n, m) - 1);
+		Random random = new Random(seed);
+
+		SparseMatrix[] split = split(x, heldOut, random);
+		SparseMatrix train = split[0];
+		SparseMatrix test = split[1];
+		int[] partitions = partitions(train, MatrixKernels.getThreads());
+		double[][] accumulators = new double[partitions.length - 1][n * k];
+
+		pz = new double[k];
+		Arrays.fill(pz, 1.0 / k);
+		pwz = randomColumns(m, k, random);
+		pdz = randomColumns(n, k, random);
+		if (isWarmStart(m, n)) {
+			double[] values = warmStartValues(k);
+			double total = 0;
+			for (int c = 0; c < k; c++)
+				total += values[c];
+			for (int c = 0; c < k; c++)
+				pz[c] = values[c] / total;
+			pwz = new DenseMatrix(new Matrix(warmStartTerms(k)));
+			pdz = new DenseMatrix(new Matrix(warmStartPassages(k)));
+			normaliseColumns(pwz);
+			normaliseColumns(pdz);
+		}
+
+		double[] bestPz = null;
+		DenseMatrix bestPwz = null;
+		DenseMatrix bestPdz = null;
+		double best = Double.NEGATIVE_INFINITY;
+		boolean improvedSinceTempering = true;
+		double previous = Double.NaN;
+
+		beta = 1;
+		heldOutLogLikelihood = Double.NaN;
+		iterations = 0;
+		FactorisationCheckpoint.State state = checkpoint == null ? null
+				: checkpoint.load(k, pwz.getData().length, pdz.getData().length);
+		if (state != null) {
+			iterations = state.getIteration();
+			beta = state.getScalars()[0];
+			previous = state.getScalars()[1];
+			pz = state.getArrays()[0];
+			pwz = new DenseMatrix(m, k, state.getArrays()[1]);
+			pdz = new DenseMatrix(n, k, state.getArrays()[2]);
+		}
+		while (iterations < maxIterations) {
+			if (checkpoint != null && iterations > 0 && checkpoint.isDue(iterations))
+				checkpoint.save(iterations, new double[] { beta, previous }, pz, pwz.getData(), pdz.getData());
+			iterations++;
+			logLikelihood = iterate(train, partitions, accumulators, k);
+			logger.debug(iterations + ".\t log-likelihood " + logLikelihood);
+			boolean converged = !Double.isNaN(previous)
+					&& Math.abs(logLikelihood - previous) <= tolerance * Math.abs(previous);
+			previous = logLikelihood;
+
+			if (test.getNonZeros() == 0) {
+				if (converged)
+					break;
+				continue;
+			}
+
+			double likelihood = logLikelihood(test, k);
+			logger.debug(iterations + ".\t beta " + beta + " held out log-likelihood " + likelihood);
+			if (bestPz == null || likelihood > best) {
+				best = likelihood;
+				bestPz = pz.clone();
+				bestPwz = pwz.copy();
+				bestPdz = pdz.copy();
+				improvedSinceTempering = true;
+				if (converged)
+					break;
+				continue;
+			}
+
+			// no improvement, go back to the best model and temper
+			pz = bestPz.clone();
+			pwz = bestPwz.copy();
+			pdz = bestPdz.copy();
+			if (!improvedSinceTempering || beta * temperingFactor < minimumBeta)
+				break;
+			beta *= temperingFactor;
+			improvedSinceTempering = false;
+		}
+		if (checkpoint != null)
+			checkpoint.finish();
+		if (bestPz != null) {
+			pz = bestPz;
+			pwz = bestPwz;
+			pdz = bestPdz;
+			heldOutLogLikelihood = best;
+		}
+
+		Matrix sk = new Matrix(k, k);
+		for (int c = 0; c < k; c++)
+			sk.set(c, c, pz[c]);
+		decomposition = new SpaceDecomposition();
+		decomposition.setSkdata(sk.getArray());
+		decomposition.setUkdata(pwz.toMatrix().getArray());
+		decomposition.setVkdata(pdz.toMatrix().getArray());
+	}
+
+	/**
+	 * One pass of the E and M steps over the non zero counts
+	 *
+	 * @param accumulators
+	 *            one array of passages by topics for each partition, reused
+	 *            between iterations
+	 * @return the log-likelihood of the counts before the update
+	 */
+	private double iterate(final SparseMatrix x, final int[] partitions,
+			final double[][] accumulators, final int k) {
+		final int n = x.getColumnDimension();
+		final int[] offsets = x.getRowOffsets();
+		final int[] indices = x.getColumnIndices();
+		final double[] values = x.getValues();
+		final double[] pw = pwz.getData();
+		final double[] pd = scaledByPz();
+		final double b = beta;
+
+		final DenseMatrix newPwz = new DenseMatrix(pwz.getRowDimension(), k);
+		final double[] npw = newPwz.getData();
+		final int parts = partitions.length - 1;
+		final double[] likelihoods = new double[parts];
+
+		MatrixKernels.parallelRows(parts, (long) x.getNonZeros() * k, new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				double[] posterior = new double[k];
+				for (int part = start; part < end; part++) {
+					double[] accumulator = accumulators[part];
+					Arrays.fill(accumulator, 0);
+					double likelihood = 0;
+					for (int i = partitions[part]; i < partitions[part + 1]; i++) {
+						int wOffset = i * k;
+						for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+							int dOffset = indices[e] * k;
+							double joint = 0;
+							double sum = 0;
+							for (int c = 0; c < k; c++) {
+								double p = pw[wOffset + c] * pd[dOffset + c];
+								joint += p;
+								posterior[c] = b == 1 ? p : Math.pow(p, b);
+								sum += posterior[c];
+							}
+							likelihood += values[e] * Math.log(joint + SMALL_VALUE);
+							if (sum <= 0)
+								continue;
+							double scale = values[e] / sum;
+							for (int c = 0; c < k; c++) {
+								double value = posterior[c] * scale;
+								npw[wOffset + c] += value;
+								accumulator[dOffset + c] += value;
+							}
+						}
+					}
+					likelihoods[part] = likelihood;
+				}
+			}
+		});
+
+		DenseMatrix newPdz = new DenseMatrix(n, k);
+		double[] pdzData = newPdz.getData();
+		double likelihood = 0;
+		for (int part = 0; part < parts; part++) {
+			for (int i = 0; i < pdzData.length; i++)
+				pdzData[i] += accumulators[part][i];
+			likelihood += likelihoods[part];
+		}
+
+		// P(z) is the total of each topic, then columns sum to 1
+		double total = 0;
+		double[] sums = new double[k];
+		for (int i = 0; i < pdzData.length; i++)
+			sums[i % k] += pdzData[i];
+		for (int c = 0; c < k; c++)
+			total += sums[c];
+		for (int c = 0; c < k; c++)
+			pz[c] = total > 0 ? sums[c] / total : 1.0 / k;
+		normaliseColumns(newPwz);
+		normaliseColumns(newPdz);
+		pwz = newPwz;
+		pdz = newPdz;
+		return likelihood;
+	}
+
+	/**
+	 * @return the log-likelihood of some counts with the current parameters
+	 */
+	private double logLikelihood(final SparseMatrix x, final int k) {
+		final int[] offsets = x.getRowOffsets();
+		final int[] indices = x.getColumnIndices();
+		final double[] values = x.getValues();
+		final double[] pw = pwz.getData();
+		final double[] pd = scaledByPz();
+		final double[] rows = new double[x.getRowDimension()];
+		MatrixKernels.parallelRows(rows.length, (long) x.getNonZeros() * k, new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				for (int i = start; i < end; i++) {
+					double likelihood = 0;
+					for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+						double joint = 0;
+						for (int c = 0; c < k; c++)
+							joint += pw[i * k + c] * pd[indices[e] * k + c];
+						likelihood += values[e] * Math.log(joint + SMALL_VALUE);
+					}
+					rows[i] = likelihood;
+				}
+			}
+		});
+		double likelihood = 0;
+		for (double value : rows)
+			likelihood += value;
+		return likelihood;
+	}
+
+	/**
+	 * @return P(d|z) P(z), passages by topics
+	 */
+	private double[] scaledByPz() {
+		double[] scaled = pdz.getData().clone();
+		int k = pz.length;
+		for (int i = 0; i < scaled.length; i++)
+			scaled[i] *= pz[i % k];
+		return scaled;
+	}
+
+	/**
+	 * Splits the counts in training and held out, the held out counts are
+	 * chosen at random
+	 */
+	private static SparseMatrix[] split(SparseMatrix x, double fraction, Random random) {
+		int rows = x.getRowDimension();
+		int[] offsets = x.getRowOffsets();
+		boolean[] held = new boolean[x.getNonZeros()];
+		int heldCount = 0;
+		if (fraction > 0)
+			for (int e = 0; e < held.length; e++)
+				if (random.nextDouble() < fraction) {
+					held[e] = true;
+					heldCount++;
+				}
+		if (heldCount == 0)
+			return new SparseMatrix[] { x, new SparseMatrix(rows, x.getColumnDimension(),
+					new int[rows + 1], new int[0], new double[0]) };
+
+		int[][] newOffsets = new int[][] { new int[rows + 1], new int[rows + 1] };
+		int[][] newIndices = new int[][] { new int[held.length - heldCount], new int[heldCount] };
+		double[][] newValues = new double[][] { new double[held.length - heldCount], new double[heldCount] };
+		int[] positions = new int[2];
+		for (int i = 0; i < rows; i++) {
+			for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+				int s = held[e] ? 1 : 0;
+				newIndices[s][positions[s]] = x.getColumnIndices()[e];
+				newValues[s][positions[s]++] = x.getValues()[e];
+			}
+			newOffsets[0][i + 1] = positions[0];
+			newOffsets[1][i + 1] = positions[1];
+		}
+		return new SparseMatrix[] {
+				new SparseMatrix(rows, x.getColumnDimension(), newOffsets[0], newIndices[0], newValues[0]),
+				new SparseMatrix(rows, x.getColumnDimension(), newOffsets[1], newIndices[1], newValues[1]) };
+	}
+
+	/**
+	 * @return the first row of each partition, with about the same number of
+	 *         non zero values in each one, plus the number of rows at the end
+	 */
+	private static int[] partitions(SparseMatrix x, int parts) {
+		int rows = x.getRowDimension();
+		parts = Math.max(1, Math.min(parts, rows));
+		int[] offsets = x.getRowOffsets();
+		int[] partitions = new int[parts + 1];
+		int row = 0;
+		for (int p = 1; p < parts; p++) {
+			long target = (long) x.getNonZeros() * p / parts;
+			while (row < rows && offsets[row] < target)
+				row++;
+			partitions[p] = row;
+		}
+		partitions[parts] = rows;
+		return partitions;
+	}
+
+	private static DenseMatrix randomColumns(int rows, int k, Random random) {
+		DenseMatrix m = new DenseMatrix(rows, k);
+		for (int i = 0; i < m.getData().length; i++)
+			m.getData()[i] = random.nextDouble();
+		normaliseColumns(m);
+		return m;
+	}
+
+	/**
+	 * Columns sum to 1, no probability is left at zero
+	 */
+	private static void normaliseColumns(DenseMatrix m) {
+		int k = m.getColumnDimension();
+		double[] data = m.getData();
+		double[] sums = new double[k];
+		for (int i = 0; i < data.length; i++) {
+			data[i] += SMALL_VALUE;
+			sums[i % k] += data[i];
+		}
+		for (int i = 0; i < data.length; i++)
+			data[i] /= sums[i % k];
+	}
+
+	public int getMaxIterations() {
+		return maxIterations;
+	}
+
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * @param tolerance
+	 *            the relative change in the log-likelihood to stop iterating
+	 */
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * @param heldOut
+	 *            the fraction of the counts held out for early stopping and
+	 *            tempering, those counts are not used for training. 0, the
+	 *            default, trains with all of them
+	 */
+	public void setHeldOut(double heldOut) {
+		this.heldOut = heldOut;
+	}
+
+	/**
+	 * @param temperingFactor
+	 *            the factor applied to beta each time the held out
+	 *            likelihood stops improving
+	 */
+	public void setTemperingFactor(double temperingFactor) {
+		this.temperingFactor = temperingFactor;
+	}
+
+	/**
+	 * @param minimumBeta
+	 *            the lowest beta to try before stopping
+	 */
+	public void setMinimumBeta(double minimumBeta) {
+		this.minimumBeta = minimumBeta;
+	}
+
+	/**
+	 * @param seed
+	 *            the seed for the initialisation and the held out counts
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * @return the beta of the last iteration
+	 */
+	public double getBeta() {
+		return beta;
+	}
+
+	/**
+	 * @return the log-likelihood of the training counts in the last iteration
+	 */
+	public double getLogLikelihood() {
+		return logLikelihood;
+	}
+
+	/**
+	 * @return the log-likelihood of the held out counts with the model kept
+	 */
+	public double getHeldOutLogLikelihood() {
+		return heldOutLogLikelihood;
+	}
+
+	/**
+	 * @return the number of iterations in the last run
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+}
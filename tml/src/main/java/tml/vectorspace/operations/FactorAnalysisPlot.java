@@ -16,8 +16,8 @@
 
 package tml.vectorspace.operations;
 
+import tml.vectorspace.SemanticSpace;
 import tml.vectorspace.operations.results.FactorAnalysisPlotResult;
-import Jama.Matrix;
 
 /**
  * This operation simply presents the content of the reconstructed term/doc
@@ -36,22 +36,24 @@ public class FactorAnalysisPlot extends AbstractOperation<FactorAnalysisPlotResu
 	@Override
 	public void start() throws Exception {
 		super.start();
-		Matrix u = this.corpus.getSemanticSpace().getUk();
-		Matrix v = this.corpus.getSemanticSpace().getVk();
+		SemanticSpace space = this.corpus.getSemanticSpace();
+		double[] vector = null;
 
-		for (int i = 0; i < u.getRowDimension(); i++) {
+		for (int i = 0; i < this.corpus.getTerms().length; i++) {
+			vector = space.getTermVector(i, vector);
 			FactorAnalysisPlotResult result = new FactorAnalysisPlotResult();
 			result.setName(this.corpus.getTerms()[i]);
-			result.setX(u.get(i, 0));
-			result.setY(u.get(i, 1));
+			result.setX(vector[0]);
+			result.setY(vector[1]);
 			results.add(result);
 		}
-		for (int i = u.getRowDimension(); i < u.getRowDimension()
-				+ v.getRowDimension(); i++) {
+		vector = null;
+		for (int i = 0; i < this.corpus.getPassages().length; i++) {
+			vector = space.getPassageVector(i, vector);
 			FactorAnalysisPlotResult result = new FactorAnalysisPlotResult();
-			result.setName(this.corpus.getPassages()[i - u.getRowDimension()]);
-			result.setX(v.get(i - u.getRowDimension(), 0));
-			result.setY(v.get(i - u.getRowDimension(), 1));
+			result.setName(this.corpus.getPassages()[i]);
+			result.setX(vector[0]);
+			result.setY(vector[1]);
 			results.add(result);
 		}
 		super.end();
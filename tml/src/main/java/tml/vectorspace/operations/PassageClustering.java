@@ -0,0 +1,179 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.vectorspace.operations;
+
+import java.util.ArrayList;
+
+import tml.utils.DenseMatrix;
+import tml.utils.SphericalKMeans;
+import tml.vectorspace.operations.results.PassageClusteringLingoResult;
+
+/**
+ * <p>
+ * This operation groups the passages of a {@link Corpus} using spherical
+ * k-means over their normalized vectors in the {@link SemanticSpace} (see
+ * {@link SphericalKMeans}). Each cluster is labelled with the terms whose
+ * vectors in the space are closest to its centroid.
+ * </p>
+ * <p>
+ * The clustering is done with mini-batches, so it never compares all the
+ * passages with each other and can be used on large corpora.
+ * </p>
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class PassageClustering extends AbstractOperation<PassageClusteringLingoResult> {
+
+	private int clusters = 10;
+	private int labelTerms = 5;
+	private int batchSize = 1024;
+	private int maxIterations = 100;
+	private long seed = 42;
+	private SphericalKMeans kmeans = null;
+
+	public PassageClustering() {
+		this.name = "Passage clustering";
+	}
+
+	@Override
+	public void start() throws Exception {
+		super.start();
+
+		if (this.corpus == null) {
+			logger.error("The semantic space couldn't be calculated");
+			return;
+		}
+
+		this.results = new ArrayList<PassageClusteringLingoResult>();
+
+		DenseMatrix passages = this.corpus.getSemanticSpace().getNormalizedPassageVectors();
+		DenseMatrix terms = this.corpus.getSemanticSpace().getNormalizedTermVectors();
+
+		this.kmeans = new SphericalKMeans();
+		this.kmeans.setClusters(this.clusters);
+		this.kmeans.setBatchSize(this.batchSize);
+		this.kmeans.setMaxIterations(this.maxIterations);
+		this.kmeans.setSeed(this.seed);
+		this.kmeans.fit(passages);
+
+		DenseMatrix centroids = this.kmeans.getCentroids();
+		int[] assignments = this.kmeans.getAssignments();
+
+		PassageClusteringLingoResult[] clusterResults = new PassageClusteringLingoResult[centroids.getRowDimension()];
+		for (int c = 0; c < clusterResults.length; c++) {
+			clusterResults[c] = new PassageClusteringLingoResult();
+			clusterResults[c].setCluster(c);
+			clusterResults[c].setClusterPhrase(label(terms, centroids, c));
+		}
+		for (int i = 0; i < assignments.length; i++)
+			clusterResults[assignments[i]].getDocuments().add(this.corpus.getPassages()[i]);
+
+		for (PassageClusteringLingoResult result : clusterResults) {
+			if (result.getDocuments().size() > 0)
+				this.results.add(result);
+		}
+
+		super.end();
+	}
+
+	/**
+	 * @return the terms closest to a centroid, separated by spaces
+	 */
+	private String label(DenseMatrix terms, DenseMatrix centroids, int cluster) {
+		int size = Math.min(this.labelTerms, terms.getRowDimension());
+		int[] best = new int[size];
+		double[] bestScores = new double[size];
+		int found = 0;
+		for (int t = 0; t < terms.getRowDimension(); t++) {
+			double score = terms.dot(t, centroids, cluster);
+			if (found == size && score <= bestScores[size - 1])
+				continue;
+			int position = found < size ? found++ : size - 1;
+			while (position > 0 && bestScores[position - 1] < score) {
+				bestScores[position] = bestScores[position - 1];
+				best[position] = best[position - 1];
+				position--;
+			}
+			bestScores[position] = score;
+			best[position] = t;
+		}
+		StringBuffer label = new StringBuffer();
+		for (int i = 0; i < found; i++) {
+			if (i > 0)
+				label.append(" ");
+			label.append(this.corpus.getTerms()[best[i]]);
+		}
+		return label.toString();
+	}
+
+	/**
+	 * @return the number of clusters
+	 */
+	public int getClusters() {
+		return clusters;
+	}
+
+	/**
+	 * @param clusters the number of clusters
+	 */
+	public void setClusters(int clusters) {
+		this.clusters = clusters;
+	}
+
+	/**
+	 * @return the number of terms in the label of each cluster
+	 */
+	public int getLabelTerms() {
+		return labelTerms;
+	}
+
+	/**
+	 * @param labelTerms the number of terms in the label of each cluster
+	 */
+	public void setLabelTerms(int labelTerms) {
+		this.labelTerms = labelTerms;
+	}
+
+	/**
+	 * @param batchSize the number of passages in each mini-batch
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param maxIterations the maximum number of mini-batches
+	 */
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * @param seed the seed for the random seeding and sampling
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * @return the clustering of the last run, with the cluster of each
+	 * passage
+	 */
+	public SphericalKMeans getKMeans() {
+		return kmeans;
+	}
+}
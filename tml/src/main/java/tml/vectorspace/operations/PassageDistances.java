@@ -21,12 +21,9 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 
-import tml.utils.MatrixUtils;
+import tml.utils.DenseMatrix;
 import tml.vectorspace.operations.results.PassageDistancesResult;
 
-
-import Jama.Matrix;
-
 /**
  * Calculates the distances (angular) for a whole set of passages
  * in a {@link Corpus}.
@@ -81,23 +78,19 @@ public class PassageDistances extends
 		double averageDistance = 0;
 		this.results = new ArrayList<PassageDistancesResult>();
 
-		Matrix m = this.corpus.getSemanticSpace().getVk().times(this.corpus.getSemanticSpace().getSk());
-		m = MatrixUtils.normalizeRows(m);
-		m = m.times(m.transpose());
-
-		for (int doc1 = 0; doc1 < m.getRowDimension(); doc1++) {
-			for (int doc2 = doc1 + 1; doc2 < m.getRowDimension(); doc2++) {
+		// Only consecutive passages are compared, so the cosines are taken
+		// directly from the normalized passage vectors of the space
+		DenseMatrix m = this.corpus.getSemanticSpace().getNormalizedPassageVectors();
 
-				if (Math.abs(doc1 - doc2) == 1) {
-					PassageDistancesResult result = new PassageDistancesResult();
-					result.setDistance(m.get(doc1, doc2));
-					result.setDocumentAId(doc1);
-					result.setDocumentBId(doc2);
-					averageDistance += result.getDistance();
+		for (int doc1 = 0; doc1 < m.getRowDimension() - 1; doc1++) {
+			int doc2 = doc1 + 1;
+			PassageDistancesResult result = new PassageDistancesResult();
+			result.setDistance(m.dot(doc1, m, doc2));
+			result.setDocumentAId(doc1);
+			result.setDocumentBId(doc2);
+			averageDistance += result.getDistance();
 
-					this.results.add(result);
-				}
-			}
+			this.results.add(result);
 		}
 
 		this.summaryResult = averageDistance / results.size();
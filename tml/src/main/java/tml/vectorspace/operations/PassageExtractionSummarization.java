@@ -18,14 +18,12 @@ package tml.vectorspace.operations;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.TreeMap;
+import java.util.Arrays;
 
 import tml.corpus.TextDocument;
+import tml.vectorspace.SemanticSpace;
 import tml.vectorspace.operations.results.PassageExtractionSummarizationResult;
 
-
-import Jama.Matrix;
-
 /**
  * @author Jorge Villalon
  *
@@ -62,16 +60,30 @@ public class PassageExtractionSummarization extends AbstractOperation<PassageExt
 
 		this.results = new ArrayList<PassageExtractionSummarizationResult>();
 
-		Matrix eigenVectors = this.corpus.getSemanticSpace()
-				.getVk();
-
-		for (int i = 0; i < eigenVectors.getColumnDimension(); i++) {
-			TreeMap<Double, Integer> v = new TreeMap<Double, Integer>();
-			for (int j = 0; j < eigenVectors.getRowDimension(); j++) {
-				v.put(Math.abs(eigenVectors.get(j, i)), j);
+		// The passage with the highest load in each eigenvector, in a single
+		// pass over the passage vectors. Ties go to the last passage.
+		SemanticSpace space = this.corpus.getSemanticSpace();
+		double[] eigenVector = null;
+		double[] loads = null;
+		int[] passages = null;
+		for (int j = 0; j < this.corpus.getPassages().length; j++) {
+			eigenVector = space.getPassageVector(j, eigenVector);
+			if (loads == null) {
+				loads = new double[eigenVector.length];
+				passages = new int[eigenVector.length];
+				Arrays.fill(loads, -1);
 			}
-			double d = v.lastKey();
-			int q = v.get(d);
+			for (int i = 0; i < eigenVector.length; i++) {
+				if (Math.abs(eigenVector[i]) >= loads[i]) {
+					loads[i] = Math.abs(eigenVector[i]);
+					passages[i] = j;
+				}
+			}
+		}
+
+		for (int i = 0; loads != null && i < loads.length; i++) {
+			double d = loads[i];
+			int q = passages[i];
 			PassageExtractionSummarizationResult result = new PassageExtractionSummarizationResult();
 			result.setEigenVectorIndex(i);
 			result.setLoad(d);
@@ -0,0 +1,317 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.vectorspace.operations;
+
+import java.util.ArrayList;
+
+import tml.utils.DenseMatrix;
+import tml.utils.MatrixKernels;
+import tml.utils.RandomProjectionHash;
+import tml.vectorspace.operations.results.PassageSimilarityResult;
+
+/**
+ * <p>
+ * This operation finds all the pairs of passages in a {@link Corpus} whose
+ * cosine similarity in the {@link SemanticSpace} is at least a threshold,
+ * without comparing every passage with every other one as
+ * {@link PassagesSimilarity} does.
+ * </p>
+ * <p>
+ * Candidate pairs are obtained with sign random projection hashing (see
+ * {@link RandomProjectionHash}), only passages sharing a bucket in at least
+ * one band are compared, and each candidate is verified with its exact
+ * similarity so no pair below the threshold is reported. A pair over the
+ * threshold is missed with a probability of at most 1 - recall, the number of
+ * bands is calculated from the threshold and the expected recall unless it
+ * is set explicitly.
+ * </p>
+ * <p>
+ * By default the pairs are stored as {@link PassageSimilarityResult}s. For
+ * large corpora a {@link PairHandler} can be set, pairs are then passed to
+ * the handler as soon as they are found and no results are kept.
+ * </p>
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class PassageSimilarityJoin extends
+		AbstractOperation<PassageSimilarityResult> {
+
+	/**
+	 * Receives the pairs found by the join, calls are serialized.
+	 */
+	public interface PairHandler {
+		/**
+		 * @param passageA
+		 *            index of the first passage
+		 * @param passageB
+		 *            index of the second passage, always greater than passageA
+		 * @param similarity
+		 *            the cosine similarity
+		 */
+		public void pair(int passageA, int passageB, double similarity);
+	}
+
+	private double threshold = 0.9;
+	private double recall = 0.95;
+	private int bitsPerBand = 12;
+	private int bands = -1;
+	private long seed = 42;
+	private PairHandler handler = null;
+
+	/** Number of candidate pairs verified in the last run */
+	private long candidates = 0;
+	/** Number of pairs found in the last run */
+	private long pairs = 0;
+
+	public PassageSimilarityJoin() {
+		this.name = "Passage similarity join";
+	}
+
+	@Override
+	public void start() throws Exception {
+		super.start();
+
+		if (this.corpus == null) {
+			logger.error("The semantic space couldn't be calculated");
+			return;
+		}
+
+		this.results = new ArrayList<PassageSimilarityResult>();
+
+		final String[] passages = this.corpus.getPassages();
+		DenseMatrix vectors = this.corpus.getSemanticSpace().getNormalizedPassageVectors();
+
+		PairHandler output = this.handler;
+		if (output == null) {
+			output = new PairHandler() {
+				@Override
+				public void pair(int passageA, int passageB, double similarity) {
+					PassageSimilarityResult result = new PassageSimilarityResult();
+					result.setDocumentA(passages[passageA]);
+					result.setDocumentB(passages[passageB]);
+					result.setSimilarity(similarity);
+					results.add(result);
+				}
+			};
+		}
+
+		join(vectors, output);
+
+		logger.debug(this.candidates + " candidate pairs verified, "
+				+ this.pairs + " pairs over " + this.threshold);
+
+		super.end();
+	}
+
+	/**
+	 * Finds all the pairs of rows with a dot product over the threshold.
+	 *
+	 * @param vectors
+	 *            the vectors, normalized to unit length
+	 * @param output
+	 *            the handler receiving the pairs
+	 */
+	public void join(final DenseMatrix vectors, final PairHandler output) {
+		int bandsToUse = this.bands > 0 ? this.bands : RandomProjectionHash
+				.bandsFor(this.threshold, this.bitsPerBand, this.recall);
+		final RandomProjectionHash hash = new RandomProjectionHash(
+				vectors.getColumnDimension(), this.bitsPerBand, bandsToUse,
+				this.seed);
+		final int[] signatures = hash.signatures(vectors);
+		final int rows = vectors.getRowDimension();
+		final int totalBands = hash.getBands();
+		final long[] counters = new long[2];
+
+		for (int band = 0; band < totalBands; band++) {
+			final int currentBand = band;
+			final int[] sorted = hash.sortByBand(signatures, band);
+
+			// Boundaries of the buckets with more than one passage
+			int[] bucketStarts = new int[rows + 1];
+			int buckets = 0;
+			long work = 0;
+			int start = 0;
+			for (int i = 1; i <= rows; i++) {
+				if (i == rows
+						|| signatures[sorted[i] * totalBands + band] != signatures[sorted[start]
+								* totalBands + band]) {
+					if (i - start > 1) {
+						bucketStarts[buckets++] = start;
+						work += (long) (i - start) * (i - start);
+					}
+					start = i;
+				}
+			}
+			bucketStarts[buckets] = rows;
+			final int[] starts = bucketStarts;
+			final int totalBuckets = buckets;
+
+			MatrixKernels.parallelRows(totalBuckets, work * vectors.getColumnDimension(),
+					new MatrixKernels.RowTask() {
+				@Override
+				public void run(int first, int last) {
+					long verified = 0;
+					for (int b = first; b < last; b++) {
+						int end = bucketEnd(sorted, signatures, totalBands, currentBand, starts[b]);
+						for (int i = starts[b]; i < end; i++) {
+							for (int j = i + 1; j < end; j++) {
+								int a = Math.min(sorted[i], sorted[j]);
+								int c = Math.max(sorted[i], sorted[j]);
+								// Pairs are only verified in the first band they
+								// collide, so each pair is reported once
+								if (collidedBefore(signatures, totalBands, currentBand, a, c))
+									continue;
+								verified++;
+								double similarity = vectors.dot(a, vectors, c);
+								if (similarity >= threshold) {
+									synchronized (counters) {
+										counters[1]++;
+										output.pair(a, c, similarity);
+									}
+								}
+							}
+						}
+					}
+					synchronized (counters) {
+						counters[0] += verified;
+					}
+				}
+			});
+		}
+
+		this.candidates = counters[0];
+		this.pairs = counters[1];
+	}
+
+	private static int bucketEnd(int[] sorted, int[] signatures, int bands,
+			int band, int start) {
+		int signature = signatures[sorted[start] * bands + band];
+		int end = start + 1;
+		while (end < sorted.length
+				&& signatures[sorted[end] * bands + band] == signature)
+			end++;
+		return end;
+	}
+
+	private static boolean collidedBefore(int[] signatures, int bands,
+			int band, int a, int b) {
+		for (int previous = 0; previous < band; previous++)
+			if (signatures[a * bands + previous] == signatures[b * bands + previous])
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return the minimum similarity for a pair to be reported
+	 */
+	public double getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * @param threshold
+	 *            the minimum similarity for a pair to be reported
+	 */
+	public void setThreshold(double threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * @return the expected fraction of pairs over the threshold that are found
+	 */
+	public double getRecall() {
+		return recall;
+	}
+
+	/**
+	 * @param recall
+	 *            the expected fraction of pairs over the threshold that are
+	 *            found, used to calculate the number of bands
+	 */
+	public void setRecall(double recall) {
+		this.recall = recall;
+	}
+
+	/**
+	 * @return the number of bits in each band
+	 */
+	public int getBitsPerBand() {
+		return bitsPerBand;
+	}
+
+	/**
+	 * @param bitsPerBand
+	 *            the number of bits in each band, more bits mean smaller
+	 *            buckets but more bands to reach the same recall
+	 */
+	public void setBitsPerBand(int bitsPerBand) {
+		this.bitsPerBand = bitsPerBand;
+	}
+
+	/**
+	 * @return the number of bands, -1 if calculated from the recall
+	 */
+	public int getBands() {
+		return bands;
+	}
+
+	/**
+	 * @param bands
+	 *            the number of bands, -1 to calculate it from the recall
+	 */
+	public void setBands(int bands) {
+		this.bands = bands;
+	}
+
+	/**
+	 * @param seed
+	 *            the seed for the random hyperplanes
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * @return the handler receiving the pairs, null if they are kept as
+	 *         results
+	 */
+	public PairHandler getPairHandler() {
+		return handler;
+	}
+
+	/**
+	 * @param handler
+	 *            the handler receiving the pairs, null to keep them as results
+	 */
+	public void setPairHandler(PairHandler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * @return the number of candidate pairs verified in the last run
+	 */
+	public long getCandidates() {
+		return candidates;
+	}
+
+	/**
+	 * @return the number of pairs found in the last run
+	 */
+	public long getPairs() {
+		return pairs;
+	}
+}
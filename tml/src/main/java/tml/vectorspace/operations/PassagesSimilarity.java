@@ -18,10 +18,18 @@
  */
 package tml.vectorspace.operations;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Collections;
 import java.util.Comparator;
 
-import tml.utils.MatrixUtils;
+import tml.utils.DenseMatrix;
+import tml.utils.MatrixKernels;
 import tml.vectorspace.operations.results.PassageSimilarityResult;
 
 import Jama.Matrix;
@@ -31,15 +39,47 @@ import Jama.Matrix;
  * a {@link Corpus}, it can calculate the similarities based on its own
  * {@link SemanticSpace}, or use another {@link Corpus} to project all documents
  * and the calculate similarities between all documents in both corpora.
+ * <p>
+ * For large corpora the similarity matrix can be exported to a binary file
+ * instead of being kept in memory (see {@link #setExportFile(File)}). The
+ * matrix is calculated by blocks of rows that are written straight to the
+ * file, so only a few blocks are in memory at any time and no results are
+ * created. The file is little endian, it starts with two ints with the
+ * number of rows and columns followed by the similarities as doubles, row by
+ * row. In {@link ExportFormat#UPPER_TRIANGULAR} format row i contains only
+ * the columns from i to the end.
+ * </p>
  * 
  * @author Jorge Villalon
  *
  */
 public class PassagesSimilarity extends AbstractOperation<PassageSimilarityResult> {
 
+	/**
+	 * The layout of the exported similarity matrix
+	 */
+	public enum ExportFormat {
+		/**
+		 * All the rows and columns
+		 */
+		FULL,
+		/**
+		 * Only the diagonal and the values over it, packed row by row
+		 */
+		UPPER_TRIANGULAR
+	}
+
+	/** Size of the header of an exported file */
+	public static final int EXPORT_HEADER_SIZE = 8;
+
+	/** Maximum number of values written per block of rows */
+	private static final int EXPORT_BLOCK_VALUES = 1 << 20;
+
 	private boolean includeBackgroundInSimilarity = false;
 	private boolean includeBackgroundInResults = false;
 	private boolean sortBySimilarity = false;
+	private File exportFile = null;
+	private ExportFormat exportFormat = ExportFormat.UPPER_TRIANGULAR;
 	
 	public PassagesSimilarity() {
 		this.name = "Passages similarity";
@@ -67,6 +107,36 @@ public class PassagesSimilarity extends AbstractOperation<PassageSimilarityResul
 		return similarities;
 	}
 
+	/**
+	 * @return the file where the similarities are exported, null if they are
+	 *         kept in memory
+	 */
+	public File getExportFile() {
+		return exportFile;
+	}
+
+	/**
+	 * @param exportFile the file where the similarities will be exported
+	 * instead of creating results, null to keep them in memory
+	 */
+	public void setExportFile(File exportFile) {
+		this.exportFile = exportFile;
+	}
+
+	/**
+	 * @return the format of the exported file
+	 */
+	public ExportFormat getExportFormat() {
+		return exportFormat;
+	}
+
+	/**
+	 * @param exportFormat the format of the exported file
+	 */
+	public void setExportFormat(ExportFormat exportFormat) {
+		this.exportFormat = exportFormat;
+	}
+
 	/**
 	 * @param includeBackgroundInResults the includeBackgroundInResults to set
 	 */
@@ -88,17 +158,25 @@ public class PassagesSimilarity extends AbstractOperation<PassageSimilarityResul
 
 		if(!this.includeBackgroundInSimilarity) {
 			fillResultsFromSpace(
-					this.corpus.getSemanticSpace().getSk(), 
-					this.corpus.getSemanticSpace().getVk(), 
+					this.corpus.getSemanticSpace().getNormalizedPassageVectors().toDoublePrecision(),
 					this.corpus.getPassages());
 		} else {
-			Matrix v = this.corpus.getSemanticSpace().getVk();
-			Matrix vv = this.backgroundKnowledge.getSemanticSpace().getVk();
+			// The distances between documents is calculated using V
+			// First, V is scaled by S cause LSA works like that (check Deerwester 1990 
+			// and Beery and Dumais 1994). The background passages are scaled by the
+			// S of the corpus too.
+			double[] s = MatrixKernels.diagonal(this.corpus.getSemanticSpace().getSk());
+			DenseMatrix v = this.corpus.getSemanticSpace().getScaledPassageVectors(s);
+			DenseMatrix vv = this.backgroundKnowledge.getSemanticSpace().getScaledPassageVectors(s);
 			int docs = v.getRowDimension() + vv.getRowDimension();
 			int terms = v.getColumnDimension();
-			Matrix newV = new Matrix(docs, terms);
-			newV.setMatrix(0,v.getRowDimension()-1,0,terms-1,v);
-			newV.setMatrix(v.getRowDimension(),docs-1,0,terms-1,vv);
+			DenseMatrix newV = new DenseMatrix(docs, terms);
+			System.arraycopy(v.getData(), 0, newV.getData(), 0, v.getData().length);
+			System.arraycopy(vv.getData(), 0, newV.getData(), v.getData().length, vv.getData().length);
+
+			// Second, normalize the distances otherwise we won't get 1 for exactly
+			// the same documents.
+			MatrixKernels.normalizeRows(newV);
 
 			// The new array of passages
 			String[] passages = new String[docs];
@@ -107,10 +185,7 @@ public class PassagesSimilarity extends AbstractOperation<PassageSimilarityResul
 			for(int i=this.corpus.getPassages().length;i<docs;i++)
 				passages[i] = backgroundKnowledge.getPassages()[i-this.corpus.getPassages().length];
 
-			fillResultsFromSpace(
-					this.corpus.getSemanticSpace().getSk(),
-					newV,
-					passages);
+			fillResultsFromSpace(newV, passages);
 		}
 		
 		if(this.isSortBySimilarity()) {
@@ -126,18 +201,27 @@ public class PassagesSimilarity extends AbstractOperation<PassageSimilarityResul
 		super.end();
 	}
 
-	private void fillResultsFromSpace(Matrix S, Matrix V, String[] passages) {
-		// The distances between documents is calculated using V
-		// First, V is scaled by S cause LSA works like that (check Deerwester 1990 
-		// and Beery and Dumais 1994).
-		similarities = V.times(S);
-		
-		// Second, normalize the distances otherwise we won't get 1 for exactly
-		// the same documents.
-		similarities = MatrixUtils.normalizeRows(similarities);
-		
-		// Finally, the all with all comparison is made.
-		similarities = similarities.times(similarities.transpose());
+	/**
+	 * Compares the passages
+	 * 
+	 * @param vectors the passage vectors, scaled by S and normalized to unit length
+	 * @param passages the passages of the rows
+	 */
+	private void fillResultsFromSpace(DenseMatrix vectors, String[] passages) {
+		if(this.exportFile != null) {
+			int rows = vectors.getRowDimension();
+			if(!this.includeBackgroundInResults)
+				rows = this.corpus.getPassages().length;
+			try {
+				exportSimilarities(vectors, rows, this.exportFile, this.exportFormat);
+			} catch (IOException e) {
+				logger.error(e);
+			}
+			return;
+		}
+
+		// The all with all comparison is made.
+		similarities = MatrixKernels.gram(vectors).toMatrix();
 		int totalDocsA = similarities.getColumnDimension();
 		int totalDocsB = similarities.getColumnDimension();
 		if(!this.includeBackgroundInResults) {
@@ -152,4 +236,91 @@ public class PassagesSimilarity extends AbstractOperation<PassageSimilarityResul
 				this.results.add(result);
 			}
 	}
+
+	/**
+	 * Calculates the similarities between the first rows of a matrix and all
+	 * its rows, writing them to a file by blocks of rows.
+	 * 
+	 * @param vectors the vectors, one per row, normalized to unit length
+	 * @param rows the number of rows to export
+	 * @param file the output file, it is overwritten
+	 * @param format the layout of the file
+	 * @throws IOException
+	 */
+	public static void exportSimilarities(DenseMatrix vectors, int rows,
+			File file, ExportFormat format) throws IOException {
+		int columns = vectors.getRowDimension();
+		boolean upper = format == ExportFormat.UPPER_TRIANGULAR;
+		int blockRows = Math.max(1, Math.min(rows, EXPORT_BLOCK_VALUES / Math.max(1, columns)));
+
+		RandomAccessFile output = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = output.getChannel();
+			long values = upper ? packedSize(rows, columns) : (long) rows * columns;
+			output.setLength(0);
+			output.setLength(EXPORT_HEADER_SIZE + values * 8);
+
+			ByteBuffer header = ByteBuffer.allocate(EXPORT_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(rows).putInt(columns).flip();
+			channel.write(header, 0);
+
+			// The same buffer is reused for every block
+			long position = EXPORT_HEADER_SIZE;
+			ByteBuffer block = ByteBuffer.allocate(8 * blockRows * columns).order(ByteOrder.LITTLE_ENDIAN);
+			for(int first = 0; first < rows; first += blockRows) {
+				int last = Math.min(rows, first + blockRows);
+				long blockValues = upper
+						? packedSize(last, columns) - packedSize(first, columns)
+						: (long) (last - first) * columns;
+				block.clear();
+				block.limit((int) blockValues * 8);
+				writeBlock(vectors, first, last, upper, block.asDoubleBuffer());
+				long written = position;
+				while(block.hasRemaining())
+					written += channel.write(block, written);
+				position += blockValues * 8;
+			}
+			logger.debug("Similarities for " + rows + " passages exported to " + file);
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * @return the number of values in the first rows of a packed upper
+	 * triangular matrix
+	 */
+	private static long packedSize(int rows, int columns) {
+		return (long) rows * columns - (long) rows * (rows - 1) / 2;
+	}
+
+	/**
+	 * Calculates the similarities for a block of rows, the columns are
+	 * processed by tiles so the vectors in a tile stay in cache while all
+	 * the rows in a panel are compared with them.
+	 */
+	private static void writeBlock(final DenseMatrix vectors, final int first,
+			int last, final boolean upper, final DoubleBuffer out) {
+		final int columns = vectors.getRowDimension();
+		final int tile = MatrixKernels.BLOCK_SIZE;
+		MatrixKernels.parallelRows(last - first,
+				(long) (last - first) * columns * vectors.getColumnDimension(),
+				new MatrixKernels.RowTask() {
+			@Override
+			public void run(int start, int end) {
+				DoubleBuffer buffer = out.duplicate();
+				for(int j0 = upper ? first + start : 0; j0 < columns; j0 += tile) {
+					int j1 = Math.min(columns, j0 + tile);
+					for(int i = first + start; i < first + end; i++) {
+						int firstColumn = upper ? i : 0;
+						long offset = upper
+								? packedSize(i, columns) - packedSize(first, columns)
+								: (long) (i - first) * columns;
+						for(int j = Math.max(j0, firstColumn); j < j1; j++)
+							buffer.put((int) (offset + j - firstColumn), vectors.dot(i, vectors, j));
+					}
+				}
+			}
+		});
+	}
 }
@@ -20,10 +20,9 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 
+import tml.vectorspace.SemanticSpace;
 import tml.vectorspace.operations.results.TermsExtractionSummarizationResult;
 
-import Jama.Matrix;
-
 /**
  * This operation extracts the key terms from the corpus, ranked by their
  * importance on explaining the variance.
@@ -47,28 +46,24 @@ public class TermExtractionSummarization extends AbstractOperation<TermsExtracti
 
 		this.results = new ArrayList<TermsExtractionSummarizationResult>();
 
-		Matrix eigenVectors = this.corpus.getSemanticSpace()
-		.getUk();
-		double[] eigenValues = this.corpus.getSemanticSpace()
-		.getSk().getColumnPackedCopy();
-
-		logger.debug("rows:" + eigenVectors.getRowDimension() + " columns:"
-				+ eigenVectors.getColumnDimension());
+		SemanticSpace space = this.corpus.getSemanticSpace();
+		double[] eigenValues = space.getSk().getColumnPackedCopy();
+		double[] eigenVector = null;
 
-		for (int i = 0; i < eigenVectors.getRowDimension(); i++) {
+		for (int i = 0; i < this.corpus.getTerms().length; i++) {
 
 			String term = this.corpus.getTerms()[i];
+			eigenVector = space.getTermVector(i, eigenVector);
 
 			double maxTermWeight = 0;
 			int termIndex = 0;
 
-			for (int j = 0; j < eigenVectors.getColumnDimension(); j++) {
+			for (int j = 0; j < eigenVector.length; j++) {
 				double eigenvalue = 0;
 				if (j < eigenValues.length)
 					eigenvalue = eigenValues[j];
 
-				double termWeight = Math.abs(eigenVectors.get(i, j)
-						* eigenvalue);
+				double termWeight = Math.abs(eigenVector[j] * eigenvalue);
 				if (maxTermWeight < termWeight) {
 					maxTermWeight = termWeight;
 					termIndex = j;
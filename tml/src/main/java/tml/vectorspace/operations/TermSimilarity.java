@@ -0,0 +1,150 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.vectorspace.operations;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import tml.utils.DenseMatrix;
+import tml.utils.KNearestNeighbours;
+import tml.vectorspace.operations.results.TermSimilarityResult;
+
+/**
+ * <p>
+ * This operation finds the terms that are closest to one or more terms in the
+ * {@link SemanticSpace}, using the cosine similarity between the rows of
+ * Uk*Sk. It can be used to suggest synonyms or related terms.
+ * </p>
+ * <p>
+ * If no terms are set, the neighbours of every term in the vocabulary are
+ * calculated and kept as a k-NN graph (see {@link #getGraph()}). The results
+ * contain one row per term and neighbour.
+ * </p>
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class TermSimilarity extends AbstractOperation<TermSimilarityResult> {
+
+	private String[] terms = null;
+	private int neighbours = 10;
+	private KNearestNeighbours graph = null;
+
+	public TermSimilarity() {
+		this.name = "Term similarity";
+	}
+
+	@Override
+	public void start() throws Exception {
+		super.start();
+
+		if (this.corpus == null) {
+			logger.error("The semantic space couldn't be calculated");
+			return;
+		}
+
+		this.results = new ArrayList<TermSimilarityResult>();
+
+		String[] vocabulary = this.corpus.getTerms();
+		DenseMatrix vectors = this.corpus.getSemanticSpace().getNormalizedTermVectors();
+
+		int[] rows = null;
+		if (this.terms != null) {
+			Map<String, Integer> index = new HashMap<String, Integer>();
+			for (int i = 0; i < vocabulary.length; i++)
+				index.put(vocabulary[i], i);
+			List<Integer> found = new ArrayList<Integer>();
+			for (String term : this.terms) {
+				Integer row = index.get(term);
+				if (row == null) {
+					logger.warn("Term " + term + " not found in corpus " + this.corpus.getName());
+					continue;
+				}
+				found.add(row);
+			}
+			rows = new int[found.size()];
+			for (int i = 0; i < rows.length; i++)
+				rows[i] = found.get(i);
+		}
+
+		this.graph = KNearestNeighbours.build(vectors, rows, this.neighbours);
+
+		for (int q = 0; q < this.graph.getRows().length; q++) {
+			String term = vocabulary[this.graph.getRows()[q]];
+			int[] termNeighbours = this.graph.getNeighbours(q);
+			double[] similarities = this.graph.getSimilarities(q);
+			for (int n = 0; n < termNeighbours.length; n++) {
+				TermSimilarityResult result = new TermSimilarityResult();
+				result.setTerm(term);
+				result.setNeighbour(vocabulary[termNeighbours[n]]);
+				result.setRank(n + 1);
+				result.setSimilarity(similarities[n]);
+				this.results.add(result);
+			}
+		}
+
+		super.end();
+	}
+
+	/**
+	 * @return the terms whose neighbours are searched, null for all the terms
+	 */
+	public String[] getTerms() {
+		return terms;
+	}
+
+	/**
+	 * @param terms
+	 *            the terms whose neighbours will be searched, null for all the
+	 *            terms in the corpus
+	 */
+	public void setTerms(String[] terms) {
+		this.terms = terms;
+	}
+
+	/**
+	 * @param term
+	 *            the only term whose neighbours will be searched
+	 */
+	public void setTerm(String term) {
+		this.terms = new String[] { term };
+	}
+
+	/**
+	 * @return the number of neighbours per term
+	 */
+	public int getNeighbours() {
+		return neighbours;
+	}
+
+	/**
+	 * @param neighbours
+	 *            the number of neighbours per term
+	 */
+	public void setNeighbours(int neighbours) {
+		this.neighbours = neighbours;
+	}
+
+	/**
+	 * @return the neighbours found in the last run, with the row of each term
+	 *         in the corpus terms
+	 */
+	public KNearestNeighbours getGraph() {
+		return graph;
+	}
+}
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.vectorspace.operations.results;
+
+public class TermSimilarityResult extends AbstractResult {
+
+	String term;
+	String neighbour;
+	int rank;
+	double similarity;
+
+	/**
+	 * @return the term
+	 */
+	public String getTerm() {
+		return term;
+	}
+	/**
+	 * @param term the term to set
+	 */
+	public void setTerm(String term) {
+		this.term = term;
+	}
+	/**
+	 * @return the neighbour
+	 */
+	public String getNeighbour() {
+		return neighbour;
+	}
+	/**
+	 * @param neighbour the neighbour to set
+	 */
+	public void setNeighbour(String neighbour) {
+		this.neighbour = neighbour;
+	}
+	/**
+	 * @return the rank of the neighbour, starting from 1
+	 */
+	public int getRank() {
+		return rank;
+	}
+	/**
+	 * @param rank the rank to set
+	 */
+	public void setRank(int rank) {
+		this.rank = rank;
+	}
+	/**
+	 * @return the similarity
+	 */
+	public double getSimilarity() {
+		return similarity;
+	}
+	/**
+	 * @param similarity the similarity to set
+	 */
+	public void setSimilarity(double similarity) {
+		this.similarity = similarity;
+	}
+}
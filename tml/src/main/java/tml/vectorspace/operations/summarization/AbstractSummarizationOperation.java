@@ -46,7 +46,7 @@ SummarizationOperation {
 		Comparator<SummaryResult> comparator = new Comparator<SummaryResult>() {
 			@Override
 			public int compare(SummaryResult o1, SummaryResult o2) {
-				return (int) (o2.documentLoad * 100 - o1.documentLoad * 100);
+				return Double.compare(o2.documentLoad, o1.documentLoad);
 			}			
 		};
 		
@@ -0,0 +1,304 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.vectorspace.operations.summarization;
+
+import java.util.Arrays;
+
+import tml.utils.DenseMatrix;
+import tml.utils.KNearestNeighbours;
+import tml.utils.MatrixKernels;
+import tml.utils.RandomProjectionHash;
+
+/**
+ * <p>
+ * Graph based summarization in the style of LexRank (Erkan and Radev 2004).
+ * Passages are the nodes of a graph where each passage is connected to its
+ * most similar passages in the semantic space, and the load of a passage is
+ * its centrality in that graph, calculated with power iteration.
+ * </p>
+ * <p>
+ * The graph is sparse: the neighbours of each passage are found with
+ * {@link KNearestNeighbours#buildApproximate(DenseMatrix, int, RandomProjectionHash, int)}
+ * and the edges are made symmetric, so the cost is close to linear in the
+ * number of passages. The iteration stops when the change in the scores is
+ * lower than a tolerance.
+ * </p>
+ * <p>
+ * The load of a term is its cosine similarity with the centroid of the
+ * passages weighted by their centrality.
+ * </p>
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class GraphCentralitySummarization extends AbstractSummarizationOperation {
+
+	private int neighbours = 10;
+	private int bitsPerBand = 4;
+	private int bands = 24;
+	private double damping = 0.85;
+	private double tolerance = 1E-6;
+	private int maxIterations = 100;
+	private long seed = 42;
+
+	/** Centrality of each passage */
+	private double[] passageScores = null;
+	/** Load of each term */
+	private double[] termScores = null;
+	/** Iterations in the last run */
+	private int iterations = 0;
+
+	public GraphCentralitySummarization() {
+		this.name = "GraphCentrality";
+	}
+
+	@Override
+	public void start() throws Exception {
+		this.passageScores = null;
+		this.termScores = null;
+		super.start();
+	}
+
+	@Override
+	protected double calculatePassageLoading(int doc) {
+		if (this.passageScores == null)
+			calculateCentrality();
+		return this.passageScores[doc];
+	}
+
+	@Override
+	protected double calculateTermLoading(int term) {
+		if (this.passageScores == null)
+			calculateCentrality();
+		return this.termScores[term];
+	}
+
+	private void calculateCentrality() {
+		DenseMatrix passages = this.corpus.getSemanticSpace().getNormalizedPassageVectors();
+		int n = passages.getRowDimension();
+
+		RandomProjectionHash hash = new RandomProjectionHash(
+				passages.getColumnDimension(), this.bitsPerBand, this.bands, this.seed);
+		KNearestNeighbours knn = KNearestNeighbours.buildApproximate(
+				passages, this.neighbours, hash, 2 * this.neighbours);
+
+		// Symmetric adjacency lists, only positive similarities are edges
+		int[] degrees = new int[n + 1];
+		for (int i = 0; i < n; i++) {
+			int[] nn = knn.getNeighbours(i);
+			double[] sims = knn.getSimilarities(i);
+			for (int e = 0; e < nn.length; e++) {
+				if (sims[e] <= 0)
+					continue;
+				degrees[i]++;
+				degrees[nn[e]]++;
+			}
+		}
+		int[] offsets = new int[n + 1];
+		for (int i = 0; i < n; i++)
+			offsets[i + 1] = offsets[i] + degrees[i];
+		long[] edges = new long[offsets[n]];
+		double[] weights = new double[offsets[n]];
+		int[] fill = offsets.clone();
+		for (int i = 0; i < n; i++) {
+			int[] nn = knn.getNeighbours(i);
+			double[] sims = knn.getSimilarities(i);
+			for (int e = 0; e < nn.length; e++) {
+				if (sims[e] <= 0)
+					continue;
+				edges[fill[i]] = nn[e];
+				weights[fill[i]++] = sims[e];
+				edges[fill[nn[e]]] = i;
+				weights[fill[nn[e]]++] = sims[e];
+			}
+		}
+		final int[] adjacencyOffsets = new int[n + 1];
+		final int[] adjacency = new int[edges.length];
+		final double[] adjacencyWeights = new double[edges.length];
+		compact(offsets, edges, weights, adjacencyOffsets, adjacency, adjacencyWeights);
+
+		// Weighted degree of each node
+		final double[] strength = new double[n];
+		for (int i = 0; i < n; i++)
+			for (int e = adjacencyOffsets[i]; e < adjacencyOffsets[i + 1]; e++)
+				strength[i] += adjacencyWeights[e];
+
+		this.passageScores = powerIteration(n, adjacencyOffsets, adjacency, adjacencyWeights, strength);
+
+		// Terms are compared with the centrality weighted centroid
+		int dimensions = passages.getColumnDimension();
+		double[] centroid = new double[dimensions];
+		for (int i = 0; i < n; i++)
+			for (int d = 0; d < dimensions; d++)
+				centroid[d] += this.passageScores[i] * passages.get(i, d);
+		DenseMatrix terms = this.corpus.getSemanticSpace().getNormalizedTermVectors();
+		DenseMatrix centroidMatrix = MatrixKernels.normalizeRows(new DenseMatrix(1, dimensions, centroid));
+		this.termScores = new double[terms.getRowDimension()];
+		for (int t = 0; t < this.termScores.length; t++)
+			this.termScores[t] = terms.dot(t, centroidMatrix, 0);
+
+		logger.debug("Centrality of " + n + " passages calculated over "
+				+ adjacency.length + " edges in " + this.iterations + " iterations");
+	}
+
+	/**
+	 * Sorts each adjacency list and merges repeated edges, an edge found from
+	 * both of its passages is kept once
+	 */
+	private static void compact(int[] offsets, long[] edges, double[] weights,
+			int[] outOffsets, int[] out, double[] outWeights) {
+		int n = offsets.length - 1;
+		int position = 0;
+		for (int i = 0; i < n; i++) {
+			outOffsets[i] = position;
+			int from = offsets[i];
+			int to = offsets[i + 1];
+			// Sorts by neighbour keeping the weight, encoded with the position
+			for (int e = from; e < to; e++)
+				edges[e] = (edges[e] << 32) | e;
+			Arrays.sort(edges, from, to);
+			int last = -1;
+			for (int e = from; e < to; e++) {
+				int neighbour = (int) (edges[e] >>> 32);
+				if (neighbour == last)
+					continue;
+				last = neighbour;
+				out[position] = neighbour;
+				outWeights[position++] = weights[(int) edges[e]];
+			}
+		}
+		outOffsets[n] = position;
+	}
+
+	/**
+	 * Power iteration of the random walk on the weighted graph with
+	 * teleportation, stopping when the L1 change is below the tolerance.
+	 */
+	private double[] powerIteration(final int n, final int[] offsets,
+			final int[] adjacency, final double[] weights, final double[] strength) {
+		double[] scores = new double[n];
+		Arrays.fill(scores, 1.0 / n);
+		final double[] normalized = new double[n];
+		final double[] next = new double[n];
+
+		this.iterations = 0;
+		while (this.iterations < this.maxIterations) {
+			this.iterations++;
+			double dangling = 0;
+			for (int i = 0; i < n; i++) {
+				if (strength[i] > 0)
+					normalized[i] = scores[i] / strength[i];
+				else {
+					normalized[i] = 0;
+					dangling += scores[i];
+				}
+			}
+			final double base = (1 - this.damping) / n + this.damping * dangling / n;
+			// The graph is symmetric, so each node gathers from its own list
+			MatrixKernels.parallelRows(n, (long) adjacency.length, new MatrixKernels.RowTask() {
+				@Override
+				public void run(int start, int end) {
+					for (int j = start; j < end; j++) {
+						double sum = 0;
+						for (int e = offsets[j]; e < offsets[j + 1]; e++)
+							sum += normalized[adjacency[e]] * weights[e];
+						next[j] = base + damping * sum;
+					}
+				}
+			});
+			double change = 0;
+			for (int i = 0; i < n; i++) {
+				change += Math.abs(next[i] - scores[i]);
+				scores[i] = next[i];
+			}
+			if (change < this.tolerance)
+				break;
+		}
+		return scores;
+	}
+
+	/**
+	 * @return the number of neighbours of each passage in the graph
+	 */
+	public int getNeighbours() {
+		return neighbours;
+	}
+
+	/**
+	 * @param neighbours the number of neighbours of each passage in the graph
+	 */
+	public void setNeighbours(int neighbours) {
+		this.neighbours = neighbours;
+	}
+
+	/**
+	 * @param bitsPerBand bits per band of the hash used to find neighbours
+	 */
+	public void setBitsPerBand(int bitsPerBand) {
+		this.bitsPerBand = bitsPerBand;
+	}
+
+	/**
+	 * @param bands number of bands of the hash used to find neighbours
+	 */
+	public void setBands(int bands) {
+		this.bands = bands;
+	}
+
+	/**
+	 * @return the probability of following an edge instead of jumping to a
+	 * random passage
+	 */
+	public double getDamping() {
+		return damping;
+	}
+
+	/**
+	 * @param damping the probability of following an edge instead of jumping
+	 * to a random passage
+	 */
+	public void setDamping(double damping) {
+		this.damping = damping;
+	}
+
+	/**
+	 * @param tolerance the L1 change in the scores to stop iterating
+	 */
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * @param maxIterations the maximum number of iterations
+	 */
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * @param seed the seed for the random hyperplanes
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * @return the number of iterations in the last run
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+}
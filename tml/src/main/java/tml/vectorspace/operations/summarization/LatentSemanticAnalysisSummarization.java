@@ -17,6 +17,7 @@ package tml.vectorspace.operations.summarization;
 
 import tml.corpus.Corpus;
 import tml.vectorspace.NotEnoughTermsInCorpusException;
+import tml.vectorspace.SemanticSpace;
 import Jama.Matrix;
 
 /**
@@ -35,9 +36,10 @@ import Jama.Matrix;
 public class LatentSemanticAnalysisSummarization extends
 AbstractSummarizationOperation implements SummarizationOperation {
 
-	private Matrix Vk = null;
+	private SemanticSpace space = null;
 	private Matrix Sk = null;
-	private Matrix Uk = null;
+	private double[] passageVector = null;
+	private double[] termVector = null;
 
 	public LatentSemanticAnalysisSummarization() {
 		this.name = "LSA";
@@ -60,9 +62,9 @@ AbstractSummarizationOperation implements SummarizationOperation {
 			}
 		}
 		
-		// Reminder! Vk is transposed in SVD so Vk is docs by dimensions
-		this.Vk = this.corpus.getSemanticSpace().getVk().copy();
-		this.Uk = this.corpus.getSemanticSpace().getUk().copy();
+		// Reminder! Vk is transposed in SVD so Vk is docs by dimensions.
+		// The vectors are read row by row from the space.
+		this.space = this.corpus.getSemanticSpace();
 		
 		// The variance corresponds to the squared eigenvalues, so we square S
 		this.Sk = this.corpus.getSemanticSpace().getSk().copy();		
@@ -72,16 +74,18 @@ AbstractSummarizationOperation implements SummarizationOperation {
 	@Override
 	protected double calculatePassageLoading(int doc) {
 		double total = 0;
-		for(int dim =0; dim<Vk.getColumnDimension(); dim++)
-			total += Math.pow(Vk.get(doc, dim),2) * Sk.get(dim, dim);
+		passageVector = space.getPassageVector(doc, passageVector);
+		for(int dim =0; dim<passageVector.length; dim++)
+			total += Math.pow(passageVector[dim],2) * Sk.get(dim, dim);
 		return Math.sqrt(total); 
 	}
 
 	@Override
 	protected double calculateTermLoading(int term) {
 		double total = 0;
-		for(int dim =0; dim<Uk.getColumnDimension(); dim++)
-			total += Math.pow(Uk.get(term, dim),2) * Sk.get(dim, dim);
+		termVector = space.getTermVector(term, termVector);
+		for(int dim =0; dim<termVector.length; dim++)
+			total += Math.pow(termVector[dim],2) * Sk.get(dim, dim);
 		return Math.sqrt(total); 
 	}
 }
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import tml.vectorspace.DecompositionPlanner;
+import tml.vectorspace.DecompositionPlanner.Backend;
+import tml.vectorspace.DecompositionPlanner.Estimate;
+
+/**
+ * Checks which SVD backend the planner chooses for different memory
+ * budgets.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class DecompositionPlannerTest {
+
+	private static DecompositionPlanner planner() {
+		return new DecompositionPlanner(2000, 300, 20000, 50);
+	}
+
+	private static Estimate estimate(DecompositionPlanner planner, Backend backend) {
+		for (Estimate estimate : planner.estimates())
+			if (estimate.getBackend() == backend)
+				return estimate;
+		return null;
+	}
+
+	@Test
+	public void jamaWhenItFits() {
+		DecompositionPlanner planner = planner();
+		planner.setBudget(estimate(planner, Backend.JAMA).getMemory());
+		assertEquals(Backend.JAMA, planner.plan().getBackend());
+	}
+
+	@Test
+	public void lanczosWhenRequested() {
+		DecompositionPlanner planner = planner();
+		assertNull(estimate(planner, Backend.LANCZOS));
+		planner.setLanczosRequested(true);
+		planner.setBudget(Long.MAX_VALUE);
+		assertEquals(Backend.LANCZOS, planner.plan().getBackend());
+		planner.setBudget(0);
+		assertEquals(Backend.LANCZOS, planner.plan().getBackend());
+	}
+
+	@Test
+	public void gramWhenJamaDoesNotFit() {
+		DecompositionPlanner planner = planner();
+		long gram = estimate(planner, Backend.GRAM_EIGEN).getMemory();
+		assertTrue(gram < estimate(planner, Backend.JAMA).getMemory());
+		planner.setBudget(gram);
+		assertEquals(Backend.GRAM_EIGEN, planner.plan().getBackend());
+	}
+
+	@Test
+	public void approximationWhenNoExactFits() {
+		DecompositionPlanner planner = planner();
+		long budget = Long.MAX_VALUE;
+		for (Estimate estimate : planner.estimates())
+			if (estimate.getBackend().isExact())
+				budget = Math.min(budget, estimate.getMemory() - 1);
+		planner.setBudget(budget);
+		Estimate chosen = planner.plan();
+		assertFalse(chosen.getBackend().isExact());
+		assertTrue(chosen.getMemory() <= budget);
+	}
+
+	@Test
+	public void leastMemoryWhenNothingFits() {
+		DecompositionPlanner planner = planner();
+		planner.setBudget(0);
+		Estimate chosen = planner.plan();
+		for (Estimate estimate : planner.estimates())
+			assertTrue(chosen.getMemory() <= estimate.getMemory());
+	}
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Test;
+
+import tml.vectorspace.factorisation.FactorisationCheckpoint;
+import tml.vectorspace.factorisation.SparseNonnegativeMatrixFactorisationKL;
+import Jama.Matrix;
+
+/**
+ * Writes and reads checkpoints and resumes an interrupted NMF.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class FactorisationCheckpointTest {
+
+	@Test
+	public void saveAndLoad() throws Exception {
+		File file = File.createTempFile("tml", ".checkpoint");
+		FactorisationCheckpoint checkpoint = new FactorisationCheckpoint(file, 5);
+		double[] big = new double[20000];
+		for (int i = 0; i < big.length; i++)
+			big[i] = i * 0.5;
+		checkpoint.save(10, new double[] { 1.5, -2 }, new double[] { 3, 4, 5 }, big);
+		checkpoint.flush();
+
+		FactorisationCheckpoint.State state = checkpoint.load(3, big.length);
+		assertEquals(10, state.getIteration());
+		assertArrayEquals(new double[] { 1.5, -2 }, state.getScalars(), 0);
+		assertArrayEquals(new double[] { 3, 4, 5 }, state.getArrays()[0], 0);
+		assertArrayEquals(big, state.getArrays()[1], 0);
+
+		// a different problem doesn't use it
+		assertNull(checkpoint.load(4, big.length));
+
+		checkpoint.finish();
+		assertFalse(file.exists());
+		assertNull(checkpoint.load(3, big.length));
+	}
+
+	@Test
+	public void replacingKeepsACheckpoint() throws Exception {
+		File file = File.createTempFile("tml", ".checkpoint");
+		File temporary = new File(file.getPath() + ".tmp");
+		FactorisationCheckpoint checkpoint = new FactorisationCheckpoint(file, 1);
+		checkpoint.save(1, new double[] { 1 }, new double[] { 1, 2 });
+		checkpoint.flush();
+		checkpoint.save(2, new double[] { 2 }, new double[] { 3, 4 });
+		checkpoint.flush();
+		assertTrue(file.exists());
+		assertFalse(temporary.exists());
+		assertEquals(2, checkpoint.load(2).getIteration());
+
+		// a run killed after deleting the checkpoint but before renaming
+		// the temporary file over it
+		assertTrue(file.renameTo(temporary));
+		FactorisationCheckpoint.State state = checkpoint.load(2);
+		assertEquals(2, state.getIteration());
+		assertArrayEquals(new double[] { 3, 4 }, state.getArrays()[0], 0);
+
+		checkpoint.finish();
+		assertFalse(temporary.exists());
+		assertNull(checkpoint.load(2));
+	}
+
+	@Test
+	public void resumeNMF() throws Exception {
+		Random random = new Random(7);
+		Matrix v = new Matrix(60, 50);
+		for (int i = 0; i < 60; i++)
+			for (int j = 0; j < 50; j++)
+				if (random.nextDouble() < 0.2)
+					v.set(i, j, random.nextDouble());
+
+		SparseNonnegativeMatrixFactorisationKL full = new SparseNonnegativeMatrixFactorisationKL();
+		full.setK(4);
+		full.setTolerance(0);
+		full.setMaxIterations(20);
+		full.process(v);
+
+		// a run interrupted after 10 iterations
+		SparseNonnegativeMatrixFactorisationKL interrupted = new SparseNonnegativeMatrixFactorisationKL();
+		interrupted.setK(4);
+		interrupted.setTolerance(0);
+		interrupted.setMaxIterations(10);
+		interrupted.process(v);
+		File file = File.createTempFile("tml", ".checkpoint");
+		FactorisationCheckpoint checkpoint = new FactorisationCheckpoint(file, 5);
+		checkpoint.save(10, new double[] { interrupted.getObjective() },
+				interrupted.getW().getData(), interrupted.getHt().getData());
+		checkpoint.flush();
+
+		SparseNonnegativeMatrixFactorisationKL resumed = new SparseNonnegativeMatrixFactorisationKL();
+		resumed.setK(4);
+		resumed.setTolerance(0);
+		resumed.setMaxIterations(20);
+		resumed.setCheckpoint(checkpoint);
+		resumed.process(v);
+
+		assertEquals(20, resumed.getIterations());
+		assertArrayEquals(full.getW().getData(), resumed.getW().getData(), 1E-12);
+		assertArrayEquals(full.getHt().getData(), resumed.getHt().getData(), 1E-12);
+		assertFalse(file.exists());
+	}
+}
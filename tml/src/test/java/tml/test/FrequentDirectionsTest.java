@@ -0,0 +1,88 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import tml.vectorspace.factorisation.FrequentDirections;
+import Jama.Matrix;
+
+/**
+ * Checks the covariance error of the Frequent Directions sketch against its
+ * bounds, ||A'A - B'B|| &lt;= error bound &lt;= ||A - Ak||^2 / (l - k).
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class FrequentDirectionsTest {
+
+	private static final int TERMS = 40;
+	private static final int PASSAGES = 150;
+	private static final int SKETCH = 8;
+
+	@Test
+	public void covarianceErrorBound() {
+		Random random = new Random(13);
+		FrequentDirections streaming = new FrequentDirections();
+		streaming.setSketchSize(SKETCH);
+		streaming.setK(4);
+		streaming.start(TERMS);
+
+		// Passages are the rows of A, added as sparse vectors
+		Matrix a = new Matrix(PASSAGES, TERMS);
+		for (int j = 0; j < PASSAGES; j++) {
+			int count = 0;
+			int[] terms = new int[TERMS];
+			double[] values = new double[TERMS];
+			for (int i = 0; i < TERMS; i++)
+				if (random.nextDouble() < 0.25) {
+					terms[count] = i;
+					values[count] = 1 + random.nextInt(3);
+					a.set(j, i, values[count++]);
+				}
+			int[] passageTerms = new int[count];
+			double[] passageValues = new double[count];
+			System.arraycopy(terms, 0, passageTerms, 0, count);
+			System.arraycopy(values, 0, passageValues, 0, count);
+			streaming.update(passageTerms, passageValues);
+		}
+		streaming.finish();
+		assertEquals(PASSAGES, streaming.getPassages());
+		assertTrue(streaming.getErrorBound() > 0);
+
+		Matrix b = streaming.getSketch();
+		assertTrue(b.getRowDimension() <= 2 * SKETCH);
+		Matrix difference = a.transpose().times(a).minus(b.transpose().times(b));
+		double error = 0;
+		for (double value : difference.eig().getRealEigenvalues())
+			error = Math.max(error, Math.abs(value));
+		double tolerance = 1E-9 * a.normF() * a.normF();
+		assertTrue(error <= streaming.getErrorBound() + tolerance);
+
+		// ||A - Ak||^2 is the sum of the squared singular values after k
+		double[] s = a.svd().getSingularValues();
+		for (int k = 0; k < SKETCH; k++) {
+			double tail = 0;
+			for (int c = k; c < s.length; c++)
+				tail += s[c] * s[c];
+			assertTrue(streaming.getErrorBound() <= tail / (SKETCH - k) + tolerance);
+		}
+	}
+}
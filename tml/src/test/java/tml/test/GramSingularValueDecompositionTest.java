@@ -0,0 +1,84 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import tml.vectorspace.factorisation.GramSingularValueDecomposition;
+import Jama.Matrix;
+import Jama.SingularValueDecomposition;
+
+/**
+ * Compares the SVD from the Gram matrix with the Jama SVD, for tall and wide
+ * matrices.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class GramSingularValueDecompositionTest {
+
+	private static final int K = 5;
+
+	private static Matrix random(int m, int n, long seed) {
+		Random random = new Random(seed);
+		Matrix a = new Matrix(m, n);
+		for (int i = 0; i < m; i++)
+			for (int j = 0; j < n; j++)
+				if (random.nextDouble() < 0.3)
+					a.set(i, j, random.nextDouble());
+		return a;
+	}
+
+	private static void assertSameSVD(Matrix a) {
+		// Jama only decomposes matrices with more rows than columns
+		boolean tall = a.getRowDimension() >= a.getColumnDimension();
+		SingularValueDecomposition jama = (tall ? a : a.transpose()).svd();
+		Matrix u = tall ? jama.getU() : jama.getV();
+		Matrix v = tall ? jama.getV() : jama.getU();
+
+		GramSingularValueDecomposition gram = new GramSingularValueDecomposition();
+		gram.setK(K);
+		gram.process(a);
+		Matrix uk = new Matrix(gram.getDecomposition().getUkdata());
+		Matrix sk = new Matrix(gram.getDecomposition().getSkdata());
+		Matrix vk = new Matrix(gram.getDecomposition().getVkdata());
+
+		double[] s = jama.getSingularValues();
+		for (int c = 0; c < K; c++) {
+			assertEquals(s[c], sk.get(c, c), s[0] * 1E-10);
+			// Singular vectors are unique up to their sign
+			double sign = Math.signum(u.get(0, c) * uk.get(0, c));
+			for (int i = 0; i < a.getRowDimension(); i++)
+				assertEquals(u.get(i, c), sign * uk.get(i, c), 1E-8);
+			for (int j = 0; j < a.getColumnDimension(); j++)
+				assertEquals(v.get(j, c), sign * vk.get(j, c), 1E-8);
+		}
+	}
+
+	@Test
+	public void tall() {
+		assertSameSVD(random(60, 25, 3));
+	}
+
+	@Test
+	public void wide() {
+		assertSameSVD(random(25, 60, 5));
+	}
+}
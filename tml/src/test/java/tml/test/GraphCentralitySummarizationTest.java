@@ -0,0 +1,207 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import tml.Configuration;
+import tml.corpus.Corpus;
+import tml.corpus.SearchResultsCorpus;
+import tml.vectorspace.operations.results.Summary;
+import tml.vectorspace.operations.summarization.GraphCentralitySummarization;
+import Jama.Matrix;
+
+/**
+ * Compares the centrality over the sparse k-NN graph with LexRank over the
+ * dense similarity matrix of all the passages.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class GraphCentralitySummarizationTest extends AbstractTmlIndexingTest {
+
+	private static final double DAMPING = 0.85;
+
+	private static Corpus introLSA = null;
+	private static Corpus sentences = null;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		AbstractTmlIndexingTest.setUpBeforeClass();
+		repository.addDocumentsInFolder(Configuration.getTmlFolder() + "/corpora/introLSA");
+		introLSA = new SearchResultsCorpus("type:document");
+		introLSA.load(repository);
+
+		repository.addDocumentsInFolder(Configuration.getTmlFolder() + "/corpora/uppsala");
+		sentences = new SearchResultsCorpus("type:sentence AND (reference:p*d0100.a1 OR reference:p*d0101.a1 OR reference:p*d0102.a1)");
+		sentences.getParameters().setTermSelectionThreshold(0);
+		sentences.load(repository);
+	}
+
+	/**
+	 * @return the rows of a matrix normalized to unit length
+	 */
+	private static Matrix normalizeRows(Matrix m) {
+		Matrix normalized = m.copy();
+		for (int i = 0; i < m.getRowDimension(); i++) {
+			double length = 0;
+			for (int j = 0; j < m.getColumnDimension(); j++)
+				length += m.get(i, j) * m.get(i, j);
+			length = Math.sqrt(length);
+			for (int j = 0; j < m.getColumnDimension(); j++)
+				normalized.set(i, j, length == 0 ? 0 : m.get(i, j) / length);
+		}
+		return normalized;
+	}
+
+	/**
+	 * @return the dense similarity matrix of the passages, keeping only the
+	 *         positive similarities between each passage and its k most
+	 *         similar passages, in both directions
+	 */
+	private static Matrix graph(Corpus corpus, int k) {
+		Matrix passages = normalizeRows(corpus.getSemanticSpace().getVk()
+				.times(corpus.getSemanticSpace().getSk()));
+		Matrix similarities = passages.times(passages.transpose());
+		int n = similarities.getRowDimension();
+		Matrix graph = new Matrix(n, n);
+		for (int i = 0; i < n; i++) {
+			double[] others = new double[n - 1];
+			for (int j = 0, o = 0; j < n; j++)
+				if (j != i)
+					others[o++] = similarities.get(i, j);
+			Arrays.sort(others);
+			double threshold = others[Math.max(0, n - 1 - k)];
+			for (int j = 0; j < n; j++)
+				if (j != i && similarities.get(i, j) >= threshold && similarities.get(i, j) > 0) {
+					graph.set(i, j, similarities.get(i, j));
+					graph.set(j, i, similarities.get(i, j));
+				}
+		}
+		return graph;
+	}
+
+	/**
+	 * LexRank power iteration over a dense graph, passages without edges
+	 * spread their score evenly
+	 */
+	private static double[] lexRank(Matrix graph) {
+		int n = graph.getRowDimension();
+		double[] scores = new double[n];
+		Arrays.fill(scores, 1.0 / n);
+		for (int iteration = 0; iteration < 1000; iteration++) {
+			double[] next = new double[n];
+			for (int i = 0; i < n; i++) {
+				double strength = 0;
+				for (int j = 0; j < n; j++)
+					strength += graph.get(i, j);
+				for (int j = 0; j < n; j++)
+					next[j] += strength > 0 ? DAMPING * scores[i] * graph.get(i, j) / strength
+							: DAMPING * scores[i] / n;
+			}
+			for (int j = 0; j < n; j++)
+				scores[j] = next[j] + (1 - DAMPING) / n;
+		}
+		return scores;
+	}
+
+	/**
+	 * @return the load of each passage, in the order of the corpus
+	 */
+	private static double[] loads(Corpus corpus, GraphCentralitySummarization operation) {
+		Summary summary = operation.getResults().get(0);
+		double[] loads = new double[corpus.getPassages().length];
+		for (int r = 0; r < loads.length; r++)
+			loads[summary.getPassagesRank()[r]] = summary.getPassagesLoads()[r];
+		return loads;
+	}
+
+	private static GraphCentralitySummarization summarize(Corpus corpus, int neighbours,
+			int bitsPerBand, int bands) throws Exception {
+		GraphCentralitySummarization operation = new GraphCentralitySummarization();
+		operation.setCorpus(corpus);
+		operation.setNeighbours(neighbours);
+		operation.setBitsPerBand(bitsPerBand);
+		operation.setBands(bands);
+		operation.setTolerance(1E-12);
+		operation.setMaxIterations(1000);
+		operation.start();
+		return operation;
+	}
+
+	@Test
+	public void completeGraphIsLexRank() throws Exception {
+		for (Corpus corpus : new Corpus[] { introLSA, sentences }) {
+			int n = corpus.getPassages().length;
+			// With one bit per band, a pair of positive similarity is in
+			// different buckets of all the bands with probability below
+			// 2^-64
+			GraphCentralitySummarization operation = summarize(corpus, n, 1, 64);
+			assertArrayEquals(lexRank(graph(corpus, n)), loads(corpus, operation), 1E-9);
+		}
+	}
+
+	@Test
+	public void sparseGraphIsLexRank() throws Exception {
+		// Each document is compared with all the others within the window
+		GraphCentralitySummarization operation = summarize(introLSA, 3, 1, 64);
+		assertArrayEquals(lexRank(graph(introLSA, 3)), loads(introLSA, operation), 1E-9);
+		assertTrue(operation.getIterations() < 1000);
+	}
+
+	@Test
+	public void approximateGraphIsCloseToLexRank() throws Exception {
+		GraphCentralitySummarization operation = new GraphCentralitySummarization();
+		operation.setCorpus(sentences);
+		operation.setNeighbours(5);
+		operation.start();
+		double[] expected = lexRank(graph(sentences, 5));
+		double[] actual = loads(sentences, operation);
+		double difference = 0;
+		for (int i = 0; i < expected.length; i++)
+			difference += Math.abs(expected[i] - actual[i]);
+		assertTrue(difference < 0.02);
+		// The summary starts with the same passages
+		int[] rank = operation.getResults().get(0).getPassagesRank();
+		for (int r = 0; r < 10; r++) {
+			int better = 0;
+			for (int i = 0; i < expected.length; i++)
+				if (expected[i] > expected[rank[r]])
+					better++;
+			assertEquals(r, better);
+		}
+	}
+
+	@Test
+	public void termsAreComparedWithTheCentroid() throws Exception {
+		GraphCentralitySummarization operation = summarize(introLSA, 3, 8, 12);
+		double[] scores = loads(introLSA, operation);
+		Matrix passages = normalizeRows(introLSA.getSemanticSpace().getVk()
+				.times(introLSA.getSemanticSpace().getSk()));
+		Matrix centroid = normalizeRows(new Matrix(scores, 1).times(passages));
+		Matrix terms = normalizeRows(introLSA.getSemanticSpace().getUk()
+				.times(introLSA.getSemanticSpace().getSk()));
+		Matrix expected = terms.times(centroid.transpose());
+		Summary summary = operation.getResults().get(0);
+		for (int r = 0; r < introLSA.getTerms().length; r++)
+			assertEquals(expected.get(summary.getTermsRank()[r], 0), summary.getTermsLoads()[r], 1E-9);
+	}
+}
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import tml.vectorspace.factorisation.IncrementalSingularValueDecomposition;
+import Jama.Matrix;
+
+/**
+ * Compares the decompositions updated with new columns with the SVD of the
+ * whole matrix, also when the new columns bring terms that weren't in the
+ * decomposition.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class IncrementalSingularValueDecompositionTest {
+
+	private static Matrix random(int m, int n, long seed) {
+		Random random = new Random(seed);
+		Matrix a = new Matrix(m, n);
+		for (int i = 0; i < m; i++)
+			for (int j = 0; j < n; j++)
+				a.set(i, j, random.nextDouble());
+		return a;
+	}
+
+	private static Matrix append(Matrix a, Matrix columns) {
+		Matrix all = new Matrix(a.getRowDimension(), a.getColumnDimension() + columns.getColumnDimension());
+		all.setMatrix(0, a.getRowDimension() - 1, 0, a.getColumnDimension() - 1, a);
+		all.setMatrix(0, a.getRowDimension() - 1, a.getColumnDimension(), all.getColumnDimension() - 1, columns);
+		return all;
+	}
+
+	private static String[] ids(String prefix, int count) {
+		String[] ids = new String[count];
+		for (int i = 0; i < count; i++)
+			ids[i] = prefix + i;
+		return ids;
+	}
+
+	/**
+	 * The updated decomposition must have the singular values of the whole
+	 * matrix, reconstruct it and keep orthonormal singular vectors
+	 */
+	private static void assertDecomposes(Matrix expected, IncrementalSingularValueDecomposition isvd) {
+		Matrix uk = isvd.getUk();
+		Matrix sk = isvd.getSk();
+		Matrix vk = isvd.getVk();
+		double[] s = expected.svd().getSingularValues();
+		for (int c = 0; c < sk.getRowDimension(); c++)
+			assertEquals(s[c], sk.get(c, c), 1E-10 * s[0]);
+		assertArrayEquals(expected.getRowPackedCopy(),
+				uk.times(sk).times(vk.transpose()).getRowPackedCopy(), 1E-10);
+		Matrix identity = Matrix.identity(sk.getRowDimension(), sk.getRowDimension());
+		assertArrayEquals(identity.getRowPackedCopy(), uk.transpose().times(uk).getRowPackedCopy(), 1E-10);
+		assertArrayEquals(identity.getRowPackedCopy(), vk.transpose().times(vk).getRowPackedCopy(), 1E-10);
+	}
+
+	@Test
+	public void matchesTheFullSVD() {
+		Matrix a = random(40, 15, 3);
+		Matrix columns = random(40, 4, 5);
+		// Keeping all the dimensions the update is exact
+		IncrementalSingularValueDecomposition isvd = new IncrementalSingularValueDecomposition();
+		isvd.setK(19);
+		isvd.process(a);
+		isvd.update(columns);
+		assertEquals(19, isvd.getSk().getRowDimension());
+		assertEquals(1, isvd.getUpdates());
+		assertDecomposes(append(a, columns), isvd);
+	}
+
+	@Test
+	public void matchesTheTruncatedSVD() {
+		// Rank 5 matrix and new columns in the same span
+		Matrix basis = random(40, 5, 7);
+		Matrix a = basis.times(random(5, 30, 9));
+		Matrix columns = basis.times(random(5, 3, 11));
+		IncrementalSingularValueDecomposition isvd = new IncrementalSingularValueDecomposition();
+		isvd.setK(5);
+		isvd.process(a);
+		isvd.update(columns);
+		assertEquals(5, isvd.getSk().getRowDimension());
+		assertDecomposes(append(a, columns), isvd);
+	}
+
+	@Test
+	public void unseenTerms() {
+		Matrix a = random(30, 15, 13);
+		String[] previousTerms = ids("t", 30);
+		IncrementalSingularValueDecomposition previous = new IncrementalSingularValueDecomposition();
+		previous.process(a);
+
+		// The terms come in a different order, with new terms in between
+		String[] terms = new String[35];
+		for (int i = 0; i < 30; i++)
+			terms[i < 15 ? i : i + 5] = previousTerms[29 - i];
+		for (int i = 0; i < 5; i++)
+			terms[15 + i] = "new" + i;
+		Matrix expected = new Matrix(35, 15);
+		for (int i = 0; i < 30; i++)
+			expected.setMatrix(i < 15 ? i : i + 5, i < 15 ? i : i + 5, 0, 14, a.getMatrix(29 - i, 29 - i, 0, 14));
+		Matrix columns = random(35, 4, 17);
+
+		IncrementalSingularValueDecomposition isvd = new IncrementalSingularValueDecomposition();
+		isvd.setK(19);
+		isvd.setDecomposition(previous.getUk(), previous.getSk(), previous.getVk(), 0, previousTerms, terms);
+		isvd.update(columns);
+		assertDecomposes(append(expected, columns), isvd);
+	}
+
+	@Test
+	public void removedTerms() {
+		Matrix a = random(30, 15, 19);
+		String[] previousTerms = ids("t", 30);
+		IncrementalSingularValueDecomposition previous = new IncrementalSingularValueDecomposition();
+		previous.process(a);
+
+		// Every third term is gone
+		String[] terms = new String[20];
+		Matrix expected = new Matrix(20, 15);
+		for (int i = 0, row = 0; i < 30; i++)
+			if (i % 3 != 0) {
+				terms[row] = previousTerms[i];
+				expected.setMatrix(row, row, 0, 14, a.getMatrix(i, i, 0, 14));
+				row++;
+			}
+		Matrix columns = random(20, 3, 23);
+
+		IncrementalSingularValueDecomposition isvd = new IncrementalSingularValueDecomposition();
+		isvd.setK(18);
+		isvd.setDecomposition(previous.getUk(), previous.getSk(), previous.getVk(), 0, previousTerms, terms);
+		isvd.update(columns);
+		assertDecomposes(append(expected, columns), isvd);
+	}
+}
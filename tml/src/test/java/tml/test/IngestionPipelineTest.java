@@ -0,0 +1,210 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import tml.storage.RepositoryEvent;
+import tml.storage.RepositoryListener;
+
+/**
+ * Adds a folder with several threads, where the first files take much longer
+ * to import than the rest, and checks that the documents, their metadata
+ * and the events come out in the order of the files. A file that can't be
+ * read is skipped without stopping the others.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class IngestionPipelineTest extends AbstractTmlIndexingTest {
+
+	private static final int FILES = 12;
+	/** The file that doesn't exist when the files are added */
+	private static final int MISSING = 5;
+
+	private static File[] files = null;
+	private static String[] ids = null;
+	/** The events in the order they were fired */
+	private static List<String> events = new ArrayList<String>();
+	/** The documents with metadata when each file was added */
+	private static List<Set<String>> metadata = new ArrayList<Set<String>>();
+	private static Set<Thread> threads = new HashSet<Thread>();
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		AbstractTmlIndexingTest.setUpBeforeClass();
+		File folder = File.createTempFile("pipeline", "");
+		folder.delete();
+		folder.mkdir();
+		folder.deleteOnExit();
+
+		files = new File[FILES];
+		ids = new String[FILES];
+		for (int f = 0; f < FILES; f++) {
+			ids[f] = "pipeline" + (char) ('a' + f);
+			files[f] = new File(folder, ids[f] + ".txt");
+			files[f].deleteOnExit();
+			if (f != MISSING)
+				write(files[f], f);
+		}
+
+		repository.setIngestionThreads(4);
+		repository.addRepositoryListener(new RepositoryListener() {
+			public void repositoryAction(RepositoryEvent evt) {
+				threads.add(Thread.currentThread());
+				events.add(evt.getAction() + " " + evt.getCurrent() + "/" + evt.getMaximum());
+				if (evt.getAction().equals("addingDocument"))
+					metadata.add(documentsWithMetadata());
+			}
+		});
+		repository.addDocumentsInList(files);
+	}
+
+	/**
+	 * Writes a file with a few paragraphs. The first files end with many
+	 * short lines, which are read and skipped, so they take longer to import
+	 * than the ones after them.
+	 */
+	private static void write(File file, int f) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		for (int p = 0; p <= f % 3; p++) {
+			writer.write("Paragraph " + p + " of file " + f + ".");
+			for (int s = 0; s < p + f % 4; s++)
+				writer.write(" Sentence " + s + " of the paragraph.");
+			writer.write("\n");
+		}
+		for (int line = 0; line < (FILES - f) * 20000; line++)
+			writer.write("a\n");
+		writer.close();
+	}
+
+	private static Set<String> documentsWithMetadata() {
+		Set<String> documents = new HashSet<String>();
+		try {
+			String[][] rows = repository.getDbConnection().getDocuments();
+			if (rows != null)
+				for (String[] row : rows)
+					if (row[0].startsWith("pipeline"))
+						documents.add(row[0]);
+		} catch (Exception e) {
+			fail(e.getMessage());
+		}
+		return documents;
+	}
+
+	/**
+	 * @return the documents in the index, in the order they were added
+	 */
+	private static List<Document> indexed() throws IOException {
+		List<Document> documents = new ArrayList<Document>();
+		IndexReader reader = repository.getIndexReader();
+		for (int i = 0; i < reader.maxDoc(); i++)
+			if (!reader.isDeleted(i))
+				documents.add(reader.document(i));
+		return documents;
+	}
+
+	@Test
+	public void documentsInFileOrder() throws Exception {
+		List<String> expected = new ArrayList<String>();
+		for (int f = 0; f < FILES; f++)
+			if (f != MISSING)
+				expected.add(ids[f]);
+		List<String> actual = new ArrayList<String>();
+		String previous = null;
+		for (Document document : indexed()) {
+			String parent = document.get(repository.getLuceneParentDocumentField());
+			if (document.get("type").equals("document")) {
+				actual.add(document.get(repository.getLuceneExternalIdField()));
+				previous = null;
+			} else {
+				// The pieces of a document come right before it
+				if (previous != null)
+					assertEquals(previous, parent);
+				previous = parent;
+			}
+		}
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void metadataInFileOrder() throws Exception {
+		// One set per file, plus the event before and after all of them
+		assertEquals(FILES + 2, metadata.size());
+		Set<String> expected = new HashSet<String>();
+		assertEquals(expected, metadata.get(0));
+		for (int f = 0; f < FILES; f++) {
+			if (f != MISSING)
+				expected.add(ids[f]);
+			assertEquals(expected, metadata.get(f + 1));
+		}
+		assertEquals(expected, metadata.get(FILES + 1));
+	}
+
+	@Test
+	public void eventsInFileOrder() throws Exception {
+		// The sentences of each paragraph, then the end of the document
+		List<String> expected = new ArrayList<String>();
+		expected.add("addingDocument 0/" + FILES);
+		List<Document> documents = indexed();
+		for (int f = 0; f < FILES; f++) {
+			if (f != MISSING) {
+				for (Document paragraph : documents) {
+					if (!paragraph.get("type").equals("paragraph")
+							|| !paragraph.get(repository.getLuceneParentDocumentField()).equals(ids[f]))
+						continue;
+					int sentences = 0;
+					for (Document sentence : documents)
+						if (sentence.get("type").equals("sentence")
+								&& sentence.get(repository.getLuceneParentField()).equals(
+										paragraph.get(repository.getLuceneExternalIdField())))
+							sentences++;
+					expected.add("addingSentence " + sentences + "/" + sentences);
+				}
+				expected.add("addingSentence 100/100");
+			}
+			expected.add("addingDocument " + (f + 1) + "/" + FILES);
+		}
+		expected.add("addingDocument " + FILES + "/" + FILES);
+		assertEquals(expected, events);
+		// All of them from the thread that added the files
+		assertEquals(1, threads.size());
+		assertTrue(threads.contains(Thread.currentThread()));
+	}
+
+	@Test
+	public void missingFileIsSkipped() throws Exception {
+		assertFalse(files[MISSING].exists());
+		for (Document document : indexed())
+			assertFalse(ids[MISSING].equals(document.get(repository.getLuceneParentDocumentField())));
+		// It is counted, and the files after it are added
+		assertTrue(events.contains("addingDocument " + (MISSING + 1) + "/" + FILES));
+		assertTrue(metadata.get(FILES).contains(ids[FILES - 1]));
+	}
+}
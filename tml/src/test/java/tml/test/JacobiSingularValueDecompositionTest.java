@@ -0,0 +1,93 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import tml.vectorspace.factorisation.JacobiSingularValueDecomposition;
+import Jama.Matrix;
+import Jama.SingularValueDecomposition;
+
+/**
+ * Compares the Jacobi SVD with the Jama SVD, reusing one instance for
+ * matrices of different shapes.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class JacobiSingularValueDecompositionTest {
+
+	private static Matrix random(int m, int n, long seed) {
+		Random random = new Random(seed);
+		Matrix a = new Matrix(m, n);
+		for (int i = 0; i < m; i++)
+			for (int j = 0; j < n; j++)
+				if (random.nextDouble() < 0.4)
+					a.set(i, j, 1 + random.nextInt(4));
+		return a;
+	}
+
+	private static void assertSameSVD(Matrix a, JacobiSingularValueDecomposition jacobi, int k) {
+		// Jama only decomposes matrices with at least as many rows as columns
+		boolean tall = a.getRowDimension() >= a.getColumnDimension();
+		SingularValueDecomposition jama = (tall ? a : a.transpose()).svd();
+		Matrix u = tall ? jama.getU() : jama.getV();
+		Matrix v = tall ? jama.getV() : jama.getU();
+		double[] s = jama.getSingularValues();
+
+		jacobi.setK(k);
+		jacobi.process(a);
+		Matrix uk = new Matrix(jacobi.getDecomposition().getUkdata());
+		Matrix sk = new Matrix(jacobi.getDecomposition().getSkdata());
+		Matrix vk = new Matrix(jacobi.getDecomposition().getVkdata());
+		assertEquals(k, sk.getRowDimension());
+
+		for (int c = 0; c < k; c++) {
+			assertEquals(s[c], sk.get(c, c), 1E-12 * s[0]);
+			// Singular vectors are unique up to their sign
+			double sign = Math.signum(u.get(0, c) * uk.get(0, c));
+			for (int i = 0; i < a.getRowDimension(); i++)
+				assertEquals(u.get(i, c), sign * uk.get(i, c), 1E-10);
+			for (int j = 0; j < a.getColumnDimension(); j++)
+				assertEquals(v.get(j, c), sign * vk.get(j, c), 1E-10);
+		}
+	}
+
+	@Test
+	public void sameAsJama() {
+		JacobiSingularValueDecomposition jacobi = new JacobiSingularValueDecomposition();
+		assertSameSVD(random(30, 12, 3), jacobi, 12);
+		assertSameSVD(random(12, 30, 5), jacobi, 12);
+		assertSameSVD(random(25, 25, 7), jacobi, 6);
+		assertSameSVD(random(8, 6, 11), jacobi, 3);
+	}
+
+	@Test
+	public void fullReconstruction() {
+		Matrix a = random(20, 9, 13);
+		JacobiSingularValueDecomposition jacobi = new JacobiSingularValueDecomposition();
+		jacobi.setK(0);
+		jacobi.process(a);
+		Matrix uk = new Matrix(jacobi.getDecomposition().getUkdata());
+		Matrix sk = new Matrix(jacobi.getDecomposition().getSkdata());
+		Matrix vk = new Matrix(jacobi.getDecomposition().getVkdata());
+		assertArrayEquals(a.getRowPackedCopy(), uk.times(sk).times(vk.transpose()).getRowPackedCopy(), 1E-12);
+	}
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import tml.utils.DenseMatrix;
+import tml.utils.KNearestNeighbours;
+import tml.utils.MatrixKernels;
+import tml.utils.ProductQuantizedVectors;
+import tml.utils.QuantizedVectors;
+import tml.utils.ScalarQuantizedVectors;
+
+/**
+ * Compares the k-NN graph with a brute force sort of all the similarities.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class KNearestNeighboursTest {
+
+	@Test
+	public void graphMatchesBruteForce() {
+		Random random = new Random(11);
+		DenseMatrix vectors = new DenseMatrix(700, 20);
+		for (int i = 0; i < 700; i++)
+			for (int j = 0; j < 20; j++)
+				vectors.set(i, j, random.nextGaussian());
+		MatrixKernels.normalizeRows(vectors);
+
+		int k = 7;
+		KNearestNeighbours knn = KNearestNeighbours.build(vectors, null, k);
+		assertEquals(700, knn.getRows().length);
+
+		for (int i = 0; i < 700; i++) {
+			double[] all = new double[699];
+			int n = 0;
+			for (int j = 0; j < 700; j++)
+				if (j != i)
+					all[n++] = vectors.dot(i, vectors, j);
+			Arrays.sort(all);
+
+			int[] neighbours = knn.getNeighbours(i);
+			double[] similarities = knn.getSimilarities(i);
+			assertEquals(k, neighbours.length);
+			for (int r = 0; r < k; r++) {
+				assertTrue(neighbours[r] != i);
+				assertEquals(all[698 - r], similarities[r], 1E-12);
+				assertEquals(vectors.dot(i, vectors, neighbours[r]), similarities[r], 1E-12);
+			}
+		}
+	}
+
+	@Test
+	public void someRows() {
+		DenseMatrix vectors = new DenseMatrix(4, 2, new double[] { 1, 0, 0.8, 0.6, 0, 1, -1, 0 });
+		KNearestNeighbours knn = KNearestNeighbours.build(vectors, new int[] { 0 }, 10);
+		assertArrayEquals(new int[] { 1, 2, 3 }, knn.getNeighbours(0));
+		assertEquals(0.8, knn.getSimilarities(0)[0], 1E-12);
+	}
+
+	@Test
+	public void quantizedNeighboursAreReRanked() {
+		Random random = new Random(5);
+		DenseMatrix centres = new DenseMatrix(20, 32);
+		for (int i = 0; i < 20; i++)
+			for (int j = 0; j < 32; j++)
+				centres.set(i, j, random.nextGaussian());
+		DenseMatrix vectors = new DenseMatrix(1500, 32);
+		for (int i = 0; i < 1500; i++) {
+			int centre = random.nextInt(20);
+			for (int j = 0; j < 32; j++)
+				vectors.set(i, j, centres.get(centre, j) + 0.5 * random.nextGaussian());
+		}
+		MatrixKernels.normalizeRows(vectors);
+		int[] rows = new int[] { 0, 100, 200, 300, 400, 500 };
+
+		QuantizedVectors[] quantized = new QuantizedVectors[] {
+				new ScalarQuantizedVectors(vectors), new ProductQuantizedVectors(vectors) };
+		for (QuantizedVectors q : quantized) {
+			assertTrue(q.getCompression() > 4);
+			assertTrue(q.recall(rows, 5, 100) >= 0.9);
+			KNearestNeighbours knn = q.neighbours(rows, 5, 100);
+			for (int r = 0; r < rows.length; r++) {
+				int[] neighbours = knn.getNeighbours(r);
+				assertEquals(5, neighbours.length);
+				for (int n = 0; n < 5; n++) {
+					assertTrue(neighbours[n] != rows[r]);
+					assertEquals(vectors.dot(rows[r], vectors, neighbours[n]),
+							knn.getSimilarities(r)[n], 1E-12);
+				}
+			}
+		}
+	}
+}
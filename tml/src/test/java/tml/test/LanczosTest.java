@@ -15,15 +15,26 @@
  *******************************************************************************/
 package tml.test;
 
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import tml.Configuration;
+import tml.corpus.Corpus;
 import tml.corpus.SearchResultsCorpus;
 import tml.corpus.CorpusParameters.DimensionalityReduction;
 import tml.corpus.CorpusParameters.TermSelection;
+import tml.utils.LanczosSVDLIBCUtils;
 import tml.vectorspace.TermWeighting.GlobalWeight;
 import tml.vectorspace.TermWeighting.LocalWeight;
+import Jama.Matrix;
 
 
 
@@ -48,4 +59,87 @@ public class LanczosTest extends AbstractTmlIndexingTest {
 		corpus.getParameters().setLanczosSVD(true);
 		corpus.getSemanticSpace().calculate();
 	}
+
+	private static File temporaryFile() throws Exception {
+		File file = File.createTempFile("lanczos", ".matrix");
+		file.deleteOnExit();
+		return file;
+	}
+
+	@Test
+	public void sparseBinaryFormat() throws Exception {
+		Corpus corpus = new SearchResultsCorpus("type:document");
+		corpus.load(repository);
+		File file = temporaryFile();
+		new LanczosSVDLIBCUtils().writeCorpusInSparseBinaryFormat(corpus, file.getPath());
+
+		Matrix m = corpus.getTermDocMatrix();
+		int nonzeros = 0;
+		for (int term = 0; term < m.getRowDimension(); term++)
+			for (int doc = 0; doc < m.getColumnDimension(); doc++)
+				if (m.get(term, doc) != 0)
+					nonzeros++;
+		// DataInputStream reads big endian
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		assertEquals(corpus.getTerms().length, in.readInt());
+		assertEquals(corpus.getPassages().length, in.readInt());
+		assertEquals(nonzeros, in.readInt());
+		for (int doc = 0; doc < m.getColumnDimension(); doc++) {
+			int values = in.readInt();
+			int column = 0;
+			for (int term = 0; term < m.getRowDimension(); term++)
+				if (m.get(term, doc) != 0)
+					column++;
+			assertEquals(column, values);
+			for (int i = 0; i < values; i++) {
+				int term = in.readInt();
+				assertEquals((float) m.get(term, doc), in.readFloat(), 0);
+				assertTrue(m.get(term, doc) != 0);
+			}
+		}
+		assertEquals(-1, in.read());
+		in.close();
+		assertEquals(4 * (3 + m.getColumnDimension()) + 8 * nonzeros, file.length());
+	}
+
+	@Test
+	public void denseBinaryFormat() throws Exception {
+		// Two singular vectors of five values, row by row
+		File file = temporaryFile();
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+		out.writeInt(2);
+		out.writeInt(5);
+		for (int i = 0; i < 10; i++)
+			out.writeFloat(i + 0.5f);
+		out.close();
+
+		LanczosSVDLIBCUtils utils = new LanczosSVDLIBCUtils();
+		Matrix transpose = utils.readDenseBinaryMatrix(file, 2);
+		assertEquals(5, transpose.getRowDimension());
+		assertEquals(2, transpose.getColumnDimension());
+		for (int i = 0; i < 2; i++)
+			for (int j = 0; j < 5; j++)
+				assertEquals(i * 5 + j + 0.5, transpose.get(j, i), 0);
+
+		// Three were requested but only two found, the third is zero
+		Matrix padded = utils.readDenseBinaryMatrix(file, 3);
+		assertEquals(5, padded.getRowDimension());
+		assertEquals(3, padded.getColumnDimension());
+		assertArrayEquals(transpose.getRowPackedCopy(),
+				padded.getMatrix(0, 4, 0, 1).getRowPackedCopy(), 0);
+		for (int j = 0; j < 5; j++)
+			assertEquals(0, padded.get(j, 2), 0);
+
+		// A file that ends too soon
+		DataOutputStream truncated = new DataOutputStream(new FileOutputStream(file));
+		truncated.writeInt(2);
+		truncated.writeInt(5);
+		truncated.writeFloat(1);
+		truncated.close();
+		try {
+			utils.readDenseBinaryMatrix(file, 2);
+			fail("Truncated matrix read");
+		} catch (java.io.IOException e) {
+		}
+	}
 }
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import tml.utils.MatrixKernels;
+import tml.vectorspace.factorisation.LatentDirichletAllocation;
+import Jama.Matrix;
+
+/**
+ * Checks that LDA finds topics planted in a synthetic corpus when the
+ * sampling is split between threads.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class LatentDirichletAllocationTest {
+
+	private final int threads = MatrixKernels.getThreads();
+
+	@After
+	public void restoreThreads() {
+		MatrixKernels.setThreads(threads);
+	}
+
+	@Test
+	public void plantedTopics() {
+		// three groups of passages, each one using its own 40 terms
+		Random random = new Random(3);
+		Matrix v = new Matrix(120, 600);
+		for (int d = 0; d < 600; d++)
+			for (int i = 0; i < 40; i++) {
+				int w = (d % 3) * 40 + random.nextInt(40);
+				v.set(w, d, v.get(w, d) + 1);
+			}
+
+		MatrixKernels.setThreads(3);
+		LatentDirichletAllocation lda = new LatentDirichletAllocation();
+		lda.setK(3);
+		lda.setMaxIterations(50);
+		lda.setSynchronisationInterval(2);
+		lda.process(v);
+
+		double[][] pzd = lda.getDecomposition().getVkdata();
+		double[][] pwz = lda.getDecomposition().getUkdata();
+		for (int d = 0; d < 600; d++) {
+			int topic = 0;
+			for (int z = 1; z < 3; z++)
+				if (pzd[d][z] > pzd[d][topic])
+					topic = z;
+			assertTrue(pzd[d][topic] > 0.9);
+			// passages of the same group share their topic
+			assertTrue(pzd[d % 3][topic] > 0.9);
+		}
+		for (int z = 0; z < 3; z++) {
+			double sum = 0;
+			for (int w = 0; w < 120; w++)
+				sum += pwz[w][z];
+			assertEquals(1, sum, 1E-9);
+		}
+		assertEquals(50, lda.getIterations());
+	}
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.Test;
+
+import tml.utils.DenseMatrix;
+import tml.utils.MappedMatrix;
+
+/**
+ * Checks the files of mapped matrices: writing and reading them back, rows
+ * spread over several chunks and files opened again or replaced while
+ * mapped.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class MappedMatrixTest {
+
+	private static DenseMatrix random(int rows, int columns, long seed) {
+		Random random = new Random(seed);
+		DenseMatrix m = new DenseMatrix(rows, columns);
+		for (int i = 0; i < m.getData().length; i++)
+			m.getData()[i] = random.nextGaussian();
+		return m;
+	}
+
+	private static File temporaryFile() throws IOException {
+		File file = File.createTempFile("matrix", ".bin");
+		file.deleteOnExit();
+		return file;
+	}
+
+	private static void assertSameRows(DenseMatrix expected, DenseMatrix actual, double delta) {
+		assertEquals(expected.getRowDimension(), actual.getRowDimension());
+		assertEquals(expected.getColumnDimension(), actual.getColumnDimension());
+		int columns = expected.getColumnDimension();
+		double[] row = new double[columns];
+		double[] vector = new double[columns];
+		for (int j = 0; j < columns; j++)
+			vector[j] = j + 1;
+		for (int i = 0; i < expected.getRowDimension(); i++) {
+			assertArrayEquals(expected.getRow(i, new double[columns]), actual.getRow(i, row), delta);
+			for (int j = 0; j < columns; j++)
+				assertEquals(expected.get(i, j), actual.get(i, j), delta);
+			assertEquals(expected.dot(i, vector), actual.dot(i, vector), Math.max(delta * 100, 1E-12));
+		}
+	}
+
+	@Test
+	public void roundTrip() throws Exception {
+		DenseMatrix a = random(57, 13, 1);
+		File file = temporaryFile();
+
+		MappedMatrix mapped = MappedMatrix.write(file, a, false);
+		assertFalse(mapped.isSinglePrecision());
+		assertEquals(1, mapped.getChunks());
+		assertSameRows(a, mapped, 0);
+		assertEquals(8 * 57 * 13, file.length() - 32);
+
+		MappedMatrix single = MappedMatrix.write(file, a, true);
+		assertTrue(single.isSinglePrecision());
+		assertSameRows(a, single, 1E-6);
+		assertSameRows(a.toSinglePrecision(), single, 0);
+		assertEquals(4 * 57 * 13, file.length() - 32);
+
+		// an empty matrix
+		MappedMatrix empty = MappedMatrix.write(file, new DenseMatrix(0, 5), false);
+		assertEquals(0, empty.getRowDimension());
+		assertEquals(0, empty.getChunks());
+	}
+
+	@Test
+	public void rowsAcrossChunks() throws Exception {
+		DenseMatrix a = random(101, 7, 2);
+		File file = temporaryFile();
+		MappedMatrix.write(file, a, false);
+
+		// 10 rows per chunk, the last chunk has only one row
+		MappedMatrix chunked = MappedMatrix.open(file, 10 * 7 * 8 + 5);
+		assertEquals(11, chunked.getChunks());
+		assertSameRows(a, chunked, 0);
+		for (int i = 0; i + 1 < a.getRowDimension(); i++)
+			assertEquals(a.dot(i, a, i + 1), chunked.dot(i, chunked, i + 1), 1E-12);
+
+		// a chunk smaller than a row still holds a whole row
+		MappedMatrix rows = MappedMatrix.open(file, 8);
+		assertEquals(101, rows.getChunks());
+		assertSameRows(a, rows, 0);
+
+		MappedMatrix.write(file, a, true);
+		MappedMatrix single = MappedMatrix.open(file, 10 * 7 * 4);
+		assertEquals(11, single.getChunks());
+		assertSameRows(a.toSinglePrecision(), single, 0);
+		assertArrayEquals(a.getData(), single.toDoublePrecision().getData(), 1E-6);
+	}
+
+	@Test
+	public void reopenAndReplace() throws Exception {
+		DenseMatrix a = random(30, 6, 3);
+		DenseMatrix b = random(20, 4, 4);
+		File file = temporaryFile();
+
+		MappedMatrix first = MappedMatrix.write(file, a, false);
+		MappedMatrix again = MappedMatrix.open(file);
+		assertEquals(file, again.getFile());
+		assertSameRows(a, again, 0);
+
+		// the new file is written aside and renamed, the old mapping still
+		// reads the old values
+		MappedMatrix replaced = MappedMatrix.write(file, b, false);
+		assertSameRows(b, replaced, 0);
+		assertSameRows(b, MappedMatrix.open(file), 0);
+		assertSameRows(a, first, 0);
+		assertSameRows(a, again, 0);
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+
+		try {
+			replaced.set(0, 0, 1);
+			fail("Mapped matrices are read only");
+		} catch (UnsupportedOperationException e) {
+		}
+	}
+
+	@Test
+	public void invalidFiles() throws Exception {
+		File file = temporaryFile();
+		MappedMatrix.write(file, random(10, 10, 5), false);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 8);
+		raf.close();
+		try {
+			MappedMatrix.open(file);
+			fail("Truncated file opened");
+		} catch (IOException e) {
+		}
+
+		raf = new RandomAccessFile(file, "rw");
+		raf.writeInt(0);
+		raf.close();
+		try {
+			MappedMatrix.open(file);
+			fail("Not a matrix file opened");
+		} catch (IOException e) {
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Test;
+
+import tml.utils.DenseMatrix;
+import tml.utils.MappedMatrix;
+import tml.utils.MatrixKernels;
+import Jama.Matrix;
+
+/**
+ * Compares the blocked kernels in {@link MatrixKernels} against Jama's
+ * straightforward products, both below and above the size where the work is
+ * split between threads.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class MatrixKernelsTest {
+
+	private static final double EPSILON = 1E-9;
+
+	private Random random = new Random(42);
+
+	private Matrix random(int rows, int columns) {
+		Matrix m = new Matrix(rows, columns);
+		for (int i = 0; i < rows; i++)
+			for (int j = 0; j < columns; j++)
+				m.set(i, j, random.nextDouble() - 0.5);
+		return m;
+	}
+
+	private void assertSameMatrix(Matrix expected, Matrix actual) {
+		assertEquals(expected.getRowDimension(), actual.getRowDimension());
+		assertEquals(expected.getColumnDimension(), actual.getColumnDimension());
+		for (int i = 0; i < expected.getRowDimension(); i++)
+			for (int j = 0; j < expected.getColumnDimension(); j++)
+				assertEquals(expected.get(i, j), actual.get(i, j), EPSILON);
+	}
+
+	@Test
+	public void smallProducts() {
+		Matrix a = random(7, 5);
+		Matrix b = random(5, 3);
+		Matrix c = random(9, 5);
+		assertSameMatrix(a.times(b), MatrixKernels.times(a, b));
+		assertSameMatrix(a.times(c.transpose()), MatrixKernels.timesTranspose(a, c));
+		Matrix d = random(7, 4);
+		assertSameMatrix(a.transpose().times(d), MatrixKernels.transposeTimes(a, d));
+		assertSameMatrix(a.times(a.transpose()), MatrixKernels.gram(a));
+	}
+
+	@Test
+	public void largeProductsAreSplitBetweenThreads() {
+		Matrix a = random(300, 130);
+		Matrix b = random(130, 150);
+		Matrix c = random(210, 130);
+		assertSameMatrix(a.times(b), MatrixKernels.times(a, b));
+		assertSameMatrix(a.times(c.transpose()), MatrixKernels.timesTranspose(a, c));
+		Matrix d = random(300, 120);
+		assertSameMatrix(a.transpose().times(d), MatrixKernels.transposeTimes(a, d));
+		assertSameMatrix(a.times(a.transpose()), MatrixKernels.gram(a));
+	}
+
+	@Test
+	public void diagonalScaling() {
+		Matrix a = random(40, 6);
+		Matrix s = new Matrix(6, 6);
+		for (int i = 0; i < 6; i++)
+			s.set(i, i, i + 1);
+		assertTrue(MatrixKernels.isDiagonal(s));
+		assertSameMatrix(a.times(s), MatrixKernels.scaleColumns(a, s));
+		assertSameMatrix(a.times(s), MatrixKernels.times(a, s));
+		s.set(0, 1, 1);
+		assertFalse(MatrixKernels.isDiagonal(s));
+		assertSameMatrix(a.times(s), MatrixKernels.times(a, s));
+	}
+
+	@Test
+	public void singlePrecisionDotProducts() {
+		DenseMatrix a = MatrixKernels.normalizeRows(new DenseMatrix(random(50, 37)));
+		DenseMatrix single = a.toSinglePrecision();
+		assertTrue(single.isSinglePrecision());
+		assertEquals(a.getRowDimension() * a.getColumnDimension(), single.getFloatData().length);
+		double[] row = a.getRow(3, new double[37]);
+		for (int i = 0; i < 50; i++)
+			for (int j = 0; j < 50; j++) {
+				double cosine = a.dot(i, a, j);
+				assertEquals(cosine, single.dot(i, single, j), 1E-6);
+				assertEquals(cosine, single.dot(i, a, j), 1E-6);
+				assertEquals(cosine, a.dot(i, single, j), 1E-6);
+			}
+		assertEquals(a.dot(7, row), single.dot(7, row), 1E-6);
+		assertArrayEquals(a.getData(), single.toDoublePrecision().getData(), 1E-7);
+	}
+
+	@Test
+	public void mappedMatrices() throws Exception {
+		DenseMatrix a = new DenseMatrix(random(40, 9));
+		File file = File.createTempFile("matrix", ".bin");
+		file.deleteOnExit();
+		MappedMatrix mapped = MappedMatrix.write(file, a, false);
+		assertEquals(40, mapped.getRowDimension());
+		assertEquals(9, mapped.getColumnDimension());
+		assertArrayEquals(a.getData(), mapped.copy().getData(), 0);
+		for (int i = 0; i < 40; i++)
+			assertEquals(a.dot(i, a, 39 - i), mapped.dot(i, a, 39 - i), EPSILON);
+
+		MappedMatrix single = MappedMatrix.write(file, a, true);
+		assertTrue(single.isSinglePrecision());
+		assertArrayEquals(a.getData(), MappedMatrix.open(file).toDoublePrecision().getData(), 1E-6);
+	}
+}
@@ -0,0 +1,225 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import tml.Configuration;
+import tml.corpus.Corpus;
+import tml.corpus.SearchResultsCorpus;
+import tml.vectorspace.factorisation.MultiDimensionalScalingNR;
+import tml.vectorspace.factorisation.MultiDimensionalScalingSMACOF;
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+import Jama.EigenvalueDecomposition;
+import Jama.Matrix;
+
+/**
+ * Compares SMACOF with the Newton-Raphson MDS, and Landmark MDS with classical
+ * scaling of all the passages.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class MultiDimensionalScalingSMACOFTest extends AbstractTmlIndexingTest {
+
+	/** All the sentences of the essays */
+	private static Instances sentences = null;
+	/** The sentences that kept some term */
+	private static Instances nonEmpty = null;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		AbstractTmlIndexingTest.setUpBeforeClass();
+		repository.addDocumentsInFolder(Configuration.getTmlFolder() + "/corpora/uppsala");
+		Corpus corpus = new SearchResultsCorpus("type:sentence AND (reference:p*d0100.a1 OR reference:p*d0101.a1 OR reference:p*d0102.a1)");
+		corpus.getParameters().setTermSelectionThreshold(0);
+		corpus.load(repository);
+
+		int dimensions = corpus.getSemanticSpace().getDimensionsKept();
+		FastVector attributes = new FastVector(dimensions);
+		for (int a = 0; a < dimensions; a++)
+			attributes.addElement(new Attribute("d" + a));
+		sentences = new Instances("sentences", attributes, corpus.getPassages().length);
+		nonEmpty = new Instances("sentences", attributes, corpus.getPassages().length);
+		for (int i = 0; i < corpus.getPassages().length; i++) {
+			double[] vector = corpus.getSemanticSpace().getPassageVector(i, null);
+			double length = 0;
+			for (double value : vector)
+				length += value * value;
+			sentences.add(new Instance(1, vector));
+			if (length > 0)
+				nonEmpty.add(new Instance(1, vector));
+		}
+	}
+
+	private static Instances randomConfiguration(int n) {
+		FastVector attributes = new FastVector(2);
+		attributes.addElement(new Attribute("X"));
+		attributes.addElement(new Attribute("Y"));
+		Instances x = new Instances("MDS", attributes, n);
+		Random random = new Random(7);
+		for (int i = 0; i < n; i++) {
+			Instance instance = new Instance(2);
+			instance.setValue(MultiDimensionalScalingSMACOF.X, random.nextDouble());
+			instance.setValue(MultiDimensionalScalingSMACOF.Y, random.nextDouble());
+			x.add(instance);
+		}
+		return x;
+	}
+
+	private static double distance(Instances x, int i, int j) {
+		double squared = 0;
+		for (int a = 0; a < x.numAttributes(); a++) {
+			double difference = x.instance(i).value(a) - x.instance(j).value(a);
+			squared += difference * difference;
+		}
+		return Math.sqrt(squared);
+	}
+
+	/**
+	 * @return the sum of the squared errors between the distances in a
+	 *         configuration and the dissimilarities
+	 */
+	private static double rawStress(Instances x, Matrix dissimilarities) {
+		double stress = 0;
+		for (int i = 0; i < x.numInstances(); i++)
+			for (int j = i + 1; j < x.numInstances(); j++) {
+				double error = distance(x, i, j) - dissimilarities.get(i, j);
+				stress += error * error;
+			}
+		return stress;
+	}
+
+	/**
+	 * @return the dissimilarities calculated by the Newton-Raphson MDS
+	 */
+	private static Matrix dissimilarities(Instances instances) {
+		MultiDimensionalScalingNR nr = new MultiDimensionalScalingNR();
+		nr.setMaxIterations(0);
+		nr.setInitialX(randomConfiguration(instances.numInstances()));
+		nr.scale(instances);
+		return nr.d_hat();
+	}
+
+	/**
+	 * Classical scaling of a full matrix of dissimilarities
+	 */
+	private static Instances classicalScaling(Matrix dissimilarities) {
+		int n = dissimilarities.getRowDimension();
+		Matrix centring = Matrix.identity(n, n).minus(new Matrix(n, n, 1.0 / n));
+		Matrix b = centring.times(dissimilarities.arrayTimes(dissimilarities).times(-0.5)).times(centring);
+		EigenvalueDecomposition eig = b.plus(b.transpose()).times(0.5).eig();
+		Instances x = randomConfiguration(n);
+		// Jama sorts the eigenvalues of a symmetric matrix in ascending order
+		for (int a = 0; a < 2; a++) {
+			double lambda = eig.getRealEigenvalues()[n - 1 - a];
+			for (int i = 0; i < n; i++)
+				x.instance(i).setValue(a, eig.getV().get(i, n - 1 - a) * Math.sqrt(lambda));
+		}
+		return x;
+	}
+
+	@Test
+	public void sameDissimilaritiesAsNewtonRaphson() {
+		int n = nonEmpty.numInstances();
+		Matrix expected = dissimilarities(nonEmpty);
+		double[] packed = new MultiDimensionalScalingSMACOF().dissimilarities(nonEmpty);
+		assertEquals(n * (n - 1) / 2, packed.length);
+		for (int i = 0; i < n; i++)
+			for (int j = i + 1; j < n; j++)
+				assertEquals(expected.get(i, j), packed[MultiDimensionalScalingSMACOF.index(i, j, n)], 1E-12);
+	}
+
+	@Test
+	public void lowerStressThanNewtonRaphson() {
+		int n = nonEmpty.numInstances();
+		MultiDimensionalScalingNR nr = new MultiDimensionalScalingNR();
+		nr.setMaxIterations(100);
+		nr.setInitialX(randomConfiguration(n));
+		Instances expected = nr.scale(nonEmpty);
+		Matrix dissimilarities = nr.d_hat();
+
+		MultiDimensionalScalingSMACOF smacof = new MultiDimensionalScalingSMACOF();
+		smacof.setInitialX(randomConfiguration(n));
+		Instances actual = smacof.scale(nonEmpty);
+		assertEquals(n, actual.numInstances());
+		assertTrue(rawStress(actual, dissimilarities) <= rawStress(expected, dissimilarities));
+	}
+
+	@Test
+	public void landmarksAsGoodAsClassicalScaling() {
+		Matrix dissimilarities = dissimilarities(nonEmpty);
+		double expected = rawStress(classicalScaling(dissimilarities), dissimilarities);
+		for (int landmarks : new int[] { 10, 20, 40 }) {
+			MultiDimensionalScalingSMACOF smacof = new MultiDimensionalScalingSMACOF();
+			smacof.setLandmarks(landmarks);
+			double actual = rawStress(smacof.scale(nonEmpty), dissimilarities);
+			assertEquals(expected, actual, 0.1 * expected);
+		}
+	}
+
+	@Test
+	public void landmarksRecoverEuclideanDistances() {
+		// Points on a plane inside four dimensions
+		FastVector attributes = new FastVector(4);
+		for (int a = 0; a < 4; a++)
+			attributes.addElement(new Attribute("a" + a));
+		Instances points = new Instances("points", attributes, 100);
+		Random random = new Random(3);
+		for (int i = 0; i < 100; i++) {
+			double u = 5 * random.nextGaussian();
+			double v = 2 * random.nextGaussian();
+			points.add(new Instance(1, new double[] { u + v, u - v, 0, 3 }));
+		}
+		MultiDimensionalScalingSMACOF smacof = new MultiDimensionalScalingSMACOF() {
+			@Override
+			protected double dissimilarity(Instance inst1, Instance inst2) {
+				double squared = 0;
+				for (int a = 0; a < inst1.numAttributes(); a++)
+					squared += Math.pow(inst1.value(a) - inst2.value(a), 2);
+				return Math.sqrt(squared);
+			}
+		};
+		smacof.setLandmarks(5);
+		Instances x = smacof.scale(points);
+		for (int i = 0; i < 100; i++)
+			for (int j = i + 1; j < 100; j++)
+				assertEquals(distance(points, i, j), distance(x, i, j), 1E-9);
+	}
+
+	@Test(timeout = 20000)
+	public void emptyPassagesArePlaced() {
+		assertTrue(nonEmpty.numInstances() < sentences.numInstances());
+		MultiDimensionalScalingSMACOF full = new MultiDimensionalScalingSMACOF();
+		MultiDimensionalScalingSMACOF landmark = new MultiDimensionalScalingSMACOF();
+		landmark.setLandmarks(20);
+		for (MultiDimensionalScalingSMACOF smacof : new MultiDimensionalScalingSMACOF[] { full, landmark }) {
+			Instances x = smacof.scale(sentences);
+			for (int i = 0; i < x.numInstances(); i++) {
+				assertFalse(Double.isNaN(x.instance(i).value(MultiDimensionalScalingSMACOF.X)));
+				assertFalse(Double.isNaN(x.instance(i).value(MultiDimensionalScalingSMACOF.Y)));
+			}
+		}
+	}
+}
@@ -0,0 +1,232 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import tml.Configuration;
+import tml.corpus.Corpus;
+import tml.corpus.SearchResultsCorpus;
+import tml.corpus.CorpusParameters.DimensionalityReduction;
+import tml.utils.DenseMatrix;
+import tml.vectorspace.TermWeighting.GlobalWeight;
+import tml.vectorspace.TermWeighting.LocalWeight;
+import tml.vectorspace.operations.PassageClustering;
+import tml.vectorspace.operations.results.PassageClusteringLingoResult;
+import Jama.Matrix;
+
+/**
+ * Compares the mini-batch clustering with the passage and term vectors of the
+ * semantic space and with Lloyd's spherical k-means over all the passages.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class PassageClusteringTest extends AbstractTmlIndexingTest {
+
+	private static Corpus introLSA = null;
+	private static Corpus sentences = null;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		AbstractTmlIndexingTest.setUpBeforeClass();
+		repository.addDocumentsInFolder(Configuration.getTmlFolder() + "/corpora/introLSA");
+		introLSA = new SearchResultsCorpus("type:document");
+		introLSA.getParameters().setTermWeightLocal(LocalWeight.TF);
+		introLSA.getParameters().setTermWeightGlobal(GlobalWeight.None);
+		introLSA.getParameters().setDimensionalityReduction(DimensionalityReduction.NUM);
+		introLSA.getParameters().setDimensionalityReductionThreshold(2);
+		introLSA.load(repository);
+
+		repository.addDocumentsInFolder(Configuration.getTmlFolder() + "/corpora/uppsala");
+
+		sentences = new SearchResultsCorpus("type:sentence AND (reference:p*d0100.a1 OR reference:p*d0101.a1 OR reference:p*d0102.a1)");
+		sentences.getParameters().setTermSelectionThreshold(0);
+		sentences.load(repository);
+	}
+
+	private static PassageClustering cluster(Corpus corpus, int clusters) throws Exception {
+		PassageClustering operation = new PassageClustering();
+		operation.setCorpus(corpus);
+		operation.setClusters(clusters);
+		operation.start();
+		return operation;
+	}
+
+	/**
+	 * @return the rows of a matrix normalized to unit length
+	 */
+	private static Matrix normalizeRows(Matrix m) {
+		Matrix normalized = m.copy();
+		for (int i = 0; i < m.getRowDimension(); i++) {
+			double length = 0;
+			for (int j = 0; j < m.getColumnDimension(); j++)
+				length += m.get(i, j) * m.get(i, j);
+			length = Math.sqrt(length);
+			for (int j = 0; j < m.getColumnDimension(); j++)
+				normalized.set(i, j, length == 0 ? 0 : m.get(i, j) / length);
+		}
+		return normalized;
+	}
+
+	private static Matrix centroids(PassageClustering operation) {
+		DenseMatrix centroids = operation.getKMeans().getCentroids();
+		Matrix m = new Matrix(centroids.getRowDimension(), centroids.getColumnDimension());
+		for (int c = 0; c < m.getRowDimension(); c++)
+			for (int j = 0; j < m.getColumnDimension(); j++)
+				m.set(c, j, centroids.get(c, j));
+		return m;
+	}
+
+	private static int closest(Matrix vectors, int row, Matrix centroids) {
+		Matrix similarities = vectors.getMatrix(row, row, 0, vectors.getColumnDimension() - 1)
+				.times(centroids.transpose());
+		int best = 0;
+		for (int c = 1; c < centroids.getRowDimension(); c++)
+			if (similarities.get(0, c) > similarities.get(0, best))
+				best = c;
+		return best;
+	}
+
+	/**
+	 * @return the sum of the similarities between each passage and its
+	 *         centroid
+	 */
+	private static double objective(Matrix vectors, int[] assignments, Matrix centroids) {
+		double sum = 0;
+		for (int i = 0; i < assignments.length; i++)
+			for (int j = 0; j < vectors.getColumnDimension(); j++)
+				sum += vectors.get(i, j) * centroids.get(assignments[i], j);
+		return sum;
+	}
+
+	/**
+	 * Lloyd's spherical k-means over all the passages until no passage
+	 * changes its cluster
+	 */
+	private static int[] lloyd(Matrix vectors, Matrix centroids) {
+		int n = vectors.getRowDimension();
+		int[] assignments = new int[n];
+		Arrays.fill(assignments, -1);
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = 0; i < n; i++) {
+				int best = closest(vectors, i, centroids);
+				changed |= best != assignments[i];
+				assignments[i] = best;
+			}
+			Matrix sums = new Matrix(centroids.getRowDimension(), centroids.getColumnDimension());
+			for (int i = 0; i < n; i++)
+				for (int j = 0; j < vectors.getColumnDimension(); j++)
+					sums.set(assignments[i], j, sums.get(assignments[i], j) + vectors.get(i, j));
+			// Empty clusters keep their centroid
+			int last = sums.getColumnDimension() - 1;
+			for (int c = 0; c < sums.getRowDimension(); c++) {
+				Matrix sum = sums.getMatrix(c, c, 0, last);
+				if (sum.normF() > 0)
+					centroids.setMatrix(c, c, 0, last, normalizeRows(sum));
+			}
+		}
+		return assignments;
+	}
+
+	private static void assertSameAssignmentsAsSpace(Corpus corpus, PassageClustering operation) {
+		Matrix passages = normalizeRows(corpus.getSemanticSpace().getVk()
+				.times(corpus.getSemanticSpace().getSk()));
+		Matrix centroids = centroids(operation);
+		int[] assignments = operation.getKMeans().getAssignments();
+		assertEquals(corpus.getPassages().length, assignments.length);
+		int documents = 0;
+		for (PassageClusteringLingoResult result : operation.getResults()) {
+			for (String passage : result.getDocuments()) {
+				int i = Arrays.asList(corpus.getPassages()).indexOf(passage);
+				assertEquals(result.getCluster(), assignments[i]);
+				assertEquals(closest(passages, i, centroids), assignments[i]);
+			}
+			documents += result.getDocuments().size();
+		}
+		assertEquals(assignments.length, documents);
+	}
+
+	@Test
+	public void introToLSAGroups() throws Exception {
+		PassageClustering operation = cluster(introLSA, 2);
+		assertSameAssignmentsAsSpace(introLSA, operation);
+		assertEquals(2, operation.getResults().size());
+		for (PassageClusteringLingoResult result : operation.getResults()) {
+			char group = result.getDocuments().get(0).charAt(0);
+			for (String passage : result.getDocuments())
+				assertEquals(group, passage.charAt(0));
+		}
+	}
+
+	@Test
+	public void sameAsLloyd() throws Exception {
+		PassageClustering operation = cluster(sentences, 5);
+		assertSameAssignmentsAsSpace(sentences, operation);
+
+		Matrix passages = normalizeRows(sentences.getSemanticSpace().getVk()
+				.times(sentences.getSemanticSpace().getSk()));
+		int[] assignments = operation.getKMeans().getAssignments();
+		Matrix centroids = centroids(operation);
+		double miniBatch = objective(passages, assignments, centroids);
+		int[] full = lloyd(passages, centroids);
+		double converged = objective(passages, full, centroids);
+		// Lloyd can only improve the clustering it starts from, and the
+		// mini-batches should have left little to improve
+		assertTrue(converged >= miniBatch);
+		assertEquals(converged, miniBatch, 0.03 * converged);
+	}
+
+	@Test
+	public void rerunKeepsOnlyTheLastResults() throws Exception {
+		PassageClustering operation = cluster(introLSA, 2);
+		int clusters = operation.getResultsNumber();
+		operation.start();
+		assertEquals(clusters, operation.getResultsNumber());
+		assertSameAssignmentsAsSpace(introLSA, operation);
+	}
+
+	@Test
+	public void labelsAreClosestTerms() throws Exception {
+		PassageClustering operation = cluster(introLSA, 2);
+		Matrix terms = normalizeRows(introLSA.getSemanticSpace().getUk()
+				.times(introLSA.getSemanticSpace().getSk()));
+		Matrix centroids = centroids(operation);
+		for (PassageClusteringLingoResult result : operation.getResults()) {
+			Matrix similarities = terms.times(centroids.getMatrix(result.getCluster(),
+					result.getCluster(), 0, centroids.getColumnDimension() - 1).transpose());
+			String[] label = result.getClusterPhrase().split(" ");
+			assertEquals(operation.getLabelTerms(), label.length);
+			double last = Double.MAX_VALUE;
+			for (String term : label) {
+				double similarity = similarities.get(Arrays.asList(introLSA.getTerms()).indexOf(term), 0);
+				assertTrue(similarity <= last + 1E-12);
+				last = similarity;
+			}
+			// No term outside the label is closer than its last term
+			for (int t = 0; t < introLSA.getTerms().length; t++)
+				if (!Arrays.asList(label).contains(introLSA.getTerms()[t]))
+					assertTrue(similarities.get(t, 0) <= last + 1E-12);
+		}
+	}
+}
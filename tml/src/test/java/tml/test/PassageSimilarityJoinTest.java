@@ -0,0 +1,120 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import tml.Configuration;
+import tml.corpus.Corpus;
+import tml.corpus.SearchResultsCorpus;
+import tml.utils.DenseMatrix;
+import tml.utils.MatrixKernels;
+import tml.utils.RandomProjectionHash;
+import tml.vectorspace.operations.PassageSimilarityJoin;
+
+/**
+ * Checks the similarity join against a brute force comparison of all pairs.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class PassageSimilarityJoinTest extends AbstractTmlIndexingTest {
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		AbstractTmlIndexingTest.setUpBeforeClass();
+		repository.addDocumentsInFolder(Configuration.getTmlFolder() + "/corpora/introLSA");
+	}
+
+	/**
+	 * Groups of near duplicates around random centres
+	 */
+	private DenseMatrix clusteredVectors(int groups, int perGroup, int dimensions) {
+		Random random = new Random(7);
+		DenseMatrix m = new DenseMatrix(groups * perGroup, dimensions);
+		for (int g = 0; g < groups; g++) {
+			double[] centre = new double[dimensions];
+			for (int d = 0; d < dimensions; d++)
+				centre[d] = random.nextGaussian();
+			for (int p = 0; p < perGroup; p++)
+				for (int d = 0; d < dimensions; d++)
+					m.set(g * perGroup + p, d, centre[d] + 0.2 * random.nextGaussian());
+		}
+		return MatrixKernels.normalizeRows(m);
+	}
+
+	@Test
+	public void findsPairsOverThreshold() {
+		final DenseMatrix vectors = clusteredVectors(40, 5, 30);
+		final double threshold = 0.9;
+
+		Set<String> expected = new HashSet<String>();
+		for (int i = 0; i < vectors.getRowDimension(); i++)
+			for (int j = i + 1; j < vectors.getRowDimension(); j++)
+				if (vectors.dot(i, vectors, j) >= threshold)
+					expected.add(i + "-" + j);
+		assertTrue(expected.size() > 0);
+
+		final Set<String> found = new HashSet<String>();
+		PassageSimilarityJoin join = new PassageSimilarityJoin();
+		join.setThreshold(threshold);
+		join.setRecall(0.999);
+		join.setBitsPerBand(8);
+		join.join(vectors, new PassageSimilarityJoin.PairHandler() {
+			@Override
+			public void pair(int passageA, int passageB, double similarity) {
+				assertTrue(passageA < passageB);
+				assertTrue(similarity >= threshold);
+				assertTrue("Pair reported twice", found.add(passageA + "-" + passageB));
+			}
+		});
+
+		assertTrue(expected.containsAll(found));
+		assertTrue(found.size() >= expected.size() * 0.95);
+		assertEquals(found.size(), join.getPairs());
+		long allPairs = (long) vectors.getRowDimension() * (vectors.getRowDimension() - 1) / 2;
+		assertTrue(join.getCandidates() < allPairs);
+	}
+
+	@Test
+	public void rerunKeepsOnlyTheLastResults() throws Exception {
+		Corpus corpus = new SearchResultsCorpus("type:document");
+		corpus.load(repository);
+		PassageSimilarityJoin join = new PassageSimilarityJoin();
+		join.setCorpus(corpus);
+		join.setThreshold(0.5);
+		join.start();
+		int pairs = join.getResultsNumber();
+		assertTrue(pairs > 0);
+		join.start();
+		assertEquals(pairs, join.getResultsNumber());
+	}
+
+	@Test
+	public void bandsIncreaseWithRecall() {
+		int low = RandomProjectionHash.bandsFor(0.8, 10, 0.5);
+		int high = RandomProjectionHash.bandsFor(0.8, 10, 0.99);
+		assertTrue(low < high);
+		assertEquals(1, RandomProjectionHash.bandsFor(1, 10, 0.99));
+	}
+}
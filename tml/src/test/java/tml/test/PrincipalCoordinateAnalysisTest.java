@@ -0,0 +1,147 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import tml.vectorspace.factorisation.PrincipalCoordinateAnalysis;
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Compares the coordinates of the full eigenvalue decomposition and the block
+ * power iteration.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class PrincipalCoordinateAnalysisTest {
+
+	private static final int POINTS = 42;
+
+	private static final int CLUSTERS = 6;
+
+	/**
+	 * Points with most of their spread in the first two attributes, the last
+	 * attribute is the cluster of each point
+	 */
+	private static Instances points(long seed) {
+		Random random = new Random(seed);
+		FastVector attributes = new FastVector(5);
+		for (int a = 0; a < 5; a++)
+			attributes.addElement(new Attribute("a" + a));
+		Instances instances = new Instances("points", attributes, POINTS);
+		double[] spread = new double[] { 5, 2, 0.5, 0.1 };
+		for (int i = 0; i < POINTS; i++) {
+			Instance instance = new Instance(5);
+			for (int a = 0; a < 4; a++)
+				instance.setValue(a, spread[a] * random.nextGaussian());
+			instance.setValue(4, i % CLUSTERS);
+			instances.add(instance);
+		}
+		return instances;
+	}
+
+	private static double squaredDistance(Instance inst1, Instance inst2) {
+		double squared = 0;
+		for (int a = 0; a < 4; a++) {
+			double difference = inst1.value(a) - inst2.value(a);
+			squared += difference * difference;
+		}
+		return squared;
+	}
+
+	/**
+	 * Euclidean distances between the points
+	 */
+	private static class Euclidean extends PrincipalCoordinateAnalysis {
+		@Override
+		protected double distance(Instance inst1, Instance inst2) {
+			return Math.sqrt(squaredDistance(inst1, inst2));
+		}
+	}
+
+	/**
+	 * Points in the same cluster are pushed apart, so the centred matrix has
+	 * one negative eigenvalue per cluster but one, all larger in magnitude
+	 * than the second leading eigenvalue
+	 */
+	private static class NotEuclidean extends PrincipalCoordinateAnalysis {
+		@Override
+		protected double distance(Instance inst1, Instance inst2) {
+			double squared = squaredDistance(inst1, inst2);
+			if (inst1.value(4) == inst2.value(4))
+				squared += 200;
+			return Math.sqrt(squared);
+		}
+	}
+
+	private static void assertSameCoordinates(Instances expected, Instances actual) {
+		assertEquals(expected.numInstances(), actual.numInstances());
+		for (int a = 0; a < 2; a++) {
+			// Eigenvectors are unique up to their sign
+			double sign = Math.signum(expected.instance(0).value(a) * actual.instance(0).value(a));
+			for (int i = 0; i < expected.numInstances(); i++)
+				assertEquals(expected.instance(i).value(a), sign * actual.instance(i).value(a), 1E-6);
+		}
+	}
+
+	private static Instances scale(PrincipalCoordinateAnalysis pcoa, Instances points,
+			PrincipalCoordinateAnalysis.Solver solver) {
+		pcoa.setSolver(solver);
+		pcoa.setTolerance(1E-14);
+		pcoa.setMaxIterations(5000);
+		return pcoa.scale(points);
+	}
+
+	@Test
+	public void euclideanDistances() {
+		Instances points = points(3);
+		Instances full = scale(new Euclidean(), points,
+				PrincipalCoordinateAnalysis.Solver.EIGENDECOMPOSITION);
+		Instances block = scale(new Euclidean(), points,
+				PrincipalCoordinateAnalysis.Solver.BLOCK_POWER_ITERATION);
+		assertSameCoordinates(full, block);
+
+		// The leading axes follow the spread of the points, the first
+		// coordinate is the first attribute up to its sign and scale
+		double dot = 0, xx = 0, yy = 0;
+		for (int i = 0; i < POINTS; i++) {
+			double x = points.instance(i).value(0);
+			double y = full.instance(i).value(0);
+			dot += x * y;
+			xx += x * x;
+			yy += y * y;
+		}
+		assertTrue(Math.abs(dot) / Math.sqrt(xx * yy) > 0.9);
+	}
+
+	@Test
+	public void negativeEigenvalues() {
+		Instances points = points(5);
+		Instances full = scale(new NotEuclidean(), points,
+				PrincipalCoordinateAnalysis.Solver.EIGENDECOMPOSITION);
+		Instances block = scale(new NotEuclidean(), points,
+				PrincipalCoordinateAnalysis.Solver.BLOCK_POWER_ITERATION);
+		assertSameCoordinates(full, block);
+	}
+}
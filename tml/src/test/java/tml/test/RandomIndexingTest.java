@@ -0,0 +1,160 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import tml.Configuration;
+import tml.corpus.Corpus;
+import tml.corpus.CorpusParameters;
+import tml.corpus.SearchResultsCorpus;
+import tml.vectorspace.RandomIndexing;
+import tml.vectorspace.SemanticSpace;
+import tml.vectorspace.TermWeighting.GlobalWeight;
+import tml.vectorspace.TermWeighting.LocalWeight;
+import tml.utils.DenseMatrix;
+import Jama.Matrix;
+
+/**
+ * Checks that passages added to a space calculated with random indexing
+ * update the space, that clones don't share the engine and that the
+ * dimensions are part of the corpus parameters.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class RandomIndexingTest extends AbstractTmlIndexingTest {
+
+	private static final int DIMENSIONS = 50;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		AbstractTmlIndexingTest.setUpBeforeClass();
+		repository.addDocumentsInFolder(Configuration.getTmlFolder() + "/corpora/introLSA");
+	}
+
+	private static Corpus load() throws Exception {
+		Corpus corpus = new SearchResultsCorpus("type:document");
+		corpus.getParameters().setTermWeightLocal(LocalWeight.TF);
+		corpus.getParameters().setTermWeightGlobal(GlobalWeight.None);
+		corpus.getParameters().setRandomIndexing(true);
+		corpus.getParameters().setRandomIndexingDimensions(DIMENSIONS);
+		corpus.load(repository);
+		return corpus;
+	}
+
+	@Test
+	public void parametersRoundTrip() {
+		CorpusParameters parameters = new CorpusParameters();
+		parameters.setRandomIndexing(true);
+		parameters.setRandomIndexingDimensions(300);
+		CorpusParameters parsed = CorpusParameters.getParametersFromString(parameters.toString());
+		assertTrue(parsed.isRandomIndexing());
+		assertFalse(parsed.isLanczosSVD());
+		assertEquals(300, parsed.getRandomIndexingDimensions());
+		assertEquals(parameters.toString(), parsed.toString());
+
+		parameters.setRandomIndexingDimensions(500);
+		assertFalse(parsed.toString().equals(parameters.toString()));
+	}
+
+	@Test
+	public void addedPassagesUpdateTheSpace() throws Exception {
+		Corpus corpus = load();
+		SemanticSpace space = corpus.getSemanticSpace();
+		assertEquals(DIMENSIONS, space.getDimensionsKept());
+		String[] terms = corpus.getTerms();
+		Matrix uk = space.getUk().copy();
+		Matrix vk = space.getVk().copy();
+		DenseMatrix normalized = space.getNormalizedTermVectors();
+
+		space.addPassage("new passage", new String[] { terms[0], terms[1] }, new double[] { 1, 2 });
+
+		RandomIndexing engine = space.getRandomIndexing();
+		assertEquals(corpus.getPassages().length + 1, engine.getNumberOfPassages());
+		assertArrayEquals(engine.getTermVectors(terms).getData(),
+				new DenseMatrix(space.getUk()).getData(), 0);
+		// Only the terms of the new passage change
+		assertTrue(changed(uk, space.getUk(), 0));
+		assertTrue(changed(uk, space.getUk(), 1));
+		assertFalse(changed(uk, space.getUk(), terms.length - 1));
+
+		// Passages with those terms change too
+		boolean passagesChanged = false;
+		for (int doc = 0; doc < vk.getRowDimension(); doc++)
+			passagesChanged |= changed(vk, space.getVk(), doc);
+		assertTrue(passagesChanged);
+		assertEquals(vk.getRowDimension(), space.getVk().getRowDimension());
+		assertNotSame(normalized, space.getNormalizedTermVectors());
+	}
+
+	@Test
+	public void spaceIsReadOnceAfterAddingPassages() throws Exception {
+		Corpus corpus = load();
+		SemanticSpace space = corpus.getSemanticSpace();
+		String[] terms = corpus.getTerms();
+		Matrix uk = space.getUk();
+		Matrix vk = space.getVk();
+		assertSame(uk, space.getUk());
+
+		for (int p = 0; p < 5; p++)
+			space.addPassage("new passage " + p, new String[] { terms[p], terms[p + 1] }, new double[] { 1, 1 });
+		RandomIndexing engine = space.getRandomIndexing();
+		DenseMatrix expected = engine.getTermVectors(terms);
+
+		// The rows are read from the engine, and then kept until the next
+		// passage is added
+		double[] row = space.getTermVector(0, null);
+		assertArrayEquals(expected.getRow(0, new double[DIMENSIONS]), row, 0);
+		Matrix updated = space.getUk();
+		assertNotSame(uk, updated);
+		assertSame(updated, space.getUk());
+		assertArrayEquals(expected.getData(), new DenseMatrix(updated).getData(), 0);
+		assertNotSame(vk, space.getVk());
+		assertSame(space.getVk(), space.getVk());
+		assertEquals(corpus.getPassages().length, space.getVk().getRowDimension());
+
+		space.addPassage("another passage", new String[] { terms[0] }, new double[] { 1 });
+		DenseMatrix normalized = space.getNormalizedTermVectors();
+		assertNotSame(updated, space.getUk());
+		assertSame(normalized, space.getNormalizedTermVectors());
+	}
+
+	private static boolean changed(Matrix before, Matrix after, int row) {
+		for (int c = 0; c < before.getColumnDimension(); c++)
+			if (before.get(row, c) != after.get(row, c))
+				return true;
+		return false;
+	}
+
+	@Test
+	public void clonesHaveTheirOwnEngine() throws Exception {
+		Corpus corpus = load();
+		SemanticSpace space = corpus.getSemanticSpace();
+		Matrix uk = space.getUk().copy();
+		SemanticSpace clone = (SemanticSpace) space.clone();
+		assertNotSame(space.getRandomIndexing(), clone.getRandomIndexing());
+
+		clone.addPassage("new passage", new String[] { corpus.getTerms()[0] }, new double[] { 1 });
+		assertEquals(corpus.getPassages().length, space.getRandomIndexing().getNumberOfPassages());
+		assertEquals(corpus.getPassages().length + 1, clone.getRandomIndexing().getNumberOfPassages());
+		assertArrayEquals(uk.getRowPackedCopy(), space.getUk().getRowPackedCopy(), 0);
+		assertTrue(changed(uk, clone.getUk(), 0));
+	}
+}
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.SimpleFSDirectory;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks the ingestion sessions of a repository: nested sessions share one
+ * writer, documents become visible when they are committed or the last
+ * session ends, and adding documents doesn't optimize the index.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class RepositorySessionTest extends AbstractTmlIndexingTest {
+
+	/** Number of documents added by the tests, to give each one its id */
+	private static int added = 0;
+	private static Directory directory = null;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		AbstractTmlIndexingTest.setUpBeforeClass();
+		directory = SimpleFSDirectory.open(new File(repository.getIndexPath()));
+		// Creates the index
+		addDocument();
+	}
+
+	/**
+	 * Ends the sessions a failed test left open
+	 */
+	@After
+	public void endSessions() throws Exception {
+		while (IndexWriter.isLocked(directory))
+			repository.endSession();
+	}
+
+	private static void addDocument() throws Exception {
+		added++;
+		repository.addDocument("session" + added, "The document number " + added
+				+ ". It has two sentences.", "Document " + added, "N/A", null);
+	}
+
+	/**
+	 * @return the documents a new reader sees
+	 */
+	private static int visibleDocuments() throws IOException {
+		IndexReader reader = IndexReader.open(directory, true);
+		int documents = reader.docFreq(new Term("type", "document"));
+		reader.close();
+		return documents;
+	}
+
+	@Test
+	public void nestedSessionsShareTheWriter() throws Exception {
+		assertFalse(IndexWriter.isLocked(directory));
+		long version = IndexReader.getCurrentVersion(directory);
+		int visible = visibleDocuments();
+
+		repository.beginSession();
+		assertTrue(IndexWriter.isLocked(directory));
+		addDocument();
+		repository.beginSession();
+		addDocument();
+		repository.endSession();
+		// The inner session neither closes the writer nor commits
+		assertTrue(IndexWriter.isLocked(directory));
+		assertEquals(version, IndexReader.getCurrentVersion(directory));
+		addDocument();
+		repository.endSession();
+
+		assertFalse(IndexWriter.isLocked(directory));
+		assertEquals(visible + 3, visibleDocuments());
+	}
+
+	@Test
+	public void documentsAreVisibleWhenCommitted() throws Exception {
+		int visible = visibleDocuments();
+		repository.beginSession();
+		addDocument();
+		addDocument();
+		assertEquals(visible, visibleDocuments());
+		repository.commit();
+		assertEquals(visible + 2, visibleDocuments());
+		assertTrue(IndexWriter.isLocked(directory));
+
+		addDocument();
+		assertEquals(visible + 2, visibleDocuments());
+		repository.endSession();
+		assertEquals(visible + 3, visibleDocuments());
+
+		// Without a session there is nothing to commit
+		repository.commit();
+		assertEquals(visible + 3, visibleDocuments());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void endingWithoutSessionFails() throws Exception {
+		repository.endSession();
+	}
+
+	@Test
+	public void addingDocumentsDoesNotOptimize() throws Exception {
+		// Each session flushes its own segment
+		for (int i = 0; i < 3; i++)
+			addDocument();
+		IndexReader reader = IndexReader.open(directory, true);
+		assertFalse(reader.isOptimized());
+		reader.close();
+
+		repository.optimize();
+		assertFalse(IndexWriter.isLocked(directory));
+		reader = IndexReader.open(directory, true);
+		assertTrue(reader.isOptimized());
+		assertEquals(added, reader.docFreq(new Term("type", "document")));
+		reader.close();
+
+		addDocument();
+		reader = IndexReader.open(directory, true);
+		assertFalse(reader.isOptimized());
+		reader.close();
+	}
+}
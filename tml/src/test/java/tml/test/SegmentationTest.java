@@ -0,0 +1,220 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Compares the paragraphs and sentences the repository creates for a
+ * document with the ones of the previous segmentation, that read the content
+ * with a BufferedReader and split each line in a list of sentences.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class SegmentationTest extends AbstractTmlIndexingTest {
+
+	/** Number of documents added by the tests, to give each one its id */
+	private static int documents = 0;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		AbstractTmlIndexingTest.setUpBeforeClass();
+	}
+
+	/**
+	 * The previous bibliography check, with its regular expressions
+	 */
+	private static boolean isBibliographyTitle(String sentence) {
+		String[] words = sentence.split("\\s");
+		if (words.length >= 4)
+			return false;
+		for (String word : words)
+			if (word.toLowerCase().matches(
+					"(\\d+)?\\s*((resources?)|(references?)|(bibliography)|(notes?))\\s*"))
+				return true;
+		return false;
+	}
+
+	/**
+	 * The previous segmentation of a content
+	 *
+	 * @return the type, content, parent, parent document, external id, title
+	 *         and url of each paragraph and sentence, in order
+	 */
+	private static List<String[]> previousSegments(String content, String docId, String title)
+			throws IOException {
+		List<String[]> segments = new ArrayList<String[]>();
+		BufferedReader reader = new BufferedReader(new StringReader(content));
+		String line = null;
+		int sentenceNumber = 0;
+		int paragraphNumber = 0;
+		boolean isBibliography = false;
+		while ((line = reader.readLine()) != null && !isBibliography) {
+			BreakIterator iterator = BreakIterator.getSentenceInstance(repository.getLocale());
+			iterator.setText(line);
+			int start = iterator.first();
+			int end = 0;
+			List<String> sentences = new ArrayList<String>();
+			while ((end = iterator.next()) != BreakIterator.DONE) {
+				sentences.add(line.substring(start, end));
+				start = end;
+			}
+			if (line.length() < 2)
+				continue;
+			if (isBibliographyTitle(line.trim().toLowerCase().replaceAll("\\W", ""))) {
+				isBibliography = true;
+				continue;
+			}
+			paragraphNumber++;
+			String paragraphId = "p" + paragraphNumber + "d" + docId;
+			segments.add(new String[] { "paragraph", line, docId, docId, paragraphId,
+					"Paragraph " + paragraphNumber + " of " + title, "N/A" });
+			int numSentence = 0;
+			for (String sentence : sentences) {
+				if (sentence.length() < 2)
+					continue;
+				numSentence++;
+				sentenceNumber++;
+				segments.add(new String[] { "sentence", sentence, paragraphId, docId,
+						"s" + sentenceNumber + "d" + docId, "Sentence " + sentenceNumber + " of " + title,
+						numSentence == sentences.size() ? "last" : "N/A" });
+			}
+		}
+		return segments;
+	}
+
+	/**
+	 * @return the fields of the paragraphs and sentences of a document in the
+	 *         index, in the order they were added
+	 */
+	private static List<String[]> segments(String docId) throws IOException {
+		List<String[]> segments = new ArrayList<String[]>();
+		IndexReader reader = repository.getIndexReader();
+		for (int i = 0; i < reader.maxDoc(); i++) {
+			if (reader.isDeleted(i))
+				continue;
+			Document document = reader.document(i);
+			if (!docId.equals(document.get(repository.getLuceneParentDocumentField()))
+					|| document.get("type").equals("document"))
+				continue;
+			segments.add(new String[] { document.get("type"),
+					document.get(repository.getLuceneContentField()),
+					document.get(repository.getLuceneParentField()),
+					document.get(repository.getLuceneParentDocumentField()),
+					document.get(repository.getLuceneExternalIdField()),
+					document.get(repository.getLuceneTitleField()),
+					document.get(repository.getLuceneUrlField()) });
+		}
+		return segments;
+	}
+
+	/**
+	 * Adds a content to the repository and compares its paragraphs and
+	 * sentences with the previous segmentation, field by field
+	 *
+	 * @return the segments
+	 */
+	private static List<String[]> assertSameSegments(String content) throws Exception {
+		documents++;
+		String docId = "segmentation" + documents;
+		String title = "Document " + documents;
+		repository.addDocument(docId, content, title, "N/A", null);
+		List<String[]> expected = previousSegments(content, docId, title);
+		List<String[]> actual = segments(docId);
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++)
+			assertArrayEquals(expected.get(i), actual.get(i));
+		return actual;
+	}
+
+	private static int count(List<String[]> segments, String type) {
+		int count = 0;
+		for (String[] segment : segments)
+			if (segment[0].equals(type))
+				count++;
+		return count;
+	}
+
+	@Test
+	public void lineEndings() throws Exception {
+		String[] endings = { "\n", "\r", "\r\n", "\n\r" };
+		for (String ending : endings) {
+			List<String[]> segments = assertSameSegments("The first paragraph. It has two sentences."
+					+ ending + "The second paragraph has one." + ending + ending
+					+ "After an empty line." + ending);
+			assertEquals(3, count(segments, "paragraph"));
+		}
+		// Mixed, and without a line ending at the end
+		assertSameSegments("One line.\r\nTwo lines.\rThree lines.\n\r\nFour lines.\r\r\nFive");
+	}
+
+	@Test
+	public void shortLines() throws Exception {
+		List<String[]> segments = assertSameSegments(
+				"a\nA paragraph between short lines.\n.\n \nOK\n\t\nThe last one.\nz");
+		assertEquals(3, count(segments, "paragraph"));
+		assertSameSegments("x");
+		assertSameSegments("");
+		assertSameSegments("\r\n\r\n");
+	}
+
+	@Test
+	public void shortSentencesBeforeTheLast() throws Exception {
+		List<String[]> segments = assertSameSegments(
+				"!Real sentence here. And the last one.\n"
+				+ "A paragraph. With no short sentence.\n"
+				+ "?Only one after it.\n"
+				+ "Hi. I. Am here. Last one.");
+		assertEquals(9, count(segments, "sentence"));
+		// The last sentence of a paragraph with a short sentence isn't "last"
+		int last = 0;
+		for (String[] segment : segments)
+			if (segment[6].equals("last"))
+				last++;
+		assertEquals(2, last);
+	}
+
+	@Test
+	public void bibliographyHeadings() throws Exception {
+		String[] headings = { "References", "REFERENCES:", "1. References", "2 Bibliography",
+				"Notes", "  Resources.  ", "3) Note", "4.1 Bibliography" };
+		for (String heading : headings) {
+			List<String[]> segments = assertSameSegments("The body of the document.\n" + heading
+					+ "\nSmith, J. A reference that is not indexed.");
+			assertEquals(heading, 1, count(segments, "paragraph"));
+		}
+		String[] paragraphs = { "References to earlier work are given below.", "Bibliography and notes",
+				"See the notes", "Reference list", "Références", "_References_", "Chapter 12", "12 34" };
+		for (String paragraph : paragraphs) {
+			List<String[]> segments = assertSameSegments("The body of the document.\n" + paragraph
+					+ "\nThe end of the document.");
+			assertEquals(paragraph, 3, count(segments, "paragraph"));
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import tml.Configuration;
+import tml.corpus.Corpus;
+import tml.corpus.SearchResultsCorpus;
+import tml.vectorspace.SemanticSpace;
+import tml.vectorspace.SemanticSpaceBatch;
+import Jama.Matrix;
+
+/**
+ * Checks that the spaces calculated in a batch are the same as the spaces
+ * calculated one by one.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class SemanticSpaceBatchTest extends AbstractTmlIndexingTest {
+
+	private static final String[] ESSAYS = new String[] { "0100.a1", "0101.a1", "0102.a1" };
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		AbstractTmlIndexingTest.setUpBeforeClass();
+		repository.addDocumentsInFolder(Configuration.getTmlFolder() + "/corpora/uppsala");
+	}
+
+	private static Corpus load(String essay, boolean calculate) throws Exception {
+		Corpus corpus = new SearchResultsCorpus("type:sentence AND reference:p*d" + essay);
+		// Keep every term so no essay has more sentences than terms
+		corpus.getParameters().setTermSelectionThreshold(0);
+		corpus.getParameters().setCalculateSemanticSpace(calculate);
+		corpus.load(repository);
+		return corpus;
+	}
+
+	@Test
+	public void sameSpacesAsOneByOne() throws Exception {
+		SemanticSpaceBatch batch = new SemanticSpaceBatch();
+		Corpus[] single = new Corpus[ESSAYS.length];
+		for (int e = 0; e < ESSAYS.length; e++) {
+			single[e] = load(ESSAYS[e], true);
+			batch.add(load(ESSAYS[e], false));
+		}
+		batch.calculate();
+
+		for (int e = 0; e < ESSAYS.length; e++) {
+			SemanticSpace expected = single[e].getSemanticSpace();
+			SemanticSpace actual = batch.getCorpora().get(e).getSemanticSpace();
+			assertTrue(actual.isCalculated());
+			assertEquals(expected.getDimensionsKept(), actual.getDimensionsKept());
+			Matrix s = expected.getSk();
+			assertArrayEquals(s.getRowPackedCopy(), actual.getSk().getRowPackedCopy(), 1E-10 * s.get(0, 0));
+			// The factors are compared through the reduced matrix, as
+			// singular vectors are unique up to their sign
+			assertArrayEquals(reduced(expected).getRowPackedCopy(), reduced(actual).getRowPackedCopy(), 1E-10);
+		}
+	}
+
+	private static Matrix reduced(SemanticSpace space) {
+		return space.getUk().times(space.getSk()).times(space.getVk().transpose());
+	}
+}
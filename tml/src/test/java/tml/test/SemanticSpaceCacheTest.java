@@ -0,0 +1,196 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import tml.corpus.Corpus;
+import tml.corpus.SearchResultsCorpus;
+import tml.corpus.CorpusParameters.DimensionalityReduction;
+import tml.vectorspace.SVD;
+
+/**
+ * Caches the SVD of a corpus big enough to be cached, adds passages and
+ * loads the corpus again. The reduction is a percentage, so the new passages
+ * change the dimensions kept, and the cached SVD must still be found and
+ * updated instead of calculated again. An approximate SVD calculated under a
+ * small memory budget must not be used when an exact SVD fits.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class SemanticSpaceCacheTest extends AbstractTmlIndexingTest {
+
+	private static final String QUERY = "type:document AND (externalid:a* OR externalid:b*)";
+	private static final int WORDS = 800;
+	private static final int DOCUMENTS = 200;
+	private static final int ADDED = 20;
+
+	private static File folder = null;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		AbstractTmlIndexingTest.setUpBeforeClass();
+		folder = File.createTempFile("cache", "");
+		folder.delete();
+		folder.mkdir();
+		folder.deleteOnExit();
+	}
+
+	/**
+	 * @return a made up word of three syllables
+	 */
+	private static String word(int index) {
+		String consonants = "bdfgklmnprstvz";
+		String vowels = "aiou";
+		StringBuffer word = new StringBuffer();
+		for (int s = 0; s < 3; s++) {
+			word.append(consonants.charAt(index % consonants.length()));
+			index /= consonants.length();
+			word.append(vowels.charAt(index % vowels.length()));
+			index /= vowels.length();
+		}
+		return word.toString();
+	}
+
+	/**
+	 * Writes documents of 40 words drawn from the vocabulary in a folder of
+	 * their own
+	 */
+	private static File writeDocuments(String prefix, int count, long seed) throws IOException {
+		File documents = new File(folder, prefix);
+		documents.mkdir();
+		documents.deleteOnExit();
+		Random random = new Random(seed);
+		for (int d = 0; d < count; d++) {
+			File file = new File(documents, prefix + d + ".txt");
+			file.deleteOnExit();
+			FileWriter writer = new FileWriter(file);
+			for (int w = 0; w < 40; w++)
+				writer.write(word(random.nextInt(WORDS)) + (w % 10 == 9 ? ". " : " "));
+			writer.close();
+		}
+		return documents;
+	}
+
+	/**
+	 * Loads a corpus keeping 10% of the dimensions
+	 * 
+	 * @param memoryBudget
+	 *            the memory in MB the SVD can use, 0 for the heap
+	 */
+	private static Corpus load(String query, int memoryBudget) throws Exception {
+		Corpus corpus = new SearchResultsCorpus(query);
+		corpus.getParameters().setTermSelectionThreshold(0);
+		corpus.getParameters().setDimensionalityReduction(DimensionalityReduction.PCT);
+		corpus.getParameters().setDimensionalityReductionThreshold(10);
+		corpus.getParameters().setMemoryBudget(memoryBudget);
+		corpus.load(repository);
+		return corpus;
+	}
+
+	/**
+	 * @return the files that cache the SVD of the query
+	 */
+	private static File[] cached(final Corpus corpus) {
+		return new File(repository.getSvdStoragePath()).listFiles(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.startsWith("tml_" + corpus.getFilename() + "_");
+			}
+		});
+	}
+
+	@Test
+	public void addedPassagesUpdateTheCachedSVD() throws Exception {
+		for (File file : cached(new SearchResultsCorpus(QUERY)))
+			file.delete();
+
+		repository.addDocumentsInFolder(writeDocuments("a", DOCUMENTS, 1).getAbsolutePath());
+		Corpus first = load(QUERY, 0);
+		assertEquals(DOCUMENTS, first.getPassages().length);
+		assertTrue(first.getPassages().length * first.getTerms().length > 100000);
+		assertEquals(DOCUMENTS / 10, first.getSemanticSpace().getDimensionsKept());
+		File[] files = cached(first);
+		assertEquals(1, files.length);
+		SVD svd = SVD.readSVD(files[0]);
+		assertEquals(0, svd.getUpdates());
+		assertEquals(SVD.fingerprint(first.getTerms(), first.getPassages()), svd.getFingerprint());
+
+		repository.addDocumentsInFolder(writeDocuments("b", ADDED, 2).getAbsolutePath());
+		Corpus second = load(QUERY, 0);
+		assertEquals(DOCUMENTS + ADDED, second.getPassages().length);
+		// The same file, updated once and with the dimensions of the new corpus
+		files = cached(second);
+		assertEquals(1, files.length);
+		svd = SVD.readSVD(files[0]);
+		assertEquals(1, svd.getUpdates());
+		assertEquals(SVD.fingerprint(second.getTerms(), second.getPassages()), svd.getFingerprint());
+		int dimensions = (DOCUMENTS + ADDED) / 10;
+		assertEquals(dimensions, second.getSemanticSpace().getDimensionsKept());
+		assertEquals(dimensions, svd.getSkdata().length);
+		assertEquals(DOCUMENTS + ADDED, second.getSemanticSpace().getVk().getRowDimension());
+		assertEquals(second.getTerms().length, second.getSemanticSpace().getUk().getRowDimension());
+
+		// Loading it again reads the updated SVD as it is
+		Corpus third = load(QUERY, 0);
+		assertEquals(dimensions, third.getSemanticSpace().getDimensionsKept());
+		assertEquals(1, SVD.readSVD(cached(third)[0]).getUpdates());
+		assertEquals(second.getSemanticSpace().getSk().get(0, 0),
+				third.getSemanticSpace().getSk().get(0, 0), 1E-6);
+	}
+
+	@Test
+	public void approximateSVDIsNotUsedWhenExactFits() throws Exception {
+		String query = "type:document AND externalid:c*";
+		for (File file : cached(new SearchResultsCorpus(query)))
+			file.delete();
+		repository.addDocumentsInFolder(writeDocuments("c", DOCUMENTS, 3).getAbsolutePath());
+
+		// Only a sketch fits in 1 MB
+		Corpus approximate = load(query, 1);
+		File[] files = cached(approximate);
+		assertEquals(1, files.length);
+		assertTrue(SVD.readSVD(files[0]).isApproximate());
+		// Loading it again under the same budget reads it
+		Corpus again = load(query, 1);
+		assertEquals(approximate.getSemanticSpace().getSk().get(0, 0),
+				again.getSemanticSpace().getSk().get(0, 0), 1E-6);
+
+		// With the whole heap the exact SVD replaces it
+		Corpus exact = load(query, 0);
+		files = cached(exact);
+		assertEquals(1, files.length);
+		SVD svd = SVD.readSVD(files[0]);
+		assertFalse(svd.isApproximate());
+		assertEquals(exact.getSemanticSpace().getSk().get(0, 0), svd.getSkdata()[0][0], 1E-12);
+		assertTrue(Math.abs(exact.getSemanticSpace().getSk().get(0, 0)
+				- approximate.getSemanticSpace().getSk().get(0, 0)) > 1E-6);
+
+		// and an exact SVD is used under any budget
+		Corpus small = load(query, 1);
+		assertEquals(exact.getSemanticSpace().getSk().get(0, 0),
+				small.getSemanticSpace().getSk().get(0, 0), 1E-12);
+	}
+}
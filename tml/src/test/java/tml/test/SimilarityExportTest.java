@@ -0,0 +1,102 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import org.junit.Test;
+
+import tml.utils.DenseMatrix;
+import tml.utils.MatrixKernels;
+import tml.vectorspace.operations.PassagesSimilarity;
+import tml.vectorspace.operations.PassagesSimilarity.ExportFormat;
+
+/**
+ * Exports the similarities of random vectors and reads them back.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class SimilarityExportTest {
+
+	private DenseMatrix randomVectors(int rows, int columns) {
+		Random random = new Random(3);
+		DenseMatrix m = new DenseMatrix(rows, columns);
+		for (int i = 0; i < rows; i++)
+			for (int j = 0; j < columns; j++)
+				m.set(i, j, random.nextGaussian());
+		return MatrixKernels.normalizeRows(m);
+	}
+
+	private DoubleBuffer read(File file, int[] header) throws Exception {
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = input.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0)
+				;
+			buffer.flip();
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			header[0] = buffer.getInt();
+			header[1] = buffer.getInt();
+			return buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		} finally {
+			input.close();
+		}
+	}
+
+	@Test
+	public void fullMatrix() throws Exception {
+		DenseMatrix vectors = randomVectors(150, 10);
+		File file = File.createTempFile("tml", ".sim");
+		file.deleteOnExit();
+		PassagesSimilarity.exportSimilarities(vectors, 100, file, ExportFormat.FULL);
+
+		int[] header = new int[2];
+		DoubleBuffer values = read(file, header);
+		assertEquals(100, header[0]);
+		assertEquals(150, header[1]);
+		assertEquals(100 * 150, values.remaining());
+		for (int i = 0; i < 100; i++)
+			for (int j = 0; j < 150; j++)
+				assertEquals(vectors.dot(i, vectors, j), values.get(i * 150 + j), 1E-12);
+	}
+
+	@Test
+	public void upperTriangular() throws Exception {
+		DenseMatrix vectors = randomVectors(1500, 5);
+		File file = File.createTempFile("tml", ".sim");
+		file.deleteOnExit();
+		PassagesSimilarity.exportSimilarities(vectors, 1500, file, ExportFormat.UPPER_TRIANGULAR);
+
+		int[] header = new int[2];
+		DoubleBuffer values = read(file, header);
+		assertEquals(1500, header[0]);
+		assertEquals(1500 * 1501 / 2, values.remaining());
+		int position = 0;
+		for (int i = 0; i < 1500; i++)
+			for (int j = i; j < 1500; j++)
+				assertEquals(vectors.dot(i, vectors, j), values.get(position++), 1E-12);
+	}
+}
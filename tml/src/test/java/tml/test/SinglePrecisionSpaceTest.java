@@ -0,0 +1,126 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import tml.Configuration;
+import tml.corpus.Corpus;
+import tml.corpus.SearchResultsCorpus;
+import tml.corpus.CorpusParameters.DimensionalityReduction;
+import tml.vectorspace.SemanticSpace;
+import tml.vectorspace.TermWeighting.GlobalWeight;
+import tml.vectorspace.TermWeighting.LocalWeight;
+import tml.vectorspace.operations.FactorAnalysisPlot;
+import tml.vectorspace.operations.PassageDistances;
+import tml.vectorspace.operations.PassagesSimilarity;
+import Jama.Matrix;
+
+/**
+ * Checks that a space stored in single precision is read by rows and that
+ * the operations get the same results as with the double precision space.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class SinglePrecisionSpaceTest extends AbstractTmlIndexingTest {
+
+	private static Corpus corpus = null;
+	private static Corpus singleCorpus = null;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		AbstractTmlIndexingTest.setUpBeforeClass();
+		repository.addDocumentsInFolder(Configuration.getTmlFolder() + "/corpora/introLSA");
+
+		corpus = load(false);
+		singleCorpus = load(true);
+	}
+
+	private static Corpus load(boolean singlePrecision) throws Exception {
+		Corpus corpus = new SearchResultsCorpus("type:document");
+		corpus.getParameters().setTermWeightLocal(LocalWeight.TF);
+		corpus.getParameters().setTermWeightGlobal(GlobalWeight.None);
+		corpus.getParameters().setDimensionalityReduction(DimensionalityReduction.NUM);
+		corpus.getParameters().setDimensionalityReductionThreshold(2);
+		corpus.getParameters().setSinglePrecision(singlePrecision);
+		corpus.load(repository);
+		return corpus;
+	}
+
+	@Test
+	public void rowsMatchTheFactors() {
+		SemanticSpace space = corpus.getSemanticSpace();
+		SemanticSpace single = singleCorpus.getSemanticSpace();
+		assertTrue(single.isCalculated());
+		Matrix uk = space.getUk();
+		Matrix vk = space.getVk();
+		double[] row = null;
+		for (int i = 0; i < uk.getRowDimension(); i++) {
+			row = single.getTermVector(i, row);
+			assertArrayEquals(uk.getArray()[i], row, 1E-6);
+			assertArrayEquals(uk.getArray()[i], space.getTermVector(i, null), 0);
+		}
+		for (int i = 0; i < vk.getRowDimension(); i++)
+			assertArrayEquals(vk.getArray()[i], single.getPassageVector(i, null), 1E-6);
+	}
+
+	@Test
+	public void sameOperationResults() throws Exception {
+		PassageDistances distances = new PassageDistances();
+		distances.setCorpus(corpus);
+		distances.start();
+		PassageDistances singleDistances = new PassageDistances();
+		singleDistances.setCorpus(singleCorpus);
+		singleDistances.start();
+		assertEquals(corpus.getPassages().length - 1, distances.getResultsNumber());
+		for (int i = 0; i < distances.getResultsNumber(); i++)
+			assertEquals(distances.getResults().get(i).getDistance(),
+					singleDistances.getResults().get(i).getDistance(), 1E-5);
+
+		PassagesSimilarity similarity = new PassagesSimilarity();
+		similarity.setCorpus(corpus);
+		similarity.start();
+		PassagesSimilarity singleSimilarity = new PassagesSimilarity();
+		singleSimilarity.setCorpus(singleCorpus);
+		singleSimilarity.start();
+		assertArrayEquals(similarity.getSimilarities().getRowPackedCopy(),
+				singleSimilarity.getSimilarities().getRowPackedCopy(), 1E-5);
+
+		FactorAnalysisPlot plot = new FactorAnalysisPlot();
+		plot.setCorpus(corpus);
+		plot.start();
+		FactorAnalysisPlot singlePlot = new FactorAnalysisPlot();
+		singlePlot.setCorpus(singleCorpus);
+		singlePlot.start();
+		for (int i = 0; i < plot.getResultsNumber(); i++) {
+			assertEquals(plot.getResults().get(i).getX(), singlePlot.getResults().get(i).getX(), 1E-6);
+			assertEquals(plot.getResults().get(i).getY(), singlePlot.getResults().get(i).getY(), 1E-6);
+		}
+	}
+
+	@Test
+	public void projectionReadsTheRows() throws Exception {
+		Corpus projected = singleCorpus.projectCorpus(corpus);
+		Matrix v = corpus.getSemanticSpace().getVk();
+		Matrix projectedV = projected.getSemanticSpace().getVk();
+		// projecting the corpus on itself gives back its passage vectors
+		assertArrayEquals(v.getRowPackedCopy(), projectedV.getRowPackedCopy(), 1E-5);
+	}
+}
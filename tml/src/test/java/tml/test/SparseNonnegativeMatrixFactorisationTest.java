@@ -0,0 +1,82 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import tml.utils.DenseMatrix;
+import tml.utils.SparseMatrix;
+import tml.vectorspace.factorisation.SparseNonnegativeMatrixFactorisationED;
+import Jama.Matrix;
+
+/**
+ * Checks the sparse products and the objective tracked by the sparse NMF
+ * against the dense calculations.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class SparseNonnegativeMatrixFactorisationTest {
+
+	private static Matrix randomSparse(int m, int n, long seed) {
+		Random random = new Random(seed);
+		Matrix v = new Matrix(m, n);
+		for (int i = 0; i < m; i++)
+			for (int j = 0; j < n; j++)
+				if (random.nextDouble() < 0.1)
+					v.set(i, j, random.nextDouble());
+		return v;
+	}
+
+	@Test
+	public void sparseProducts() {
+		Matrix v = randomSparse(90, 70, 3);
+		SparseMatrix sparse = SparseMatrix.fromMatrix(v);
+		DenseMatrix b = new DenseMatrix(Matrix.random(70, 5));
+		assertArrayEquals(v.times(b.toMatrix()).getRowPackedCopy(),
+				sparse.times(b).toMatrix().getRowPackedCopy(), 1E-12);
+		assertArrayEquals(v.transpose().getRowPackedCopy(),
+				sparse.transpose().toMatrix().getRowPackedCopy(), 0);
+		assertEquals(v.get(4, 9), sparse.get(4, 9), 0);
+		assertEquals(v.norm1(), sparse.norm1(), 1E-12);
+	}
+
+	@Test
+	public void objectiveMatchesResidual() {
+		Matrix v = randomSparse(120, 80, 5);
+		SparseNonnegativeMatrixFactorisationED nmf = new SparseNonnegativeMatrixFactorisationED();
+		nmf.setK(6);
+		nmf.setMaxIterations(30);
+		nmf.process(v);
+
+		Matrix w = nmf.getW().toMatrix();
+		Matrix h = nmf.getHt().toMatrix().transpose();
+		assertEquals(v.minus(w.times(h)).normF(), nmf.getObjective(), 1E-8);
+		for (double value : w.getRowPackedCopy())
+			assertTrue(value >= 0);
+
+		// same seed, same factors
+		SparseNonnegativeMatrixFactorisationED again = new SparseNonnegativeMatrixFactorisationED();
+		again.setK(6);
+		again.setMaxIterations(30);
+		again.process(v);
+		assertArrayEquals(nmf.getW().getData(), again.getW().getData(), 0);
+	}
+}
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import tml.vectorspace.factorisation.MatrixFactorisation;
+import tml.vectorspace.factorisation.ProbabilisticLatentSemanticAnalysis;
+import tml.vectorspace.factorisation.SpaceDecomposition;
+import tml.vectorspace.factorisation.SparseProbabilisticLatentSemanticAnalysis;
+import Jama.Matrix;
+
+/**
+ * Checks that the sparse PLSA fits the same model as the dense PLSA when
+ * both start from the same parameters.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class SparseProbabilisticLatentSemanticAnalysisTest {
+
+	private static final int K = 4;
+
+	private static Matrix randomCounts(int m, int n, long seed) {
+		Random random = new Random(seed);
+		Matrix x = new Matrix(m, n);
+		for (int i = 0; i < m; i++)
+			for (int j = 0; j < n; j++)
+				if (random.nextDouble() < 0.2)
+					x.set(i, j, 1 + random.nextInt(3));
+		return x;
+	}
+
+	private static String[] ids(String prefix, int count) {
+		String[] ids = new String[count];
+		for (int i = 0; i < count; i++)
+			ids[i] = prefix + i;
+		return ids;
+	}
+
+	/**
+	 * Both factorisations start from the same random parameters
+	 */
+	private static void start(MatrixFactorisation plsa, Matrix x) {
+		Random random = new Random(11);
+		int m = x.getRowDimension();
+		int n = x.getColumnDimension();
+		SpaceDecomposition start = new SpaceDecomposition();
+		Matrix sk = new Matrix(K, K);
+		for (int c = 0; c < K; c++)
+			sk.set(c, c, 1);
+		start.setSkdata(sk.getArray());
+		start.setUkdata(new Matrix(m, K).getArray());
+		start.setVkdata(new Matrix(n, K).getArray());
+		for (double[] row : start.getUkdata())
+			for (int c = 0; c < K; c++)
+				row[c] = random.nextDouble();
+		for (double[] row : start.getVkdata())
+			for (int c = 0; c < K; c++)
+				row[c] = random.nextDouble();
+		plsa.setK(K);
+		plsa.setWarmStart(start, ids("w", m), ids("d", n), ids("w", m), ids("d", n));
+	}
+
+	/**
+	 * @return the log-likelihood of the counts with the parameters of a
+	 *         decomposition
+	 */
+	private static double logLikelihood(Matrix x, SpaceDecomposition decomposition) {
+		Matrix pwz = columnsL1(new Matrix(decomposition.getUkdata()));
+		Matrix pdz = new Matrix(decomposition.getVkdata());
+		double[][] pz = decomposition.getSkdata();
+		double likelihood = 0;
+		for (int i = 0; i < x.getRowDimension(); i++)
+			for (int j = 0; j < x.getColumnDimension(); j++) {
+				if (x.get(i, j) == 0)
+					continue;
+				double joint = 0;
+				for (int c = 0; c < K; c++)
+					joint += pz[c][c] * pwz.get(i, c) * pdz.get(j, c);
+				likelihood += x.get(i, j) * Math.log(joint);
+			}
+		return likelihood;
+	}
+
+	private static Matrix columnsL1(Matrix m) {
+		Matrix normalised = m.copy();
+		for (int c = 0; c < m.getColumnDimension(); c++) {
+			double sum = 0;
+			for (int i = 0; i < m.getRowDimension(); i++)
+				sum += m.get(i, c);
+			for (int i = 0; i < m.getRowDimension(); i++)
+				normalised.set(i, c, m.get(i, c) / sum);
+		}
+		return normalised;
+	}
+
+	@Test
+	public void sameModelAsDense() {
+		Matrix x = randomCounts(40, 30, 7);
+
+		// the dense PLSA always stops after its third iteration
+		ProbabilisticLatentSemanticAnalysis dense = new ProbabilisticLatentSemanticAnalysis();
+		start(dense, x);
+		dense.setMaxIterations(3);
+		dense.process(x);
+
+		SparseProbabilisticLatentSemanticAnalysis sparse = new SparseProbabilisticLatentSemanticAnalysis();
+		start(sparse, x);
+		sparse.setMaxIterations(3);
+		sparse.setTolerance(0);
+		sparse.process(x);
+		assertEquals(3, sparse.getIterations());
+
+		SpaceDecomposition d = dense.getDecomposition();
+		SpaceDecomposition s = sparse.getDecomposition();
+		assertArrayEquals(new Matrix(d.getSkdata()).getRowPackedCopy(),
+				new Matrix(s.getSkdata()).getRowPackedCopy(), 1E-6);
+		assertArrayEquals(columnsL1(new Matrix(d.getUkdata())).getRowPackedCopy(),
+				new Matrix(s.getUkdata()).getRowPackedCopy(), 1E-6);
+		assertArrayEquals(new Matrix(d.getVkdata()).getRowPackedCopy(),
+				new Matrix(s.getVkdata()).getRowPackedCopy(), 1E-6);
+		assertEquals(logLikelihood(x, d), logLikelihood(x, s), 1E-4);
+	}
+
+	@Test
+	public void heldOutIsOptIn() {
+		Matrix x = randomCounts(40, 30, 9);
+		SparseProbabilisticLatentSemanticAnalysis plsa = new SparseProbabilisticLatentSemanticAnalysis();
+		plsa.setK(K);
+		plsa.process(x);
+		assertTrue(Double.isNaN(plsa.getHeldOutLogLikelihood()));
+		assertEquals(1, plsa.getBeta(), 0);
+
+		plsa.setHeldOut(0.1);
+		plsa.process(x);
+		assertFalse(Double.isNaN(plsa.getHeldOutLogLikelihood()));
+	}
+}
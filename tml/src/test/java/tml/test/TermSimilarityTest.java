@@ -0,0 +1,75 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import tml.Configuration;
+import tml.corpus.Corpus;
+import tml.corpus.SearchResultsCorpus;
+import tml.vectorspace.operations.TermSimilarity;
+import tml.vectorspace.operations.results.TermSimilarityResult;
+
+/**
+ * Checks the neighbours of the terms in the introLSA corpus.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class TermSimilarityTest extends AbstractTmlIndexingTest {
+
+	private static Corpus corpus = null;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		AbstractTmlIndexingTest.setUpBeforeClass();
+		repository.addDocumentsInFolder(Configuration.getTmlFolder() + "/corpora/introLSA");
+		corpus = new SearchResultsCorpus("type:document");
+		corpus.load(repository);
+	}
+
+	@Test
+	public void neighboursOfOneTerm() throws Exception {
+		TermSimilarity operation = new TermSimilarity();
+		operation.setCorpus(corpus);
+		operation.setTerm(corpus.getTerms()[0]);
+		operation.setNeighbours(3);
+		operation.start();
+		assertEquals(3, operation.getResultsNumber());
+		double last = Double.MAX_VALUE;
+		for (int i = 0; i < 3; i++) {
+			TermSimilarityResult result = operation.getResults().get(i);
+			assertEquals(corpus.getTerms()[0], result.getTerm());
+			assertEquals(i + 1, result.getRank());
+			assertTrue(result.getSimilarity() <= last);
+			last = result.getSimilarity();
+		}
+	}
+
+	@Test
+	public void rerunKeepsOnlyTheLastResults() throws Exception {
+		TermSimilarity operation = new TermSimilarity();
+		operation.setCorpus(corpus);
+		operation.setNeighbours(2);
+		operation.start();
+		assertEquals(corpus.getTerms().length * 2, operation.getResultsNumber());
+		operation.start();
+		assertEquals(corpus.getTerms().length * 2, operation.getResultsNumber());
+	}
+}
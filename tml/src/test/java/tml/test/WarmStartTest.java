@@ -0,0 +1,134 @@
+/*******************************************************************************
+ *  Copyright 2007, 2009 Jorge Villalon (jorge.villalon@uai.cl)
+ *  
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License. 
+ *  You may obtain a copy of the License at 
+ *  
+ *  	http://www.apache.org/licenses/LICENSE-2.0 
+ *  	
+ *  Unless required by applicable law or agreed to in writing, software 
+ *  distributed under the License is distributed on an "AS IS" BASIS, 
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *  See the License for the specific language governing permissions and 
+ *  limitations under the License.
+ *******************************************************************************/
+package tml.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import tml.vectorspace.factorisation.MatrixFactorisation;
+import tml.vectorspace.factorisation.SparseNonnegativeMatrixFactorisationED;
+import tml.vectorspace.factorisation.SparseNonnegativeMatrixFactorisationKL;
+import tml.vectorspace.factorisation.SparseProbabilisticLatentSemanticAnalysis;
+import Jama.Matrix;
+
+/**
+ * Adds a few passages to a factorised corpus and checks that starting from
+ * the previous decomposition converges in at most half the iterations of
+ * starting from scratch, to the same objective.
+ *
+ * @author Jorge Villalon
+ *
+ */
+public class WarmStartTest {
+
+	private static final int TERMS = 150;
+	private static final int PASSAGES = 300;
+	private static final int ADDED = 6;
+	private static final int K = 5;
+
+	/**
+	 * Term counts drawn from K topics, every passage mixes a few of them
+	 */
+	private static Matrix corpus(long seed) {
+		Random random = new Random(seed);
+		Matrix topics = new Matrix(TERMS, K);
+		for (int i = 0; i < TERMS; i++)
+			topics.set(i, i % K, 1 + random.nextDouble());
+		Matrix counts = new Matrix(TERMS, PASSAGES + ADDED);
+		for (int j = 0; j < PASSAGES + ADDED; j++) {
+			int topic = random.nextInt(K);
+			for (int i = 0; i < TERMS; i++) {
+				double rate = topics.get(i, topic) + 0.3 * topics.get(i, (topic + 1) % K);
+				if (random.nextDouble() < 0.3)
+					counts.set(i, j, Math.round(rate * (1 + random.nextDouble())));
+			}
+		}
+		return counts;
+	}
+
+	private static String[] ids(String prefix, int count) {
+		String[] ids = new String[count];
+		for (int i = 0; i < count; i++)
+			ids[i] = prefix + i;
+		return ids;
+	}
+
+	/**
+	 * Factorises the first passages, then all of them cold and warm
+	 * 
+	 * @return the cold and warm factorisations of all the passages
+	 */
+	private static MatrixFactorisation[] run(MatrixFactorisation[] factorisations, Matrix counts) {
+		Matrix first = counts.getMatrix(0, TERMS - 1, 0, PASSAGES - 1);
+		MatrixFactorisation previous = factorisations[0];
+		previous.setK(K);
+		previous.process(first);
+
+		MatrixFactorisation cold = factorisations[1];
+		cold.setK(K);
+		cold.process(counts);
+
+		MatrixFactorisation warm = factorisations[2];
+		warm.setK(K);
+		warm.setWarmStart(previous.getDecomposition(), ids("t", TERMS), ids("p", PASSAGES),
+				ids("t", TERMS), ids("p", PASSAGES + ADDED));
+		warm.process(counts);
+		return new MatrixFactorisation[] { cold, warm };
+	}
+
+	@Test
+	public void nmfEuclidean() {
+		SparseNonnegativeMatrixFactorisationED[] nmf = new SparseNonnegativeMatrixFactorisationED[3];
+		for (int i = 0; i < nmf.length; i++) {
+			nmf[i] = new SparseNonnegativeMatrixFactorisationED();
+			nmf[i].setMaxIterations(2000);
+			nmf[i].setTolerance(1E-5);
+		}
+		run(nmf, corpus(3));
+		assertTrue(2 * nmf[2].getIterations() <= nmf[1].getIterations());
+		assertTrue(nmf[2].getObjective() <= nmf[1].getObjective() * (1 + 1E-3));
+	}
+
+	@Test
+	public void nmfDivergence() {
+		SparseNonnegativeMatrixFactorisationKL[] nmf = new SparseNonnegativeMatrixFactorisationKL[3];
+		for (int i = 0; i < nmf.length; i++) {
+			nmf[i] = new SparseNonnegativeMatrixFactorisationKL();
+			nmf[i].setMaxIterations(2000);
+			nmf[i].setTolerance(1E-5);
+		}
+		run(nmf, corpus(5));
+		assertTrue(2 * nmf[2].getIterations() <= nmf[1].getIterations());
+		assertTrue(nmf[2].getObjective() <= nmf[1].getObjective() * (1 + 1E-3));
+	}
+
+	@Test
+	public void plsa() {
+		SparseProbabilisticLatentSemanticAnalysis[] plsa = new SparseProbabilisticLatentSemanticAnalysis[3];
+		for (int i = 0; i < plsa.length; i++) {
+			plsa[i] = new SparseProbabilisticLatentSemanticAnalysis();
+			plsa[i].setMaxIterations(2000);
+			plsa[i].setTolerance(1E-6);
+		}
+		run(plsa, corpus(7));
+		assertTrue(2 * plsa[2].getIterations() <= plsa[1].getIterations());
+		// the log-likelihood is negative
+		assertTrue(plsa[2].getLogLikelihood() >= plsa[1].getLogLikelihood() * (1 + 1E-3));
+	}
+}